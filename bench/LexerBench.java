@@ -0,0 +1,188 @@
+/*
+ * File: LexerBench.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Throughput benchmark for the MyPL lexer. Generates large
+ *       MyPL sources (a mix of declarations, expressions, strings,
+ *       numbers, and comments, and a source made almost entirely of
+ *       identifiers and reserved words) and reports how many megabytes
+ *       and tokens of each the lexer gets through per second. Each
+ *       source is written to a temporary file, which is read through a
+ *       stream or (with --mmap) memory-mapped, and lexed a token at a
+ *       time, (with --columnar) in bulk into a token stream, or (with
+ *       --pipeline) on another thread. With --parse, the tokens are
+ *       parsed as well. The bytes allocated per run are reported along
+ *       with the throughput.
+ *       Usage: LexerBench [--mmap] [--columnar] [--pipeline] [--parse]
+ *              [runs] [MB] [source-name]
+ */
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import com.sun.management.ThreadMXBean;
+
+
+public class LexerBench {
+
+  // number of untimed runs (to let the JIT settle)
+  private static final int WARMUP = 3;
+
+  // true if the source file is memory-mapped instead of read
+  private static boolean mmap = false;
+
+  // true if the source is lexed into a token stream
+  private static boolean columnar = false;
+
+  // true if the source is lexed on another thread
+  private static boolean pipelined = false;
+
+  // true if the tokens are parsed as well
+  private static boolean parse = false;
+
+  // the benchmark sources, each generated by repeating a piece of
+  // code with @ replaced by a counter (so that identifiers and numbers
+  // vary)
+  private static final String[][] SOURCES = {
+    {"mixed",
+     "# function number @, with a comment to skip\n" +
+     "type Node@ {\n" +
+     "  var val = @\n" +
+     "  var weight = @.25\n" +
+     "  var Node@ next = nil\n" +
+     "}\n" +
+     "\n" +
+     "fun int sum_@(Node@ head, int limit) {\n" +
+     "  var total = 0\n" +
+     "  var node = head\n" +
+     "  while node != nil and total <= limit {\n" +
+     "    total = total + node.val * 2 - (node.val / 3) % 7\n" +
+     "    node = node.next\n" +
+     "  }\n" +
+     "  for i from 0 upto limit - 1 {\n" +
+     "    if i >= 10 or not (i < @) {\n" +
+     "      print(\"step \" + itos(i) + \" of sum_@\\n\")\n" +
+     "    }\n" +
+     "    elif i == 3 { total = total + 1 }\n" +
+     "    else { total = total - 1 }\n" +
+     "  }\n" +
+     "  return total\n" +
+     "}\n\n"},
+    // identifiers (many close to reserved words) and reserved words
+    {"identifiers",
+     "fun bool check_@(Node head, string name, int count) {\n" +
+     "  var vars = types + format + downtown + iffy + fork + nils\n" +
+     "  var integer_value = strings and bool_flag or not chars_@\n" +
+     "  while head != nil and found == false {\n" +
+     "    head = head.next_node\n" +
+     "    found = found_@ or head.value_@ == name\n" +
+     "    done_with_it(then_what, else_where, elif_not, return_value)\n" +
+     "    delete_node(new_node, const_value, void_result, doubled, upto_now)\n" +
+     "  }\n" +
+     "  return found and true or new_value_@ and not neg_item\n" +
+     "}\n\n"},
+  };
+
+  // generate a source of (at least) the given number of bytes
+  private static byte[] source(String code, int bytes) {
+    StringBuilder src = new StringBuilder(bytes + code.length() * 2);
+    for (int i = 0; src.length() < bytes; ++i)
+      src.append(code.replace("@", Integer.toString(i)));
+    return src.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  // bytes allocated so far by the current thread
+  private static long allocatedBytes() {
+    ThreadMXBean bean = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+    return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  // open a lexer over the source file
+  private static Lexer open(Path file) throws Exception {
+    if (mmap)
+      return new Lexer(file);
+    try (InputStream in = new FileInputStream(file.toFile())) {
+      return new Lexer(in);
+    }
+  }
+
+  // lex (and maybe parse) the whole source file
+  private static void run(Path file) throws Exception {
+    Lexer lexer = open(file);
+    if (columnar) {
+      TokenStream tokens = lexer.tokenize();
+      if (parse)
+        new ASTParser(tokens).parse();
+    }
+    else if (pipelined) {
+      TokenPipeline pipeline = new TokenPipeline(lexer);
+      if (parse)
+        new ASTParser(pipeline).parse();
+      else {
+        while (pipeline.nextToken().type() != TokenType.EOS)
+          ;
+      }
+    }
+    else if (parse)
+      new ASTParser(lexer).parse();
+    else {
+      while (lexer.nextToken().type() != TokenType.EOS)
+        ;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    while (args.length > 0 && args[0].startsWith("--")) {
+      if (args[0].equals("--mmap"))
+        mmap = true;
+      else if (args[0].equals("--columnar"))
+        columnar = true;
+      else if (args[0].equals("--pipeline"))
+        pipelined = true;
+      else if (args[0].equals("--parse"))
+        parse = true;
+      else
+        throw new IllegalArgumentException("unknown option " + args[0]);
+      args = Arrays.copyOfRange(args, 1, args.length);
+    }
+    int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    int megabytes = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+    String only = args.length > 2 ? args[2] : null;
+    for (String[] s : SOURCES) {
+      if (only != null && !only.equals(s[0]))
+        continue;
+      byte[] src = source(s[1], megabytes << 20);
+      Path file = Files.createTempFile("lexer-bench", ".mypl");
+      file.toFile().deleteOnExit();
+      Files.write(file, src);
+      for (int i = 0; i < WARMUP; ++i)
+        run(file);
+      // report the best of the timed runs (the least disturbed by JIT
+      // compilation and GC)
+      long best = Long.MAX_VALUE;
+      long allocated = Long.MAX_VALUE;
+      for (int i = 0; i < runs; ++i) {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        run(file);
+        best = Math.min(best, System.nanoTime() - start);
+        allocated = Math.min(allocated, allocatedBytes() - bytes);
+      }
+      // (the lexer thread's allocations aren't counted with
+      // --pipeline)
+      // (not counting the end-of-file token)
+      long tokens = open(file).tokenize().size() - 1;
+      System.out.printf("%-14s %10d bytes %10d tokens %9.1f ms/run " +
+                        "%8.1f MB/s %8.2f Mtokens/s %8.1f MB alloc/run%n",
+                        s[0], src.length, tokens, best / 1e6,
+                        src.length * 1e3 / best, tokens * 1e3 / best,
+                        allocated / 1e6);
+      Files.delete(file);
+    }
+  }
+
+}
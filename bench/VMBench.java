@@ -0,0 +1,429 @@
+/*
+ * File: VMBench.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Throughput benchmark for the MyPL VM. Runs a few loop-heavy
+ *       programs through the full pipeline (lex, parse, check,
+ *       generate) and reports the number of VM instructions executed
+ *       per second along with the bytes allocated while running.
+ *       Each program is run WARMUP times before the timed runs, and
+ *       the whole benchmark is repeated in FORKS fresh JVMs (so that
+ *       one JVM's JIT decisions don't decide the result), reporting
+ *       the median over the forks along with their range.
+ *       Usage: VMBench [--warmup=N] [--forks=N] [--fold] [--peephole]
+ *              [--fuse] [--jit] [--tiered[=N]] [--closures]
+ *              [--specialize] [--registers] [runs] [program-name]
+ */
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.lang.management.ManagementFactory;
+import com.sun.management.ThreadMXBean;
+
+
+public class VMBench {
+
+  // number of untimed runs per program (to let the JIT settle)
+  private static int warmup = 10;
+
+  // number of JVMs the benchmark is run in (0 to run in this JVM and
+  // print the raw results, as each fork does)
+  private static int forks = 3;
+
+  // true if the generated code is run through the peephole optimizer
+  private static boolean peephole = false;
+
+  // true if constants are folded before generating code
+  private static boolean fold = false;
+
+  // true if frequent sequences are fused into superinstructions
+  private static boolean fuse = false;
+
+  // true if functions are compiled to JVM bytecode
+  private static boolean jit = false;
+
+  // calls plus loop iterations before a function is compiled (0 for
+  // no tiered execution)
+  private static int tierThreshold = 0;
+
+  // true if programs are run on the closure engine instead of the VM
+  private static boolean closures = false;
+
+  // true if programs are run on the specializing interpreter
+  private static boolean specialize = false;
+
+  // true if programs are run on the register machine
+  private static boolean registers = false;
+
+  // the benchmark programs
+  private static final String[][] PROGRAMS = {
+    {"for-loop",
+     "fun void main() {\n" +
+     "  var s = 0\n" +
+     "  for i from 1 upto 2000000 {\n" +
+     "    s = s + (i % 7)\n" +
+     "  }\n" +
+     "  print(s)\n" +
+     "}\n"},
+    {"nested-while",
+     "fun void main() {\n" +
+     "  var i = 0\n" +
+     "  var s = 0\n" +
+     "  while i < 1000 {\n" +
+     "    var j = 0\n" +
+     "    while j < 1000 {\n" +
+     "      s = s + i * j - j\n" +
+     "      j = j + 1\n" +
+     "    }\n" +
+     "    i = i + 1\n" +
+     "  }\n" +
+     "  print(s)\n" +
+     "}\n"},
+    {"double-loop",
+     "fun void main() {\n" +
+     "  var x = 0.0\n" +
+     "  for i from 1 upto 1000000 {\n" +
+     "    x = x + 0.5 * 1.5\n" +
+     "  }\n" +
+     "  print(x)\n" +
+     "}\n"},
+    {"fib",
+     "fun int fib(int n) {\n" +
+     "  if n < 2 {\n" +
+     "    return n\n" +
+     "  }\n" +
+     "  return fib(n - 1) + fib(n - 2)\n" +
+     "}\n" +
+     "fun void main() {\n" +
+     "  print(fib(25))\n" +
+     "}\n"},
+    {"call-big",
+     "fun int f(int n) {\n" +
+     "  if n >= 0 {\n" +
+     "    return n\n" +
+     "  }\n" +
+     "  var x = n\n" +
+     "  x = x * 2 + 0\n" +
+     "  x = x * 3 + 1\n" +
+     "  x = x * 4 + 2\n" +
+     "  x = x * 5 + 3\n" +
+     "  x = x * 6 + 4\n" +
+     "  x = x * 7 + 5\n" +
+     "  x = x * 8 + 6\n" +
+     "  x = x * 2 + 7\n" +
+     "  x = x * 3 + 8\n" +
+     "  x = x * 4 + 9\n" +
+     "  x = x * 5 + 10\n" +
+     "  x = x * 6 + 11\n" +
+     "  x = x * 7 + 12\n" +
+     "  x = x * 8 + 13\n" +
+     "  x = x * 2 + 14\n" +
+     "  x = x * 3 + 15\n" +
+     "  x = x * 4 + 16\n" +
+     "  x = x * 5 + 17\n" +
+     "  x = x * 6 + 18\n" +
+     "  x = x * 7 + 19\n" +
+     "  x = x * 8 + 20\n" +
+     "  x = x * 2 + 21\n" +
+     "  x = x * 3 + 22\n" +
+     "  x = x * 4 + 23\n" +
+     "  x = x * 5 + 24\n" +
+     "  x = x * 6 + 25\n" +
+     "  x = x * 7 + 26\n" +
+     "  x = x * 8 + 27\n" +
+     "  x = x * 2 + 28\n" +
+     "  x = x * 3 + 29\n" +
+     "  x = x * 4 + 30\n" +
+     "  x = x * 5 + 31\n" +
+     "  x = x * 6 + 32\n" +
+     "  x = x * 7 + 33\n" +
+     "  x = x * 8 + 34\n" +
+     "  x = x * 2 + 35\n" +
+     "  x = x * 3 + 36\n" +
+     "  x = x * 4 + 37\n" +
+     "  x = x * 5 + 38\n" +
+     "  x = x * 6 + 39\n" +
+     "  return x\n" +
+     "}\n" +
+     "fun void main() {\n" +
+     "  var s = 0\n" +
+     "  for i from 1 upto 300000 {\n" +
+     "    s = s + f(i)\n" +
+     "  }\n" +
+     "  print(s)\n" +
+     "}\n"},
+    {"guarded-call",
+     "fun bool expensive(int n) {\n" +
+     "  var s = 0\n" +
+     "  for i from 1 upto 100 {\n" +
+     "    s = s + i\n" +
+     "  }\n" +
+     "  return s > n\n" +
+     "}\n" +
+     "fun void main() {\n" +
+     "  var c = 0\n" +
+     "  for i from 1 upto 300000 {\n" +
+     "    if ((i % 100) == 0) and expensive(i) {\n" +
+     "      c = c + 1\n" +
+     "    }\n" +
+     "  }\n" +
+     "  print(c)\n" +
+     "}\n"},
+    {"linked-list",
+     "type Node {\n" +
+     "  var int val = 0\n" +
+     "  var Node next = nil\n" +
+     "}\n" +
+     "fun void main() {\n" +
+     "  var Node head = nil\n" +
+     "  for i from 1 upto 1000 {\n" +
+     "    var n = new Node\n" +
+     "    n.val = i\n" +
+     "    n.next = head\n" +
+     "    head = n\n" +
+     "  }\n" +
+     "  var s = 0\n" +
+     "  for k from 1 upto 300 {\n" +
+     "    var Node curr = head\n" +
+     "    while curr != nil {\n" +
+     "      s = s + curr.val\n" +
+     "      curr = curr.next\n" +
+     "    }\n" +
+     "  }\n" +
+     "  print(s)\n" +
+     "}\n"}
+  };
+
+
+  // bytes allocated so far by the current thread
+  private static long allocatedBytes() {
+    ThreadMXBean bean = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+    return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  // a program ready to run (on the VM, the closure engine, the
+  // specializing interpreter, or the register machine)
+  private interface Runner {
+    void run() throws MyPLException;
+  }
+
+  // build a VM (or closure engine, specializing interpreter, or register
+  // machine) for the given program source
+  private static Runner build(String src) throws MyPLException {
+    if (specialize) {
+      InputStream in = new ByteArrayInputStream(src.getBytes());
+      Program program = new ASTParser(new Lexer(in)).parse();
+      TypeInfo typeInfo = new TypeInfo();
+      program.accept(new StaticChecker(typeInfo));
+      if (fold)
+        program.accept(new ConstantFolder(typeInfo));
+      SpecializingInterpreter interpreter = new SpecializingInterpreter();
+      program.accept(interpreter);
+      return interpreter::run;
+    }
+    if (closures) {
+      InputStream in = new ByteArrayInputStream(src.getBytes());
+      Program program = new ASTParser(new Lexer(in)).parse();
+      TypeInfo typeInfo = new TypeInfo();
+      program.accept(new StaticChecker(typeInfo));
+      if (fold)
+        program.accept(new ConstantFolder(typeInfo));
+      ClosureEngine engine = new ClosureEngine(typeInfo);
+      program.accept(engine);
+      return engine::run;
+    }
+    if (registers)
+      return new RegisterVM(buildVM(src, false))::run;
+    return buildVM(src, true)::run;
+  }
+
+  // build a VM for the given program source (compiling its functions
+  // as given by the options if compile is true)
+  private static VM buildVM(String src, boolean compile)
+    throws MyPLException
+  {
+    InputStream in = new ByteArrayInputStream(src.getBytes());
+    Program program = new ASTParser(new Lexer(in)).parse();
+    TypeInfo typeInfo = new TypeInfo();
+    program.accept(new StaticChecker(typeInfo));
+    if (fold)
+      program.accept(new ConstantFolder(typeInfo));
+    VM vm = new VM();
+    program.accept(new CodeGenerator(typeInfo, vm));
+    if (peephole)
+      new PeepholeOptimizer().optimize(vm);
+    if (fuse)
+      new InstructionFuser().fuse(vm);
+    if (compile) {
+      vm.setJit(jit);
+      vm.setTierThreshold(tierThreshold);
+    }
+    return vm;
+  }
+
+  // run the benchmark in this JVM, printing each program's raw
+  // results (name, instructions, best ns/run, bytes/run, and register
+  // instructions) on a line
+  private static void measure(int runs, String only, PrintStream out)
+    throws MyPLException
+  {
+    // discard program output
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    for (String[] p : PROGRAMS) {
+      if (only != null && !only.equals(p[0]))
+        continue;
+      for (int i = 0; i < warmup; ++i)
+        build(p[1]).run();
+      // the work done is measured in interpreted instructions (which
+      // compiled code and the tree-walking engines don't count)
+      VM counter = buildVM(p[1], false);
+      counter.run();
+      long instrs = counter.instructionCount();
+      // take the best of the timed runs (the least disturbed by JIT
+      // compilation and GC)
+      long best = Long.MAX_VALUE;
+      long allocated = Long.MAX_VALUE;
+      for (int i = 0; i < runs; ++i) {
+        Runner runner = build(p[1]);
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        runner.run();
+        best = Math.min(best, System.nanoTime() - start);
+        allocated = Math.min(allocated, allocatedBytes() - bytes);
+      }
+      // (the register machine runs fewer instructions for the same work)
+      long regInstrs = 0;
+      if (registers) {
+        RegisterVM machine = new RegisterVM(buildVM(p[1], false));
+        machine.run();
+        regInstrs = machine.instructionCount();
+      }
+      out.println(p[0] + " " + instrs + " " + best + " " + allocated + " " +
+                  regInstrs);
+    }
+  }
+
+  // run the benchmark in the given number of fresh JVMs (with the
+  // given arguments), returning each program's raw results by fork
+  private static Map<String,List<long[]>> fork(int count, String[] args)
+    throws Exception
+  {
+    List<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" +
+                File.separator + "java");
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add("VMBench");
+    command.add("--forks=0");
+    command.addAll(Arrays.asList(args));
+    Map<String,List<long[]>> results = new LinkedHashMap<>();
+    for (int i = 0; i < count; ++i) {
+      Process process = new ProcessBuilder(command)
+        .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+      BufferedReader in = new BufferedReader
+        (new InputStreamReader(process.getInputStream()));
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] fields = line.split(" ");
+        long[] values = new long[fields.length - 1];
+        for (int j = 1; j < fields.length; ++j)
+          values[j - 1] = Long.parseLong(fields[j]);
+        results.computeIfAbsent(fields[0], k -> new ArrayList<>())
+          .add(values);
+      }
+      if (process.waitFor() != 0)
+        throw new IllegalStateException("fork " + i + " failed");
+    }
+    return results;
+  }
+
+  // the median of the given values
+  private static long median(long[] values) {
+    long[] sorted = values.clone();
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+
+  public static void main(String[] args) throws Exception {
+    List<String> forwarded = new ArrayList<>();
+    while (args.length > 0 && args[0].startsWith("--")) {
+      if (args[0].startsWith("--warmup="))
+        warmup = Integer.parseInt(args[0].substring(9));
+      else if (args[0].startsWith("--forks="))
+        forks = Integer.parseInt(args[0].substring(8));
+      else if (args[0].equals("--peephole"))
+        peephole = true;
+      else if (args[0].equals("--fold"))
+        fold = true;
+      else if (args[0].equals("--fuse"))
+        fuse = true;
+      else if (args[0].equals("--jit"))
+        jit = true;
+      else if (args[0].equals("--tiered"))
+        tierThreshold = 1000;
+      else if (args[0].startsWith("--tiered="))
+        tierThreshold = Integer.parseInt(args[0].substring(9));
+      else if (args[0].equals("--closures"))
+        closures = true;
+      else if (args[0].equals("--specialize"))
+        specialize = true;
+      else if (args[0].equals("--registers"))
+        registers = true;
+      else
+        throw new IllegalArgumentException("unknown option " + args[0]);
+      if (!args[0].startsWith("--forks="))
+        forwarded.add(args[0]);
+      args = Arrays.copyOfRange(args, 1, args.length);
+    }
+    int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    String only = args.length > 1 ? args[1] : null;
+    if (forks == 0) {
+      PrintStream out = System.out;
+      measure(runs, only, out);
+      System.setOut(out);
+      return;
+    }
+    forwarded.addAll(Arrays.asList(args));
+    Map<String,List<long[]>> results =
+      fork(forks, forwarded.toArray(new String[0]));
+    for (Map.Entry<String,List<long[]>> e : results.entrySet()) {
+      List<long[]> byFork = e.getValue();
+      long instrs = byFork.get(0)[0];
+      long[] times = new long[byFork.size()];
+      long[] allocs = new long[byFork.size()];
+      for (int i = 0; i < times.length; ++i) {
+        times[i] = byFork.get(i)[1];
+        allocs[i] = byFork.get(i)[2];
+      }
+      long time = median(times);
+      long fastest = Arrays.stream(times).min().getAsLong();
+      long slowest = Arrays.stream(times).max().getAsLong();
+      System.out.printf("%-14s %12d instrs %9.1f ms/run %8.2f Minstr/s " +
+                        "(%.2f-%.2f) ", e.getKey(), instrs, time / 1e6,
+                        instrs * 1e3 / time, instrs * 1e3 / slowest,
+                        instrs * 1e3 / fastest);
+      if (registers)
+        System.out.printf("%12d reg-instrs ", byFork.get(0)[3]);
+      // (the closure engine and specializing interpreter run programs
+      // on a thread of their own, whose allocations aren't seen here)
+      if (closures || specialize)
+        System.out.println();
+      else {
+        long allocated = median(allocs);
+        System.out.printf("%10.1f KB/run %7.3f B/instr%n",
+                          allocated / 1024.0, (double)allocated / instrs);
+      }
+    }
+  }
+
+}
@@ -15,15 +15,55 @@ public class ASTParser {
   private Token currToken = null;
   private final boolean DEBUG = false;
 
+  // the tokens, when parsing a token stream instead of pulling tokens
+  // from the lexer, and the index of the current token
+  private TokenStream tokens = null;
+  private int cursor = -1;
+
+  // the tokens, when lexing on another thread
+  private TokenPipeline pipeline = null;
+
   /** 
    */
   public ASTParser(Lexer lexer) {
     this.lexer = lexer;
   }
 
+  /**
+   * Parses the tokens of a token stream (see Lexer.tokenize). The
+   * current token is only made into a Token object when the parser
+   * keeps it (or reports an error at it).
+   */
+  public ASTParser(TokenStream tokens) {
+    this.tokens = tokens;
+  }
+
+  /**
+   * Parses the tokens of a pipeline (see TokenPipeline), which lexes
+   * the source on another thread while the parser runs. The pipeline
+   * is closed when parsing ends.
+   */
+  public ASTParser(TokenPipeline pipeline) {
+    this.pipeline = pipeline;
+  }
+
   /**
    */
   public Program parse() throws MyPLException
+  {
+    if (pipeline != null) {
+      try {
+        return parseProgram();
+      }
+      finally {
+        pipeline.close();
+      }
+    }
+    return parseProgram();
+  }
+
+  // parse the tokens (as parse)
+  private Program parseProgram() throws MyPLException
   {
     // <program> ::= (<tdecl> | <fdecl>)*
     Program progNode = new Program();
@@ -43,9 +83,29 @@ public class ASTParser {
   // Helper Functions
   //------------------------------------------------------------
 
-  // get next token
+  // get next token (staying on the end-of-file token of a token
+  // stream, or reporting the error that ended the stream)
   private void advance() throws MyPLException {
-    currToken = lexer.nextToken();
+    if (pipeline != null) {
+      currToken = pipeline.nextToken();
+      return;
+    }
+    if (tokens == null) {
+      currToken = lexer.nextToken();
+      return;
+    }
+    currToken = null;
+    if (cursor + 1 < tokens.size())
+      ++cursor;
+    else if (tokens.error() != null)
+      throw tokens.error();
+  }
+
+  // get the current token
+  private Token currToken() {
+    if (currToken == null)
+      currToken = tokens.token(cursor);
+    return currToken;
   }
 
   // advance if current token is of given type, otherwise error
@@ -58,14 +118,16 @@ public class ASTParser {
 
   // true if current token is of type t
   private boolean match(TokenType t) {
+    if (tokens != null)
+      return tokens.type(cursor) == t;
     return currToken.type() == t;
   }
   
   // throw a formatted parser error
   private void error(String msg) throws MyPLException {
-    String s = msg + ", found '" + currToken.lexeme() + "' ";
-    s += "at line " + currToken.line();
-    s += ", column " + currToken.column();
+    String s = msg + ", found '" + currToken().lexeme() + "' ";
+    s += "at line " + currToken().line();
+    s += ", column " + currToken().column();
     throw MyPLException.ParseError(s);
   }
 
@@ -121,7 +183,7 @@ public class ASTParser {
     // <tdel> ::= TYPE ID LBRACE <vdelcs> RBRACE
     TypeDecl t = new TypeDecl();
     eat(TokenType.TYPE,"expecting type");
-    t.typeName = currToken;
+    t.typeName = currToken();
     eat(TokenType.ID,"expecting id");
     eat(TokenType.LBRACE,"expecting {");
     List<VarDeclStmt> vlist = new ArrayList<>();
@@ -136,12 +198,12 @@ public class ASTParser {
     FunDecl f = new FunDecl();
     eat(TokenType.FUN,"expecting fun");
     if(match(TokenType.ID) || isPrimitiveType() || match(TokenType.VOID_TYPE)){
-      f.returnType = currToken;
+      f.returnType = currToken();
       advance();
     } else {
       error("expecting function return type");
     }
-    f.funName = currToken;
+    f.funName = currToken();
     eat(TokenType.ID,"expecting id");
     List<FunParam> p = new ArrayList<>();
     eat(TokenType.LPAREN,"expecting (");
@@ -174,17 +236,17 @@ public class ASTParser {
     eat(TokenType.VAR,"expecting var");
     if(isPrimitiveType()){
       //dtype();
-      v.typeName = currToken;
+      v.typeName = currToken();
       advance();
-      v.varName = currToken;
+      v.varName = currToken();
       eat(TokenType.ID,"expecting id");
     } else if(match(TokenType.ID)){
-      Token curr = currToken;
+      Token curr = currToken();
       advance();
       // v.typeName = currToken;
       if(match(TokenType.ID)){
         v.typeName = curr;
-        v.varName = currToken;
+        v.varName = currToken();
         advance();
       } else {
         v.varName = curr;
@@ -230,7 +292,7 @@ public class ASTParser {
       error("expecting expression");
     }
     if(isOperator()){
-      e.op = currToken;
+      e.op = currToken();
       advance(); //eat operator
       Expr re = new Expr();
       expr(re);
@@ -242,17 +304,17 @@ public class ASTParser {
     //<rvalue> ::= <pval> | NIL | NEW ID | <idrval> | <call_expr> | NEG <expr>
     if(isPrimitiveValue() || match(TokenType.NIL)){
       SimpleRValue s = new SimpleRValue();
-      s.value = currToken;
+      s.value = currToken();
       advance();
       r.rvalue = s;
     } else if(match(TokenType.NEW)){
       NewRValue n = new NewRValue();
       advance();
-      n.typeName = currToken;
+      n.typeName = currToken();
       eat(TokenType.ID,"expecting id");
       r.rvalue = n;
     } else if(match(TokenType.ID)){
-      Token curr = currToken;
+      Token curr = currToken();
       advance();
       if(match(TokenType.DOT)){
         //<idrval> ::= ID ( DOT ID )
@@ -260,7 +322,7 @@ public class ASTParser {
         i.path.add(curr);
         while(match(TokenType.DOT)){
           advance(); //eat .
-          i.path.add(currToken);
+          i.path.add(currToken());
           eat(TokenType.ID, "expecting id");
         }
         r.rvalue = i;
@@ -314,9 +376,9 @@ public class ASTParser {
       advance();
     }
     if(match(TokenType.ID) || isPrimitiveType()){
-      f.paramType = currToken;
+      f.paramType = currToken();
       advance();
-      f.paramName = currToken;
+      f.paramName = currToken();
       eat(TokenType.ID,"expecting id");
       p.add(f);
       while(match(TokenType.COMMA)){
@@ -327,12 +389,12 @@ public class ASTParser {
           advance();
         }
         if(match(TokenType.ID) || isPrimitiveType()){
-          f.paramType = currToken;
+          f.paramType = currToken();
           advance();
         } else {
           error("expecting dtype");
         }
-        f.paramName = currToken;
+        f.paramName = currToken();
         eat(TokenType.ID, "expecting id");
         p.add(f);
       }
@@ -355,7 +417,7 @@ public class ASTParser {
       s.add(v);
     } else if(match(TokenType.ID)){
       //either assign or call expr
-      Token curr = currToken;
+      Token curr = currToken();
       advance();
       //call_expr
       if(match(TokenType.LPAREN)){
@@ -373,7 +435,7 @@ public class ASTParser {
         a.lvalue.add(curr);
         while(match(TokenType.DOT)){
           advance();
-          a.lvalue.add(currToken);
+          a.lvalue.add(currToken());
           eat(TokenType.ID,"expecting id");
         }
         eat(TokenType.ASSIGN,"expecting =");
@@ -464,7 +526,7 @@ public class ASTParser {
   private void for_stmt(ForStmt f) throws MyPLException {
     //<for_stmt> ::= FOR ID FROM <expr> ( UPTO | DOWNTO ) <expr> LBRACE <stmts> RBRACE
     eat(TokenType.FOR,"expecting for");
-    f.varName = currToken;
+    f.varName = currToken();
     eat(TokenType.ID,"expecting id");
     eat(TokenType.FROM,"expecting from");
     Expr e = new Expr();
@@ -501,7 +563,7 @@ public class ASTParser {
   private void delete_stmt(DeleteStmt d) throws MyPLException {
     //<delete_stmt> ::= DELETE ID
     eat(TokenType.DELETE,"expecting delete");
-    d.varName = currToken;
+    d.varName = currToken();
     eat(TokenType.ID, "expecting id");
   }
   
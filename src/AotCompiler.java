@@ -0,0 +1,808 @@
+/*
+ * File: AotCompiler.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Ahead-of-time compiler from a checked MyPL program to a Java
+ *       class (packaged in a runnable jar).
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+
+/**
+ * Translates a checked program to the Java source of a single class,
+ * with one static method per function and one nested final class per
+ * record type, and compiles it with the system Java compiler. The
+ * class has a main method, and carries its own (small) runtime, so the
+ * jar written for it runs without the interpreter and without lexing,
+ * parsing, or checking the program again. Values that can't be nil
+ * (see NilAnalysis) are kept in Java primitives, and the others are
+ * boxed, with nil as null. Programs behave as they do on the VM: a nil
+ * dereferenced (a NullPointerException) is reported as a nil reference
+ * error, and other runtime errors with the VM's messages (without
+ * naming the instruction).
+ */
+public class AotCompiler implements Visitor {
+
+  // the name of the generated class if none is given
+  public static final String DEFAULT_CLASS_NAME = "MyPLProgram";
+
+  // the runtime support of the generated class (records, built-in
+  // functions, and running the program)
+  private static final String[] RUNTIME = {
+    "static int nextId = 1111;",
+    "",
+    "// a runtime error",
+    "public static final class MyPLError extends RuntimeException {",
+    "  MyPLError(String message) {",
+    "    super(message);",
+    "  }",
+    "}",
+    "",
+    "// a record (printed as its object-id)",
+    "static class MyPLRecord {",
+    "  final int id = nextId++;",
+    "  boolean freed = false;",
+    "",
+    "  public String toString() {",
+    "    return Integer.toString(id);",
+    "  }",
+    "}",
+    "",
+    "// the (live) record referenced by a value",
+    "static <T extends MyPLRecord> T live(T r) {",
+    "  if (r.freed)",
+    "    throw new MyPLError(\"invalid heap access\");",
+    "  return r;",
+    "}",
+    "",
+    "static void free(MyPLRecord r) {",
+    "  r.freed = true;",
+    "}",
+    "",
+    "// a value as a condition (nil is false)",
+    "static boolean test(Boolean b) {",
+    "  return b != null && b;",
+    "}",
+    "",
+    "// true if values y and x are equal (see VM.equal)",
+    "static boolean eq(Object y, Object x) {",
+    "  if (y instanceof Double && x instanceof Double)",
+    "    return ((Double)y).doubleValue() == ((Double)x).doubleValue();",
+    "  return y == null ? x == null : y.equals(x);",
+    "}",
+    "",
+    "// an operator applied to nil",
+    "static Object nilRef() {",
+    "  throw new NullPointerException();",
+    "}",
+    "",
+    "static Object print(int i) {",
+    "  System.out.print(i);",
+    "  return null;",
+    "}",
+    "",
+    "static Object print(double d) {",
+    "  System.out.print(d);",
+    "  return null;",
+    "}",
+    "",
+    "static Object print(boolean b) {",
+    "  System.out.print(b);",
+    "  return null;",
+    "}",
+    "",
+    "static Object print(Object o) {",
+    "  System.out.print(o == null ? \"nil\" : o.toString());",
+    "  return null;",
+    "}",
+    "",
+    "static String read() {",
+    "  return new java.util.Scanner(System.in).nextLine();",
+    "}",
+    "",
+    "static String get(int i, String s) {",
+    "  if (i < 0 || i >= s.length())",
+    "    throw new MyPLError(\"invalid index \" + i + \" for string \" + s);",
+    "  return s.substring(i, i + 1);",
+    "}",
+    "",
+    "static int stoi(String s) {",
+    "  try {",
+    "    return (int)Double.parseDouble(s);",
+    "  } catch (NumberFormatException e) {",
+    "    throw new MyPLError(\"incompatible string \" + s + \" to parse as int\");",
+    "  }",
+    "}",
+    "",
+    "static double stod(String s) {",
+    "  try {",
+    "    return Double.parseDouble(s);",
+    "  } catch (NumberFormatException e) {",
+    "    throw new MyPLError(\"incompatible string \" + s + \" to parse as double\");",
+    "  }",
+    "}",
+    "",
+    "static double itod(int i) {",
+    "  return i;",
+    "}",
+    "",
+    "static int dtoi(double d) {",
+    "  return (int)d;",
+    "}",
+    "",
+    "static String itos(int i) {",
+    "  return Integer.toString(i);",
+    "}",
+    "",
+    "static String dtos(double d) {",
+    "  return Double.toString(d);",
+    "}",
+    "",
+    "// run the program (on a thread with a large stack, since calls use",
+    "// the Java stack), throwing a MyPLError on a runtime error",
+    "public static void run() {",
+    "  nextId = 1111;",
+    "  Throwable[] thrown = new Throwable[1];",
+    "  Thread thread = new Thread(null, () -> {",
+    "      try {",
+    "        m_main();",
+    "      } catch (NullPointerException e) {",
+    "        thrown[0] = new MyPLError(\"Nil reference\");",
+    "      } catch (StackOverflowError e) {",
+    "        thrown[0] = new MyPLError(\"Stack overflow\");",
+    "      } catch (Throwable e) {",
+    "        thrown[0] = e;",
+    "      }",
+    "    }, \"mypl\", 1L << 30);",
+    "  thread.start();",
+    "  while (thread.isAlive()) {",
+    "    try {",
+    "      thread.join();",
+    "    } catch (InterruptedException e) {",
+    "    }",
+    "  }",
+    "  if (thrown[0] instanceof RuntimeException)",
+    "    throw (RuntimeException)thrown[0];",
+    "  else if (thrown[0] instanceof Error)",
+    "    throw (Error)thrown[0];",
+    "}",
+    "",
+    "public static void main(String[] args) {",
+    "  try {",
+    "    run();",
+    "  } catch (MyPLError e) {",
+    "    System.out.flush();",
+    "    System.err.println(\"VM_ERROR: \" + e.getMessage());",
+    "    System.exit(1);",
+    "  }",
+    "}",
+  };
+
+  // the type information from the static checker
+  private TypeInfo typeInfo;
+
+  // the name of the generated class
+  private String className;
+
+  // the values that can be nil
+  private NilAnalysis nils = null;
+
+  // the program's functions and types
+  private Map<String,FunDecl> funDecls = new HashMap<>();
+  private Map<String,TypeDecl> typeDecls = new HashMap<>();
+
+  // the generated source and the current indentation
+  private StringBuilder out = new StringBuilder();
+  private int indent = 0;
+
+  // the function (or record constructor) being generated: its
+  // variables (in scopes, mapped to their Java names), the types of the
+  // Java variables declared so far, and the variables bound for the
+  // rest of the function (as in the VM, a variable declared again
+  // replaces the one before it until the function ends, even after its
+  // block), whose declarations are hoisted to the start of the method
+  private Deque<Map<String,String>> scopes = new ArrayDeque<>();
+  private Map<String,String> varTypes = null;
+  private Map<String,String> bindings = null;
+  private List<String> hoisted = null;
+
+  // true if the statement being generated is the last of its block
+  private boolean lastInBlock = false;
+
+  // the Java code of the last expression visited
+  private String currExpr = null;
+
+
+  /**
+   * Creates a compiler for a program checked with the given type
+   * information. The source is generated by visiting the program.
+   * @param typeInfo the type information from the static checker
+   * @param className the name of the generated class
+   */
+  public AotCompiler(TypeInfo typeInfo, String className) {
+    this.typeInfo = typeInfo;
+    this.className = className;
+  }
+
+  /**
+   * Returns the generated Java source.
+   */
+  public String source() {
+    return out.toString();
+  }
+
+  /**
+   * Compiles the generated source in memory.
+   * @return the class files by class name (the generated class and
+   *         its nested classes)
+   * @throws MyPLException if there is no Java compiler or the source
+   *         doesn't compile
+   */
+  public Map<String,byte[]> compile() throws MyPLException {
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    if (javac == null)
+      throw MyPLException.VMError("no Java compiler (a JDK is needed)");
+    DiagnosticCollector<JavaFileObject> diagnostics =
+      new DiagnosticCollector<>();
+    URI uri = URI.create("string:///" + className + ".java");
+    JavaFileObject src =
+      new SimpleJavaFileObject(uri, JavaFileObject.Kind.SOURCE) {
+        @Override
+        public CharSequence getCharContent(boolean ignoreErrors) {
+          return source();
+        }
+      };
+    // the class files are kept in memory
+    Map<String,ByteArrayOutputStream> outputs = new TreeMap<>();
+    StandardJavaFileManager standard =
+      javac.getStandardFileManager(diagnostics, null, null);
+    JavaFileManager files =
+      new ForwardingJavaFileManager<StandardJavaFileManager>(standard) {
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location,
+                                                   String name,
+                                                   JavaFileObject.Kind kind,
+                                                   FileObject sibling)
+        {
+          URI classUri = URI.create("mem:///" + name + kind.extension);
+          return new SimpleJavaFileObject(classUri, kind) {
+            @Override
+            public OutputStream openOutputStream() {
+              ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+              outputs.put(name, bytes);
+              return bytes;
+            }
+          };
+        }
+      };
+    List<String> options = Arrays.asList("-nowarn", "-proc:none");
+    boolean ok = javac.getTask(null, files, diagnostics, options, null,
+                               Arrays.asList(src)).call();
+    if (!ok) {
+      String m = "generated code failed to compile";
+      for (Diagnostic<?> d : diagnostics.getDiagnostics())
+        if (d.getKind() == Diagnostic.Kind.ERROR) {
+          m += " (line " + d.getLineNumber() + ": " + d.getMessage(null) + ")";
+          break;
+        }
+      throw MyPLException.VMError(m);
+    }
+    Map<String,byte[]> classes = new TreeMap<>();
+    for (Map.Entry<String,ByteArrayOutputStream> e : outputs.entrySet())
+      classes.put(e.getKey(), e.getValue().toByteArray());
+    return classes;
+  }
+
+  /**
+   * Compiles the generated source and writes the classes to a jar
+   * that runs the program (with java -jar).
+   * @param path the jar file to write
+   * @throws MyPLException if the source doesn't compile or the jar
+   *         can't be written
+   */
+  public void writeJar(String path) throws MyPLException {
+    Map<String,byte[]> classes = compile();
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, className);
+    try (JarOutputStream jar =
+         new JarOutputStream(new FileOutputStream(path), manifest))
+    {
+      for (Map.Entry<String,byte[]> e : classes.entrySet()) {
+        jar.putNextEntry(new JarEntry(e.getKey().replace('.', '/') + ".class"));
+        jar.write(e.getValue());
+        jar.closeEntry();
+      }
+    } catch (IOException e) {
+      throw MyPLException.VMError("unable to write " + path + ": " +
+                                  e.getMessage());
+    }
+  }
+
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // add a line of source
+  private void line(String s) {
+    for (int i = 0; i < indent; ++i)
+      out.append("  ");
+    out.append(s).append("\n");
+  }
+
+  // the Java code for an expression
+  private String build(ASTNode node) throws MyPLException {
+    node.accept(this);
+    return currExpr;
+  }
+
+  // true if values of the type are kept in Java primitives
+  private static boolean isPrimitive(String type) {
+    return "int".equals(type) || "double".equals(type) || "bool".equals(type);
+  }
+
+  // the Java type for values of a MyPL type
+  private static String javaType(String type, boolean nilable) {
+    switch (type) {
+    case "int": return nilable ? "Integer" : "int";
+    case "double": return nilable ? "Double" : "double";
+    case "bool": return nilable ? "Boolean" : "boolean";
+    case "char":
+    case "string": return "String";
+    case "void": return "Object";
+    default: return "T_" + type;
+    }
+  }
+
+  // true if an expression's value is kept in a Java primitive
+  private boolean isUnboxed(ASTNode node) {
+    return isPrimitive(typeInfo.typeOf(node)) && !nils.isNilableExpr(node);
+  }
+
+  // the Java code for a condition (nil is false)
+  private String condition(ASTNode node) throws MyPLException {
+    String c = build(node);
+    return isUnboxed(node) ? c : "test(" + c + ")";
+  }
+
+  // the Java code for an operand of and/or (nil is an error, which
+  // unboxing a null reports)
+  private String operand(ASTNode node) throws MyPLException {
+    String c = build(node);
+    return isUnboxed(node) ? c : "((Boolean)" + c + ").booleanValue()";
+  }
+
+  // start a function (or record constructor)
+  private void startFunction() {
+    varTypes = new HashMap<>();
+    bindings = new HashMap<>();
+    hoisted = new ArrayList<>();
+    scopes.push(new HashMap<>());
+  }
+
+  // declare a variable of the given type, returning the start of its
+  // Java declaration (its Java name, which is unique in the function
+  // since Java doesn't allow shadowing, and its type unless the
+  // declaration is hoisted)
+  private String declare(String name, String type, boolean nilable) {
+    String javaName = "v_" + name;
+    for (int i = 2; varTypes.containsKey(javaName); ++i)
+      javaName = "v_" + name + "_" + i;
+    varTypes.put(javaName, type);
+    scopes.peek().put(name, javaName);
+    String javaType = javaType(type, nilable);
+    boolean hoist = bindings.containsKey(name);
+    bindings.put(name, javaName);
+    if (!hoist)
+      return javaType + " " + javaName;
+    String init = "null";
+    if (javaType.equals("int"))
+      init = "0";
+    else if (javaType.equals("double"))
+      init = "0.0";
+    else if (javaType.equals("boolean"))
+      init = "false";
+    hoisted.add(javaType + " " + javaName + " = " + init + ";");
+    return javaName;
+  }
+
+  // the Java name of a variable
+  private String lookup(String name) throws MyPLException {
+    String javaName = bindings.get(name);
+    // the checker found the variable in scope, so it can only have been
+    // replaced by one of another type in a block that ended
+    for (Map<String,String> scope : scopes) {
+      if (scope.containsKey(name)) {
+        String checked = scope.get(name);
+        if (!varTypes.get(checked).equals(varTypes.get(javaName)))
+          throw MyPLException.VMError("variable " + name + " declared " +
+                                      "again as a different type");
+        break;
+      }
+    }
+    return javaName;
+  }
+
+  // generate a block of statements (in a scope of its own)
+  private void block(List<Stmt> stmts) throws MyPLException {
+    scopes.push(new HashMap<>());
+    for (int i = 0; i < stmts.size(); ++i) {
+      Stmt s = stmts.get(i);
+      lastInBlock = i == stmts.size() - 1;
+      s.accept(this);
+      if (s instanceof CallExpr)
+        line(currExpr + ";");
+    }
+    scopes.pop();
+  }
+
+  // the Java code for a path of record fields starting from a variable
+  // (up to the given length)
+  private String path(List<Token> path, int length) throws MyPLException {
+    String e = lookup(path.get(0).lexeme());
+    for (int i = 1; i < length; ++i)
+      e = "live(" + e + ").f_" + path.get(i).lexeme();
+    return e;
+  }
+
+  // the declaration of the field at the end of a path (of a variable
+  // of the given type)
+  private VarDeclStmt field(List<Token> path, String type) {
+    VarDeclStmt decl = null;
+    for (int i = 1; i < path.size(); ++i) {
+      for (VarDeclStmt v : typeDecls.get(type).vdecls)
+        if (v.varName.lexeme().equals(path.get(i).lexeme()))
+          decl = v;
+      type = nils.typeOf(decl);
+    }
+    return decl;
+  }
+
+  // true if an expression is made only of literals (a constant in
+  // Java, which as a while condition could make code unreachable)
+  private static boolean isConstant(Expr e) {
+    if (e == null)
+      return true;
+    else if (e.first instanceof ComplexTerm)
+      return isConstant(((ComplexTerm)e.first).expr) && isConstant(e.rest);
+    RValue r = ((SimpleTerm)e.first).rvalue;
+    return r instanceof SimpleRValue &&
+      ((SimpleRValue)r).value.type() != TokenType.NIL && isConstant(e.rest);
+  }
+
+  // the value of a char or string literal
+  private static String unescape(String s) {
+    s = s.replace("\\n", "\n");
+    s = s.replace("\\t", "\t");
+    s = s.replace("\\r", "\r");
+    return s.replace("\\\\", "\\");
+  }
+
+  // a string as a Java string literal
+  private static String javaString(String s) {
+    StringBuilder b = new StringBuilder("\"");
+    for (char c : s.toCharArray()) {
+      if (c == '"' || c == '\\')
+        b.append('\\').append(c);
+      else if (c < ' ' || c == 0x7f)
+        // (octal, since a unicode escape of a line break ends the line)
+        b.append(String.format("\\%03o", (int)c));
+      else
+        b.append(c);
+    }
+    return b.append('"').toString();
+  }
+
+  // a double as a Java expression (folded constants can be infinite or
+  // NaN, which have no literal)
+  private static String javaDouble(double d) {
+    if (Double.isNaN(d))
+      return "Double.NaN";
+    else if (d == Double.POSITIVE_INFINITY)
+      return "Double.POSITIVE_INFINITY";
+    else if (d == Double.NEGATIVE_INFINITY)
+      return "Double.NEGATIVE_INFINITY";
+    return Double.toString(d);
+  }
+
+
+  //----------------------------------------------------------------------
+  // VISITOR FUNCTIONS
+  //----------------------------------------------------------------------
+
+  public void visit(Program node) throws MyPLException {
+    nils = new NilAnalysis(typeInfo);
+    node.accept(nils);
+    for (TypeDecl tdecl : node.tdecls)
+      typeDecls.put(tdecl.typeName.lexeme(), tdecl);
+    for (FunDecl fdecl : node.fdecls)
+      funDecls.put(fdecl.funName.lexeme(), fdecl);
+    line("// Generated from a MyPL program by AotCompiler.");
+    line("");
+    line("public class " + className + " {");
+    ++indent;
+    for (TypeDecl tdecl : node.tdecls)
+      tdecl.accept(this);
+    for (FunDecl fdecl : node.fdecls)
+      fdecl.accept(this);
+    line("");
+    for (String s : RUNTIME)
+      line(s);
+    --indent;
+    line("}");
+  }
+
+  public void visit(TypeDecl node) throws MyPLException {
+    String name = node.typeName.lexeme();
+    String type = javaType(name, true);
+    line("");
+    line("static final class " + type + " extends MyPLRecord {");
+    ++indent;
+    for (VarDeclStmt v : node.vdecls)
+      line(javaType(nils.typeOf(v), nils.isNilable(v)) + " f_" +
+           v.varName.lexeme() + ";");
+    --indent;
+    line("}");
+    // the fields are initialized in order (as variables, with the
+    // fields before them in scope) when the record is created
+    line("");
+    line("static " + type + " n_" + name + "() {");
+    ++indent;
+    startFunction();
+    line(type + " obj = new " + type + "();");
+    for (VarDeclStmt v : node.vdecls) {
+      v.accept(this);
+      line("obj.f_" + v.varName.lexeme() + " = " +
+           lookup(v.varName.lexeme()) + ";");
+    }
+    scopes.pop();
+    line("return obj;");
+    --indent;
+    line("}");
+  }
+
+  public void visit(FunDecl node) throws MyPLException {
+    startFunction();
+    String params = "";
+    for (FunParam p : node.params) {
+      String type = p.paramType.lexeme();
+      if (!params.isEmpty())
+        params += ", ";
+      params += declare(p.paramName.lexeme(), type, nils.isNilable(p));
+    }
+    String returnType = javaType(node.returnType.lexeme(),
+                                 nils.isNilable(node));
+    line("");
+    line("static " + returnType + " m_" + node.funName.lexeme() + "(" +
+         params + ") {");
+    ++indent;
+    int start = out.length();
+    block(node.stmts);
+    // a call running off the end returns nil
+    if (NilAnalysis.canComplete(node.stmts))
+      line("return null;");
+    String body = out.substring(start);
+    out.setLength(start);
+    for (String decl : hoisted)
+      line(decl);
+    out.append(body);
+    --indent;
+    line("}");
+    scopes.pop();
+  }
+
+  public void visit(VarDeclStmt node) throws MyPLException {
+    String e = build(node.expr);
+    String type = nils.typeOf(node);
+    line(declare(node.varName.lexeme(), type, nils.isNilable(node)) + " = " +
+         e + ";");
+  }
+
+  public void visit(AssignStmt node) throws MyPLException {
+    String e = build(node.expr);
+    List<Token> lvalue = node.lvalue;
+    if (lvalue.size() == 1) {
+      line(lookup(lvalue.get(0).lexeme()) + " = " + e + ";");
+      return;
+    }
+    // the value is computed before the record is found (as in the VM)
+    String var = lookup(lvalue.get(0).lexeme());
+    VarDeclStmt decl = field(lvalue, varTypes.get(var));
+    line("{");
+    ++indent;
+    line(javaType(nils.typeOf(decl), nils.isNilable(decl)) + " value = " +
+         e + ";");
+    line("live(" + path(lvalue, lvalue.size() - 1) + ").f_" +
+         lvalue.get(lvalue.size() - 1).lexeme() + " = value;");
+    --indent;
+    line("}");
+  }
+
+  public void visit(CondStmt node) throws MyPLException {
+    boolean last = lastInBlock;
+    line("if (" + condition(node.ifPart.cond) + ") {");
+    ++indent;
+    block(node.ifPart.stmts);
+    --indent;
+    for (BasicIf elif : node.elifs) {
+      line("} else if (" + condition(elif.cond) + ") {");
+      ++indent;
+      block(elif.stmts);
+      --indent;
+    }
+    if (node.elseStmts != null) {
+      line("} else {");
+      ++indent;
+      block(node.elseStmts);
+      --indent;
+    }
+    line("}");
+    lastInBlock = last;
+  }
+
+  public void visit(WhileStmt node) throws MyPLException {
+    String c = condition(node.cond);
+    if (isConstant(node.cond))
+      c = "test(" + c + ")";
+    line("while (" + c + ") {");
+    ++indent;
+    block(node.stmts);
+    --indent;
+    line("}");
+  }
+
+  public void visit(ForStmt node) throws MyPLException {
+    String start = build(node.start);
+    scopes.push(new HashMap<>());
+    String decl = declare(node.varName.lexeme(), "int", false);
+    String var = lookup(node.varName.lexeme());
+    // the end is evaluated on each iteration
+    String end = build(node.end);
+    String step = node.upto ? "++" : "--";
+    line("for (" + decl + " = " + start + "; ; " + var + step + ") {");
+    ++indent;
+    line("if (" + var + (node.upto ? " > " : " < ") + end + ")");
+    line("  break;");
+    block(node.stmts);
+    --indent;
+    line("}");
+    scopes.pop();
+  }
+
+  public void visit(ReturnStmt node) throws MyPLException {
+    String e = node.expr != null ? build(node.expr) : "null";
+    // (Java doesn't allow statements after a return)
+    line((lastInBlock ? "" : "if (true) ") + "return " + e + ";");
+  }
+
+  public void visit(DeleteStmt node) throws MyPLException {
+    line("free(" + lookup(node.varName.lexeme()) + ");");
+  }
+
+  public void visit(CallExpr node) throws MyPLException {
+    String args = "";
+    for (Expr arg : node.args) {
+      if (!args.isEmpty())
+        args += ", ";
+      args += build(arg);
+    }
+    String name = node.funName.lexeme();
+    if (name.equals("length"))
+      currExpr = "(" + args + ").length()";
+    else if (funDecls.containsKey(name))
+      currExpr = "m_" + name + "(" + args + ")";
+    // the other built-in functions are in the runtime
+    else
+      currExpr = name + "(" + args + ")";
+  }
+
+  public void visit(SimpleRValue node) throws MyPLException {
+    TokenType type = node.value.type();
+    String lexeme = node.value.lexeme();
+    if (type == TokenType.INT_VAL)
+      currExpr = Integer.toString(Integer.parseInt(lexeme));
+    else if (type == TokenType.DOUBLE_VAL)
+      currExpr = javaDouble(Double.parseDouble(lexeme));
+    else if (type == TokenType.BOOL_VAL)
+      currExpr = lexeme.equals("true") ? "true" : "false";
+    else if (type == TokenType.CHAR_VAL || type == TokenType.STRING_VAL)
+      currExpr = javaString(unescape(lexeme));
+    else
+      currExpr = "null";
+  }
+
+  public void visit(NewRValue node) throws MyPLException {
+    currExpr = "n_" + node.typeName.lexeme() + "()";
+  }
+
+  public void visit(IDRValue node) throws MyPLException {
+    currExpr = path(node.path, node.path.size());
+  }
+
+  public void visit(NegatedRValue node) throws MyPLException {
+    currExpr = "(-" + build(node.expr) + ")";
+  }
+
+  public void visit(Expr node) throws MyPLException {
+    String e;
+    if (node.op == null)
+      e = build(node.first);
+    else {
+      String op = node.op.lexeme();
+      String lhsType = typeInfo.typeOf(node.first);
+      String rhsType = typeInfo.typeOf(node.rest);
+      if (op.equals("and") || op.equals("or")) {
+        // short circuit (a nil operand is an error)
+        String first = operand(node.first);
+        String rest = operand(node.rest);
+        e = "(" + first + (op.equals("and") ? " && " : " || ") + rest + ")";
+      }
+      else {
+        String y = build(node.first);
+        String x = build(node.rest);
+        boolean unboxed = isUnboxed(node.first) && isUnboxed(node.rest);
+        boolean records = !isPrimitive(lhsType) && !isPrimitive(rhsType) &&
+          !"string".equals(lhsType) && !"char".equals(lhsType) &&
+          !"void".equals(lhsType) && !"void".equals(rhsType);
+        boolean strings = "string".equals(lhsType) || "char".equals(lhsType);
+        if (op.equals("==") || op.equals("!=")) {
+          // (primitives and records are compared directly)
+          if (unboxed || records)
+            e = "(" + y + " " + op + " " + x + ")";
+          else
+            e = (op.equals("==") ? "" : "!") + "eq(" + y + ", " + x + ")";
+        }
+        else if ("void".equals(lhsType) || "void".equals(rhsType))
+          e = "nilRef()";
+        else if (strings && op.equals("+"))
+          e = "(" + y + ").concat(" + x + ")";
+        else if (strings)
+          e = "((" + y + ").compareTo(" + x + ") " + op + " 0)";
+        else
+          e = "(" + y + " " + op + " " + x + ")";
+      }
+    }
+    if (node.logicallyNegated)
+      e = "(!" + e + ")";
+    currExpr = e;
+  }
+
+  public void visit(SimpleTerm node) throws MyPLException {
+    // defer to contained rvalue
+    node.rvalue.accept(this);
+  }
+
+  public void visit(ComplexTerm node) throws MyPLException {
+    // defer to contained expression
+    currExpr = "(" + build(node.expr) + ")";
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * File: Bytecode.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: The JVM instruction opcodes used by the JIT compiler.
+ */
+
+
+public class Bytecode {
+
+  // constants
+  public static final int ICONST_0 = 0x03;
+  public static final int LCONST_0 = 0x09;
+  public static final int BIPUSH = 0x10;
+  public static final int SIPUSH = 0x11;
+  public static final int LDC_W = 0x13;
+  public static final int LDC2_W = 0x14;
+
+  // locals and arrays
+  public static final int ILOAD = 0x15;
+  public static final int LLOAD = 0x16;
+  public static final int ALOAD = 0x19;
+  public static final int LALOAD = 0x2f;
+  public static final int AALOAD = 0x32;
+  public static final int ISTORE = 0x36;
+  public static final int LSTORE = 0x37;
+  public static final int ASTORE = 0x3a;
+  public static final int LASTORE = 0x50;
+  public static final int AASTORE = 0x53;
+
+  // stack
+  public static final int POP = 0x57;
+  public static final int DUP = 0x59;
+
+  // arithmetic
+  public static final int IADD = 0x60;
+  public static final int DADD = 0x63;
+  public static final int ISUB = 0x64;
+  public static final int DSUB = 0x67;
+  public static final int IMUL = 0x68;
+  public static final int DMUL = 0x6b;
+  public static final int IDIV = 0x6c;
+  public static final int DDIV = 0x6f;
+  public static final int IREM = 0x70;
+  public static final int INEG = 0x74;
+  public static final int DNEG = 0x77;
+  public static final int LAND = 0x7f;
+  public static final int LOR = 0x81;
+  public static final int LXOR = 0x83;
+  public static final int I2L = 0x85;
+  public static final int L2I = 0x88;
+
+  // comparisons and jumps
+  public static final int LCMP = 0x94;
+  public static final int DCMPL = 0x97;
+  public static final int DCMPG = 0x98;
+  public static final int IFEQ = 0x99;
+  public static final int IFNE = 0x9a;
+  public static final int IFLT = 0x9b;
+  public static final int IFGE = 0x9c;
+  public static final int IFGT = 0x9d;
+  public static final int IFLE = 0x9e;
+  public static final int IF_ICMPEQ = 0x9f;
+  public static final int IF_ICMPNE = 0xa0;
+  public static final int IF_ICMPLT = 0xa1;
+  public static final int IF_ICMPGE = 0xa2;
+  public static final int IF_ICMPGT = 0xa3;
+  public static final int IF_ICMPLE = 0xa4;
+  public static final int IF_ACMPEQ = 0xa5;
+  public static final int IF_ACMPNE = 0xa6;
+  public static final int GOTO = 0xa7;
+  public static final int IFNULL = 0xc6;
+  public static final int IFNONNULL = 0xc7;
+
+  // methods and objects
+  public static final int RETURN = 0xb1;
+  public static final int GETSTATIC = 0xb2;
+  public static final int GETFIELD = 0xb4;
+  public static final int PUTFIELD = 0xb5;
+  public static final int INVOKEVIRTUAL = 0xb6;
+  public static final int INVOKESPECIAL = 0xb7;
+  public static final int INVOKESTATIC = 0xb8;
+  public static final int CHECKCAST = 0xc0;
+  public static final int INSTANCEOF = 0xc1;
+
+  // the opposite of a conditional jump (e.g., IFLT for IFGE)
+  public static int negate(int opcode) {
+    // the jumps come in pairs (an even and an odd opcode)
+    if (opcode == IFNULL || opcode == IFNONNULL)
+      return opcode == IFNULL ? IFNONNULL : IFNULL;
+    return ((opcode - IFEQ) ^ 1) + IFEQ;
+  }
+
+}
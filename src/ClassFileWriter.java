@@ -0,0 +1,345 @@
+/*
+ * File: ClassFileWriter.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: A minimal writer of JVM class files (used by the JIT compiler).
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Builds the bytes of a class file with a constant pool, methods, and
+ * their code. Only what the JIT compiler needs is supported. Classes
+ * are written in the (Java 5) version 49 format, so the JVM infers the
+ * types of the stack and locals itself and no stack map frames need
+ * to be computed.
+ */
+public class ClassFileWriter {
+
+  // class file version
+  private static final int MAJOR_VERSION = 49;
+
+  // access flags
+  public static final int ACC_PUBLIC = 0x0001;
+  public static final int ACC_STATIC = 0x0008;
+  public static final int ACC_FINAL = 0x0010;
+  public static final int ACC_SUPER = 0x0020;
+
+  // constant pool tags
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_INTEGER = 3;
+  private static final int CONSTANT_LONG = 5;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+  // the constant pool (entries are keyed by their encoded bytes so
+  // each constant is only added once)
+  private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+  private Map<String,Integer> poolIndex = new HashMap<>();
+  private int poolCount = 1;
+
+  private int thisClass;
+  private int superClass;
+  private List<byte[]> methods = new ArrayList<>();
+
+
+  /**
+   * Thrown when the class doesn't fit in the class file format (a
+   * method's code or the constant pool is too large).
+   */
+  public static class TooLargeException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public TooLargeException(String message) {
+      super(message);
+    }
+  }
+
+
+  /**
+   * Creates a writer for a (public, final) class.
+   * @param name the internal name of the class
+   * @param superName the internal name of its superclass
+   */
+  public ClassFileWriter(String name, String superName) {
+    thisClass = classRef(name);
+    superClass = classRef(superName);
+  }
+
+  /**
+   * Starts a new method, whose code is added to the class once it has
+   * been written (see Code.end()).
+   * @param access the method's access flags
+   * @param name the method's name
+   * @param descriptor the method's type descriptor
+   * @param maxLocals the number of local variable slots it uses
+   */
+  public Code method(int access, String name, String descriptor,
+                     int maxLocals)
+  {
+    return new Code(access, utf8(name), utf8(descriptor), maxLocals);
+  }
+
+  /**
+   * Returns the bytes of the class file.
+   */
+  public byte[] toBytes() {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(MAJOR_VERSION);
+      out.writeShort(poolCount);
+      pool.writeTo(out);
+      out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(0);    // interfaces
+      out.writeShort(0);    // fields
+      out.writeShort(methods.size());
+      for (byte[] method : methods)
+        out.write(method);
+      out.writeShort(0);    // attributes
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+
+  //----------------------------------------------------------------------
+  // Constant pool
+  //----------------------------------------------------------------------
+
+  public int utf8(String s) {
+    return constant(CONSTANT_UTF8, out -> out.writeUTF(s), 1);
+  }
+
+  public int classRef(String name) {
+    int index = utf8(name);
+    return constant(CONSTANT_CLASS, out -> out.writeShort(index), 1);
+  }
+
+  public int string(String s) {
+    int index = utf8(s);
+    return constant(CONSTANT_STRING, out -> out.writeShort(index), 1);
+  }
+
+  public int integer(int i) {
+    return constant(CONSTANT_INTEGER, out -> out.writeInt(i), 1);
+  }
+
+  public int longConst(long l) {
+    // longs take up two pool entries
+    return constant(CONSTANT_LONG, out -> out.writeLong(l), 2);
+  }
+
+  public int fieldRef(String owner, String name, String descriptor) {
+    return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+  }
+
+  public int methodRef(String owner, String name, String descriptor) {
+    return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+  }
+
+  private int memberRef(int tag, String owner, String name,
+                        String descriptor)
+  {
+    int classIndex = classRef(owner);
+    int nameIndex = utf8(name);
+    int typeIndex = utf8(descriptor);
+    int nameAndType = constant(CONSTANT_NAME_AND_TYPE, out -> {
+        out.writeShort(nameIndex);
+        out.writeShort(typeIndex);
+      }, 1);
+    return constant(tag, out -> {
+        out.writeShort(classIndex);
+        out.writeShort(nameAndType);
+      }, 1);
+  }
+
+  // writes the body of a constant
+  private interface Body {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  // add a constant (if it isn't in the pool already), returning its
+  // index
+  private int constant(int tag, Body body, int size) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeByte(tag);
+      body.write(out);
+      String key = new String(bytes.toByteArray(), "ISO-8859-1");
+      Integer index = poolIndex.get(key);
+      if (index != null)
+        return index;
+      if (poolCount + size > 0xFFFF)
+        throw new TooLargeException("constant pool too large");
+      index = poolCount;
+      poolIndex.put(key, index);
+      bytes.writeTo(pool);
+      poolCount += size;
+      return index;
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+
+  //----------------------------------------------------------------------
+  // Method code
+  //----------------------------------------------------------------------
+
+  /**
+   * A position in a method's code that can be jumped to.
+   */
+  public static class Label {
+    // position in the code (-1 until placed)
+    private int position = -1;
+    // positions of the jumps to the label: each is the position of
+    // the jump instruction and of its offset
+    private List<int[]> jumps = new ArrayList<>();
+  }
+
+  /**
+   * The code of a method being written.
+   */
+  public class Code {
+
+    private int access;
+    private int name;
+    private int descriptor;
+    private int maxLocals;
+    private ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private List<Label> labels = new ArrayList<>();
+
+    private Code(int access, int name, int descriptor, int maxLocals) {
+      this.access = access;
+      this.name = name;
+      this.descriptor = descriptor;
+      this.maxLocals = maxLocals;
+    }
+
+    // add an instruction (or operand) byte
+    public void op(int b) {
+      code.write(b);
+    }
+
+    // add a two byte operand
+    public void u2(int s) {
+      code.write(s >> 8);
+      code.write(s);
+    }
+
+    // add an instruction with a two byte operand (e.g., a constant
+    // pool index)
+    public void op(int opcode, int operand) {
+      op(opcode);
+      u2(operand);
+    }
+
+    // push an int constant
+    public void iconst(int i) {
+      if (i >= -1 && i <= 5)
+        op(Bytecode.ICONST_0 + i);
+      else if (i >= Byte.MIN_VALUE && i <= Byte.MAX_VALUE) {
+        op(Bytecode.BIPUSH);
+        op(i);
+      }
+      else if (i >= Short.MIN_VALUE && i <= Short.MAX_VALUE) {
+        op(Bytecode.SIPUSH);
+        u2(i);
+      }
+      else
+        op(Bytecode.LDC_W, integer(i));
+    }
+
+    // push a long constant
+    public void lconst(long l) {
+      if (l == 0 || l == 1)
+        op(Bytecode.LCONST_0 + (int)l);
+      else
+        op(Bytecode.LDC2_W, longConst(l));
+    }
+
+    // push a string constant
+    public void sconst(String s) {
+      op(Bytecode.LDC_W, string(s));
+    }
+
+    // add a jump (goto or if...) to the label
+    public void jump(int opcode, Label label) {
+      label.jumps.add(new int[] {code.size(), code.size() + 1});
+      op(opcode);
+      u2(0);
+      if (!labels.contains(label))
+        labels.add(label);
+    }
+
+    // place the label at the current position
+    public void place(Label label) {
+      label.position = code.size();
+      if (!labels.contains(label))
+        labels.add(label);
+    }
+
+    // the current size of the code (in bytes)
+    public int size() {
+      return code.size();
+    }
+
+    /**
+     * Finishes the method (resolving its jumps) and adds it to the
+     * class.
+     * @param maxStack the maximum operand stack size of the code
+     * @throws TooLargeException if the code is too large
+     */
+    public void end(int maxStack) {
+      byte[] bytes = code.toByteArray();
+      if (bytes.length >= 0x8000)
+        throw new TooLargeException("method too large");
+      for (Label label : labels) {
+        if (label.position < 0)
+          throw new IllegalStateException("label not placed");
+        for (int[] jump : label.jumps) {
+          int offset = label.position - jump[0];
+          bytes[jump[1]] = (byte)(offset >> 8);
+          bytes[jump[1] + 1] = (byte)offset;
+        }
+      }
+      try {
+        ByteArrayOutputStream method = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(method);
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);    // attributes (just the code)
+        out.writeShort(utf8("Code"));
+        out.writeInt(12 + bytes.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeShort(0);    // exception table
+        out.writeShort(0);    // attributes
+        methods.add(method.toByteArray());
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,922 @@
+/*
+ * File: ClosureEngine.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Runs a checked MyPL program as a tree of pre-resolved closures
+ *       (an alternative to the code generator and VM).
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+
+/**
+ * Walks the checked program once, turning each statement and
+ * expression into a Java closure, and then runs the closures directly.
+ * Variables are resolved to slot indexes and operators to the checked
+ * operand types up front, so there is no instruction decoding and no
+ * dispatch loop, and int, double, and bool expressions are computed
+ * without boxing. Values are kept as in the VM (see VMValue) and
+ * programs behave as they do on the VM, except that runtime errors
+ * name the function they occur in instead of the instruction.
+ */
+public class ClosureEngine extends EngineRuntime<ClosureEngine.Code>
+  implements Visitor
+{
+
+  //----------------------------------------------------------------------
+  // Closures
+  //----------------------------------------------------------------------
+
+  // a statement, returning true if it returned from the function
+  interface Code {
+    boolean run(Frame f) throws MyPLException;
+  }
+
+  // an expression, returning the value's reference (or type tag) and
+  // leaving its primitive bits in f.bits
+  interface RefCode {
+    Object run(Frame f) throws MyPLException;
+  }
+
+  // expressions computing unboxed values (nil is reported as an error)
+  interface IntCode {
+    int run(Frame f) throws MyPLException;
+  }
+
+  interface DoubleCode {
+    double run(Frame f) throws MyPLException;
+  }
+
+  interface BoolCode {
+    boolean run(Frame f) throws MyPLException;
+  }
+
+  // an untyped operator applied to the (non-nil) values y and x,
+  // returning the result as a RefCode does
+  private interface Untyped {
+    Object apply(Frame f, Object ry, long y, Object rx, long x);
+  }
+
+  // a compiled expression: the closure computing its value (which
+  // works for any value) and those computing it unboxed (null if the
+  // value isn't of the type, or if computing it unboxed saves nothing)
+  private static class ExprCode {
+    RefCode value = null;
+    IntCode ints = null;
+    DoubleCode doubles = null;
+    BoolCode bools = null;
+    // true if the value can be nil
+    boolean nilable = true;
+  }
+
+
+  // the user-defined type and function type information
+  private TypeInfo typeInfo;
+
+  // the program's types
+  private Map<String,TypeDecl> typeDecls = new HashMap<>();
+
+  // the types of the variables of the function being compiled
+  private Map<String,String> varTypes = null;
+
+  // the closure built for the last statement or expression visited
+  private Code currCode = null;
+  private ExprCode currExpr = null;
+
+
+  /**
+   * Creates an engine for a program checked with the given type
+   * information. The program is compiled by visiting it.
+   * @param typeInfo the type information from the static checker
+   */
+  public ClosureEngine(TypeInfo typeInfo) {
+    this.typeInfo = typeInfo;
+  }
+
+  // (the closure engine's function bodies are closures)
+  void call(Code body, Frame f) throws MyPLException {
+    body.run(f);
+  }
+
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // the closure for an expression
+  private ExprCode compile(ASTNode node) throws MyPLException {
+    node.accept(this);
+    return currExpr;
+  }
+
+  // the closure running a list of statements
+  private Code block(List<Stmt> stmts) throws MyPLException {
+    List<Code> codes = new ArrayList<>();
+    for (Stmt s : stmts) {
+      s.accept(this);
+      if (s instanceof CallExpr) {
+        // drop the call's return value
+        RefCode call = currExpr.value;
+        codes.add(f -> {
+            call.run(f);
+            return false;
+          });
+      }
+      else
+        codes.add(currCode);
+    }
+    if (codes.isEmpty())
+      return f -> false;
+    else if (codes.size() == 1)
+      return codes.get(0);
+    else if (codes.size() == 2) {
+      Code first = codes.get(0);
+      Code second = codes.get(1);
+      return f -> first.run(f) || second.run(f);
+    }
+    Code[] all = codes.toArray(new Code[0]);
+    return f -> {
+      for (Code c : all)
+        if (c.run(f))
+          return true;
+      return false;
+    };
+  }
+
+  // the closure for a condition (of an if, elif, or while) that is
+  // false for nil, with and/or short circuited (an operand of and/or
+  // is an error if nil, as it is for the AND and OR instructions)
+  private BoolCode condition(Expr e, boolean operand) throws MyPLException {
+    if (e.op == null || e.logicallyNegated || !isLogical(e.op.lexeme())) {
+      ExprCode c = compile(e);
+      return operand ? asBool(c) : test(c);
+    }
+    BoolCode first = condition(e.first);
+    BoolCode rest = condition(e.rest, true);
+    if (e.op.lexeme().equals("and"))
+      return f -> first.run(f) && rest.run(f);
+    return f -> first.run(f) || rest.run(f);
+  }
+
+  // the closure for an operand of and/or
+  private BoolCode condition(ExprTerm t) throws MyPLException {
+    if (t instanceof ComplexTerm)
+      return condition(((ComplexTerm)t).expr, true);
+    return asBool(compile(t));
+  }
+
+  // true if the operator is and/or (which are short circuited)
+  private static boolean isLogical(String op) {
+    return op.equals("and") || op.equals("or");
+  }
+
+  // true if values of the given type are represented as strings
+  private static boolean isStringType(String type) {
+    return "string".equals(type) || "char".equals(type);
+  }
+
+  // the expression for a closure computing a value
+  private static ExprCode ofRef(RefCode c, boolean nilable) {
+    ExprCode e = new ExprCode();
+    e.value = c;
+    e.nilable = nilable;
+    return e;
+  }
+
+  // the expressions for closures computing unboxed values
+  private static ExprCode ofInt(IntCode c) {
+    ExprCode e = ofRef(f -> {
+        int i = c.run(f);
+        f.bits = i;
+        return VMValue.INT;
+      }, false);
+    e.ints = c;
+    return e;
+  }
+
+  private static ExprCode ofDouble(DoubleCode c) {
+    ExprCode e = ofRef(f -> {
+        double d = c.run(f);
+        f.bits = VMValue.bits(d);
+        return VMValue.DOUBLE;
+      }, false);
+    e.doubles = c;
+    return e;
+  }
+
+  private static ExprCode ofBool(BoolCode c) {
+    ExprCode e = ofRef(f -> {
+        boolean b = c.run(f);
+        f.bits = b ? 1 : 0;
+        return VMValue.BOOL;
+      }, false);
+    e.bools = c;
+    return e;
+  }
+
+  // the unboxed value of an expression (an error if it is nil)
+  private static IntCode asInt(ExprCode e) {
+    if (e.ints != null)
+      return e.ints;
+    RefCode c = e.value;
+    return f -> {
+      checkNil(f, c.run(f));
+      return (int)f.bits;
+    };
+  }
+
+  private static DoubleCode asDouble(ExprCode e) {
+    if (e.doubles != null)
+      return e.doubles;
+    RefCode c = e.value;
+    return f -> {
+      checkNil(f, c.run(f));
+      return VMValue.dbl(f.bits);
+    };
+  }
+
+  private static BoolCode asBool(ExprCode e) {
+    if (e.bools != null)
+      return e.bools;
+    RefCode c = e.value;
+    return f -> {
+      checkNil(f, c.run(f));
+      return f.bits != 0;
+    };
+  }
+
+  // the value of an expression as a jump condition (nil is false)
+  private static BoolCode test(ExprCode e) {
+    if (e.bools != null && !e.nilable)
+      return e.bools;
+    RefCode c = e.value;
+    return f -> {
+      c.run(f);
+      return f.bits != 0;
+    };
+  }
+
+  // the closure storing an expression's value in a variable slot
+  private static Code store(int slot, ExprCode e) {
+    if (!e.nilable && e.ints != null) {
+      IntCode c = e.ints;
+      return f -> {
+        f.prims[slot] = c.run(f);
+        f.refs[slot] = VMValue.INT;
+        return false;
+      };
+    }
+    else if (!e.nilable && e.doubles != null) {
+      DoubleCode c = e.doubles;
+      return f -> {
+        f.prims[slot] = VMValue.bits(c.run(f));
+        f.refs[slot] = VMValue.DOUBLE;
+        return false;
+      };
+    }
+    RefCode c = e.value;
+    return f -> {
+      Object ref = c.run(f);
+      f.prims[slot] = f.bits;
+      f.refs[slot] = ref;
+      return false;
+    };
+  }
+
+  // the expression loading a variable of the given type
+  private static ExprCode load(int slot, String type) {
+    ExprCode e = ofRef(f -> {
+        f.bits = f.prims[slot];
+        return f.refs[slot];
+      }, true);
+    if ("int".equals(type))
+      e.ints = f -> {
+        checkNil(f, f.refs[slot]);
+        return (int)f.prims[slot];
+      };
+    else if ("double".equals(type))
+      e.doubles = f -> {
+        checkNil(f, f.refs[slot]);
+        return VMValue.dbl(f.prims[slot]);
+      };
+    else if ("bool".equals(type))
+      e.bools = f -> {
+        checkNil(f, f.refs[slot]);
+        return f.prims[slot] != 0;
+      };
+    return e;
+  }
+
+  // the expression for a binary operator given the (checked) operand
+  // types, falling back to untyped operators when the types aren't
+  // known (see CodeGenerator.binaryOp)
+  private static ExprCode binary(String op, ExprCode y, ExprCode x,
+                                 String lhsType, String rhsType)
+  {
+    boolean isInt = "int".equals(lhsType) && "int".equals(rhsType);
+    boolean isDouble = "double".equals(lhsType) && "double".equals(rhsType);
+    boolean isString = isStringType(lhsType) && isStringType(rhsType);
+    boolean isBool = "bool".equals(lhsType) && "bool".equals(rhsType);
+    if (op.equals("==") || op.equals("!=")) {
+      BoolCode eq = equal(y, x, isInt || isBool, isDouble, isString);
+      return op.equals("==") ? ofBool(eq) : ofBool(f -> !eq.run(f));
+    }
+    if (isInt)
+      return intOp(op, asInt(y), asInt(x));
+    else if (isDouble && !op.equals("%"))
+      return doubleOp(op, asDouble(y), asDouble(x));
+    else if (isString && !op.equals("%") && !op.equals("-") &&
+             !op.equals("*") && !op.equals("/"))
+      return stringOp(op, y, x);
+    return untypedOp(op, y, x);
+  }
+
+  private static ExprCode intOp(String op, IntCode y, IntCode x) {
+    switch (op) {
+    case "+": return ofInt(f -> y.run(f) + x.run(f));
+    case "-": return ofInt(f -> y.run(f) - x.run(f));
+    case "*": return ofInt(f -> y.run(f) * x.run(f));
+    case "/": return ofInt(f -> y.run(f) / x.run(f));
+    case "%": return ofInt(f -> y.run(f) % x.run(f));
+    case "<": return ofBool(f -> y.run(f) < x.run(f));
+    case "<=": return ofBool(f -> y.run(f) <= x.run(f));
+    case ">": return ofBool(f -> y.run(f) > x.run(f));
+    default: return ofBool(f -> y.run(f) >= x.run(f));
+    }
+  }
+
+  private static ExprCode doubleOp(String op, DoubleCode y, DoubleCode x) {
+    switch (op) {
+    case "+": return ofDouble(f -> y.run(f) + x.run(f));
+    case "-": return ofDouble(f -> y.run(f) - x.run(f));
+    case "*": return ofDouble(f -> y.run(f) * x.run(f));
+    case "/": return ofDouble(f -> y.run(f) / x.run(f));
+    case "<": return ofBool(f -> y.run(f) < x.run(f));
+    case "<=": return ofBool(f -> y.run(f) <= x.run(f));
+    case ">": return ofBool(f -> y.run(f) > x.run(f));
+    default: return ofBool(f -> y.run(f) >= x.run(f));
+    }
+  }
+
+  private static ExprCode stringOp(String op, ExprCode y, ExprCode x) {
+    if (op.equals("+"))
+      return untyped(y, x, (f, ry, by, rx, bx) -> {
+          f.bits = 0;
+          return (String)ry + (String)rx;
+        });
+    return untyped(y, x, (f, ry, by, rx, bx) -> {
+        int c = ((String)ry).compareTo((String)rx);
+        f.bits = compared(op, c) ? 1 : 0;
+        return VMValue.BOOL;
+      });
+  }
+
+  // the operators on values of unknown types (as the VM's ADD, SUB,
+  // etc.)
+  private static ExprCode untypedOp(String op, ExprCode y, ExprCode x) {
+    switch (op) {
+    case "+":
+      return untyped(y, x, (f, ry, by, rx, bx) -> {
+          if (rx == VMValue.INT)
+            f.bits = (int)by + (int)bx;
+          else if (rx == VMValue.DOUBLE)
+            f.bits = VMValue.bits(VMValue.dbl(by) + VMValue.dbl(bx));
+          else {
+            f.bits = 0;
+            return VMValue.toString(ry, by) + VMValue.toString(rx, bx);
+          }
+          return ry;
+        });
+    case "-":
+      return untyped(y, x, (f, ry, by, rx, bx) -> {
+          if (rx == VMValue.INT)
+            f.bits = (int)by - (int)bx;
+          else
+            f.bits = VMValue.bits(VMValue.dbl(by) - VMValue.dbl(bx));
+          return ry;
+        });
+    case "*":
+      return untyped(y, x, (f, ry, by, rx, bx) -> {
+          if (rx == VMValue.INT)
+            f.bits = (int)by * (int)bx;
+          else
+            f.bits = VMValue.bits(VMValue.dbl(by) * VMValue.dbl(bx));
+          return ry;
+        });
+    case "/":
+      return untyped(y, x, (f, ry, by, rx, bx) -> {
+          if (rx == VMValue.INT)
+            f.bits = (int)by / (int)bx;
+          else
+            f.bits = VMValue.bits(VMValue.dbl(by) / VMValue.dbl(bx));
+          return ry;
+        });
+    case "%":
+      return untyped(y, x, (f, ry, by, rx, bx) -> {
+          f.bits = (int)by % (int)bx;
+          return ry;
+        });
+    default:
+      return untyped(y, x, (f, ry, by, rx, bx) -> {
+          f.bits = compared(op, VM.compare(ry, by, rx, bx)) ? 1 : 0;
+          return VMValue.BOOL;
+        });
+    }
+  }
+
+  // the expression applying an untyped operator to the values of y and
+  // x, which must not be nil
+  private static ExprCode untyped(ExprCode y, ExprCode x, Untyped op) {
+    RefCode cy = y.value;
+    RefCode cx = x.value;
+    return ofRef(f -> {
+        Object ry = cy.run(f);
+        long by = f.bits;
+        Object rx = cx.run(f);
+        long bx = f.bits;
+        checkNil(f, rx);
+        checkNil(f, ry);
+        return op.apply(f, ry, by, rx, bx);
+      }, false);
+  }
+
+  // true if the result of a comparison (see VM.compare) satisfies the
+  // relational operator
+  private static boolean compared(String op, int c) {
+    switch (op) {
+    case "<": return c < 0;
+    case "<=": return c <= 0;
+    case ">": return c > 0;
+    default: return c >= 0;
+    }
+  }
+
+  // the closure for y == x (as the VM's ICMPEQ for ints and bools,
+  // DCMPEQ, SCMPEQ, and CMPEQ), comparing unboxed values when neither
+  // can be nil
+  private static BoolCode equal(ExprCode y, ExprCode x, boolean isIntOrBool,
+                                boolean isDouble, boolean isString)
+  {
+    boolean nilable = y.nilable || x.nilable;
+    if (isIntOrBool && !nilable && y.ints != null && x.ints != null) {
+      IntCode cy = y.ints;
+      IntCode cx = x.ints;
+      return f -> cy.run(f) == cx.run(f);
+    }
+    else if (isIntOrBool && !nilable && y.bools != null && x.bools != null) {
+      BoolCode cy = y.bools;
+      BoolCode cx = x.bools;
+      return f -> cy.run(f) == cx.run(f);
+    }
+    else if (isDouble && !nilable && y.doubles != null && x.doubles != null) {
+      DoubleCode cy = y.doubles;
+      DoubleCode cx = x.doubles;
+      return f -> cy.run(f) == cx.run(f);
+    }
+    RefCode cy = y.value;
+    RefCode cx = x.value;
+    return f -> {
+      Object ry = cy.run(f);
+      long by = f.bits;
+      Object rx = cx.run(f);
+      long bx = f.bits;
+      if (isIntOrBool)
+        return ry == rx && (rx == VM.NIL_OBJ || by == bx);
+      else if (isDouble)
+        return ry == rx &&
+          (rx == VM.NIL_OBJ || VMValue.dbl(by) == VMValue.dbl(bx));
+      else if (isString)
+        return ry.equals(rx);
+      return VM.equal(ry, by, rx, bx);
+    };
+  }
+
+  // the record at the end of a path of record fields (but the last),
+  // starting from a variable
+  private static VMRecord record(Frame f, int slot, int[] path)
+    throws MyPLException
+  {
+    Object ref = f.refs[slot];
+    for (int i = 0; i < path.length - 1; ++i)
+      ref = deref(f, ref).refs[path[i]];
+    return deref(f, ref);
+  }
+
+  // the slot offsets of the fields along a path (of a variable of the
+  // given type)
+  private int[] offsets(List<Token> path, String type) {
+    int[] offsets = new int[path.size() - 1];
+    for (int i = 1; i < path.size(); ++i) {
+      String field = path.get(i).lexeme();
+      offsets[i - 1] = typeInfo.offsetOf(type, field);
+      type = typeInfo.get(type, field).first;
+    }
+    return offsets;
+  }
+
+  //----------------------------------------------------------------------
+  // Built-in functions
+  //----------------------------------------------------------------------
+
+  private static ExprCode print(RefCode c) {
+    return ofRef(f -> {
+        Object ref = c.run(f);
+        System.out.print(VMValue.toString(ref, f.bits));
+        f.bits = 0;
+        return VM.NIL_OBJ;
+      }, true);
+  }
+
+  private static ExprCode read() {
+    return ofRef(f -> {
+        Scanner s = new Scanner(System.in);
+        f.bits = 0;
+        return s.nextLine();
+      }, false);
+  }
+
+  private static ExprCode length(RefCode c) {
+    return ofInt(f -> {
+        Object ref = c.run(f);
+        checkNil(f, ref);
+        return ref.toString().length();
+      });
+  }
+
+  private static ExprCode get(RefCode index, RefCode str) {
+    return ofRef(f -> {
+        Object ri = index.run(f);
+        int i = (int)f.bits;
+        Object rs = str.run(f);
+        checkNil(f, rs);
+        checkNil(f, ri);
+        String s = rs.toString();
+        if (i < 0 || i >= s.length())
+          throw error(f, "invalid index " + i + " for string " + s);
+        f.bits = 0;
+        return s.substring(i, i + 1);
+      }, false);
+  }
+
+  private static ExprCode toInt(RefCode c) {
+    return ofInt(f -> {
+        Object ref = c.run(f);
+        checkNil(f, ref);
+        if (ref == VMValue.DOUBLE)
+          return (int)VMValue.dbl(f.bits);
+        else if (ref == VMValue.INT)
+          return (int)f.bits;
+        try {
+          return (int)Double.parseDouble(ref.toString());
+        } catch(NumberFormatException e) {
+          throw error(f, "incompatible string " + ref + " to parse as int");
+        }
+      });
+  }
+
+  private static ExprCode toDouble(RefCode c) {
+    return ofDouble(f -> {
+        Object ref = c.run(f);
+        checkNil(f, ref);
+        if (ref == VMValue.INT)
+          return (int)f.bits;
+        else if (ref == VMValue.DOUBLE)
+          return VMValue.dbl(f.bits);
+        try {
+          return Double.parseDouble(ref.toString());
+        } catch(NumberFormatException e) {
+          throw error(f, "incompatible string " + ref + " to parse as double");
+        }
+      });
+  }
+
+  private static ExprCode toStr(RefCode c) {
+    return ofRef(f -> {
+        Object ref = c.run(f);
+        checkNil(f, ref);
+        String s = VMValue.toString(ref, f.bits);
+        f.bits = 0;
+        return s;
+      }, false);
+  }
+
+
+  //----------------------------------------------------------------------
+  // VISITOR FUNCTIONS
+  //----------------------------------------------------------------------
+
+  public void visit(Program node) throws MyPLException {
+    for (TypeDecl tdecl : node.tdecls)
+      typeDecls.put(tdecl.typeName.lexeme(), tdecl);
+    for (FunDecl fdecl : node.fdecls) {
+      String name = fdecl.funName.lexeme();
+      functions.put(name, new Function<>(name));
+    }
+    for (FunDecl fdecl : node.fdecls)
+      fdecl.accept(this);
+  }
+
+  public void visit(TypeDecl node) throws MyPLException {
+    // nothing to do (the fields are initialized by each new)
+  }
+
+  public void visit(FunDecl node) throws MyPLException {
+    startFunction(node);
+    varTypes = new HashMap<>();
+    for (FunParam p : node.params)
+      varTypes.put(p.paramName.lexeme(), p.paramType.lexeme());
+    endFunction(block(node.stmts));
+  }
+
+  public void visit(VarDeclStmt node) throws MyPLException {
+    ExprCode e = compile(node.expr);
+    String name = node.varName.lexeme();
+    int slot = newSlot();
+    varMap.put(name, slot);
+    if (node.typeName != null)
+      varTypes.put(name, node.typeName.lexeme());
+    else
+      varTypes.put(name, typeInfo.typeOf(node.expr));
+    currCode = store(slot, e);
+  }
+
+  public void visit(AssignStmt node) throws MyPLException {
+    ExprCode e = compile(node.expr);
+    String name = node.lvalue.get(0).lexeme();
+    int slot = varMap.get(name);
+    if (node.lvalue.size() == 1) {
+      currCode = store(slot, e);
+      return;
+    }
+    int[] path = offsets(node.lvalue, varTypes.get(name));
+    int field = path[path.length - 1];
+    RefCode value = e.value;
+    currCode = f -> {
+      Object ref = value.run(f);
+      long bits = f.bits;
+      VMRecord obj = record(f, slot, path);
+      obj.prims[field] = bits;
+      obj.refs[field] = ref;
+      return false;
+    };
+  }
+
+  public void visit(CondStmt node) throws MyPLException {
+    // the if part and the elifs are tried in order
+    List<BasicIf> branches = new ArrayList<>();
+    branches.add(node.ifPart);
+    branches.addAll(node.elifs);
+    BoolCode[] conds = new BoolCode[branches.size()];
+    Code[] bodies = new Code[branches.size()];
+    for (int i = 0; i < conds.length; ++i) {
+      conds[i] = condition(branches.get(i).cond, false);
+      bodies[i] = block(branches.get(i).stmts);
+    }
+    Code otherwise = node.elseStmts != null ? block(node.elseStmts) : null;
+    if (conds.length == 1) {
+      BoolCode cond = conds[0];
+      Code body = bodies[0];
+      if (otherwise == null)
+        currCode = f -> cond.run(f) && body.run(f);
+      else
+        currCode = f -> cond.run(f) ? body.run(f) : otherwise.run(f);
+      return;
+    }
+    currCode = f -> {
+      for (int i = 0; i < conds.length; ++i)
+        if (conds[i].run(f))
+          return bodies[i].run(f);
+      return otherwise != null && otherwise.run(f);
+    };
+  }
+
+  public void visit(WhileStmt node) throws MyPLException {
+    BoolCode cond = condition(node.cond, false);
+    Code body = block(node.stmts);
+    currCode = f -> {
+      while (cond.run(f))
+        if (body.run(f))
+          return true;
+      return false;
+    };
+  }
+
+  public void visit(ForStmt node) throws MyPLException {
+    int slot = newSlot();
+    ExprCode start = compile(node.start);
+    varMap.put(node.varName.lexeme(), slot);
+    varTypes.put(node.varName.lexeme(), "int");
+    Code init = store(slot, start);
+    IntCode end = asInt(compile(node.end));
+    Code body = block(node.stmts);
+    boolean upto = node.upto;
+    int step = upto ? 1 : -1;
+    currCode = f -> {
+      init.run(f);
+      while (true) {
+        // the end is evaluated on each iteration
+        int last = end.run(f);
+        checkNil(f, f.refs[slot]);
+        int i = (int)f.prims[slot];
+        if (upto ? i > last : i < last)
+          return false;
+        if (body.run(f))
+          return true;
+        checkNil(f, f.refs[slot]);
+        f.prims[slot] = (int)f.prims[slot] + step;
+      }
+    };
+  }
+
+  public void visit(ReturnStmt node) throws MyPLException {
+    if (node.expr == null) {
+      currCode = f -> true;
+      return;
+    }
+    RefCode value = compile(node.expr).value;
+    currCode = f -> {
+      Object ref = value.run(f);
+      f.returnBits = f.bits;
+      f.returnRef = ref;
+      return true;
+    };
+  }
+
+  public void visit(DeleteStmt node) throws MyPLException {
+    int slot = varMap.get(node.varName.lexeme());
+    currCode = f -> {
+      Object ref = f.refs[slot];
+      checkNil(f, ref);
+      if (ref instanceof VMRecord)
+        heap.free((VMRecord)ref);
+      return false;
+    };
+  }
+
+  public void visit(CallExpr node) throws MyPLException {
+    RefCode[] args = new RefCode[node.args.size()];
+    for (int i = 0; i < args.length; ++i)
+      args[i] = compile(node.args.get(i)).value;
+    String name = node.funName.lexeme();
+    // built-in functions
+    if (name.equals("print"))
+      currExpr = print(args[0]);
+    else if (name.equals("read"))
+      currExpr = read();
+    else if (name.equals("length"))
+      currExpr = length(args[0]);
+    else if (name.equals("get"))
+      currExpr = get(args[0], args[1]);
+    else if (name.equals("stoi") || name.equals("dtoi"))
+      currExpr = toInt(args[0]);
+    else if (name.equals("stod") || name.equals("itod"))
+      currExpr = toDouble(args[0]);
+    else if (name.equals("itos") || name.equals("dtos"))
+      currExpr = toStr(args[0]);
+    // user-defined functions (the arguments are evaluated in the
+    // caller and stored in the first slots of the callee)
+    else {
+      Function<Code> callee = functions.get(name);
+      currExpr = ofRef(f -> {
+          Frame calleeFrame = new Frame(callee);
+          for (int i = 0; i < args.length; ++i) {
+            Object ref = args[i].run(f);
+            calleeFrame.prims[i] = f.bits;
+            calleeFrame.refs[i] = ref;
+          }
+          callee.body.run(calleeFrame);
+          f.bits = calleeFrame.returnBits;
+          return calleeFrame.returnRef;
+        }, true);
+    }
+  }
+
+  public void visit(SimpleRValue node) throws MyPLException {
+    TokenType type = node.value.type();
+    String lexeme = node.value.lexeme();
+    if (type == TokenType.INT_VAL) {
+      int val = Integer.parseInt(lexeme);
+      currExpr = ofInt(f -> val);
+    }
+    else if (type == TokenType.DOUBLE_VAL) {
+      double val = Double.parseDouble(lexeme);
+      currExpr = ofDouble(f -> val);
+    }
+    else if (type == TokenType.BOOL_VAL) {
+      boolean val = lexeme.equals("true");
+      currExpr = ofBool(f -> val);
+    }
+    else {
+      Object val = VM.NIL_OBJ;
+      if (type == TokenType.CHAR_VAL || type == TokenType.STRING_VAL)
+        val = unescape(lexeme);
+      Object ref = val;
+      currExpr = ofRef(f -> {
+          f.bits = 0;
+          return ref;
+        }, ref == VM.NIL_OBJ);
+    }
+  }
+
+  public void visit(NewRValue node) throws MyPLException {
+    TypeDecl t = typeDecls.get(node.typeName.lexeme());
+    // fields are stored in declaration order
+    List<String> names = new ArrayList<>();
+    RefCode[] inits = new RefCode[t.vdecls.size()];
+    for (int i = 0; i < inits.length; ++i) {
+      names.add(t.vdecls.get(i).varName.lexeme());
+      inits[i] = compile(t.vdecls.get(i).expr).value;
+    }
+    VMType type = new VMType(names);
+    currExpr = ofRef(f -> {
+        VMRecord obj = allocate(type);
+        for (int i = 0; i < inits.length; ++i) {
+          Object ref = inits[i].run(f);
+          obj.prims[i] = f.bits;
+          obj.refs[i] = ref;
+        }
+        f.bits = 0;
+        return obj;
+      }, false);
+  }
+
+  public void visit(IDRValue node) throws MyPLException {
+    String name = node.path.get(0).lexeme();
+    int slot = varMap.get(name);
+    if (node.path.size() == 1) {
+      currExpr = load(slot, varTypes.get(name));
+      return;
+    }
+    int[] path = offsets(node.path, varTypes.get(name));
+    int field = path[path.length - 1];
+    currExpr = ofRef(f -> {
+        VMRecord obj = record(f, slot, path);
+        f.bits = obj.prims[field];
+        return obj.refs[field];
+      }, true);
+  }
+
+  public void visit(NegatedRValue node) throws MyPLException {
+    ExprCode e = compile(node.expr);
+    String type = typeInfo.typeOf(node.expr);
+    if ("int".equals(type)) {
+      IntCode c = asInt(e);
+      currExpr = ofInt(f -> -c.run(f));
+    }
+    else if ("double".equals(type)) {
+      DoubleCode c = asDouble(e);
+      currExpr = ofDouble(f -> -c.run(f));
+    }
+    else {
+      RefCode c = e.value;
+      currExpr = ofRef(f -> {
+          Object ref = c.run(f);
+          checkNil(f, ref);
+          if (ref == VMValue.INT)
+            f.bits = -(int)f.bits;
+          else
+            f.bits = VMValue.bits(-VMValue.dbl(f.bits));
+          return ref;
+        }, false);
+    }
+  }
+
+  public void visit(Expr node) throws MyPLException {
+    ExprCode e;
+    if (node.op == null)
+      e = compile(node.first);
+    else if (isLogical(node.op.lexeme())) {
+      // short circuit: rest is only evaluated if first doesn't decide
+      // the result (a nil operand is an error)
+      BoolCode first = asBool(compile(node.first));
+      BoolCode rest = asBool(compile(node.rest));
+      if (node.op.lexeme().equals("and"))
+        e = ofBool(f -> first.run(f) && rest.run(f));
+      else
+        e = ofBool(f -> first.run(f) || rest.run(f));
+    }
+    else
+      e = binary(node.op.lexeme(), compile(node.first), compile(node.rest),
+                 typeInfo.typeOf(node.first), typeInfo.typeOf(node.rest));
+    if (node.logicallyNegated) {
+      BoolCode c = asBool(e);
+      e = ofBool(f -> !c.run(f));
+    }
+    currExpr = e;
+  }
+
+  public void visit(SimpleTerm node) throws MyPLException {
+    // defer to contained rvalue
+    node.rvalue.accept(this);
+  }
+
+  public void visit(ComplexTerm node) throws MyPLException {
+    // defer to contained expression
+    node.expr.accept(this);
+  }
+
+}
@@ -25,6 +25,9 @@ public class CodeGenerator implements Visitor {
   // mapping from variables to their indices (in the frame)
   private Map<String,Integer> varMap = null;
 
+  // mapping from variables to their (checked) types
+  private Map<String,String> varTypes = null;
+
   // the current variable index (in the frame)
   private int currVarIndex = 0;
 
@@ -49,6 +52,143 @@ public class CodeGenerator implements Visitor {
       currFrame.instructions.remove(nextIndex - 1);
   }
 
+  // helper function to generate a condition that falls through if
+  // the expression is true and otherwise jumps (the JMPF/JMP indexes
+  // are added to falseJumps, to be patched by the caller). For and/or
+  // the branches are taken directly instead of computing a bool. The
+  // op is the and/or the expression is an operand of (or null).
+  private void condJump(Expr e, String op, List<Integer> falseJumps)
+    throws MyPLException
+  {
+    if(e.op == null || e.logicallyNegated || !isLogical(e.op.lexeme())){
+      e.accept(this);
+      checkOperand(e, op);
+      currFrame.instructions.add(VMInstr.JMPF(-1));
+      falseJumps.add(currFrame.instructions.size() - 1);
+    } else if(e.op.lexeme().equals("and")){
+      // both have to be true
+      condJump(e.first, "and", falseJumps);
+      condJump(e.rest, "and", falseJumps);
+    } else {
+      // if first is true, skip over rest
+      List<Integer> firstFalse = new ArrayList<>();
+      condJump(e.first, "or", firstFalse);
+      currFrame.instructions.add(VMInstr.JMP(-1));
+      int trueJump = currFrame.instructions.size() - 1;
+      patchJumps(firstFalse, currFrame.instructions.size());
+      condJump(e.rest, "or", falseJumps);
+      currFrame.instructions.get(trueJump).updateOperand(currFrame.instructions.size());
+    }
+  }
+
+  // helper function for conditions on expression terms
+  private void condJump(ExprTerm t, String op, List<Integer> falseJumps)
+    throws MyPLException
+  {
+    if(t instanceof ComplexTerm){
+      condJump(((ComplexTerm)t).expr, op, falseJumps);
+    } else {
+      t.accept(this);
+      checkOperand(t, op);
+      currFrame.instructions.add(VMInstr.JMPF(-1));
+      falseJumps.add(currFrame.instructions.size() - 1);
+    }
+  }
+
+  // helper function to check that an operand of and/or (just pushed)
+  // isn't nil, since the jumps would take a nil as false: the operand
+  // goes through the AND (OR) instruction with true (false), which
+  // leaves it as it is but reports a nil reference. Operands that are
+  // never nil (e.g., comparisons) aren't checked.
+  private void checkOperand(Object operand, String op) {
+    if(op == null || !mayBeNil(operand)){
+      return;
+    }
+    if(op.equals("and")){
+      currFrame.instructions.add(VMInstr.PUSH(true));
+      currFrame.instructions.add(VMInstr.AND());
+    } else {
+      currFrame.instructions.add(VMInstr.PUSH(false));
+      currFrame.instructions.add(VMInstr.OR());
+    }
+  }
+
+  // true if an expression or term can be nil: variables, fields, call
+  // results, and nil itself (the result of an operator never is)
+  private static boolean mayBeNil(Object operand) {
+    if(operand instanceof Expr){
+      Expr e = (Expr)operand;
+      return e.op == null && !e.logicallyNegated && mayBeNil(e.first);
+    } else if(operand instanceof ComplexTerm){
+      return mayBeNil(((ComplexTerm)operand).expr);
+    }
+    RValue rvalue = ((SimpleTerm)operand).rvalue;
+    if(rvalue instanceof SimpleRValue){
+      return ((SimpleRValue)rvalue).value.type() == TokenType.NIL;
+    }
+    return rvalue instanceof IDRValue || rvalue instanceof CallExpr;
+  }
+
+  // helper function to set the target of each of the given jumps
+  private void patchJumps(List<Integer> jumps, int target) {
+    for(int i: jumps){
+      currFrame.instructions.get(i).updateOperand(target);
+    }
+  }
+
+  // true if the operator is and/or (which are short circuited)
+  private static boolean isLogical(String op) {
+    return op.equals("and") || op.equals("or");
+  }
+
+  // helper function to pick the instruction for a binary operator
+  // given the (checked) operand types, falling back to the untyped
+  // instruction when the types aren't known (or may be nil)
+  private VMInstr binaryOp(String op, String lhsType, String rhsType) {
+    boolean isInt = "int".equals(lhsType) && "int".equals(rhsType);
+    boolean isDouble = "double".equals(lhsType) && "double".equals(rhsType);
+    boolean isString = isStringType(lhsType) && isStringType(rhsType);
+    boolean isBool = "bool".equals(lhsType) && "bool".equals(rhsType);
+    if (op.equals("+"))
+      return isInt ? VMInstr.IADD() : isDouble ? VMInstr.DADD() :
+        isString ? VMInstr.SCONCAT() : VMInstr.ADD();
+    else if (op.equals("-"))
+      return isInt ? VMInstr.ISUB() : isDouble ? VMInstr.DSUB() : VMInstr.SUB();
+    else if (op.equals("*"))
+      return isInt ? VMInstr.IMUL() : isDouble ? VMInstr.DMUL() : VMInstr.MUL();
+    else if (op.equals("/"))
+      return isInt ? VMInstr.IDIV() : isDouble ? VMInstr.DDIV() : VMInstr.DIV();
+    else if (op.equals("%"))
+      return VMInstr.MOD();
+    else if (op.equals("and"))
+      return VMInstr.AND();
+    else if (op.equals("or"))
+      return VMInstr.OR();
+    else if (op.equals("<"))
+      return isInt ? VMInstr.ICMPLT() : isDouble ? VMInstr.DCMPLT() :
+        isString ? VMInstr.SCMPLT() : VMInstr.CMPLT();
+    else if (op.equals("<="))
+      return isInt ? VMInstr.ICMPLE() : isDouble ? VMInstr.DCMPLE() :
+        isString ? VMInstr.SCMPLE() : VMInstr.CMPLE();
+    else if (op.equals(">"))
+      return isInt ? VMInstr.ICMPGT() : isDouble ? VMInstr.DCMPGT() :
+        isString ? VMInstr.SCMPGT() : VMInstr.CMPGT();
+    else if (op.equals(">="))
+      return isInt ? VMInstr.ICMPGE() : isDouble ? VMInstr.DCMPGE() :
+        isString ? VMInstr.SCMPGE() : VMInstr.CMPGE();
+    else if (op.equals("=="))
+      return isInt || isBool ? VMInstr.ICMPEQ() : isDouble ? VMInstr.DCMPEQ() :
+        isString ? VMInstr.SCMPEQ() : VMInstr.CMPEQ();
+    else
+      return isInt || isBool ? VMInstr.ICMPNE() : isDouble ? VMInstr.DCMPNE() :
+        isString ? VMInstr.SCMPNE() : VMInstr.CMPNE();
+  }
+
+  // true if values of the given type are represented as strings
+  private static boolean isStringType(String type) {
+    return "string".equals(type) || "char".equals(type);
+  }
+
   private void fixCallStmt(Stmt s) {
     // get the last instuction added
     if (s instanceof CallExpr) {
@@ -97,10 +237,12 @@ public class CodeGenerator implements Visitor {
     currFrame = newFrame;
     // 2. create a variable mapping for the frame
     varMap = new HashMap<String,Integer>();
+    varTypes = new HashMap<String,String>();
     currVarIndex = 0;
     // 3. store args from operand stack
     for(FunParam p: node.params){
       varMap.put(p.paramName.lexeme(),currVarIndex);
+      varTypes.put(p.paramName.lexeme(),p.paramType.lexeme());
       //currFrame.instructions.add(VMInstr.POP())
       currFrame.instructions.add(VMInstr.STORE(currVarIndex));
       currVarIndex++;
@@ -120,12 +262,19 @@ public class CodeGenerator implements Visitor {
       currFrame.instructions.add(VMInstr.PUSH(VM.NIL_OBJ));
       currFrame.instructions.add(VMInstr.VRET());
     }
+    // 6. record the number of variable slots used (indexes are never
+    //    reused within a function, so this is the max needed)
+    currFrame.setLocalCount(currVarIndex);
   }
   
   public void visit(VarDeclStmt node) throws MyPLException {
     // TODO
     node.expr.accept(this);
     varMap.put(node.varName.lexeme(),currVarIndex);
+    if(node.typeName != null)
+      varTypes.put(node.varName.lexeme(),node.typeName.lexeme());
+    else
+      varTypes.put(node.varName.lexeme(),typeInfo.typeOf(node.expr));
     // is not already in varmap bc declaration
     currFrame.instructions.add(VMInstr.STORE(currVarIndex));
     currVarIndex = currVarIndex + 1;
@@ -139,14 +288,18 @@ public class CodeGenerator implements Visitor {
       // load lvalue.get(0) varmap
       int i = varMap.get(node.lvalue.get(0).lexeme());
       currFrame.instructions.add(VMInstr.LOAD(i));
+      String type = varTypes.get(node.lvalue.get(0).lexeme());
 
       for(int j = 1; j< size-1; j++){
         // getfld next
-        currFrame.instructions.add(VMInstr.GETFLD(node.lvalue.get(j).lexeme()));
+        String field = node.lvalue.get(j).lexeme();
+        currFrame.instructions.add(VMInstr.GETFLD(typeInfo.offsetOf(type, field)));
+        type = typeInfo.get(type, field).first;
       }
       //at end swap
       currFrame.instructions.add(VMInstr.SWAP());
-      currFrame.instructions.add(VMInstr.SETFLD(node.lvalue.get(size-1).lexeme()));
+      String field = node.lvalue.get(size-1).lexeme();
+      currFrame.instructions.add(VMInstr.SETFLD(typeInfo.offsetOf(type, field)));
     } else {
       int i = varMap.get(node.lvalue.get(0).lexeme());
       currFrame.instructions.add(VMInstr.STORE(i));
@@ -154,85 +307,50 @@ public class CodeGenerator implements Visitor {
   }
   
   public void visit(CondStmt node) throws MyPLException {
-    // TODO
-    node.ifPart.cond.accept(this);
-    //placeholder to either end or elif or else
-    currFrame.instructions.add(VMInstr.JMPF(-1));
-    int ifJump = currFrame.instructions.size() - 1;
-    for(Stmt s: node.ifPart.stmts){
-      s.accept(this);
-    }
-    //jump to end 
-    currFrame.instructions.add(VMInstr.JMP(-1));
-    int endJumpIndex = currFrame.instructions.size() - 1;
-    int elifJump = -1;
-    List<Integer> endElifJumps = new ArrayList<>();
-    if(node.elifs.size() > 0){
-      int elifStart = currFrame.instructions.size();
-      currFrame.instructions.get(ifJump).updateOperand(elifStart);
-      for(BasicIf b: node.elifs){
-        elifStart = currFrame.instructions.size() - 1;
-        if(elifJump != -1){
-          // then this is not the first elif section - 
-          // have to set previous elif jump if false to this new elif Start
-          currFrame.instructions.get(elifJump).updateOperand(elifStart);
-        }
-        
-        b.cond.accept(this);
-        //placeholder
-        currFrame.instructions.add(VMInstr.JMPF(-1));
-        elifJump = currFrame.instructions.size() - 1;
-        for(Stmt s: b.stmts){
-          s.accept(this);
-        }
-        //jump to end 
-        currFrame.instructions.add(VMInstr.JMP(-1));
-        endElifJumps.add(currFrame.instructions.size() - 1);
+    // the if part and the elifs are tried in order
+    List<BasicIf> branches = new ArrayList<>();
+    branches.add(node.ifPart);
+    branches.addAll(node.elifs);
+    List<Integer> endJumps = new ArrayList<>();
+    for(BasicIf b: branches){
+      // jumps to the next branch if the condition is false
+      List<Integer> falseJumps = new ArrayList<>();
+      condJump(b.cond, null, falseJumps);
+      for(Stmt s: b.stmts){
+        s.accept(this);
+        fixCallStmt(s);
       }
+      //jump to end 
+      currFrame.instructions.add(VMInstr.JMP(-1));
+      endJumps.add(currFrame.instructions.size() - 1);
+      patchJumps(falseJumps, currFrame.instructions.size());
     }
     if(node.elseStmts != null){
-      int elseJump = currFrame.instructions.size();
-      if(currFrame.instructions.get(ifJump).operand().toString().equals("-1")){
-        currFrame.instructions.get(ifJump).updateOperand(elseJump);
-      } else {
-        currFrame.instructions.get(elifJump).updateOperand(elseJump);
-      }
       for(Stmt s: node.elseStmts){
         s.accept(this);
+        fixCallStmt(s);
       }
     }
     //set all end jumps to nop.
     currFrame.instructions.add(VMInstr.NOP());
-    int nop = currFrame.instructions.size() - 1;
-    if(node.elseStmts == null){
-      if(currFrame.instructions.get(ifJump).operand().toString().equals("-1")){
-        currFrame.instructions.get(ifJump).updateOperand(nop);
-      } else {
-        currFrame.instructions.get(elifJump).updateOperand(nop);
-      }
-    }
-    currFrame.instructions.get(endJumpIndex).updateOperand(nop);
-    for(int i: endElifJumps){
-      currFrame.instructions.get(i).updateOperand(nop);
-    }
+    patchJumps(endJumps, currFrame.instructions.size() - 1);
   }
 
   public void visit(WhileStmt node) throws MyPLException {
     //grab starting index
     int start = currFrame.instructions.size();
-    //cond visitor
-    node.cond.accept(this);
-    //jump to end
-    currFrame.instructions.add(VMInstr.JMPF(-1));
-    int jump = currFrame.instructions.size() - 1;
+    //cond (jump to end if false)
+    List<Integer> falseJumps = new ArrayList<>();
+    condJump(node.cond, null, falseJumps);
     for(Stmt s: node.stmts){
       s.accept(this);
+      fixCallStmt(s);
     }
     //jump to starting index
     currFrame.instructions.add(VMInstr.JMP(start));
     currFrame.instructions.add(VMInstr.NOP());
     int end = currFrame.instructions.size() - 1;
-    currFrame.instructions.get(jump).updateOperand(end);
+    patchJumps(falseJumps, end);
   }
 
   public void visit(ForStmt node) throws MyPLException {
@@ -241,16 +359,18 @@ public class CodeGenerator implements Visitor {
     currVarIndex++;
     node.start.accept(this);
     varMap.put(node.varName.lexeme(),index);
+    varTypes.put(node.varName.lexeme(),"int");
     currFrame.instructions.add(VMInstr.STORE(index));
 
 
     currFrame.instructions.add(VMInstr.LOAD(index));
     int startIndex = currFrame.instructions.size() - 1;
     node.end.accept(this);
+    // the loop variable and bounds are ints
     if(node.upto){
-      currFrame.instructions.add(VMInstr.CMPLE());
+      currFrame.instructions.add(VMInstr.ICMPLE());
     } else {
-      currFrame.instructions.add(VMInstr.CMPGE());
+      currFrame.instructions.add(VMInstr.ICMPGE());
     }
     //placeholder - jump out of for loop
     currFrame.instructions.add(VMInstr.JMPF(-1));
@@ -258,14 +378,15 @@ public class CodeGenerator implements Visitor {
 
     for(Stmt s: node.stmts){
       s.accept(this);
+      fixCallStmt(s);
     }
 
     currFrame.instructions.add(VMInstr.LOAD(index));
     currFrame.instructions.add(VMInstr.PUSH(1));
     if(node.upto){
-      currFrame.instructions.add(VMInstr.ADD());
+      currFrame.instructions.add(VMInstr.IADD());
     } else {
-      currFrame.instructions.add(VMInstr.SUB());
+      currFrame.instructions.add(VMInstr.ISUB());
     }
     currFrame.instructions.add(VMInstr.STORE(index));
 
@@ -332,7 +453,7 @@ public class CodeGenerator implements Visitor {
       currFrame.instructions.add(VMInstr.TOSTR());
     }
     else if(node.funName.lexeme().equals("dtoi")){
-      currFrame.instructions.add(VMInstr.LEN());
+      currFrame.instructions.add(VMInstr.TOINT());
     }
     // user-defined functions
     else
@@ -387,11 +508,12 @@ public class CodeGenerator implements Visitor {
     }
     // alloc
     currFrame.instructions.add(VMInstr.ALLOC(names));
-    // push and set fields for vars
-    for(VarDeclStmt s: t.vdecls){
+    // push and set fields for vars (fields are stored in declaration
+    // order, so the offset is the var's index)
+    for(int j = 0; j < t.vdecls.size(); j++){
       currFrame.instructions.add(VMInstr.DUP());
-      s.expr.accept(this);
-      currFrame.instructions.add(VMInstr.SETFLD(s.varName.lexeme()));
+      t.vdecls.get(j).expr.accept(this);
+      currFrame.instructions.add(VMInstr.SETFLD(j));
     }
   }
   
@@ -400,53 +522,66 @@ public class CodeGenerator implements Visitor {
     //load node.path.get(0) - find in varMap
     int i = varMap.get(node.path.get(0).lexeme());
     currFrame.instructions.add(VMInstr.LOAD(i));
+    String type = varTypes.get(node.path.get(0).lexeme());
   
-    //getfld node.path.get(1) , etc
+    //getfld node.path.get(1) , etc (as offsets into the record)
     for(int j=1; j<node.path.size(); j++){
-      currFrame.instructions.add(VMInstr.GETFLD(node.path.get(j).lexeme()));
+      String field = node.path.get(j).lexeme();
+      currFrame.instructions.add(VMInstr.GETFLD(typeInfo.offsetOf(type, field)));
+      type = typeInfo.get(type, field).first;
     }
 
   }
       
   public void visit(NegatedRValue node) throws MyPLException {
     node.expr.accept(this);
-    currFrame.instructions.add(VMInstr.NEG());
+    String type = typeInfo.typeOf(node.expr);
+    if ("int".equals(type))
+      currFrame.instructions.add(VMInstr.INEG());
+    else if ("double".equals(type))
+      currFrame.instructions.add(VMInstr.DNEG());
+    else
+      currFrame.instructions.add(VMInstr.NEG());
   }
 
   public void visit(Expr node) throws MyPLException {
     // TODO
-    if(node.op != null){
+    if(node.op != null && isLogical(node.op.lexeme())){
+      // short circuit: only evaluate rest if first doesn't decide
+      // the result
+      String op = node.op.lexeme();
+      node.first.accept(this);
+      checkOperand(node.first, op);
+      currFrame.instructions.add(VMInstr.JMPF(-1));
+      int firstFalse = currFrame.instructions.size() - 1;
+      if(op.equals("and")){
+        node.rest.accept(this);
+        checkOperand(node.rest, op);
+        currFrame.instructions.add(VMInstr.JMP(-1));
+        int endJump = currFrame.instructions.size() - 1;
+        currFrame.instructions.get(firstFalse).updateOperand(endJump + 1);
+        currFrame.instructions.add(VMInstr.PUSH(false));
+        currFrame.instructions.add(VMInstr.NOP());
+        currFrame.instructions.get(endJump).updateOperand(endJump + 2);
+      } else {
+        currFrame.instructions.add(VMInstr.PUSH(true));
+        currFrame.instructions.add(VMInstr.JMP(-1));
+        int endJump = currFrame.instructions.size() - 1;
+        currFrame.instructions.get(firstFalse).updateOperand(endJump + 1);
+        node.rest.accept(this);
+        checkOperand(node.rest, op);
+        currFrame.instructions.add(VMInstr.NOP());
+        int end = currFrame.instructions.size() - 1;
+        currFrame.instructions.get(endJump).updateOperand(end);
+      }
+    } else if(node.op != null){
       //has rhs of expr
       node.first.accept(this);
       node.rest.accept(this);
-
-      if(node.op.lexeme().equals("+")){
-        currFrame.instructions.add(VMInstr.ADD());
-      }else if(node.op.lexeme().equals("-")){
-        currFrame.instructions.add(VMInstr.SUB());
-      }else if(node.op.lexeme().equals("*")){
-        currFrame.instructions.add(VMInstr.MUL());
-      }else if(node.op.lexeme().equals("/")){
-        currFrame.instructions.add(VMInstr.DIV());
-      }else if(node.op.lexeme().equals("%")){
-        currFrame.instructions.add(VMInstr.MOD());
-      }else if(node.op.lexeme().equals("and")){
-        currFrame.instructions.add(VMInstr.AND());
-      }else if(node.op.lexeme().equals("or")){
-        currFrame.instructions.add(VMInstr.OR());
-      }else if(node.op.lexeme().equals("<")){
-        currFrame.instructions.add(VMInstr.CMPLT());
-      }else if(node.op.lexeme().equals("<=")){
-        currFrame.instructions.add(VMInstr.CMPLE());
-      }else if(node.op.lexeme().equals(">")){
-        currFrame.instructions.add(VMInstr.CMPGT());
-      }else if(node.op.lexeme().equals(">=")){
-        currFrame.instructions.add(VMInstr.CMPGE());
-      }else if(node.op.lexeme().equals("==")){
-        currFrame.instructions.add(VMInstr.CMPEQ());
-      }else if(node.op.lexeme().equals("!=")){
-        currFrame.instructions.add(VMInstr.CMPNE());
-      }
+      // use the checked operand types to pick a typed instruction
+      String lhsType = typeInfo.typeOf(node.first);
+      String rhsType = typeInfo.typeOf(node.rest);
+      currFrame.instructions.add(binaryOp(node.op.lexeme(), lhsType, rhsType));
     } else {
       node.first.accept(this);
     }
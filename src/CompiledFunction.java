@@ -0,0 +1,50 @@
+/*
+ * File: CompiledFunction.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Base class of the JVM classes generated by the JIT compiler.
+ */
+
+
+/**
+ * A MyPL function compiled to JVM bytecode (see JitCompiler). The
+ * compiled code works on the same activation (variable and operand
+ * stack slots) as the interpreter, so the two can call each other and
+ * the garbage collector sees the same roots.
+ */
+public abstract class CompiledFunction {
+
+  // the function's constants (see VMFunction.constRefs)
+  protected final Object[] consts;
+
+
+  protected CompiledFunction(Object[] consts) {
+    this.consts = consts;
+  }
+
+  /**
+   * Runs a call of the function. The arguments are on the operand
+   * stack of the activation, and on return the function's value is
+   * left on top of it.
+   * @param vm the vm running the program
+   * @param frame the activation of the call
+   * @throws MyPLException if a runtime error occurs
+   */
+  public abstract void run(VM vm, VMActivation frame) throws MyPLException;
+
+
+  //----------------------------------------------------------------------
+  // Helpers called by the compiled code
+  //----------------------------------------------------------------------
+
+  // true if the int (or bool) values y and x are equal (see ICMPEQ)
+  public static boolean intEqual(Object ry, long y, Object rx, long x) {
+    return ry == rx && (rx == VM.NIL_OBJ || y == x);
+  }
+
+  // true if the double values y and x are equal (see DCMPEQ)
+  public static boolean doubleEqual(Object ry, long y, Object rx, long x) {
+    return ry == rx && (rx == VM.NIL_OBJ || VMValue.dbl(y) == VMValue.dbl(x));
+  }
+
+}
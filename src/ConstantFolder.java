@@ -0,0 +1,490 @@
+/*
+ * File: ConstantFolder.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Constant folding and propagation over a (checked) AST.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Simplifies a program after static checking (and before code
+ * generation). Constant expressions are replaced by their values,
+ * local variables that are initialized with a constant and never
+ * reassigned are replaced by the constant, and if and while statements
+ * whose conditions are constant are reduced to the branch that runs.
+ *
+ * Folding follows the VM's semantics (e.g., int arithmetic wraps
+ * around), and anything the VM would report an error for (division by
+ * zero, nil values) is left for the VM. The types of new expression
+ * terms are recorded in the type info for the code generator.
+ */
+public class ConstantFolder implements Visitor {
+
+  // the type information from the static checker
+  private TypeInfo typeInfo = null;
+
+  // the constant-valued variables of the current function
+  private Map<String,Token> constants = new HashMap<>();
+
+  // the variables of the current function that may hold constants
+  // (declared once, never assigned, and not a parameter or loop var)
+  private Set<String> candidates = new HashSet<>();
+
+  // number of expressions folded and branches removed
+  private int folded = 0;
+  private int branches = 0;
+
+
+  /**
+   * Create a constant folder.
+   * @param typeInfo the type info recorded by the static checker
+   */
+  public ConstantFolder(TypeInfo typeInfo) {
+    this.typeInfo = typeInfo;
+  }
+
+  // get the number of expressions (and variable uses) replaced by
+  // constants
+  public int folded() {
+    return folded;
+  }
+
+  // get the number of if and while statements simplified
+  public int branches() {
+    return branches;
+  }
+
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // fold each statement in the list, replacing if and while statements
+  // with constant conditions by the statements that run
+  private void foldStmts(List<Stmt> stmts) throws MyPLException {
+    for (int i = 0; i < stmts.size(); ++i) {
+      Stmt s = stmts.get(i);
+      s.accept(this);
+      List<Stmt> replacement = null;
+      if (s instanceof CondStmt)
+        replacement = simplify((CondStmt)s);
+      else if (s instanceof WhileStmt &&
+               Boolean.FALSE.equals(boolValue(((WhileStmt)s).cond)))
+        replacement = new ArrayList<>();
+      if (replacement != null) {
+        ++branches;
+        stmts.remove(i);
+        stmts.addAll(i, replacement);
+        i = i + replacement.size() - 1;
+      }
+    }
+  }
+
+  // drop the branches of an if statement whose conditions are false
+  // (and those after one that is true), returning the statements that
+  // replace it, or null if the statement is unchanged
+  private List<Stmt> simplify(CondStmt node) {
+    List<BasicIf> kept = new ArrayList<>();
+    List<BasicIf> branchList = new ArrayList<>();
+    branchList.add(node.ifPart);
+    branchList.addAll(node.elifs);
+    List<Stmt> elseStmts = node.elseStmts;
+    boolean changed = false;
+    for (BasicIf b : branchList) {
+      Boolean value = boolValue(b.cond);
+      if (value == null)
+        kept.add(b);
+      else {
+        changed = true;
+        if (value) {
+          // this branch runs whenever the ones before it don't
+          elseStmts = b.stmts;
+          break;
+        }
+      }
+    }
+    if (!changed)
+      return null;
+    List<Stmt> replacement = new ArrayList<>();
+    if (kept.isEmpty()) {
+      if (elseStmts != null)
+        replacement.addAll(elseStmts);
+    }
+    else {
+      CondStmt cond = new CondStmt();
+      cond.ifPart = kept.get(0);
+      cond.elifs = new ArrayList<>(kept.subList(1, kept.size()));
+      cond.elseStmts = elseStmts;
+      replacement.add(cond);
+    }
+    return replacement;
+  }
+
+  // find the variables of a function that can be treated as constants
+  // if initialized with a constant
+  private void findCandidates(FunDecl node) {
+    Map<String,Integer> decls = new HashMap<>();
+    Set<String> excluded = new HashSet<>();
+    for (FunParam p : node.params)
+      excluded.add(p.paramName.lexeme());
+    scan(node.stmts, decls, excluded);
+    candidates.clear();
+    for (String name : decls.keySet())
+      if (decls.get(name) == 1 && !excluded.contains(name))
+        candidates.add(name);
+  }
+
+  // count variable declarations and record assigned (and loop)
+  // variables in the given statements
+  private void scan(List<Stmt> stmts, Map<String,Integer> decls,
+                    Set<String> excluded)
+  {
+    if (stmts == null)
+      return;
+    for (Stmt s : stmts) {
+      if (s instanceof VarDeclStmt) {
+        String name = ((VarDeclStmt)s).varName.lexeme();
+        decls.put(name, decls.getOrDefault(name, 0) + 1);
+      }
+      else if (s instanceof AssignStmt)
+        excluded.add(((AssignStmt)s).lvalue.get(0).lexeme());
+      else if (s instanceof CondStmt) {
+        CondStmt c = (CondStmt)s;
+        scan(c.ifPart.stmts, decls, excluded);
+        for (BasicIf b : c.elifs)
+          scan(b.stmts, decls, excluded);
+        scan(c.elseStmts, decls, excluded);
+      }
+      else if (s instanceof WhileStmt)
+        scan(((WhileStmt)s).stmts, decls, excluded);
+      else if (s instanceof ForStmt) {
+        excluded.add(((ForStmt)s).varName.lexeme());
+        scan(((ForStmt)s).stmts, decls, excluded);
+      }
+    }
+  }
+
+  // the constant (literal token) an expression is equal to, or null
+  private static Token constantOf(Expr e) {
+    if (e == null || e.op != null || e.logicallyNegated)
+      return null;
+    return constantOf(e.first);
+  }
+
+  // the constant (literal token) an expression term is equal to, or null
+  private static Token constantOf(ExprTerm t) {
+    if (t instanceof ComplexTerm)
+      return constantOf(((ComplexTerm)t).expr);
+    RValue r = ((SimpleTerm)t).rvalue;
+    if (r instanceof SimpleRValue) {
+      Token value = ((SimpleRValue)r).value;
+      if (value.type() != TokenType.NIL)
+        return value;
+    }
+    return null;
+  }
+
+  // the value of a constant boolean condition, or null if the
+  // condition isn't constant
+  private static Boolean boolValue(Expr e) {
+    Token value = constantOf(e);
+    if (value == null || value.type() != TokenType.BOOL_VAL)
+      return null;
+    return value.lexeme().equals("true");
+  }
+
+  // create a term for the given literal value
+  private SimpleTerm literal(TokenType type, String lexeme, Token at) {
+    SimpleRValue rvalue = new SimpleRValue();
+    rvalue.value = new Token(type, lexeme, at.line(), at.column());
+    SimpleTerm term = new SimpleTerm();
+    term.rvalue = rvalue;
+    typeInfo.setType(term, typeName(type));
+    return term;
+  }
+
+  // the MyPL type of a literal
+  private static String typeName(TokenType type) {
+    if (type == TokenType.INT_VAL)
+      return "int";
+    else if (type == TokenType.DOUBLE_VAL)
+      return "double";
+    else if (type == TokenType.BOOL_VAL)
+      return "bool";
+    else if (type == TokenType.CHAR_VAL)
+      return "char";
+    return "string";
+  }
+
+  // true if the literal is a string or char without escape sequences
+  // (so its lexeme is also its value)
+  private static boolean isPlainText(Token t) {
+    return (t.type() == TokenType.STRING_VAL ||
+            t.type() == TokenType.CHAR_VAL) && t.lexeme().indexOf('\\') < 0;
+  }
+
+  // evaluate y op x for constants y and x (as the VM would), returning
+  // null if the operation can't be folded
+  private SimpleTerm evaluate(String op, Token y, Token x) {
+    TokenType type = y.type();
+    if (type == TokenType.INT_VAL && x.type() == type) {
+      int a = Integer.parseInt(y.lexeme());
+      int b = Integer.parseInt(x.lexeme());
+      if (op.equals("+"))
+        return literal(type, Integer.toString(a + b), y);
+      else if (op.equals("-"))
+        return literal(type, Integer.toString(a - b), y);
+      else if (op.equals("*"))
+        return literal(type, Integer.toString(a * b), y);
+      else if (op.equals("/") && b != 0)
+        return literal(type, Integer.toString(a / b), y);
+      else if (op.equals("%") && b != 0)
+        return literal(type, Integer.toString(a % b), y);
+      return compare(op, a < b, a == b, a > b, y);
+    }
+    else if (type == TokenType.DOUBLE_VAL && x.type() == type) {
+      double a = Double.parseDouble(y.lexeme());
+      double b = Double.parseDouble(x.lexeme());
+      if (op.equals("+"))
+        return literal(type, Double.toString(a + b), y);
+      else if (op.equals("-"))
+        return literal(type, Double.toString(a - b), y);
+      else if (op.equals("*"))
+        return literal(type, Double.toString(a * b), y);
+      else if (op.equals("/"))
+        return literal(type, Double.toString(a / b), y);
+      return compare(op, a < b, a == b, a > b, y);
+    }
+    else if (type == TokenType.BOOL_VAL && x.type() == type) {
+      boolean a = y.lexeme().equals("true");
+      boolean b = x.lexeme().equals("true");
+      if (op.equals("and"))
+        return literal(type, Boolean.toString(a && b), y);
+      else if (op.equals("or"))
+        return literal(type, Boolean.toString(a || b), y);
+      else if (op.equals("=="))
+        return literal(type, Boolean.toString(a == b), y);
+      else if (op.equals("!="))
+        return literal(type, Boolean.toString(a != b), y);
+    }
+    else if (isPlainText(y) && isPlainText(x)) {
+      String a = y.lexeme();
+      String b = x.lexeme();
+      if (op.equals("+"))
+        return literal(TokenType.STRING_VAL, a + b, y);
+      int cmp = a.compareTo(b);
+      return compare(op, cmp < 0, cmp == 0, cmp > 0, y);
+    }
+    return null;
+  }
+
+  // the result of a comparison operator given how its operands compare
+  // (or null if op isn't a comparison); for doubles, NaN is neither
+  // less than, equal to, nor greater than anything
+  private SimpleTerm compare(String op, boolean less, boolean equal,
+                             boolean greater, Token at)
+  {
+    Boolean result = null;
+    if (op.equals("<"))
+      result = less;
+    else if (op.equals("<="))
+      result = less || equal;
+    else if (op.equals(">"))
+      result = greater;
+    else if (op.equals(">="))
+      result = greater || equal;
+    else if (op.equals("=="))
+      result = equal;
+    else if (op.equals("!="))
+      result = !equal;
+    if (result == null)
+      return null;
+    return literal(TokenType.BOOL_VAL, result.toString(), at);
+  }
+
+
+  //----------------------------------------------------------------------
+  // top-level nodes
+  //----------------------------------------------------------------------
+
+  public void visit(Program node) throws MyPLException {
+    for (TypeDecl t : node.tdecls)
+      t.accept(this);
+    for (FunDecl f : node.fdecls)
+      f.accept(this);
+  }
+
+  public void visit(TypeDecl node) throws MyPLException {
+    // fold the field initializers (fields are never constants)
+    constants.clear();
+    candidates.clear();
+    for (VarDeclStmt v : node.vdecls)
+      v.expr.accept(this);
+  }
+
+  public void visit(FunDecl node) throws MyPLException {
+    constants.clear();
+    findCandidates(node);
+    foldStmts(node.stmts);
+  }
+
+
+  //----------------------------------------------------------------------
+  // statement nodes
+  //----------------------------------------------------------------------
+
+  public void visit(VarDeclStmt node) throws MyPLException {
+    node.expr.accept(this);
+    Token value = constantOf(node.expr);
+    String name = node.varName.lexeme();
+    if (value != null && candidates.contains(name))
+      constants.put(name, value);
+  }
+
+  public void visit(AssignStmt node) throws MyPLException {
+    node.expr.accept(this);
+  }
+
+  public void visit(CondStmt node) throws MyPLException {
+    node.ifPart.cond.accept(this);
+    foldStmts(node.ifPart.stmts);
+    for (BasicIf b : node.elifs) {
+      b.cond.accept(this);
+      foldStmts(b.stmts);
+    }
+    if (node.elseStmts != null)
+      foldStmts(node.elseStmts);
+  }
+
+  public void visit(WhileStmt node) throws MyPLException {
+    node.cond.accept(this);
+    foldStmts(node.stmts);
+  }
+
+  public void visit(ForStmt node) throws MyPLException {
+    node.start.accept(this);
+    node.end.accept(this);
+    foldStmts(node.stmts);
+  }
+
+  public void visit(ReturnStmt node) throws MyPLException {
+    if (node.expr != null)
+      node.expr.accept(this);
+  }
+
+  public void visit(DeleteStmt node) throws MyPLException {
+    // nothing to fold
+  }
+
+
+  //----------------------------------------------------------------------
+  // statement and rvalue node
+  //----------------------------------------------------------------------
+
+  public void visit(CallExpr node) throws MyPLException {
+    for (Expr arg : node.args)
+      arg.accept(this);
+  }
+
+
+  //----------------------------------------------------------------------
+  // rvalue nodes
+  //----------------------------------------------------------------------
+
+  public void visit(SimpleRValue node) throws MyPLException {
+    // nothing to fold
+  }
+
+  public void visit(NewRValue node) throws MyPLException {
+    // nothing to fold (field initializers are folded with the type)
+  }
+
+  public void visit(IDRValue node) throws MyPLException {
+    // variables are replaced by their values in visit(SimpleTerm)
+  }
+
+  public void visit(NegatedRValue node) throws MyPLException {
+    node.expr.accept(this);
+  }
+
+
+  //----------------------------------------------------------------------
+  // expression node
+  //----------------------------------------------------------------------
+
+  public void visit(Expr node) throws MyPLException {
+    node.first.accept(this);
+    if (node.rest != null) {
+      node.rest.accept(this);
+      Token y = constantOf(node.first);
+      Token x = constantOf(node.rest);
+      if (y != null && x != null) {
+        SimpleTerm value = evaluate(node.op.lexeme(), y, x);
+        if (value != null) {
+          node.first = value;
+          node.op = null;
+          node.rest = null;
+          ++folded;
+        }
+      }
+    }
+    if (node.op == null && node.logicallyNegated) {
+      Token value = constantOf(node.first);
+      if (value != null && value.type() == TokenType.BOOL_VAL) {
+        boolean negated = !value.lexeme().equals("true");
+        node.first = literal(TokenType.BOOL_VAL, Boolean.toString(negated),
+                             value);
+        node.logicallyNegated = false;
+        ++folded;
+      }
+    }
+  }
+
+
+  //----------------------------------------------------------------------
+  // terms
+  //----------------------------------------------------------------------
+
+  public void visit(SimpleTerm node) throws MyPLException {
+    node.rvalue.accept(this);
+    if (node.rvalue instanceof IDRValue) {
+      // replace a constant variable with its value
+      List<Token> path = ((IDRValue)node.rvalue).path;
+      Token value = constants.get(path.get(0).lexeme());
+      if (path.size() == 1 && value != null) {
+        SimpleRValue rvalue = new SimpleRValue();
+        rvalue.value = value;
+        node.rvalue = rvalue;
+        ++folded;
+      }
+    }
+    else if (node.rvalue instanceof NegatedRValue) {
+      // negate a constant number
+      Token value = constantOf(((NegatedRValue)node.rvalue).expr);
+      if (value != null && value.type() == TokenType.INT_VAL) {
+        int negated = -Integer.parseInt(value.lexeme());
+        node.rvalue = literal(value.type(), Integer.toString(negated),
+                              value).rvalue;
+        ++folded;
+      }
+      else if (value != null && value.type() == TokenType.DOUBLE_VAL) {
+        double negated = -Double.parseDouble(value.lexeme());
+        node.rvalue = literal(value.type(), Double.toString(negated),
+                              value).rvalue;
+        ++folded;
+      }
+    }
+  }
+
+  public void visit(ComplexTerm node) throws MyPLException {
+    node.expr.accept(this);
+  }
+
+}
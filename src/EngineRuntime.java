@@ -0,0 +1,191 @@
+/*
+ * File: EngineRuntime.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: The runtime shared by the engines that run a checked MyPL
+ *       program directly from its AST (the closure engine and the
+ *       specializing interpreter).
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The parts of running a program that don't depend on how an engine
+ * represents the code: functions and their calls' frames, the variable
+ * slots of the function being built, the records, runtime errors, and
+ * running main on a thread with a large stack. Values are kept as in
+ * the VM (see VMValue), and runtime errors name the function they
+ * occur in. Each engine extends this class with the type B of its
+ * function bodies.
+ */
+abstract class EngineRuntime<B> {
+
+  // a function (every function is created before any is built, so
+  // calls can be bound to functions declared later)
+  static class Function<T> {
+    final String name;
+    int localCount = 0;
+    T body = null;
+
+    Function(String name) {
+      this.name = name;
+    }
+  }
+
+  // a call of a function: its variable slots (as in VMActivation), the
+  // bits of the last value computed, and the value it returns
+  static class Frame {
+    final Function<?> function;
+    final long[] prims;
+    final Object[] refs;
+    long bits = 0;
+    long returnBits = 0;
+    Object returnRef = VM.NIL_OBJ;
+
+    Frame(Function<?> function) {
+      this.function = function;
+      prims = new long[function.localCount];
+      refs = new Object[function.localCount];
+    }
+  }
+
+
+  /**
+   * The default size (in bytes) of the Java stack the program runs on.
+   */
+  public static final long DEFAULT_STACK_SIZE = 1L << 30;
+
+  // size of the Java stack for running the program (calls use the
+  // Java stack, so how deep a program can recurse depends on it)
+  private long stackSize = DEFAULT_STACK_SIZE;
+
+  // the program's functions
+  Map<String,Function<B>> functions = new HashMap<>();
+
+  // the records (freed by delete, as in the VM without the garbage
+  // collector) and the next available object-id
+  VMHeap heap = new VMHeap();
+  private int objectId = 1111;
+
+  // the function being built and its variables' slots
+  Function<B> currFunction = null;
+  Map<String,Integer> varMap = null;
+  private int currVarIndex = 0;
+
+
+  /**
+   * Sets the size of the Java stack the program runs on (calls use the
+   * Java stack, so deeper recursion needs a larger one).
+   * @param bytes the stack size, in bytes
+   */
+  public void setStackSize(long bytes) {
+    stackSize = bytes;
+  }
+
+  /**
+   * Runs the program (which is built by visiting it).
+   * @throws MyPLException if there is no main function or a runtime
+   *         error occurs
+   */
+  public void run() throws MyPLException {
+    Function<B> main = functions.get("main");
+    if (main == null)
+      throw MyPLException.VMError("No 'main' function");
+    Throwable[] thrown = new Throwable[1];
+    Thread thread = new Thread(null, () -> {
+        try {
+          call(main.body, new Frame(main));
+        } catch (StackOverflowError e) {
+          thrown[0] = MyPLException.VMError("Stack overflow");
+        } catch (Throwable e) {
+          thrown[0] = e;
+        }
+      }, "mypl", stackSize);
+    thread.start();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw MyPLException.VMError("Interrupted");
+    }
+    if (thrown[0] instanceof MyPLException)
+      throw (MyPLException)thrown[0];
+    else if (thrown[0] instanceof RuntimeException)
+      throw (RuntimeException)thrown[0];
+    else if (thrown[0] instanceof Error)
+      throw (Error)thrown[0];
+  }
+
+  // run a function body in the given call
+  abstract void call(B body, Frame f) throws MyPLException;
+
+
+  //----------------------------------------------------------------------
+  // Variable slots
+  //----------------------------------------------------------------------
+
+  // start building a function, whose arguments are passed in the
+  // first slots
+  void startFunction(FunDecl node) {
+    currFunction = functions.get(node.funName.lexeme());
+    varMap = new HashMap<>();
+    currVarIndex = 0;
+    for (FunParam p : node.params)
+      varMap.put(p.paramName.lexeme(), newSlot());
+  }
+
+  // finish building the function with the given body
+  void endFunction(B body) {
+    currFunction.body = body;
+    // (slots are never reused within a function)
+    currFunction.localCount = currVarIndex;
+  }
+
+  // a slot for a new variable of the function being built
+  int newSlot() {
+    return currVarIndex++;
+  }
+
+
+  //----------------------------------------------------------------------
+  // Records and runtime errors
+  //----------------------------------------------------------------------
+
+  // allocate a record of the given type
+  VMRecord allocate(VMType type) {
+    VMRecord obj = new VMRecord(type, objectId);
+    objectId = objectId + 1;
+    heap.add(obj);
+    return obj;
+  }
+
+  // a runtime error in the given call
+  static MyPLException error(Frame f, String m) {
+    return MyPLException.VMError(m + " (in " + f.function.name + ")");
+  }
+
+  // error if given value is nil
+  static void checkNil(Frame f, Object ref) throws MyPLException {
+    if (ref == VM.NIL_OBJ)
+      throw error(f, "Nil reference");
+  }
+
+  // get the (live) record referenced by a value
+  static VMRecord deref(Frame f, Object ref) throws MyPLException {
+    if (ref instanceof VMRecord && !((VMRecord)ref).isFreed())
+      return (VMRecord)ref;
+    checkNil(f, ref);
+    throw error(f, "invalid heap access");
+  }
+
+  // the value of a char or string literal
+  static String unescape(String s) {
+    s = s.replace("\\n", "\n");
+    s = s.replace("\\t", "\t");
+    s = s.replace("\\r", "\r");
+    return s.replace("\\\\", "\\");
+  }
+
+}
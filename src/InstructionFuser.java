@@ -0,0 +1,272 @@
+/*
+ * File: InstructionFuser.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Replaces frequent instruction sequences with superinstructions.
+ */
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Fuses common sequences of instructions (e.g., the LOAD, PUSH, ICMPLE,
+ * JMPF at the top of a for loop) into single superinstructions, so the
+ * VM dispatches fewer instructions. Each frame's code is mined for the
+ * sequences that have a superinstruction, counting each occurrence by
+ * how deeply it is nested in loops. The most profitable fusion (the
+ * one removing the most weighted dispatches) is applied first, and the
+ * code is mined again, until no more sequences can be fused. Since the
+ * other passes don't know about superinstructions, this pass must run
+ * last (after the peephole optimizer).
+ */
+public class InstructionFuser {
+
+  // the kinds of fusions (and the sequences they replace)
+  public enum Fusion {
+    INCREMENT(4),       // LOAD a, PUSH 1, ADD/SUB, STORE a => INC/DEC a
+    LOAD_LOAD_IADD(3),  // LOAD a, LOAD b, IADD => LOAD_LOAD_IADD a b
+    LOAD_LOAD(2),       // LOAD a, LOAD b => LOAD_LOAD a b
+    LOAD_PUSH(2),       // LOAD a, PUSH c => LOAD_PUSH a c
+    INC_JMP(2),         // INC/DEC a, JMP i => INC_JMP/DEC_JMP a i
+    COMPARE_JUMP(2);    // ICMPxx, JMPF i => ICMPxx_JMPF i
+
+    // the number of instructions replaced
+    private final int length;
+
+    Fusion(int length) {
+      this.length = length;
+    }
+  }
+
+  // weight of an occurrence for each level of loop nesting (i.e., a
+  // rough estimate of the number of times a loop body runs)
+  private static final long LOOP_WEIGHT = 10;
+
+  // number of sequences replaced by each kind of fusion
+  private Map<Fusion,Integer> fused = new EnumMap<>(Fusion.class);
+
+
+  /**
+   * Creates an instruction fuser.
+   */
+  public InstructionFuser() {
+    for (Fusion fusion : Fusion.values())
+      fused.put(fusion, 0);
+  }
+
+  /**
+   * Fuses the code of each of the VM's frames.
+   * @param vm the vm whose (generated) code is fused
+   */
+  public void fuse(VM vm) {
+    for (VMFrame frame : vm.frames())
+      fuse(frame);
+  }
+
+  /**
+   * Fuses the code of the given frame.
+   * @param frame the frame to fuse
+   */
+  public void fuse(VMFrame frame) {
+    List<VMInstr> code = frame.instructions;
+    Fusion best = mostProfitable(code);
+    while (best != null) {
+      code = apply(best, code);
+      best = mostProfitable(code);
+    }
+    frame.instructions = code;
+  }
+
+  /**
+   * Returns the number of sequences replaced by the given fusion.
+   */
+  public int fused(Fusion fusion) {
+    return fused.get(fusion);
+  }
+
+  /**
+   * Returns a summary of the sequences fused.
+   */
+  public String stats() {
+    String s = "fused:";
+    int saved = 0;
+    for (Fusion fusion : Fusion.values()) {
+      s += " " + fusion.toString().toLowerCase().replace('_', '-') + " " +
+        fused.get(fusion) + ",";
+      saved += fused.get(fusion) * (fusion.length - 1);
+    }
+    return s + " instructions removed " + saved;
+  }
+
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // mine the code for the fusion that removes the most dispatches
+  // (weighted by loop nesting), returning null if none apply
+  private Fusion mostProfitable(List<VMInstr> code) {
+    boolean[] target = jumpTargets(code);
+    long[] weight = loopWeights(code);
+    Fusion best = null;
+    long bestSavings = 0;
+    for (Fusion fusion : Fusion.values()) {
+      long savings = 0;
+      for (int i = 0; i < code.size(); ++i)
+        if (replacement(fusion, code, target, i) != null)
+          savings += weight[i] * (fusion.length - 1);
+      if (savings > bestSavings) {
+        best = fusion;
+        bestSavings = savings;
+      }
+    }
+    return best;
+  }
+
+  // replace each (non-overlapping) sequence of the fusion, returning
+  // the new instruction list (with its jump targets fixed up)
+  private List<VMInstr> apply(Fusion fusion, List<VMInstr> code) {
+    int n = code.size();
+    boolean[] target = jumpTargets(code);
+    // new index of each instruction (the instructions fused into the
+    // first of a sequence are never jump targets)
+    int[] newIndex = new int[n + 1];
+    List<VMInstr> result = new ArrayList<>();
+    for (int i = 0; i < n; ++i) {
+      newIndex[i] = result.size();
+      VMInstr instr = replacement(fusion, code, target, i);
+      if (instr == null) {
+        result.add(code.get(i));
+        continue;
+      }
+      result.add(instr);
+      fused.put(fusion, fused.get(fusion) + 1);
+      for (int j = 1; j < fusion.length; ++j)
+        newIndex[i + j] = result.size() - 1;
+      i += fusion.length - 1;
+    }
+    newIndex[n] = result.size();
+    for (int i = 0; i < result.size(); ++i) {
+      int to = StackAnalyzer.jumpTarget(result.get(i));
+      if (to != StackAnalyzer.NO_TARGET && to >= 0 && to <= n)
+        result.set(i, retarget(result.get(i), newIndex[to]));
+    }
+    return result;
+  }
+
+  // the superinstruction replacing the fusion's sequence starting at
+  // i, or null if the sequence isn't there (or is jumped into)
+  private static VMInstr replacement(Fusion fusion, List<VMInstr> code,
+                                     boolean[] target, int i)
+  {
+    if (i + fusion.length > code.size())
+      return null;
+    for (int j = i + 1; j < i + fusion.length; ++j)
+      if (target[j])
+        return null;
+    VMInstr first = code.get(i);
+    VMInstr second = code.get(i + 1);
+    OpCode op1 = first.opcode();
+    OpCode op2 = second.opcode();
+    switch (fusion) {
+    case INCREMENT: {
+      OpCode arith = code.get(i + 2).opcode();
+      VMInstr store = code.get(i + 3);
+      if (op1 != OpCode.LOAD || op2 != OpCode.PUSH ||
+          !Integer.valueOf(1).equals(second.operand()) ||
+          store.opcode() != OpCode.STORE ||
+          !first.operand().equals(store.operand()))
+        return null;
+      int address = (int)first.operand();
+      if (arith == OpCode.ADD || arith == OpCode.IADD)
+        return VMInstr.INC(address);
+      if (arith == OpCode.SUB || arith == OpCode.ISUB)
+        return VMInstr.DEC(address);
+      return null;
+    }
+    case LOAD_LOAD_IADD:
+      if (op1 != OpCode.LOAD || op2 != OpCode.LOAD ||
+          code.get(i + 2).opcode() != OpCode.IADD)
+        return null;
+      return VMInstr.LOAD_LOAD_IADD((int)first.operand(),
+                                    (int)second.operand());
+    case LOAD_LOAD:
+      if (op1 != OpCode.LOAD || op2 != OpCode.LOAD)
+        return null;
+      return VMInstr.LOAD_LOAD((int)first.operand(), (int)second.operand());
+    case LOAD_PUSH:
+      if (op1 != OpCode.LOAD || op2 != OpCode.PUSH)
+        return null;
+      return VMInstr.LOAD_PUSH((int)first.operand(), second.operand());
+    case INC_JMP:
+      if (op2 != OpCode.JMP)
+        return null;
+      if (op1 == OpCode.INC)
+        return VMInstr.INC_JMP((int)first.operand(), (int)second.operand());
+      if (op1 == OpCode.DEC)
+        return VMInstr.DEC_JMP((int)first.operand(), (int)second.operand());
+      return null;
+    case COMPARE_JUMP:
+      if (op2 != OpCode.JMPF)
+        return null;
+      int address = (int)second.operand();
+      switch (op1) {
+      case ICMPLT: return VMInstr.ICMPLT_JMPF(address);
+      case ICMPLE: return VMInstr.ICMPLE_JMPF(address);
+      case ICMPGT: return VMInstr.ICMPGT_JMPF(address);
+      case ICMPGE: return VMInstr.ICMPGE_JMPF(address);
+      case ICMPEQ: return VMInstr.ICMPEQ_JMPF(address);
+      case ICMPNE: return VMInstr.ICMPNE_JMPF(address);
+      default: return null;
+      }
+    default:
+      return null;
+    }
+  }
+
+  // a copy of a jump instruction with the given target
+  private static VMInstr retarget(VMInstr instr, int to) {
+    OpCode op = instr.opcode();
+    if (op == OpCode.INC_JMP || op == OpCode.DEC_JMP) {
+      int address = (int)((List<?>)instr.operand()).get(0);
+      VMInstr copy = new VMInstr(op, List.of(address, to));
+      copy.addComment(instr.comment());
+      return copy;
+    }
+    instr.updateOperand(to);
+    return instr;
+  }
+
+  // mark each instruction that is the target of a jump
+  private static boolean[] jumpTargets(List<VMInstr> code) {
+    boolean[] target = new boolean[code.size() + 1];
+    for (VMInstr instr : code) {
+      int to = StackAnalyzer.jumpTarget(instr);
+      if (to != StackAnalyzer.NO_TARGET && to >= 0 && to <= code.size())
+        target[to] = true;
+    }
+    return target;
+  }
+
+  // weight each instruction by the loops (backward jumps) around it
+  private static long[] loopWeights(List<VMInstr> code) {
+    int[] depth = new int[code.size()];
+    for (int i = 0; i < code.size(); ++i) {
+      int to = StackAnalyzer.jumpTarget(code.get(i));
+      if (to >= 0 && to <= i)
+        for (int j = to; j <= i; ++j)
+          ++depth[j];
+    }
+    long[] weight = new long[code.size()];
+    for (int i = 0; i < code.size(); ++i) {
+      weight[i] = 1;
+      for (int d = 0; d < Math.min(depth[i], 6); ++d)
+        weight[i] *= LOOP_WEIGHT;
+    }
+    return weight;
+  }
+
+}
@@ -0,0 +1,720 @@
+/*
+ * File: JitCompiler.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Compiles loaded MyPL functions to JVM bytecode.
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+
+/**
+ * Translates a VMFunction's instructions into the run method of a JVM
+ * class (see CompiledFunction), which is loaded as a hidden class so
+ * that HotSpot can compile it like any other Java code.
+ *
+ * The compiled code keeps the MyPL values in the activation's slots,
+ * just like the interpreter, but since the operand stack height at
+ * each instruction is known at load time (see StackAnalyzer) every
+ * slot access uses a constant index and the dispatch loop, the stack
+ * pointer, and the operand decoding all go away. Functions using
+ * instructions that aren't supported (e.g., READ and the untyped
+ * arithmetic operators) are left to the interpreter.
+ */
+public class JitCompiler {
+
+  // the JVM local variables of the run method
+  private static final int THIS = 0;
+  private static final int VM_ARG = 1;
+  private static final int FRAME = 2;
+  private static final int PRIMS = 3;
+  private static final int REFS = 4;
+  private static final int RECORD = 5;
+  private static final int TEMP_BITS = 6;   // (a long, so also 7)
+  private static final int TEMP_REF = 8;
+  private static final int MAX_LOCALS = 9;
+
+  // the most JVM operand stack slots used by one instruction's code
+  private static final int MAX_STACK = 12;
+
+  // class names and type descriptors
+  private static final String BASE = "CompiledFunction";
+  private static final String VM_CLASS = "VM";
+  private static final String ACTIVATION = "VMActivation";
+  private static final String VALUE = "VMValue";
+  private static final String RECORD_CLASS = "VMRecord";
+  private static final String OBJECT = "Ljava/lang/Object;";
+  private static final String STRING = "Ljava/lang/String;";
+  private static final String PRIM_ARRAY = "[J";
+  private static final String REF_ARRAY = "[Ljava/lang/Object;";
+
+  // for defining the hidden classes (in this class's package)
+  private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+  // the function being compiled and its code
+  private VMFunction fun;
+  private ClassFileWriter writer;
+  private ClassFileWriter.Code c;
+  private ClassFileWriter.Label[] labels;
+
+
+  /**
+   * Compiles the given (loaded and linked) function.
+   * @param fun the function to compile
+   * @return the compiled function, or null if the function uses an
+   *         instruction that isn't supported or is too large to fit in
+   *         a JVM method
+   */
+  public CompiledFunction compile(VMFunction fun) {
+    if (!isSupported(fun))
+      return null;
+    this.fun = fun;
+    try {
+      writer = new ClassFileWriter("Jit$" + fun.functionName(), BASE);
+      writeConstructor();
+      writeRun();
+      byte[] bytes = writer.toBytes();
+      MethodHandles.Lookup hidden = lookup.defineHiddenClass(bytes, true);
+      MethodType type = MethodType.methodType(void.class, Object[].class);
+      return (CompiledFunction)hidden
+        .findConstructor(hidden.lookupClass(), type).invoke(fun.constRefs);
+    } catch (ClassFileWriter.TooLargeException e) {
+      // the code didn't fit in a JVM class
+      return null;
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns true if every (reachable) instruction of the function can
+   * be compiled.
+   * @param fun the function to check
+   */
+  public static boolean isSupported(VMFunction fun) {
+    int[] depths = fun.stackDepths();
+    // the compiled code can't run off the end of the function
+    if (depths[fun.code.length] >= 0)
+      return false;
+    for (int pc = 0; pc < fun.code.length; ++pc)
+      if (depths[pc] >= 0 && !isSupported(fun.code[pc].opcode(), fun, pc))
+        return false;
+    return true;
+  }
+
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // true if the instruction at pc can be compiled
+  private static boolean isSupported(OpCode op, VMFunction fun, int pc) {
+    switch (op) {
+    case READ: case LEN: case GETCHR: case TOINT: case TODBL:
+    case ADD: case SUB: case MUL: case DIV: case NEG:
+    case CMPLT: case CMPLE: case CMPGT: case CMPGE:
+    case SCMPLT: case SCMPLE: case SCMPGT: case SCMPGE:
+      return false;
+    case GETFLD: case SETFLD:
+      // fields given by name are looked up by the interpreter
+      return fun.args[pc] >= 0;
+    default:
+      return true;
+    }
+  }
+
+  // the constructor passes the function's constants to the base class
+  private void writeConstructor() {
+    c = writer.method(ClassFileWriter.ACC_PUBLIC, "<init>",
+                      "(" + REF_ARRAY + ")V", 2);
+    load(Bytecode.ALOAD, THIS);
+    load(Bytecode.ALOAD, 1);
+    c.op(Bytecode.INVOKESPECIAL,
+         writer.methodRef(BASE, "<init>", "(" + REF_ARRAY + ")V"));
+    c.op(Bytecode.RETURN);
+    c.end(2);
+  }
+
+  // the run method does the work of each instruction in turn
+  private void writeRun() {
+    c = writer.method(ClassFileWriter.ACC_PUBLIC, "run",
+                      "(L" + VM_CLASS + ";L" + ACTIVATION + ";)V", MAX_LOCALS);
+    // keep the activation's slot arrays in locals
+    load(Bytecode.ALOAD, FRAME);
+    c.op(Bytecode.GETFIELD, writer.fieldRef(ACTIVATION, "prims", PRIM_ARRAY));
+    load(Bytecode.ASTORE, PRIMS);
+    load(Bytecode.ALOAD, FRAME);
+    c.op(Bytecode.GETFIELD, writer.fieldRef(ACTIVATION, "refs", REF_ARRAY));
+    load(Bytecode.ASTORE, REFS);
+    labels = new ClassFileWriter.Label[fun.code.length];
+    for (int pc = 0; pc < labels.length; ++pc)
+      labels[pc] = new ClassFileWriter.Label();
+    int[] depths = fun.stackDepths();
+    // a call started by the interpreter can continue at the top of
+    // any of its loops (see VM.setTierThreshold), where frame.pc is
+    // the first instruction of the loop
+    boolean[] entry = new boolean[fun.code.length];
+    for (int pc = 0; pc < fun.code.length; ++pc) {
+      int to = StackAnalyzer.jumpTarget(fun.code[pc]);
+      if (depths[pc] >= 0 && to > 0 && to <= pc && !entry[to]) {
+        entry[to] = true;
+        load(Bytecode.ALOAD, FRAME);
+        c.op(Bytecode.GETFIELD, writer.fieldRef(ACTIVATION, "pc", "I"));
+        c.iconst(to);
+        c.jump(Bytecode.IF_ICMPEQ, labels[to]);
+      }
+    }
+    for (int pc = 0; pc < fun.code.length; ++pc) {
+      c.place(labels[pc]);
+      // skip unreachable code
+      if (depths[pc] >= 0)
+        instruction(pc, fun.localCount() + depths[pc]);
+    }
+    c.end(MAX_STACK);
+  }
+
+  // the code for the instruction at pc, where sp is the activation's
+  // stack pointer before the instruction
+  private void instruction(int pc, int sp) {
+    int x = sp - 1;
+    int y = sp - 2;
+    int a = fun.args[pc];
+    int b = fun.args2[pc];
+    switch (fun.code[pc].opcode()) {
+
+    // consts/vars
+
+    case PUSH:
+      pushConst(sp, pc);
+      break;
+    case POP: case NOP:
+      break;
+    case LOAD:
+      copy(a, sp);
+      break;
+    case STORE:
+      copy(x, a);
+      break;
+    case INC:
+      increment(a, 1, pc);
+      break;
+    case DEC:
+      increment(a, -1, pc);
+      break;
+
+    // ops
+
+    case IADD: intOp(Bytecode.IADD, y, x, pc); break;
+    case ISUB: intOp(Bytecode.ISUB, y, x, pc); break;
+    case IMUL: intOp(Bytecode.IMUL, y, x, pc); break;
+    case IDIV: intOp(Bytecode.IDIV, y, x, pc); break;
+    case MOD: intOp(Bytecode.IREM, y, x, pc); break;
+    case DADD: doubleOp(Bytecode.DADD, y, x, pc); break;
+    case DSUB: doubleOp(Bytecode.DSUB, y, x, pc); break;
+    case DMUL: doubleOp(Bytecode.DMUL, y, x, pc); break;
+    case DDIV: doubleOp(Bytecode.DDIV, y, x, pc); break;
+    case AND: bitOp(Bytecode.LAND, y, x, pc); break;
+    case OR: bitOp(Bytecode.LOR, y, x, pc); break;
+
+    case INEG:
+      nilCheck(x, pc);
+      startPrim(x);
+      intValue(x);
+      c.op(Bytecode.INEG);
+      c.op(Bytecode.I2L);
+      c.op(Bytecode.LASTORE);
+      break;
+    case DNEG:
+      nilCheck(x, pc);
+      startPrim(x);
+      doubleValue(x);
+      c.op(Bytecode.DNEG);
+      toBits();
+      c.op(Bytecode.LASTORE);
+      break;
+    case NOT:
+      nilCheck(x, pc);
+      startPrim(x);
+      loadPrim(x);
+      c.lconst(1);
+      c.op(Bytecode.LXOR);
+      c.op(Bytecode.LASTORE);
+      break;
+    case SCONCAT:
+      nilCheck(x, pc);
+      nilCheck(y, pc);
+      startRef(y);
+      loadRef(y);
+      c.op(Bytecode.CHECKCAST, writer.classRef("java/lang/String"));
+      loadRef(x);
+      c.op(Bytecode.CHECKCAST, writer.classRef("java/lang/String"));
+      c.op(Bytecode.INVOKEVIRTUAL, writer.methodRef("java/lang/String",
+                                                    "concat",
+                                                    "(" + STRING + ")" + STRING));
+      c.op(Bytecode.AASTORE);
+      break;
+
+    // comparisons (leaving a bool in y's slot)
+
+    case ICMPLT: intCompare(Bytecode.IF_ICMPLT, y, x, pc); break;
+    case ICMPLE: intCompare(Bytecode.IF_ICMPLE, y, x, pc); break;
+    case ICMPGT: intCompare(Bytecode.IF_ICMPGT, y, x, pc); break;
+    case ICMPGE: intCompare(Bytecode.IF_ICMPGE, y, x, pc); break;
+    case DCMPLT: doubleCompare(Bytecode.DCMPG, Bytecode.IFLT, y, x, pc); break;
+    case DCMPLE: doubleCompare(Bytecode.DCMPG, Bytecode.IFLE, y, x, pc); break;
+    case DCMPGT: doubleCompare(Bytecode.DCMPL, Bytecode.IFGT, y, x, pc); break;
+    case DCMPGE: doubleCompare(Bytecode.DCMPL, Bytecode.IFGE, y, x, pc); break;
+    case ICMPEQ: case ICMPNE: case DCMPEQ: case DCMPNE: case SCMPEQ:
+    case SCMPNE: case CMPEQ: case CMPNE: {
+      OpCode op = fun.code[pc].opcode();
+      startPrim(y);
+      equal(op, y, x);
+      boolean negated = op == OpCode.ICMPNE || op == OpCode.DCMPNE ||
+        op == OpCode.SCMPNE || op == OpCode.CMPNE;
+      bitToLong(negated ? Bytecode.IFEQ : Bytecode.IFNE);
+      c.op(Bytecode.LASTORE);
+      setTag(y, "BOOL");
+      break;
+    }
+
+    // jumps
+
+    case JMP:
+      c.jump(Bytecode.GOTO, labels[a]);
+      break;
+    case JMPF:
+      loadPrim(x);
+      c.lconst(0);
+      c.op(Bytecode.LCMP);
+      c.jump(Bytecode.IFEQ, labels[a]);
+      break;
+
+    // functions
+
+    case CALL:
+      load(Bytecode.ALOAD, VM_ARG);
+      load(Bytecode.ALOAD, FRAME);
+      c.iconst(sp);
+      loadConst(pc, "VMFunction");
+      c.op(Bytecode.INVOKEVIRTUAL,
+           writer.methodRef(VM_CLASS, "call",
+                            "(L" + ACTIVATION + ";ILVMFunction;)V"));
+      break;
+    case VRET:
+      // the return value is left on top of the stack
+      setStackPointer(sp);
+      c.op(Bytecode.RETURN);
+      break;
+
+    // built-ins
+
+    case WRITE:
+      c.op(Bytecode.GETSTATIC, writer.fieldRef("java/lang/System", "out",
+                                               "Ljava/io/PrintStream;"));
+      loadRef(x);
+      loadPrim(x);
+      c.op(Bytecode.INVOKESTATIC,
+           writer.methodRef(VALUE, "toString", "(" + OBJECT + "J)" + STRING));
+      c.op(Bytecode.INVOKEVIRTUAL, writer.methodRef("java/io/PrintStream",
+                                                    "print",
+                                                    "(" + STRING + ")V"));
+      break;
+    case TOSTR:
+      nilCheck(x, pc);
+      startRef(x);
+      loadRef(x);
+      loadPrim(x);
+      c.op(Bytecode.INVOKESTATIC,
+           writer.methodRef(VALUE, "toString", "(" + OBJECT + "J)" + STRING));
+      c.op(Bytecode.AASTORE);
+      startPrim(x);
+      c.lconst(0);
+      c.op(Bytecode.LASTORE);
+      break;
+
+    // heap
+
+    case ALLOC:
+      // the collector needs the current stack heights
+      setStackPointer(sp);
+      startRef(sp);
+      load(Bytecode.ALOAD, VM_ARG);
+      loadConst(pc, "VMType");
+      c.op(Bytecode.INVOKEVIRTUAL,
+           writer.methodRef(VM_CLASS, "allocate",
+                            "(LVMType;)L" + RECORD_CLASS + ";"));
+      c.op(Bytecode.AASTORE);
+      startPrim(sp);
+      c.lconst(0);
+      c.op(Bytecode.LASTORE);
+      break;
+    case FREE:
+      nilCheck(x, pc);
+      load(Bytecode.ALOAD, VM_ARG);
+      loadRef(x);
+      c.op(Bytecode.INVOKEVIRTUAL,
+           writer.methodRef(VM_CLASS, "free", "(" + OBJECT + ")V"));
+      break;
+    case GETFLD:
+      deref(x, pc);
+      startPrim(x);
+      load(Bytecode.ALOAD, RECORD);
+      c.op(Bytecode.GETFIELD,
+           writer.fieldRef(RECORD_CLASS, "prims", PRIM_ARRAY));
+      c.iconst(a);
+      c.op(Bytecode.LALOAD);
+      c.op(Bytecode.LASTORE);
+      startRef(x);
+      load(Bytecode.ALOAD, RECORD);
+      c.op(Bytecode.GETFIELD, writer.fieldRef(RECORD_CLASS, "refs", REF_ARRAY));
+      c.iconst(a);
+      c.op(Bytecode.AALOAD);
+      c.op(Bytecode.AASTORE);
+      break;
+    case SETFLD:
+      deref(y, pc);
+      load(Bytecode.ALOAD, RECORD);
+      c.op(Bytecode.GETFIELD,
+           writer.fieldRef(RECORD_CLASS, "prims", PRIM_ARRAY));
+      c.iconst(a);
+      loadPrim(x);
+      c.op(Bytecode.LASTORE);
+      load(Bytecode.ALOAD, RECORD);
+      c.op(Bytecode.GETFIELD, writer.fieldRef(RECORD_CLASS, "refs", REF_ARRAY));
+      c.iconst(a);
+      loadRef(x);
+      c.op(Bytecode.AASTORE);
+      break;
+
+    // special
+
+    case DUP:
+      copy(x, sp);
+      break;
+    case SWAP:
+      loadPrim(x);
+      load(Bytecode.LSTORE, TEMP_BITS);
+      loadRef(x);
+      load(Bytecode.ASTORE, TEMP_REF);
+      copy(y, x);
+      startPrim(y);
+      load(Bytecode.LLOAD, TEMP_BITS);
+      c.op(Bytecode.LASTORE);
+      startRef(y);
+      load(Bytecode.ALOAD, TEMP_REF);
+      c.op(Bytecode.AASTORE);
+      break;
+
+    // superinstructions
+
+    case LOAD_LOAD:
+      copy(a, sp);
+      copy(b, sp + 1);
+      break;
+    case LOAD_PUSH:
+      copy(a, sp);
+      pushConst(sp + 1, pc);
+      break;
+    case LOAD_LOAD_IADD:
+      nilCheck(b, pc);
+      nilCheck(a, pc);
+      startPrim(sp);
+      intValue(a);
+      intValue(b);
+      c.op(Bytecode.IADD);
+      c.op(Bytecode.I2L);
+      c.op(Bytecode.LASTORE);
+      setTag(sp, "INT");
+      break;
+    case INC_JMP:
+      increment(a, 1, pc);
+      c.jump(Bytecode.GOTO, labels[b]);
+      break;
+    case DEC_JMP:
+      increment(a, -1, pc);
+      c.jump(Bytecode.GOTO, labels[b]);
+      break;
+    case ICMPLT_JMPF: compareJump(Bytecode.IF_ICMPGE, sp - 2, sp - 1, pc); break;
+    case ICMPLE_JMPF: compareJump(Bytecode.IF_ICMPGT, sp - 2, sp - 1, pc); break;
+    case ICMPGT_JMPF: compareJump(Bytecode.IF_ICMPLE, sp - 2, sp - 1, pc); break;
+    case ICMPGE_JMPF: compareJump(Bytecode.IF_ICMPLT, sp - 2, sp - 1, pc); break;
+    case ICMPEQ_JMPF:
+      equal(OpCode.ICMPEQ, sp - 2, sp - 1);
+      c.jump(Bytecode.IFEQ, labels[a]);
+      break;
+    case ICMPNE_JMPF:
+      equal(OpCode.ICMPEQ, sp - 2, sp - 1);
+      c.jump(Bytecode.IFNE, labels[a]);
+      break;
+
+    default:
+      // checked by isSupported()
+      throw new IllegalStateException("unsupported " + fun.code[pc]);
+    }
+  }
+
+  // add a local variable instruction
+  private void load(int opcode, int local) {
+    c.op(opcode);
+    c.op(local);
+  }
+
+  // push the primitive bits of a slot
+  private void loadPrim(int slot) {
+    load(Bytecode.ALOAD, PRIMS);
+    c.iconst(slot);
+    c.op(Bytecode.LALOAD);
+  }
+
+  // push the reference of a slot
+  private void loadRef(int slot) {
+    load(Bytecode.ALOAD, REFS);
+    c.iconst(slot);
+    c.op(Bytecode.AALOAD);
+  }
+
+  // push the array and index for storing into a slot's primitive bits
+  // (followed by the value and a LASTORE)
+  private void startPrim(int slot) {
+    load(Bytecode.ALOAD, PRIMS);
+    c.iconst(slot);
+  }
+
+  // push the array and index for storing into a slot's reference
+  // (followed by the value and an AASTORE)
+  private void startRef(int slot) {
+    load(Bytecode.ALOAD, REFS);
+    c.iconst(slot);
+  }
+
+  // push a slot's value as an int
+  private void intValue(int slot) {
+    loadPrim(slot);
+    c.op(Bytecode.L2I);
+  }
+
+  // push a slot's value as a double
+  private void doubleValue(int slot) {
+    loadPrim(slot);
+    c.op(Bytecode.INVOKESTATIC, writer.methodRef(VALUE, "dbl", "(J)D"));
+  }
+
+  // convert the double on top of the stack to its bits
+  private void toBits() {
+    c.op(Bytecode.INVOKESTATIC, writer.methodRef(VALUE, "bits", "(D)J"));
+  }
+
+  // set a slot's reference to a primitive type tag (e.g., "INT")
+  private void setTag(int slot, String tag) {
+    startRef(slot);
+    c.op(Bytecode.GETSTATIC, writer.fieldRef(VALUE, tag, OBJECT));
+    c.op(Bytecode.AASTORE);
+  }
+
+  // copy a slot's value to another slot
+  private void copy(int from, int to) {
+    startPrim(to);
+    loadPrim(from);
+    c.op(Bytecode.LASTORE);
+    startRef(to);
+    loadRef(from);
+    c.op(Bytecode.AASTORE);
+  }
+
+  // store the PUSH value of the instruction at pc in a slot
+  private void pushConst(int slot, int pc) {
+    startPrim(slot);
+    c.lconst(fun.constBits[pc]);
+    c.op(Bytecode.LASTORE);
+    startRef(slot);
+    Object ref = fun.constRefs[pc];
+    if (ref == VMValue.INT)
+      c.op(Bytecode.GETSTATIC, writer.fieldRef(VALUE, "INT", OBJECT));
+    else if (ref == VMValue.DOUBLE)
+      c.op(Bytecode.GETSTATIC, writer.fieldRef(VALUE, "DOUBLE", OBJECT));
+    else if (ref == VMValue.BOOL)
+      c.op(Bytecode.GETSTATIC, writer.fieldRef(VALUE, "BOOL", OBJECT));
+    else if (ref == VM.NIL_OBJ)
+      c.op(Bytecode.GETSTATIC, writer.fieldRef(VM_CLASS, "NIL_OBJ", STRING));
+    else
+      loadConst(pc, null);
+    c.op(Bytecode.AASTORE);
+  }
+
+  // push the constant of the instruction at pc (cast to the given
+  // class, if any)
+  private void loadConst(int pc, String cls) {
+    load(Bytecode.ALOAD, THIS);
+    c.op(Bytecode.GETFIELD, writer.fieldRef(BASE, "consts", REF_ARRAY));
+    c.iconst(pc);
+    c.op(Bytecode.AALOAD);
+    if (cls != null)
+      c.op(Bytecode.CHECKCAST, writer.classRef(cls));
+  }
+
+  // set the activation's stack pointer (for the garbage collector and
+  // the caller)
+  private void setStackPointer(int sp) {
+    load(Bytecode.ALOAD, FRAME);
+    c.iconst(sp);
+    c.op(Bytecode.PUTFIELD, writer.fieldRef(ACTIVATION, "sp", "I"));
+  }
+
+  // report a runtime error if a slot holds nil
+  private void nilCheck(int slot, int pc) {
+    ClassFileWriter.Label ok = new ClassFileWriter.Label();
+    loadRef(slot);
+    c.op(Bytecode.GETSTATIC, writer.fieldRef(VM_CLASS, "NIL_OBJ", STRING));
+    c.jump(Bytecode.IF_ACMPNE, ok);
+    load(Bytecode.ALOAD, VM_ARG);
+    c.sconst("Nil reference");
+    load(Bytecode.ALOAD, FRAME);
+    c.iconst(pc);
+    c.op(Bytecode.INVOKEVIRTUAL,
+         writer.methodRef(VM_CLASS, "compiledError",
+                          "(" + STRING + "L" + ACTIVATION + ";I)V"));
+    // (not reached, the error is thrown)
+    c.op(Bytecode.RETURN);
+    c.place(ok);
+  }
+
+  // store the record referenced by a slot in the RECORD local
+  // (reporting an error if it isn't a live record)
+  private void deref(int slot, int pc) {
+    load(Bytecode.ALOAD, VM_ARG);
+    load(Bytecode.ALOAD, FRAME);
+    c.iconst(pc);
+    loadRef(slot);
+    c.op(Bytecode.INVOKEVIRTUAL,
+         writer.methodRef(VM_CLASS, "compiledDeref",
+                          "(L" + ACTIVATION + ";I" + OBJECT + ")L" +
+                          RECORD_CLASS + ";"));
+    load(Bytecode.ASTORE, RECORD);
+  }
+
+  // add 1 (or -1) to the int in a slot
+  private void increment(int slot, int delta, int pc) {
+    nilCheck(slot, pc);
+    startPrim(slot);
+    intValue(slot);
+    c.iconst(delta);
+    c.op(Bytecode.IADD);
+    c.op(Bytecode.I2L);
+    c.op(Bytecode.LASTORE);
+  }
+
+  // y = y op x for ints
+  private void intOp(int opcode, int y, int x, int pc) {
+    nilCheck(x, pc);
+    nilCheck(y, pc);
+    startPrim(y);
+    intValue(y);
+    intValue(x);
+    c.op(opcode);
+    c.op(Bytecode.I2L);
+    c.op(Bytecode.LASTORE);
+  }
+
+  // y = y op x for doubles
+  private void doubleOp(int opcode, int y, int x, int pc) {
+    nilCheck(x, pc);
+    nilCheck(y, pc);
+    startPrim(y);
+    doubleValue(y);
+    doubleValue(x);
+    c.op(opcode);
+    toBits();
+    c.op(Bytecode.LASTORE);
+  }
+
+  // y = y op x on the bits of bools
+  private void bitOp(int opcode, int y, int x, int pc) {
+    nilCheck(x, pc);
+    nilCheck(y, pc);
+    startPrim(y);
+    loadPrim(y);
+    loadPrim(x);
+    c.op(opcode);
+    c.op(Bytecode.LASTORE);
+  }
+
+  // y = (y cmp x) for ints, where jump is the if_icmp instruction
+  // for the comparison
+  private void intCompare(int jump, int y, int x, int pc) {
+    nilCheck(x, pc);
+    nilCheck(y, pc);
+    startPrim(y);
+    intValue(y);
+    intValue(x);
+    bitToLong(jump);
+    c.op(Bytecode.LASTORE);
+    setTag(y, "BOOL");
+  }
+
+  // y = (y cmp x) for doubles, where cmp is DCMPL or DCMPG (whichever
+  // makes the comparison false for NaN) and jump the if instruction
+  private void doubleCompare(int cmp, int jump, int y, int x, int pc) {
+    nilCheck(x, pc);
+    nilCheck(y, pc);
+    startPrim(y);
+    doubleValue(y);
+    doubleValue(x);
+    c.op(cmp);
+    bitToLong(jump);
+    c.op(Bytecode.LASTORE);
+    setTag(y, "BOOL");
+  }
+
+  // push 1L if the conditional jump would be taken, else 0L
+  private void bitToLong(int jump) {
+    ClassFileWriter.Label taken = new ClassFileWriter.Label();
+    ClassFileWriter.Label done = new ClassFileWriter.Label();
+    c.jump(jump, taken);
+    c.lconst(0);
+    c.jump(Bytecode.GOTO, done);
+    c.place(taken);
+    c.lconst(1);
+    c.place(done);
+  }
+
+  // push true (1) if the values in slots y and x are equal according
+  // to the given (equality) comparison
+  private void equal(OpCode op, int y, int x) {
+    if (op == OpCode.SCMPEQ || op == OpCode.SCMPNE) {
+      loadRef(y);
+      loadRef(x);
+      c.op(Bytecode.INVOKEVIRTUAL, writer.methodRef("java/lang/Object",
+                                                    "equals",
+                                                    "(" + OBJECT + ")Z"));
+      return;
+    }
+    loadRef(y);
+    loadPrim(y);
+    loadRef(x);
+    loadPrim(x);
+    String descriptor = "(" + OBJECT + "J" + OBJECT + "J)Z";
+    if (op == OpCode.ICMPEQ || op == OpCode.ICMPNE)
+      c.op(Bytecode.INVOKESTATIC,
+           writer.methodRef(BASE, "intEqual", descriptor));
+    else if (op == OpCode.DCMPEQ || op == OpCode.DCMPNE)
+      c.op(Bytecode.INVOKESTATIC,
+           writer.methodRef(BASE, "doubleEqual", descriptor));
+    else
+      c.op(Bytecode.INVOKESTATIC,
+           writer.methodRef(VM_CLASS, "equal", descriptor));
+  }
+
+  // jump to the instruction's target unless (y cmp x) for ints, where
+  // jump is the if_icmp instruction for the opposite comparison
+  private void compareJump(int jump, int y, int x, int pc) {
+    nilCheck(x, pc);
+    nilCheck(y, pc);
+    intValue(y);
+    intValue(x);
+    c.jump(jump, labels[fun.args[pc]]);
+  }
+
+}
@@ -5,25 +5,181 @@
  * Desc: HW2 - implement nextToken() -
  */
 
-import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 
 public class Lexer {
 
-  private BufferedReader buffer; // handle to input stream
+  private char[] buffer;         // the source's characters
+  private byte[] bytes;          // or its bytes (if mapped and ASCII)
+  private int end;               // number of characters in the buffer
+  private int pos = 0;           // index of the next character
+  private boolean failed;        // true if reading the source failed
   private int line = 1;          // current line number
   private int column = 0;        // current column number
 
+  // the last token scanned (see scan)
+  private String tokenLexeme;
+  private int tokenLine;
+  private int tokenColumn;
+
+  // the distinct lexemes so far, by index (see TokenStream), and an
+  // open-addressing hash table (by String.hashCode) of them and their
+  // indexes, so that each identifier, number, and string is only copied
+  // out of the buffer the first time it appears
+  private List<String> lexemes = new ArrayList<>();
+  private String[] interned = new String[256];
+  private int[] internedIndexes = new int[256];
+
+  // the lexeme last found or added by intern, and its index
+  private String lastInterned;
+  private int lastInternedIndex;
+
 
   //--------------------------------------------------------------------
   // Constructor
   //--------------------------------------------------------------------
   
+  // The whole source is read into a buffer up front, so characters are
+  // scanned by index and each lexeme is copied out of the buffer once.
   public Lexer(InputStream instream) {
-    buffer = new BufferedReader(new InputStreamReader(instream));
+    Reader reader = new InputStreamReader(instream);
+    buffer = new char[8192];
+    end = 0;
+    try {
+      int n;
+      while ((n = reader.read(buffer, end, buffer.length - end)) >= 0) {
+        end += n;
+        if (end == buffer.length)
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+    } catch(IOException e) {
+      // (reported when the lexer reaches the end of what was read)
+      failed = true;
+    }
+  }
+
+
+  // Lexes a file by memory-mapping it. An ASCII file (one byte per
+  // character) is copied out of the mapped memory in one go and its
+  // bytes are scanned without decoding them (reading the mapped memory
+  // a character at a time is slower), and any other file is decoded as
+  // UTF-8 straight from the mapped memory into the buffer. Either way
+  // the file isn't copied through a stream reader.
+  public Lexer(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path)) {
+      if (channel.size() > Integer.MAX_VALUE)
+        throw new IOException("file too large to map: " + path);
+      MappedByteBuffer mapped =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (isAscii(mapped)) {
+        bytes = new byte[mapped.limit()];
+        mapped.get(0, bytes);
+        end = bytes.length;
+      }
+      else {
+        CharBuffer chars = StandardCharsets.UTF_8.newDecoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE)
+          .decode(mapped);
+        buffer = chars.array();
+        end = chars.limit();
+      }
+    }
+  }
+
+
+  // True if every byte of the buffer is an ASCII character (checking
+  // eight bytes at a time).
+  private static boolean isAscii(ByteBuffer bytes) {
+    int n = bytes.limit();
+    int i = 0;
+    for (; i + 8 <= n; i += 8) {
+      if ((bytes.getLong(i) & 0x8080808080808080L) != 0)
+        return false;
+    }
+    for (; i < n; ++i) {
+      if (bytes.get(i) < 0)
+        return false;
+    }
+    return true;
+  }
+
+
+  //--------------------------------------------------------------------
+  // Reserved words
+  //--------------------------------------------------------------------
+
+  // The reserved words (including the data types, bool operators, and
+  // bool values) and their token types, at the slot given by
+  // keywordHash. The hash puts each word in a different slot, so an
+  // identifier only needs to be compared against the one word in its
+  // slot (if any).
+  private static final String[] KEYWORDS = new String[64];
+  private static final TokenType[] KEYWORD_TYPES = new TokenType[64];
+
+  static {
+    addKeyword("true", TokenType.BOOL_VAL);
+    addKeyword("false", TokenType.BOOL_VAL);
+    addKeyword("var", TokenType.VAR);
+    addKeyword("type", TokenType.TYPE);
+    addKeyword("while", TokenType.WHILE);
+    addKeyword("for", TokenType.FOR);
+    addKeyword("from", TokenType.FROM);
+    addKeyword("upto", TokenType.UPTO);
+    addKeyword("downto", TokenType.DOWNTO);
+    addKeyword("if", TokenType.IF);
+    addKeyword("elif", TokenType.ELIF);
+    addKeyword("else", TokenType.ELSE);
+    addKeyword("fun", TokenType.FUN);
+    addKeyword("new", TokenType.NEW);
+    addKeyword("delete", TokenType.DELETE);
+    addKeyword("return", TokenType.RETURN);
+    addKeyword("nil", TokenType.NIL);
+    addKeyword("const", TokenType.CONST);
+    addKeyword("int", TokenType.INT_TYPE);
+    addKeyword("double", TokenType.DOUBLE_TYPE);
+    addKeyword("char", TokenType.CHAR_TYPE);
+    addKeyword("string", TokenType.STRING_TYPE);
+    addKeyword("bool", TokenType.BOOL_TYPE);
+    addKeyword("void", TokenType.VOID_TYPE);
+    addKeyword("and", TokenType.AND);
+    addKeyword("or", TokenType.OR);
+    addKeyword("not", TokenType.NOT);
+    addKeyword("neg", TokenType.NEG);
+  }
+
+  // Adds a reserved word to the table (all of them are at least two
+  // characters long).
+  private static void addKeyword(String word, TokenType type) {
+    int h = keywordHash(word.charAt(0), word.charAt(1),
+                        word.charAt(word.length() - 1), word.length());
+    if (KEYWORDS[h] != null)
+      throw new IllegalStateException("reserved words '" + KEYWORDS[h] +
+                                      "' and '" + word + "' collide");
+    KEYWORDS[h] = word;
+    KEYWORD_TYPES[h] = type;
+  }
+
+  // The slot of a word given its first, second, and last characters
+  // and its length.
+  private static int keywordHash(int first, int second, int last,
+                                 int length)
+  {
+    return (first + 15 * second + 13 * last + length) & 63;
   }
 
 
@@ -33,26 +189,115 @@ public class Lexer {
 
   // Returns next character in the stream. Returns -1 if end of file.
   private int read() throws MyPLException {
-    try {
-      return buffer.read();
-    } catch(IOException e) {
+    if (pos < end)
+      return bytes == null ? buffer[pos++] : bytes[pos++];
+    if (failed)
       error("read error", line, column + 1);
-    }
     return -1;
   }
 
   
   // Returns next character without removing it from the stream.
   private int peek() throws MyPLException {
-    int ch = -1;
-    try {
-      buffer.mark(1);
-      ch = read();
-      buffer.reset();
-    } catch(IOException e) {
+    if (pos < end)
+      return bytes == null ? buffer[pos] : bytes[pos];
+    if (failed)
       error("read error", line, column + 1);
+    return -1;
+  }
+
+
+  // Returns the character of the buffer at the given index.
+  private int charAt(int i) {
+    return bytes == null ? buffer[i] : bytes[i];
+  }
+
+
+  // Checks if the characters of the buffer from start up to the next
+  // character are the given word.
+  private boolean matches(int start, String word) {
+    for (int i = 0; i < word.length(); ++i) {
+      if (charAt(start + i) != word.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+
+  // Returns the characters of the buffer from start up to the next
+  // character.
+  private String lexeme(int start) {
+    if (bytes == null)
+      return new String(buffer, start, pos - start);
+    return new String(bytes, start, pos - start, StandardCharsets.ISO_8859_1);
+  }
+
+
+  // Records the token's lexeme and position, returning its type.
+  private TokenType emit(TokenType type, String lexeme, int line, int column) {
+    tokenLexeme = lexeme;
+    tokenLine = line;
+    tokenColumn = column;
+    return type;
+  }
+
+
+  // Returns the characters of the buffer from start up to the next
+  // character, as the same string each time they appear.
+  private String intern(int start) {
+    int length = pos - start;
+    int hash = 0;
+    for (int i = start; i < pos; ++i)
+      hash = 31 * hash + charAt(i);
+    int mask = interned.length - 1;
+    int slot = hash & mask;
+    for (String s; (s = interned[slot]) != null; slot = (slot + 1) & mask) {
+      if (s.hashCode() == hash && s.length() == length && matches(start, s)) {
+        lastInterned = s;
+        lastInternedIndex = internedIndexes[slot];
+        return s;
+      }
+    }
+    addInterned(slot, lexeme(start));
+    return lastInterned;
+  }
+
+
+  // Returns the index of the given lexeme (adding it if it's new).
+  private int lexemeIndex(String lexeme) {
+    if (lexeme == lastInterned)
+      return lastInternedIndex;
+    int mask = interned.length - 1;
+    int slot = lexeme.hashCode() & mask;
+    for (String s; (s = interned[slot]) != null; slot = (slot + 1) & mask) {
+      if (s == lexeme || s.equals(lexeme))
+        return internedIndexes[slot];
+    }
+    addInterned(slot, lexeme);
+    return lastInternedIndex;
+  }
+
+
+  // Adds a new lexeme at the given (empty) slot of the table.
+  private void addInterned(int slot, String lexeme) {
+    lastInterned = lexeme;
+    lastInternedIndex = lexemes.size();
+    interned[slot] = lexeme;
+    internedIndexes[slot] = lexemes.size();
+    lexemes.add(lexeme);
+    if (lexemes.size() * 2 > interned.length) {
+      // grow the table (keeping it at most half full)
+      interned = new String[interned.length * 2];
+      internedIndexes = new int[interned.length];
+      int mask = interned.length - 1;
+      for (int i = 0; i < lexemes.size(); ++i) {
+        slot = lexemes.get(i).hashCode() & mask;
+        while (interned[slot] != null)
+          slot = (slot + 1) & mask;
+        interned[slot] = lexemes.get(i);
+        internedIndexes[slot] = i;
+      }
     }
-    return ch;
   }
 
 
@@ -99,7 +344,34 @@ public class Lexer {
   
   // Returns next token in input stream
   public Token nextToken() throws MyPLException {
-    // TODO: implement nextToken()
+    TokenType type = scan();
+    return new Token(type, tokenLexeme, tokenLine, tokenColumn);
+  }
+
+
+  // Lexes the rest of the source in bulk (see TokenStream), through the
+  // end-of-file token. An error is kept in the stream to be reported
+  // when a reader gets past the tokens before it. (The lexeme indexes
+  // come from the lexer's table of the lexemes it has interned, so each
+  // identifier is only looked up once.)
+  public TokenStream tokenize() {
+    TokenStream tokens = new TokenStream(lexemes);
+    try {
+      TokenType type;
+      do {
+        type = scan();
+        tokens.add(type, lexemeIndex(tokenLexeme), tokenLine, tokenColumn);
+      } while (type != TokenType.EOS);
+    } catch(MyPLException e) {
+      tokens.setError(e);
+    }
+    return tokens;
+  }
+
+
+  // Scans the next token, returning its type (with its lexeme and
+  // position in the token fields).
+  private TokenType scan() throws MyPLException {
     column++;
   
     int next = read();
@@ -149,7 +421,7 @@ public class Lexer {
 
     //check if end of file
     if(isEOF(next)){
-      return new Token(TokenType.EOS, "end-of-file", line, column);
+      return emit(TokenType.EOS, "end-of-file", line, column);
     }
 
     //check comparators
@@ -159,53 +431,53 @@ public class Lexer {
       if(isSymbol(peek(),'=')){
         read();
         column++;
-        return new Token(TokenType.LESS_THAN_EQUAL,"<=",line,startCol);
+        return emit(TokenType.LESS_THAN_EQUAL,"<=",line,startCol);
       } 
       // else if(!isLetter(peek()) && !isDigit(peek()) && !isWhitespace(peek())){
       //   column++;
       //   error("expecting '=', found '"+ (char)peek() + "'",line,column);
       // }
-      return new Token(TokenType.LESS_THAN,"<",line,startCol);
+      return emit(TokenType.LESS_THAN,"<",line,startCol);
     }
     if(isSymbol(next,'>')){
       int startCol = column;
       if(isSymbol(peek(),'=')){
         read();
         column++;
-        return new Token(TokenType.GREATER_THAN_EQUAL,">=",line,startCol);
+        return emit(TokenType.GREATER_THAN_EQUAL,">=",line,startCol);
       } 
       // else if(!isLetter(peek()) && !isDigit(peek()) && !isWhitespace(peek())){
       //   column++;
       //   error("expecting '=', found '"+ (char)peek() + "'",line,column);
       // }
-      return new Token(TokenType.GREATER_THAN,">",line,startCol);
+      return emit(TokenType.GREATER_THAN,">",line,startCol);
     }
     if(isSymbol(next,'=')){
       int startCol = column;
       if(isSymbol(peek(),'=')){
         read();
         column++;
-        return new Token(TokenType.EQUAL,"==",line,startCol);
+        return emit(TokenType.EQUAL,"==",line,startCol);
       } 
       // else if(!isLetter(peek()) && !isDigit(peek()) && !isWhitespace(peek())){
       //   column++;
       //   error("expecting '=', found '"+ (char)peek() + "'",line,column);
       // }
       //check assignment
-      return new Token(TokenType.ASSIGN,"=",line,startCol);
+      return emit(TokenType.ASSIGN,"=",line,startCol);
     }
     if(isSymbol(next,'!')){
       int startCol = column;
       if(isSymbol(peek(),'=')){
         read();
         column++;
-        return new Token(TokenType.NOT_EQUAL,"!=",line,startCol);
+        return emit(TokenType.NOT_EQUAL,"!=",line,startCol);
       } else if(!isLetter(peek()) && !isDigit(peek()) && !isWhitespace(peek())){
         column++;
         error("expecting '=', found '"+ (char)peek() + "'",line,column);
       }
       //check boolean op !
-      return new Token(TokenType.NOT,"!",line,startCol);
+      return emit(TokenType.NOT,"!",line,startCol);
     }
 
     //check primivite values
@@ -259,7 +531,7 @@ public class Lexer {
       }
       read();
       column++;
-      return new Token(TokenType.CHAR_VAL,valChar,line,startCol);
+      return emit(TokenType.CHAR_VAL,valChar,line,startCol);
     }
 
 
@@ -267,7 +539,7 @@ public class Lexer {
     //check string vals
     if(isSymbol(next,'\"')){
       int startCol = column;
-      String valString = "";
+      int start = pos;
       while(!isSymbol(peek(),'\"')){
         if(isEOF(peek())){
           error("found end-of-file in string",line,column);
@@ -276,181 +548,106 @@ public class Lexer {
         if(isSymbol(peek(),'\n')){
           error("found newline within string",line,column);
         }
-        valString = valString + (char)read();
+        read();
         
       }
+      String valString = intern(start);
       read();
       column++;
-      return new Token(TokenType.STRING_VAL,valString,line,startCol);
+      return emit(TokenType.STRING_VAL,valString,line,startCol);
     }
 
     //check int / double vals
     if(isDigit(next)){
       int startCol = column;
-      String i = "";
-      i = i + (char)next;
+      int start = pos - 1;
       while(isDigit(peek())){
-        i = i + (char)read();
+        read();
         column++;
       }
-      String start = i;
+      int intLength = pos - start;
       if(isSymbol(peek(),'.')){
         //double
-        i = i + (char)read();
+        read();
         column++;
         if(isDigit(peek())){
           while(isDigit(peek())){
-            i = i + (char)read();
+            read();
             column++;
           }
         } else {
-          error("missing decimal digit in double value '"+ i + "'",line,startCol);
+          error("missing decimal digit in double value '"+ lexeme(start) + "'",line,startCol);
         }
+        String i = intern(start);
         if(isSymbol(peek(),'.')){
           error("too many decimal points in double value '"+ i + "'",line,startCol);
         }
         if(isLetter(peek())){
           error("illegal characters in number",line,startCol);
         }
-        if((start.length() > 1) && (char)next == '0'){
+        if((intLength > 1) && (char)next == '0'){
           error("leading zero in '" + i + "'",line,startCol);
         }
-        return new Token(TokenType.DOUBLE_VAL,i,line,startCol);
+        return emit(TokenType.DOUBLE_VAL,i,line,startCol);
       } else {
         //int
         if(isLetter(peek())){
           error("illegal characters in number",line,startCol);
         }
-        if((i.length() > 1) && (char)next == '0'){
+        String i = intern(start);
+        if((intLength > 1) && (char)next == '0'){
           error("leading zero in '" + i + "'",line,startCol);
         }
-        return new Token(TokenType.INT_VAL,i,line,startCol);
+        return emit(TokenType.INT_VAL,i,line,startCol);
       }
     }
 
     //reserved words
     if(isLetter(next)){
       int startCol = column;
-      String str = "";
-      str = str + (char)next;
+      int start = pos - 1;
       while(isLetter(peek()) || isSymbol(peek(),'_') || isDigit(peek())){
-        str = str + (char)read();
+        read();
         column++;
       }
-      //bool val
-      if(str.equals("true") || str.equals("false")){
-        return new Token(TokenType.BOOL_VAL,str,line,startCol);
-      }
-      //reserved words
-      if(str.equals("var")){
-        return new Token(TokenType.VAR,str,line,startCol);
-      }
-      if(str.equals("type")){
-        return new Token(TokenType.TYPE,str,line,startCol);
-      }
-      if(str.equals("while")){
-        return new Token(TokenType.WHILE,str,line,startCol);
-      }
-      if(str.equals("for")){
-        return new Token(TokenType.FOR,str,line,startCol);
-      }
-      if(str.equals("from")){
-        return new Token(TokenType.FROM,str,line,startCol);
-      }
-      if(str.equals("upto")){
-        return new Token(TokenType.UPTO,str,line,startCol);
-      }
-      if(str.equals("downto")){
-        return new Token(TokenType.DOWNTO,str,line,startCol);
-      }
-      if(str.equals("if")){
-        return new Token(TokenType.IF,str,line,startCol);
-      }
-      if(str.equals("elif")){
-        return new Token(TokenType.ELIF,str,line,startCol);
-      }
-      if(str.equals("else")){
-        return new Token(TokenType.ELSE,str,line,startCol);
-      }
-      if(str.equals("fun")){
-        return new Token(TokenType.FUN,str,line,startCol);
-      }
-      if(str.equals("new")){
-        return new Token(TokenType.NEW,str,line,startCol);
-      }
-      if(str.equals("delete")){
-        return new Token(TokenType.DELETE,str,line,startCol);
-      }
-      if(str.equals("return")){
-        return new Token(TokenType.RETURN,str,line,startCol);
-      }
-      if(str.equals("nil")){
-        return new Token(TokenType.NIL,str,line,startCol);
-      }
-      if(str.equals("const")){
-        return new Token(TokenType.CONST,str,line,startCol);
-      }
-      //data types
-      if(str.equals("int")){
-        return new Token(TokenType.INT_TYPE,str,line,startCol);
-      }
-      if(str.equals("double")){
-        return new Token(TokenType.DOUBLE_TYPE,str,line,startCol);
-      }
-      if(str.equals("char")){
-        return new Token(TokenType.CHAR_TYPE,str,line,startCol);
-      }
-      if(str.equals("string")){
-        return new Token(TokenType.STRING_TYPE,str,line,startCol);
-      }
-      if(str.equals("bool")){
-        return new Token(TokenType.BOOL_TYPE,str,line,startCol);
-      }
-      if(str.equals("void")){
-        return new Token(TokenType.VOID_TYPE,str,line,startCol);
-      }
-      //bool operators
-      if(str.equals("and")){
-        return new Token(TokenType.AND,str,line,startCol);
-      }
-      if(str.equals("or")){
-        return new Token(TokenType.OR,str,line,startCol);
-      }
-      if(str.equals("not")){
-        return new Token(TokenType.NOT,str,line,startCol);
-      }
-      if(str.equals("neg")){
-        return new Token(TokenType.NEG,str,line,startCol);
+      //reserved words (and bool vals)
+      int length = pos - start;
+      if(length >= 2){
+        int h = keywordHash(charAt(start),charAt(start + 1),charAt(pos - 1),length);
+        String word = KEYWORDS[h];
+        if(word != null && word.length() == length && matches(start,word)){
+          return emit(KEYWORD_TYPES[h],word,line,startCol);
+        }
       }
       //else must be an id
-      return new Token(TokenType.ID,str,line,startCol);
+      return emit(TokenType.ID,intern(start),line,startCol);
     }
 
     
     //check basic symbol tokens
     //,, ., +, -, *, /, %, {, }, (, ),
     if(isSymbol(next,',')){
-      return new Token(TokenType.COMMA, ",",line,column);
+      return emit(TokenType.COMMA, ",",line,column);
     }else if(isSymbol(next,'.')){
-      return new Token(TokenType.DOT,".",line,column);
+      return emit(TokenType.DOT,".",line,column);
     }else if(isSymbol(next,'+')){
-      return new Token(TokenType.PLUS,"+",line,column);
+      return emit(TokenType.PLUS,"+",line,column);
     }else if(isSymbol(next,'-')){
-      return new Token(TokenType.MINUS,"-",line,column);
+      return emit(TokenType.MINUS,"-",line,column);
     }else if(isSymbol(next,'*')){
-      return new Token(TokenType.MULTIPLY,"*",line,column);
+      return emit(TokenType.MULTIPLY,"*",line,column);
     }else if(isSymbol(next,'/')){
-      return new Token(TokenType.DIVIDE,"/",line,column);
+      return emit(TokenType.DIVIDE,"/",line,column);
     }else if(isSymbol(next,'%')){
-      return new Token(TokenType.MODULO,"%",line,column);
+      return emit(TokenType.MODULO,"%",line,column);
     }else if(isSymbol(next,'{')){
-      return new Token(TokenType.LBRACE,"{",line,column);
+      return emit(TokenType.LBRACE,"{",line,column);
     }else if(isSymbol(next,'}')){
-      return new Token(TokenType.RBRACE,"}",line,column);
+      return emit(TokenType.RBRACE,"}",line,column);
     }else if(isSymbol(next,'(')){
-      return new Token(TokenType.LPAREN,"(",line,column);
+      return emit(TokenType.LPAREN,"(",line,column);
     }else if(isSymbol(next,')')){
-      return new Token(TokenType.RPAREN,")",line,column);
+      return emit(TokenType.RPAREN,")",line,column);
     }else{
       error("invalid symbol '"+ (char)next+ "'",line,column);
       return null;
@@ -467,7 +664,7 @@ public class Lexer {
     // remove this to implement nextToken (it is only here so that the
     // program can compile initially)
     
-    // return new Token(TokenType.CHAR_TYPE, "test-not-end-of-file", line, column);
+    // return emit(TokenType.CHAR_TYPE, "test-not-end-of-file", line, column);
   }
 
 }
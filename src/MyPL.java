@@ -9,6 +9,8 @@ import java.io.InputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -18,6 +20,71 @@ public class MyPL {
   public static void main(String[] args) {
     try {
 
+      // pull out the VM options (which can be given along with any
+      // of the other arguments)
+      int gcThreshold = 0;
+      boolean peephole = false;
+      boolean fold = false;
+      boolean fuse = false;
+      boolean jit = false;
+      int tierThreshold = 0;
+      boolean closures = false;
+      boolean specialize = false;
+      int stackMB = 0;
+      String aotJar = null;
+      boolean registers = false;
+      boolean mmap = false;
+      boolean columnar = false;
+      boolean pipelined = false;
+      ArrayList<String> argList = new ArrayList<>(Arrays.asList(args));
+      for (int i = 0; i < argList.size(); ) {
+        String arg = argList.get(i);
+        if (arg.equals("--gc"))
+          gcThreshold = DEFAULT_GC_THRESHOLD;
+        else if (arg.startsWith("--gc="))
+          gcThreshold = parseCount(arg.substring(5));
+        else if (arg.equals("--peephole"))
+          peephole = true;
+        else if (arg.equals("--fold"))
+          fold = true;
+        else if (arg.equals("--fuse"))
+          fuse = true;
+        else if (arg.equals("--jit"))
+          jit = true;
+        else if (arg.equals("--tiered"))
+          tierThreshold = DEFAULT_TIER_THRESHOLD;
+        else if (arg.startsWith("--tiered="))
+          tierThreshold = parseCount(arg.substring(9));
+        else if (arg.equals("--closures"))
+          closures = true;
+        else if (arg.equals("--specialize"))
+          specialize = true;
+        else if (arg.startsWith("--stack="))
+          stackMB = parseCount(arg.substring(8));
+        else if (arg.equals("--registers"))
+          registers = true;
+        else if (arg.equals("--mmap"))
+          mmap = true;
+        else if (arg.equals("--columnar"))
+          columnar = true;
+        else if (arg.equals("--pipeline"))
+          pipelined = true;
+        else if (arg.equals("--aot")) {
+          if (i + 1 == argList.size()) {
+            displayUsageInfo();
+            System.exit(1);
+          }
+          aotJar = argList.get(i + 1);
+          argList.remove(i);
+        }
+        else {
+          ++i;
+          continue;
+        }
+        argList.remove(i);
+      }
+      args = argList.toArray(new String[0]);
+
       boolean lexerMode = false;
       boolean parseMode = false;
       boolean printMode = false;
@@ -57,12 +124,20 @@ public class MyPL {
       // grab input file
       String inFile = null;
       if (argCount == 2)
-        input = new FileInputStream(args[1]);
+        inFile = args[1];
       else if (argCount == 1 && !specialMode)
-        input = new FileInputStream(args[0]);
+        inFile = args[0];
       
-      // create the lexer
-      Lexer lexer = new Lexer(input);
+      // create the lexer (mapping the file instead of reading it if
+      // asked to)
+      Lexer lexer;
+      if (inFile != null && mmap)
+        lexer = new Lexer(Paths.get(inFile));
+      else {
+        if (inFile != null)
+          input = new FileInputStream(inFile);
+        lexer = new Lexer(input);
+      }
 
       // run in lexer mode
       if (lexerMode) {
@@ -79,41 +154,103 @@ public class MyPL {
       }
       // run in print mode
       else if (printMode) {
-        ASTParser parser = new ASTParser(lexer);
+        ASTParser parser = newParser(lexer, columnar, pipelined);
         Program program = parser.parse();
         PrintVisitor visitor = new PrintVisitor(System.out);
         program.accept(visitor);
       }
       // run in static checker mode
       else if (checkMode) {
-        ASTParser parser = new ASTParser(lexer);
-        Program program = parser.parse();
-        TypeInfo typeInfo = new TypeInfo();
-        StaticChecker checkVisitor = new StaticChecker(typeInfo);
-        program.accept(checkVisitor);
+        checkedProgram(lexer, new TypeInfo(), columnar, pipelined, false);
       }
       // run in intermediate-representation mode
       else if (outIRMode) {
-        ASTParser parser = new ASTParser(lexer);
-        Program program = parser.parse();
         TypeInfo typeInfo = new TypeInfo();
-        StaticChecker checkVisitor = new StaticChecker(typeInfo);
-        program.accept(checkVisitor);
+        Program program =
+          checkedProgram(lexer, typeInfo, columnar, pipelined, fold);
         VM vm = new VM();
         CodeGenerator genVisitor = new CodeGenerator(typeInfo, vm);
         program.accept(genVisitor);
+        if (peephole)
+          new PeepholeOptimizer().optimize(vm);
+        if (fuse)
+          new InstructionFuser().fuse(vm);
         System.out.println(vm);
       }
+      // run on the closure engine
+      else if (closures) {
+        TypeInfo typeInfo = new TypeInfo();
+        Program program =
+          checkedProgram(lexer, typeInfo, columnar, pipelined, fold);
+        ClosureEngine engine = new ClosureEngine(typeInfo);
+        program.accept(engine);
+        if (stackMB > 0)
+          engine.setStackSize((long)stackMB << 20);
+        engine.run();
+      }
+      // run on the specializing interpreter
+      else if (specialize) {
+        TypeInfo typeInfo = new TypeInfo();
+        Program program =
+          checkedProgram(lexer, typeInfo, columnar, pipelined, fold);
+        SpecializingInterpreter interpreter = new SpecializingInterpreter();
+        program.accept(interpreter);
+        if (stackMB > 0)
+          interpreter.setStackSize((long)stackMB << 20);
+        interpreter.run();
+        System.err.println(interpreter.stats());
+      }
+      // compile ahead of time to a runnable jar
+      else if (aotJar != null) {
+        TypeInfo typeInfo = new TypeInfo();
+        Program program =
+          checkedProgram(lexer, typeInfo, columnar, pipelined, fold);
+        AotCompiler compiler =
+          new AotCompiler(typeInfo, AotCompiler.DEFAULT_CLASS_NAME);
+        program.accept(compiler);
+        compiler.writeJar(aotJar);
+      }
+      // run on the register machine
+      else if (registers) {
+        TypeInfo typeInfo = new TypeInfo();
+        Program program =
+          checkedProgram(lexer, typeInfo, columnar, pipelined, fold);
+        VM vm = new VM();
+        program.accept(new CodeGenerator(typeInfo, vm));
+        if (peephole)
+          new PeepholeOptimizer().optimize(vm);
+        if (fuse)
+          new InstructionFuser().fuse(vm);
+        RegisterVM machine = new RegisterVM(vm);
+        machine.run();
+        System.err.println(machine.stats());
+      }
       // run normally
       else {
-        ASTParser parser = new ASTParser(lexer);
-        Program program = parser.parse();
         TypeInfo typeInfo = new TypeInfo();
-        program.accept(new StaticChecker(typeInfo));
+        Program program =
+          checkedProgram(lexer, typeInfo, columnar, pipelined, fold);
         VM vm = new VM();
         CodeGenerator genVisitor = new CodeGenerator(typeInfo, vm);
         program.accept(genVisitor);
+        if (peephole) {
+          PeepholeOptimizer optimizer = new PeepholeOptimizer();
+          optimizer.optimize(vm);
+          System.err.println(optimizer.stats());
+        }
+        if (fuse) {
+          InstructionFuser fuser = new InstructionFuser();
+          fuser.fuse(vm);
+          System.err.println(fuser.stats());
+        }
+        vm.setGCThreshold(gcThreshold);
+        vm.setJit(jit);
+        vm.setTierThreshold(tierThreshold);
         vm.run();
+        if (gcThreshold > 0)
+          System.err.println(vm.gcStats());
+        if (jit || tierThreshold > 0)
+          System.err.println(vm.jitStats());
       }
     }
     catch (MyPLException e) {
@@ -125,16 +262,106 @@ public class MyPL {
       System.err.println("ERROR: Unable to open file '" + args[i] + "'");
       System.exit(1);
     }
+    catch (IOException e) {
+      // (a file that can't be mapped)
+      int i = args.length == 1 ? 0 : 1;
+      System.err.println("ERROR: Unable to open file '" + args[i] + "'");
+      System.exit(1);
+    }
+  }
+
+  // default number of allocations between garbage collections
+  private static final int DEFAULT_GC_THRESHOLD = 10000;
+
+  // default number of calls plus loop iterations before a function
+  // is compiled
+  private static final int DEFAULT_TIER_THRESHOLD = 1000;
+
+  // parse a (positive) count given with an option
+  private static int parseCount(String count) {
+    try {
+      int n = Integer.parseInt(count);
+      if (n > 0)
+        return n;
+    } catch (NumberFormatException e) {
+    }
+    displayUsageInfo();
+    System.exit(1);
+    return 0;
+  }
+
+  // a parser of the lexer's tokens (lexed in bulk into a token stream
+  // first if columnar is true, or on another thread while parsing if
+  // pipelined is true)
+  private static ASTParser newParser(Lexer lexer, boolean columnar,
+                                     boolean pipelined)
+  {
+    if (columnar)
+      return new ASTParser(lexer.tokenize());
+    if (pipelined)
+      return new ASTParser(new TokenPipeline(lexer));
+    return new ASTParser(lexer);
+  }
+
+  // the parsed (as newParser) and statically checked program, with
+  // its constants folded if fold is true
+  private static Program checkedProgram(Lexer lexer, TypeInfo typeInfo,
+                                        boolean columnar, boolean pipelined,
+                                        boolean fold)
+    throws MyPLException
+  {
+    Program program = newParser(lexer, columnar, pipelined).parse();
+    program.accept(new StaticChecker(typeInfo));
+    if (fold)
+      program.accept(new ConstantFolder(typeInfo));
+    return program;
   }
 
   private static void displayUsageInfo() {
-    System.out.println("Usage: ./mypl [flag] [script-file]");
+    System.out.println("Usage: ./mypl [vm-options] [flag] [script-file]");
     System.out.println("Options:");
     System.out.println("  --lex      Display token information.");
     System.out.println("  --parse    Check for valid syntax.");
     System.out.println("  --print    Pretty print the program.");
     System.out.println("  --check    Statically check program.");
     System.out.println("  --ir       Print intermediate code.");
+    System.out.println("  --mmap     Memory-map the script file and lex it in place");
+    System.out.println("             (ASCII files without decoding them).");
+    System.out.println("  --columnar Lex the whole script into a compact token stream");
+    System.out.println("             before parsing it.");
+    System.out.println("  --pipeline Lex the script on another thread while parsing it.");
+    System.out.println("VM options:");
+    System.out.println("  --gc[=N]   Garbage collect the heap every N allocations");
+    System.out.println("             (default " + DEFAULT_GC_THRESHOLD + ") and report");
+    System.out.println("             collector statistics.");
+    System.out.println("  --fold     Fold constant expressions (and variables) and");
+    System.out.println("             constant if/while conditions before generating code.");
+    System.out.println("  --peephole Run the peephole optimizer over the generated");
+    System.out.println("             code and report the instructions it removed.");
+    System.out.println("  --fuse     Replace frequent instruction sequences with");
+    System.out.println("             superinstructions and report the fusions.");
+    System.out.println("  --jit      Compile functions to JVM bytecode (falling back");
+    System.out.println("             to the interpreter for unsupported code).");
+    System.out.println("  --tiered[=N] Interpret functions until they have run N");
+    System.out.println("             calls plus loop iterations (default " +
+                       DEFAULT_TIER_THRESHOLD + "),");
+    System.out.println("             then compile them (as --jit).");
+    System.out.println("  --closures Run the program as a tree of closures built");
+    System.out.println("             from the checked AST instead of on the VM");
+    System.out.println("             (the other VM options don't apply).");
+    System.out.println("  --specialize Run the program as a tree of nodes that");
+    System.out.println("             specialize themselves to the values they see");
+    System.out.println("             and report the rewrites (as --closures).");
+    System.out.println("  --stack=N  Run --closures and --specialize on a Java stack of");
+    System.out.println("             N MB (default " +
+                       (EngineRuntime.DEFAULT_STACK_SIZE >> 20) + "). Calls use the Java stack,");
+    System.out.println("             so how deeply a program can recurse depends on it.");
+    System.out.println("  --registers Run the generated code on a register machine");
+    System.out.println("             (after --fold, --peephole, and --fuse) and");
+    System.out.println("             report the instructions lowered and run.");
+    System.out.println("  --aot JAR  Compile the program to Java bytecode and write");
+    System.out.println("             it to JAR (run with java -jar JAR) instead of");
+    System.out.println("             running it (as --closures).");
   }
   
 }
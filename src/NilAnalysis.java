@@ -0,0 +1,300 @@
+/*
+ * File: NilAnalysis.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Whole-program analysis of which variables, fields, parameters,
+ *       function results, and expressions can hold nil.
+ */
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Finds the values of a checked program that can be nil, so that the
+ * others can be kept unboxed (see AotCompiler). A value can be nil if
+ * nil is stored in it: a variable or field can be nil if any value
+ * assigned to it can, a parameter if any argument passed for it can,
+ * and a function's result if any returned value can or a call can end
+ * without returning a value. Values computed by operators (which fail
+ * on nil) and by the built-in functions (other than print) are never
+ * nil. The analysis starts by assuming no value is nil and visits the
+ * program until no more values are found to be nil.
+ */
+public class NilAnalysis implements Visitor {
+
+  // the type information from the static checker
+  private TypeInfo typeInfo;
+
+  // the declarations (VarDeclStmts of variables and fields, FunParams,
+  // and FunDecls for results) found to hold nil
+  private Set<Object> nilable = new HashSet<>();
+
+  // whether each expression (Expr, term, and rvalue) can be nil
+  private Map<Object,Boolean> nilableExprs = new HashMap<>();
+
+  // the program's functions and types
+  private Map<String,FunDecl> funDecls = new HashMap<>();
+  private Map<String,TypeDecl> typeDecls = new HashMap<>();
+
+  // true if the last pass found more values to be nil
+  private boolean changed = false;
+
+  // the function being visited, its variables (mapped to their
+  // declarations, where as in the VM a variable declared again replaces
+  // the one before it until the function ends), and whether the last
+  // expression visited can be nil
+  private FunDecl currFunction = null;
+  private Map<String,Object> vars = new HashMap<>();
+  private boolean currNilable = false;
+
+
+  /**
+   * Creates an analysis of a program checked with the given type
+   * information. The program is analyzed by visiting it.
+   * @param typeInfo the type information from the static checker
+   */
+  public NilAnalysis(TypeInfo typeInfo) {
+    this.typeInfo = typeInfo;
+  }
+
+  /**
+   * Returns true if a declaration can hold nil.
+   * @param decl a VarDeclStmt (of a variable or field), a FunParam, or
+   *        a FunDecl (for its result)
+   */
+  public boolean isNilable(Object decl) {
+    return nilable.contains(decl);
+  }
+
+  /**
+   * Returns true if an expression can be nil.
+   * @param node an Expr, SimpleTerm, ComplexTerm, or RValue
+   */
+  public boolean isNilableExpr(ASTNode node) {
+    return nilableExprs.getOrDefault(node, true);
+  }
+
+  /**
+   * Returns the type of a declared variable.
+   * @param decl the variable's declaration
+   */
+  public String typeOf(VarDeclStmt decl) {
+    if (decl.typeName != null)
+      return decl.typeName.lexeme();
+    return typeInfo.typeOf(decl.expr);
+  }
+
+  /**
+   * Returns true if a list of statements can run to its end (without
+   * returning on every path).
+   * @param stmts the statements
+   */
+  public static boolean canComplete(List<Stmt> stmts) {
+    if (stmts.isEmpty())
+      return true;
+    Stmt last = stmts.get(stmts.size() - 1);
+    if (last instanceof ReturnStmt)
+      return false;
+    else if (last instanceof CondStmt) {
+      CondStmt c = (CondStmt)last;
+      if (c.elseStmts == null || canComplete(c.elseStmts) ||
+          canComplete(c.ifPart.stmts))
+        return true;
+      for (BasicIf elif : c.elifs)
+        if (canComplete(elif.stmts))
+          return true;
+      return false;
+    }
+    return true;
+  }
+
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // record that a declaration can hold nil
+  private void markNilable(Object decl) {
+    if (nilable.add(decl))
+      changed = true;
+  }
+
+  // visit an expression, returning true if it can be nil
+  private boolean analyze(ASTNode node) throws MyPLException {
+    node.accept(this);
+    nilableExprs.put(node, currNilable);
+    return currNilable;
+  }
+
+  // visit a block of statements
+  private void block(List<Stmt> stmts) throws MyPLException {
+    for (Stmt s : stmts)
+      s.accept(this);
+  }
+
+  // the type of a variable's declaration
+  private String typeOfDecl(Object decl) {
+    if (decl instanceof VarDeclStmt)
+      return typeOf((VarDeclStmt)decl);
+    else if (decl instanceof FunParam)
+      return ((FunParam)decl).paramType.lexeme();
+    // (a for loop variable)
+    return "int";
+  }
+
+  // the declaration of the field or variable at the end of a path
+  private Object resolve(List<Token> path) {
+    Object decl = vars.get(path.get(0).lexeme());
+    String type = typeOfDecl(decl);
+    for (int i = 1; i < path.size(); ++i) {
+      decl = field(type, path.get(i).lexeme());
+      type = typeOf((VarDeclStmt)decl);
+    }
+    return decl;
+  }
+
+  // the declaration of a field of a type
+  private VarDeclStmt field(String type, String name) {
+    for (VarDeclStmt v : typeDecls.get(type).vdecls)
+      if (v.varName.lexeme().equals(name))
+        return v;
+    return null;
+  }
+
+
+  //----------------------------------------------------------------------
+  // VISITOR FUNCTIONS
+  //----------------------------------------------------------------------
+
+  public void visit(Program node) throws MyPLException {
+    for (TypeDecl tdecl : node.tdecls)
+      typeDecls.put(tdecl.typeName.lexeme(), tdecl);
+    for (FunDecl fdecl : node.fdecls)
+      funDecls.put(fdecl.funName.lexeme(), fdecl);
+    // (each pass can only find more values to be nil, so this ends)
+    do {
+      changed = false;
+      for (TypeDecl tdecl : node.tdecls)
+        tdecl.accept(this);
+      for (FunDecl fdecl : node.fdecls)
+        fdecl.accept(this);
+    } while (changed);
+  }
+
+  public void visit(TypeDecl node) throws MyPLException {
+    // the fields are initialized in order (with the fields before them
+    // in scope)
+    vars = new HashMap<>();
+    for (VarDeclStmt v : node.vdecls)
+      v.accept(this);
+  }
+
+  public void visit(FunDecl node) throws MyPLException {
+    currFunction = node;
+    vars = new HashMap<>();
+    for (FunParam p : node.params)
+      vars.put(p.paramName.lexeme(), p);
+    block(node.stmts);
+    // a call running off the end returns nil
+    if (canComplete(node.stmts))
+      markNilable(node);
+  }
+
+  public void visit(VarDeclStmt node) throws MyPLException {
+    if (analyze(node.expr))
+      markNilable(node);
+    vars.put(node.varName.lexeme(), node);
+  }
+
+  public void visit(AssignStmt node) throws MyPLException {
+    if (analyze(node.expr))
+      markNilable(resolve(node.lvalue));
+  }
+
+  public void visit(CondStmt node) throws MyPLException {
+    analyze(node.ifPart.cond);
+    block(node.ifPart.stmts);
+    for (BasicIf elif : node.elifs) {
+      analyze(elif.cond);
+      block(elif.stmts);
+    }
+    if (node.elseStmts != null)
+      block(node.elseStmts);
+  }
+
+  public void visit(WhileStmt node) throws MyPLException {
+    analyze(node.cond);
+    block(node.stmts);
+  }
+
+  public void visit(ForStmt node) throws MyPLException {
+    // (the loop variable is never nil, since the loop fails on nil)
+    analyze(node.start);
+    vars.put(node.varName.lexeme(), node);
+    analyze(node.end);
+    block(node.stmts);
+  }
+
+  public void visit(ReturnStmt node) throws MyPLException {
+    if (node.expr == null || analyze(node.expr))
+      markNilable(currFunction);
+  }
+
+  public void visit(DeleteStmt node) throws MyPLException {
+    // nothing to do
+  }
+
+  public void visit(CallExpr node) throws MyPLException {
+    String name = node.funName.lexeme();
+    FunDecl callee = funDecls.get(name);
+    for (int i = 0; i < node.args.size(); ++i)
+      if (analyze(node.args.get(i)) && callee != null)
+        markNilable(callee.params.get(i));
+    // (print returns nil, and the other built-in functions never do)
+    if (callee != null)
+      currNilable = isNilable(callee);
+    else
+      currNilable = name.equals("print");
+  }
+
+  public void visit(SimpleRValue node) throws MyPLException {
+    currNilable = node.value.type() == TokenType.NIL;
+  }
+
+  public void visit(NewRValue node) throws MyPLException {
+    currNilable = false;
+  }
+
+  public void visit(IDRValue node) throws MyPLException {
+    Object decl = resolve(node.path);
+    currNilable = isNilable(decl);
+  }
+
+  public void visit(NegatedRValue node) throws MyPLException {
+    analyze(node.expr);
+    currNilable = false;
+  }
+
+  public void visit(Expr node) throws MyPLException {
+    boolean first = analyze(node.first);
+    boolean nilable = first;
+    if (node.op != null) {
+      analyze(node.rest);
+      nilable = false;
+    }
+    currNilable = nilable && !node.logicallyNegated;
+  }
+
+  public void visit(SimpleTerm node) throws MyPLException {
+    currNilable = analyze(node.rvalue);
+  }
+
+  public void visit(ComplexTerm node) throws MyPLException {
+    currNilable = analyze(node.expr);
+  }
+
+}
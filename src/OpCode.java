@@ -13,6 +13,8 @@ public enum OpCode {
   POP,          // pop value off of stack
   LOAD,         // push value at memory address onto stack
   STORE,        // pop x off stack, store x at memory address
+  INC,          // add 1 to the (int) value at memory address
+  DEC,          // subtract 1 from the (int) value at memory address
 
   // ops
   ADD,          // pop x and y off stack, push (y + x) onto stack
@@ -31,6 +33,38 @@ public enum OpCode {
   CMPNE,        // pop x and y off stack, push (y != x)
   NEG,          // pop x, push (-x)
 
+  // typed ops (same as the ops above, but for operands whose type is
+  // known statically, so no type tests are needed)
+  IADD,         // pop ints x and y, push (y + x)
+  ISUB,         // pop ints x and y, push (y - x)
+  IMUL,         // pop ints x and y, push (y * x)
+  IDIV,         // pop ints x and y, push (y / x)
+  INEG,         // pop int x, push (-x)
+  DADD,         // pop doubles x and y, push (y + x)
+  DSUB,         // pop doubles x and y, push (y - x)
+  DMUL,         // pop doubles x and y, push (y * x)
+  DDIV,         // pop doubles x and y, push (y / x)
+  DNEG,         // pop double x, push (-x)
+  SCONCAT,      // pop strings (or chars) x and y, push (y + x)
+  ICMPLT,       // pop ints x and y, push (y < x)
+  ICMPLE,       // pop ints x and y, push (y <= x)
+  ICMPGT,       // pop ints x and y, push (y > x)
+  ICMPGE,       // pop ints x and y, push (y >= x)
+  ICMPEQ,       // pop ints (or bools) x and y, push (y == x)
+  ICMPNE,       // pop ints (or bools) x and y, push (y != x)
+  DCMPLT,       // pop doubles x and y, push (y < x)
+  DCMPLE,       // pop doubles x and y, push (y <= x)
+  DCMPGT,       // pop doubles x and y, push (y > x)
+  DCMPGE,       // pop doubles x and y, push (y >= x)
+  DCMPEQ,       // pop doubles x and y, push (y == x)
+  DCMPNE,       // pop doubles x and y, push (y != x)
+  SCMPLT,       // pop strings (or chars) x and y, push (y < x)
+  SCMPLE,       // pop strings (or chars) x and y, push (y <= x)
+  SCMPGT,       // pop strings (or chars) x and y, push (y > x)
+  SCMPGE,       // pop strings (or chars) x and y, push (y >= x)
+  SCMPEQ,       // pop strings (or chars) x and y, push (y == x)
+  SCMPNE,       // pop strings (or chars) x and y, push (y != x)
+
   // jump
   JMP,          // jump to given instruction
   JMPF,         // pop x off stack, if x is false jump to instruction
@@ -57,6 +91,20 @@ public enum OpCode {
   // special
   DUP,          // pop x, push x, push x
   SWAP,         // pop x, pop y, push x, push y
-  NOP           // has no effect (for jumping over code segments)
+  NOP,          // has no effect (for jumping over code segments)
+
+  // superinstructions (each does the work of the sequence of
+  // instructions shown, and is only introduced by the InstructionFuser)
+  LOAD_LOAD,      // LOAD a, LOAD b (operands [a, b])
+  LOAD_PUSH,      // LOAD a, PUSH c (operands [a, c])
+  LOAD_LOAD_IADD, // LOAD a, LOAD b, IADD (operands [a, b])
+  INC_JMP,        // INC a, JMP i (operands [a, i])
+  DEC_JMP,        // DEC a, JMP i (operands [a, i])
+  ICMPLT_JMPF,    // ICMPLT, JMPF i
+  ICMPLE_JMPF,    // ICMPLE, JMPF i
+  ICMPGT_JMPF,    // ICMPGT, JMPF i
+  ICMPGE_JMPF,    // ICMPGE, JMPF i
+  ICMPEQ_JMPF,    // ICMPEQ, JMPF i
+  ICMPNE_JMPF     // ICMPNE, JMPF i
   ;
 }
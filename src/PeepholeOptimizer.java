@@ -0,0 +1,262 @@
+/*
+ * File: PeepholeOptimizer.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Peephole optimization pass over the code generated for a VM.
+ */
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Cleans up the instruction patterns left by the code generator. The
+ * pass runs over each frame after code generation (and before the VM
+ * loads the code), applying the enabled rules until none of them
+ * apply. Jump targets are fixed up whenever instructions are removed.
+ */
+public class PeepholeOptimizer {
+
+  // the optimization rules
+  public enum Rule {
+    NOP,          // remove NOPs (jumps to a NOP go to the next instruction)
+    JUMP,         // thread jumps to jumps, and remove jumps to the next
+                  // instruction
+    PUSH_POP,     // remove a PUSH, LOAD, or DUP immediately popped
+    INCREMENT     // fuse LOAD i, PUSH 1, ADD/SUB, STORE i into INC/DEC i
+  }
+
+  // the enabled rules
+  private Set<Rule> rules;
+
+  // number of instructions removed by each rule
+  private Map<Rule,Integer> removed = new EnumMap<>(Rule.class);
+
+  // number of jumps retargeted by jump threading
+  private int threaded = 0;
+
+
+  /**
+   * Creates an optimizer with all of the rules enabled.
+   */
+  public PeepholeOptimizer() {
+    this(EnumSet.allOf(Rule.class));
+  }
+
+  /**
+   * Creates an optimizer with the given rules enabled.
+   * @param rules the rules to apply
+   */
+  public PeepholeOptimizer(Set<Rule> rules) {
+    this.rules = EnumSet.noneOf(Rule.class);
+    this.rules.addAll(rules);
+    for (Rule rule : Rule.values())
+      removed.put(rule, 0);
+  }
+
+  /**
+   * Optimizes the code of each of the VM's frames.
+   * @param vm the vm whose (generated) code is optimized
+   */
+  public void optimize(VM vm) {
+    for (VMFrame frame : vm.frames())
+      optimize(frame);
+  }
+
+  /**
+   * Optimizes the code of the given frame.
+   * @param frame the frame to optimize
+   */
+  public void optimize(VMFrame frame) {
+    List<VMInstr> code = frame.instructions;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      if (rules.contains(Rule.JUMP))
+        changed |= threadJumps(code);
+      List<VMInstr> optimized = rewrite(code);
+      if (optimized.size() < code.size())
+        changed = true;
+      code = optimized;
+    }
+    frame.instructions = code;
+  }
+
+  /**
+   * Returns the number of instructions removed by the given rule.
+   */
+  public int removed(Rule rule) {
+    return removed.get(rule);
+  }
+
+  /**
+   * Returns the number of jumps retargeted by jump threading.
+   */
+  public int threaded() {
+    return threaded;
+  }
+
+  /**
+   * Returns a summary of the instructions removed by each rule.
+   */
+  public String stats() {
+    String s = "peephole:";
+    for (Rule rule : Rule.values())
+      s += " " + rule.toString().toLowerCase().replace('_', '-') + " " +
+        removed.get(rule) + ",";
+    return s + " jumps threaded " + threaded;
+  }
+
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // retarget jumps whose target is a NOP or an unconditional jump to
+  // the final destination
+  private boolean threadJumps(List<VMInstr> code) {
+    boolean changed = false;
+    for (VMInstr instr : code) {
+      if (!isJump(instr) || !isValidTarget(code, (int)instr.operand()))
+        continue;
+      int target = (int)instr.operand();
+      int end = target;
+      // follow the chain (giving up if it turns out to be a cycle)
+      int steps = 0;
+      while (end < code.size() && steps <= code.size()) {
+        VMInstr next = code.get(end);
+        if (next.opcode() == OpCode.NOP)
+          end = end + 1;
+        else if (next.opcode() == OpCode.JMP &&
+                 isValidTarget(code, (int)next.operand()))
+          end = (int)next.operand();
+        else
+          break;
+        ++steps;
+      }
+      if (end != target && steps <= code.size()) {
+        instr.updateOperand(end);
+        ++threaded;
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  // apply the removal rules in one pass over the code, returning the
+  // new instruction list (with its jump targets fixed up)
+  private List<VMInstr> rewrite(List<VMInstr> code) {
+    int n = code.size();
+    boolean[] target = jumpTargets(code);
+    // replacement for each instruction (null if it is removed)
+    VMInstr[] result = code.toArray(new VMInstr[0]);
+    for (int i = 0; i < n; ++i) {
+      VMInstr instr = code.get(i);
+      OpCode op = instr.opcode();
+      if (op == OpCode.NOP && rules.contains(Rule.NOP)) {
+        result[i] = null;
+        count(Rule.NOP, 1);
+      }
+      else if (rules.contains(Rule.JUMP) && op == OpCode.JMP &&
+               (int)instr.operand() == i + 1) {
+        result[i] = null;
+        count(Rule.JUMP, 1);
+      }
+      else if (rules.contains(Rule.PUSH_POP) && isPushPop(code, target, i)) {
+        result[i] = null;
+        result[i + 1] = null;
+        count(Rule.PUSH_POP, 2);
+        ++i;
+      }
+      else if (rules.contains(Rule.INCREMENT) &&
+               isIncrement(code, target, i)) {
+        int address = (int)instr.operand();
+        OpCode arith = code.get(i + 2).opcode();
+        if (arith == OpCode.ADD || arith == OpCode.IADD)
+          result[i] = VMInstr.INC(address);
+        else
+          result[i] = VMInstr.DEC(address);
+        result[i + 1] = null;
+        result[i + 2] = null;
+        result[i + 3] = null;
+        count(Rule.INCREMENT, 3);
+        i += 3;
+      }
+    }
+    // new index of each instruction (a removed instruction's index is
+    // that of the next remaining instruction)
+    int[] newIndex = new int[n + 1];
+    List<VMInstr> optimized = new ArrayList<>();
+    for (int i = 0; i < n; ++i) {
+      newIndex[i] = optimized.size();
+      if (result[i] != null)
+        optimized.add(result[i]);
+    }
+    newIndex[n] = optimized.size();
+    for (VMInstr instr : optimized)
+      if (isJump(instr) && isValidTarget(code, (int)instr.operand()))
+        instr.updateOperand(newIndex[(int)instr.operand()]);
+    return optimized;
+  }
+
+  // true if the instruction at i pushes a value that the next
+  // instruction (which isn't a jump target) pops
+  private static boolean isPushPop(List<VMInstr> code, boolean[] target,
+                                   int i)
+  {
+    if (i + 1 >= code.size() || target[i + 1])
+      return false;
+    OpCode op = code.get(i).opcode();
+    return (op == OpCode.PUSH || op == OpCode.LOAD || op == OpCode.DUP) &&
+      code.get(i + 1).opcode() == OpCode.POP;
+  }
+
+  // true if the instructions starting at i are LOAD a, PUSH 1, ADD (or
+  // SUB), STORE a (with no jumps into the middle of the sequence)
+  private static boolean isIncrement(List<VMInstr> code, boolean[] target,
+                                     int i)
+  {
+    if (i + 3 >= code.size() || target[i + 1] || target[i + 2] ||
+        target[i + 3])
+      return false;
+    VMInstr load = code.get(i);
+    VMInstr push = code.get(i + 1);
+    OpCode arith = code.get(i + 2).opcode();
+    VMInstr store = code.get(i + 3);
+    return load.opcode() == OpCode.LOAD && push.opcode() == OpCode.PUSH &&
+      Integer.valueOf(1).equals(push.operand()) &&
+      (arith == OpCode.ADD || arith == OpCode.IADD ||
+       arith == OpCode.SUB || arith == OpCode.ISUB) &&
+      store.opcode() == OpCode.STORE && load.operand().equals(store.operand());
+  }
+
+  // mark each instruction that is the target of a jump
+  private static boolean[] jumpTargets(List<VMInstr> code) {
+    boolean[] target = new boolean[code.size() + 1];
+    for (VMInstr instr : code)
+      if (isJump(instr) && isValidTarget(code, (int)instr.operand()))
+        target[(int)instr.operand()] = true;
+    return target;
+  }
+
+  // true if the jump target is in the code (or just past its end);
+  // bad targets are left alone for the VM to report when loading
+  private static boolean isValidTarget(List<VMInstr> code, int target) {
+    return target >= 0 && target <= code.size();
+  }
+
+  // true if the instruction is a JMP or JMPF
+  private static boolean isJump(VMInstr instr) {
+    return instr.opcode() == OpCode.JMP || instr.opcode() == OpCode.JMPF;
+  }
+
+  // add to the number of instructions removed by a rule
+  private void count(Rule rule, int n) {
+    removed.put(rule, removed.get(rule) + n);
+  }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * File: RegInstr.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: An instruction of the register machine.
+ */
+
+
+/**
+ * A register machine instruction: an opcode, the registers it writes
+ * (d) and reads (a and b), a jump target or field offset (t), and an
+ * operand for the instructions that need more (the function called by
+ * CALL, the record type allocated by ALLOC, and the name of a field
+ * given by name). Unused registers are -1. The registers and targets
+ * are set while lowering the stack code (see RegisterLowering), and
+ * never change once the function is loaded.
+ */
+public class RegInstr {
+
+  public final RegOpCode opcode;
+  public int d;
+  public int a;
+  public int b;
+  public int t;
+  public Object operand;
+
+
+  public RegInstr(RegOpCode opcode, int d, int a, int b) {
+    this.opcode = opcode;
+    this.d = d;
+    this.a = a;
+    this.b = b;
+  }
+
+  public RegInstr(RegOpCode opcode, int d, int a, int b, int t,
+                  Object operand)
+  {
+    this(opcode, d, a, b);
+    this.t = t;
+    this.operand = operand;
+  }
+
+  // true if the instruction jumps to t
+  public boolean isJump() {
+    switch (opcode) {
+    case JMP: case JMPF: case ICMPLT_JMPF: case ICMPLE_JMPF:
+    case ICMPGT_JMPF: case ICMPGE_JMPF: case ICMPEQ_JMPF: case ICMPNE_JMPF:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  @Override
+  public String toString() {
+    String s = opcode.toString();
+    if (d >= 0)
+      s += " r" + d;
+    if (a >= 0)
+      s += (d >= 0 ? ", r" : " r") + a;
+    if (b >= 0)
+      s += ", r" + b;
+    if (isJump() || opcode == RegOpCode.GETFLD || opcode == RegOpCode.SETFLD)
+      s += " " + t;
+    if (operand != null)
+      s += " " + operand;
+    return s;
+  }
+
+}
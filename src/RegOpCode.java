@@ -0,0 +1,84 @@
+/*
+ * File: RegOpCode.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: List of the register machine's opcodes and their semantics.
+ */
+
+
+/**
+ * The opcodes of the register machine (see RegisterVM). Instead of
+ * working on an operand stack, each instruction names the registers
+ * it reads (a and b) and the register it writes (d). Registers hold a
+ * call's variables, its temporaries, and its constants (see
+ * RegisterFunction). The operators have the same semantics as the
+ * stack VM's instructions of the same name (see OpCode).
+ */
+public enum RegOpCode {
+
+  // moves
+  MOVE,         // d = a
+
+  // ops
+  ADD,          // d = a + b
+  SUB,          // d = a - b
+  MUL,          // d = a * b
+  DIV,          // d = a / b
+  MOD,          // d = a % b
+  AND,          // d = a and b
+  OR,           // d = a or b
+  NOT,          // d = not a
+  CMPLT,        // d = a < b
+  CMPLE,        // d = a <= b
+  CMPGT,        // d = a > b
+  CMPGE,        // d = a >= b
+  CMPEQ,        // d = a == b
+  CMPNE,        // d = a != b
+  NEG,          // d = -a
+
+  // typed ops (see OpCode)
+  IADD, ISUB, IMUL, IDIV, INEG,
+  DADD, DSUB, DMUL, DDIV, DNEG,
+  SCONCAT,
+  ICMPLT, ICMPLE, ICMPGT, ICMPGE, ICMPEQ, ICMPNE,
+  DCMPLT, DCMPLE, DCMPGT, DCMPGE, DCMPEQ, DCMPNE,
+  SCMPLT, SCMPLE, SCMPGT, SCMPGE, SCMPEQ, SCMPNE,
+
+  // variables
+  INC,          // add 1 to the (int) value of a
+  DEC,          // subtract 1 from the (int) value of a
+
+  // jumps
+  JMP,          // jump to instruction t
+  JMPF,         // if a is false, jump to instruction t
+  ICMPLT_JMPF,  // if not (int) a < b, jump to instruction t
+  ICMPLE_JMPF,  // if not (int) a <= b, jump to instruction t
+  ICMPGT_JMPF,  // if not (int) a > b, jump to instruction t
+  ICMPGE_JMPF,  // if not (int) a >= b, jump to instruction t
+  ICMPEQ_JMPF,  // if not (int) a == b, jump to instruction t
+  ICMPNE_JMPF,  // if not (int) a != b, jump to instruction t
+
+  // functions
+  CALL,         // d = f(...) with the arguments in the registers from a
+                // (the last argument first)
+  RET,          // exit from the function passing back a
+
+  // built-ins
+  WRITE,        // write a to stdout
+  READ,         // d = line read from stdin
+  LEN,          // d = (string) a's length
+  GETCHR,       // d = (string) b's character at (int) a
+  TOINT,        // d = a as an integer
+  TODBL,        // d = a as a double
+  TOSTR,        // d = a as a string
+
+  // heap
+  ALLOC,        // d = new record of type
+  FREE,         // deallocate record a
+  SETFLD,       // set field t of record a to b
+  GETFLD,       // d = field t of record a
+
+  // special
+  HALT          // stop the machine (past the end of a function's code)
+  ;
+}
@@ -0,0 +1,143 @@
+/*
+ * File: RegisterFunction.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: The loaded (executable) form of a MyPL function in the
+ *       register machine.
+ */
+
+import java.util.List;
+
+
+/**
+ * A RegisterFunction holds the register code of a function (see
+ * RegisterLowering), shared by every call of the function. Each call
+ * has its own registers, laid out as: the function's variables (the
+ * same slots as in the stack code), one temporary per operand stack
+ * slot of the stack code (plus one spare for swapping values), and
+ * the function's constants, which are copied into the registers when
+ * the call starts so instructions can read them like any other
+ * register.
+ */
+public class RegisterFunction {
+
+  // name of the function
+  private final String functionName;
+
+  // number of arguments passed to the function
+  private final int argCount;
+
+  // the number of variable and temporary registers
+  private final int localCount;
+  private final int tempCount;
+
+  // the constants (primitive bits and reference or type tag)
+  private final long[] constBits;
+  private final Object[] constRefs;
+
+  // the function's instructions
+  public final RegInstr[] code;
+
+
+  /**
+   * Creates a function from its lowered code.
+   * @param functionName the name of the function
+   * @param argCount the number of arguments passed to the function
+   * @param localCount the number of variable registers
+   * @param tempCount the number of temporary registers
+   * @param constBits the constants' primitive bits
+   * @param constRefs the constants' references (or type tags)
+   * @param code the function's instructions
+   */
+  public RegisterFunction(String functionName, int argCount, int localCount,
+                          int tempCount, long[] constBits,
+                          Object[] constRefs, List<RegInstr> code)
+  {
+    this.functionName = functionName;
+    this.argCount = argCount;
+    this.localCount = localCount;
+    this.tempCount = tempCount;
+    this.constBits = constBits;
+    this.constRefs = constRefs;
+    this.code = code.toArray(new RegInstr[0]);
+  }
+
+  // get the function's name
+  public String functionName() {
+    return functionName;
+  }
+
+  // get the function's argument count
+  public int argCount() {
+    return argCount;
+  }
+
+  // get the register holding the first temporary (where the arguments
+  // are passed, the last one first)
+  public int tempBase() {
+    return localCount;
+  }
+
+  // get the number of registers of a call
+  public int registerCount() {
+    return localCount + tempCount + constBits.length;
+  }
+
+  // set up the registers of a new call (copying in the constants)
+  public void initRegisters(long[] prims, Object[] refs) {
+    int base = localCount + tempCount;
+    System.arraycopy(constBits, 0, prims, base, constBits.length);
+    System.arraycopy(constRefs, 0, refs, base, constRefs.length);
+  }
+
+  // the readable name of a register: variables are r0, r1, ...,
+  // temporaries t0, t1, ..., and constants are shown by value
+  public String registerName(int register) {
+    if (register < localCount)
+      return "r" + register;
+    else if (register < localCount + tempCount)
+      return "t" + (register - localCount);
+    int i = register - localCount - tempCount;
+    if (constRefs[i] instanceof String && constRefs[i] != VM.NIL_OBJ)
+      return "\"" + constRefs[i] + "\"";
+    return VMValue.toString(constRefs[i], constBits[i]);
+  }
+
+  // an instruction with its registers named
+  public String format(RegInstr instr) {
+    String s = instr.opcode.toString();
+    String sep = " ";
+    for (int register : new int[] {instr.d, instr.a, instr.b}) {
+      if (register >= 0) {
+        s += sep + registerName(register);
+        sep = ", ";
+      }
+    }
+    if (instr.isJump() || instr.opcode == RegOpCode.GETFLD ||
+        instr.opcode == RegOpCode.SETFLD)
+      s += sep + instr.t;
+    if (instr.operand instanceof RegisterFunction)
+      s += sep + ((RegisterFunction)instr.operand).functionName();
+    else if (instr.operand instanceof VMType) {
+      VMType type = (VMType)instr.operand;
+      String fields = "";
+      for (int i = 0; i < type.fieldCount(); ++i)
+        fields += (i > 0 ? ", " : "") + type.fieldName(i);
+      s += sep + "[" + fields + "]";
+    }
+    else if (instr.operand != null)
+      s += sep + instr.operand;
+    s = s.replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+    return s;
+  }
+
+  // the function's code (for debugging)
+  @Override
+  public String toString() {
+    String s = "Function '" + functionName + "'\n";
+    for (int i = 0; i < code.length; ++i)
+      s += "  " + i + ": " + format(code[i]) + "\n";
+    return s;
+  }
+
+}
@@ -0,0 +1,503 @@
+/*
+ * File: RegisterLowering.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Lowers a function's stack code to register code (see
+ *       RegisterVM).
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Translates the stack code of a loaded function to register code.
+ * Each operand stack slot becomes a temporary register, but values are
+ * only copied into their temporaries when needed: the lowering tracks
+ * which register holds each value on the stack, so a LOAD or PUSH just
+ * records the variable's (or constant's) register, and the instruction
+ * using the value reads that register directly. An instruction's
+ * result is written to its temporary, unless the next instruction
+ * stores it in a variable, in which case the result is written to the
+ * variable instead. An int comparison followed by a JMPF becomes a
+ * single compare-and-jump. So `x = y + 1` (LOAD, PUSH, IADD, STORE)
+ * becomes the one instruction IADD x, y, 1.
+ *
+ * Values are copied into their temporaries when the variable holding
+ * them is about to change, before calls (for the arguments), and
+ * before jumps and jump targets, so every path into a jump target
+ * leaves the stack's values in the same registers.
+ */
+public class RegisterLowering {
+
+  // the function being lowered
+  private VMFunction fun;
+
+  // the first temporary register, the spare temporary, and the first
+  // constant register
+  private int tempBase;
+  private int spare;
+  private int constBase;
+
+  // the register code so far
+  private List<RegInstr> out = new ArrayList<>();
+
+  // the constants (primitive bits and reference or type tag)
+  private List<Long> constBits = new ArrayList<>();
+  private List<Object> constRefs = new ArrayList<>();
+
+  // the register holding each value on the operand stack (either the
+  // value's own temporary, or a variable or constant register), and
+  // the stack height
+  private int[] stack;
+  private int sp = 0;
+
+  // the instruction that wrote each value on the stack to its
+  // temporary (-1 if the value wasn't just computed)
+  private int[] producers;
+
+  // the register code position of the last jump target (an
+  // instruction's result can only be redirected, or a comparison
+  // fused with a jump, within straight-line code)
+  private int lastTarget = 0;
+
+
+  /**
+   * Lowers a function's code to register code.
+   * @param fun the function (as loaded by the VM)
+   * @returns the register form of the function, whose calls name the
+   *          called function (until linked by the RegisterVM)
+   */
+  public RegisterFunction lower(VMFunction fun) throws MyPLException {
+    this.fun = fun;
+    tempBase = fun.localCount();
+    spare = tempBase + fun.maxStack();
+    constBase = spare + 1;
+    stack = new int[fun.maxStack() + 1];
+    producers = new int[fun.maxStack() + 1];
+    VMInstr[] code = fun.code;
+    int[] depths = fun.stackDepths();
+
+    // find the jump targets
+    boolean[] targets = new boolean[code.length + 1];
+    for (int pc = 0; pc < code.length; ++pc) {
+      int target = StackAnalyzer.jumpTarget(code[pc]);
+      if (target != StackAnalyzer.NO_TARGET)
+        targets[target] = true;
+    }
+
+    // the register code position of each instruction, and the jumps
+    // (whose targets are instructions of the stack code until all of
+    // them have been lowered)
+    int[] positions = new int[code.length + 1];
+    List<RegInstr> jumps = new ArrayList<>();
+    boolean reached = false;
+    for (int pc = 0; pc < code.length; ++pc) {
+      if (targets[pc] && reached)
+        flush();
+      if (targets[pc] || !reached) {
+        lastTarget = out.size();
+        // (the values are in their temporaries on entry)
+        sp = Math.max(depths[pc], 0);
+        for (int d = 0; d < sp; ++d) {
+          stack[d] = tempBase + d;
+          producers[d] = -1;
+        }
+      }
+      positions[pc] = out.size();
+      reached = depths[pc] >= 0;
+      if (reached)
+        reached = lower(code[pc], pc, jumps);
+    }
+    // running off the end of the code stops the machine (as in the VM)
+    positions[code.length] = out.size();
+    emit(RegOpCode.HALT, -1, -1, -1);
+    for (RegInstr jump : jumps)
+      jump.t = positions[jump.t];
+
+    long[] bits = new long[constBits.size()];
+    for (int i = 0; i < bits.length; ++i)
+      bits[i] = constBits.get(i);
+    return new RegisterFunction(fun.functionName(), fun.argCount(),
+                                fun.localCount(), fun.maxStack() + 1, bits,
+                                constRefs.toArray(), out);
+  }
+
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // add an instruction
+  private RegInstr emit(RegOpCode op, int d, int a, int b) {
+    RegInstr instr = new RegInstr(op, d, a, b);
+    out.add(instr);
+    return instr;
+  }
+
+  // the temporary of the given stack slot
+  private int temp(int depth) {
+    return tempBase + depth;
+  }
+
+  // push a value held in the given register
+  private void push(int register) {
+    stack[sp] = register;
+    producers[sp] = -1;
+    ++sp;
+  }
+
+  // push the result of the given instruction (written to the
+  // temporary of the slot pushed)
+  private void pushResult(RegInstr instr) {
+    instr.d = temp(sp);
+    stack[sp] = temp(sp);
+    producers[sp] = out.size() - 1;
+    ++sp;
+  }
+
+  // pop a value, returning the register holding it
+  private int pop() {
+    return stack[--sp];
+  }
+
+  // the register of the constant with the given value
+  private int constant(long bits, Object ref) {
+    for (int i = 0; i < constRefs.size(); ++i)
+      if (constRefs.get(i) == ref && constBits.get(i) == bits)
+        return constBase + i;
+    constBits.add(bits);
+    constRefs.add(ref);
+    return constBase + constRefs.size() - 1;
+  }
+
+  // copy the value of a stack slot into its temporary
+  private void materialize(int depth) {
+    if (stack[depth] != temp(depth)) {
+      emit(RegOpCode.MOVE, temp(depth), stack[depth], -1);
+      stack[depth] = temp(depth);
+      producers[depth] = -1;
+    }
+  }
+
+  // copy every value on the stack into its temporary
+  private void flush() {
+    for (int d = 0; d < sp; ++d)
+      materialize(d);
+  }
+
+  // copy the values held in a variable into their temporaries (before
+  // the variable changes)
+  private void release(int register) {
+    for (int d = 0; d < sp; ++d)
+      if (stack[d] == register)
+        materialize(d);
+  }
+
+  // the instruction that just computed the value on top of the stack
+  // (or null if the value wasn't computed by the last instruction in
+  // straight-line code)
+  private RegInstr topProducer() {
+    int last = out.size() - 1;
+    if (sp == 0 || producers[sp - 1] != last || last < lastTarget)
+      return null;
+    return out.get(last);
+  }
+
+  // store the value on top of the stack in a variable
+  private void store(int register) {
+    RegInstr producer = topProducer();
+    int value = pop();
+    if (value == register)
+      return;
+    release(register);
+    // (release() only emits code if the variable is still on the stack)
+    if (producer != null && producer == out.get(out.size() - 1))
+      producer.d = register;
+    else
+      emit(RegOpCode.MOVE, register, value, -1);
+  }
+
+  // lower a binary operator (popping x and y, pushing y op x)
+  private void binary(RegOpCode op) {
+    int x = pop();
+    int y = pop();
+    pushResult(emit(op, -1, y, x));
+  }
+
+  // lower a unary operator
+  private void unary(RegOpCode op) {
+    int x = pop();
+    pushResult(emit(op, -1, x, -1));
+  }
+
+  // lower a jump to the given (stack code) instruction
+  private void jump(RegInstr instr, int target, List<RegInstr> jumps) {
+    instr.t = target;
+    jumps.add(instr);
+  }
+
+  // lower a JMPF, fusing it with the int comparison computing its
+  // condition
+  private void jumpIfFalse(int target, List<RegInstr> jumps) {
+    RegInstr producer = topProducer();
+    int cond = pop();
+    RegOpCode fused = null;
+    if (producer != null)
+      fused = compareJump(producer.opcode);
+    if (fused != null) {
+      out.remove(out.size() - 1);
+      // (the values copied by flush() aren't compared)
+      flush();
+      jump(emit(fused, -1, producer.a, producer.b), target, jumps);
+    }
+    else {
+      flush();
+      jump(emit(RegOpCode.JMPF, -1, cond, -1), target, jumps);
+    }
+  }
+
+  // the compare-and-jump opcode for an int comparison (or null)
+  private static RegOpCode compareJump(RegOpCode op) {
+    switch (op) {
+    case ICMPLT: return RegOpCode.ICMPLT_JMPF;
+    case ICMPLE: return RegOpCode.ICMPLE_JMPF;
+    case ICMPGT: return RegOpCode.ICMPGT_JMPF;
+    case ICMPGE: return RegOpCode.ICMPGE_JMPF;
+    case ICMPEQ: return RegOpCode.ICMPEQ_JMPF;
+    case ICMPNE: return RegOpCode.ICMPNE_JMPF;
+    default: return null;
+    }
+  }
+
+  // the int comparison done by a fused compare jump
+  private static RegOpCode comparison(OpCode op) {
+    switch (op) {
+    case ICMPLT_JMPF: return RegOpCode.ICMPLT;
+    case ICMPLE_JMPF: return RegOpCode.ICMPLE;
+    case ICMPGT_JMPF: return RegOpCode.ICMPGT;
+    case ICMPGE_JMPF: return RegOpCode.ICMPGE;
+    case ICMPEQ_JMPF: return RegOpCode.ICMPEQ;
+    default: return RegOpCode.ICMPNE;
+    }
+  }
+
+  // lower one instruction, returning false if the next instruction
+  // can't be reached from it
+  private boolean lower(VMInstr instr, int pc, List<RegInstr> jumps)
+    throws MyPLException
+  {
+    OpCode op = instr.opcode();
+    switch (op) {
+
+    case PUSH:
+      push(constant(fun.constBits[pc], fun.constRefs[pc]));
+      break;
+    case POP:
+      pop();
+      break;
+    case LOAD:
+      push(fun.args[pc]);
+      break;
+    case STORE:
+      store(fun.args[pc]);
+      break;
+    case INC:
+      release(fun.args[pc]);
+      emit(RegOpCode.INC, -1, fun.args[pc], -1);
+      break;
+    case DEC:
+      release(fun.args[pc]);
+      emit(RegOpCode.DEC, -1, fun.args[pc], -1);
+      break;
+
+    case ADD: binary(RegOpCode.ADD); break;
+    case SUB: binary(RegOpCode.SUB); break;
+    case MUL: binary(RegOpCode.MUL); break;
+    case DIV: binary(RegOpCode.DIV); break;
+    case MOD: binary(RegOpCode.MOD); break;
+    case AND: binary(RegOpCode.AND); break;
+    case OR: binary(RegOpCode.OR); break;
+    case NOT: unary(RegOpCode.NOT); break;
+    case CMPLT: binary(RegOpCode.CMPLT); break;
+    case CMPLE: binary(RegOpCode.CMPLE); break;
+    case CMPGT: binary(RegOpCode.CMPGT); break;
+    case CMPGE: binary(RegOpCode.CMPGE); break;
+    case CMPEQ: binary(RegOpCode.CMPEQ); break;
+    case CMPNE: binary(RegOpCode.CMPNE); break;
+    case NEG: unary(RegOpCode.NEG); break;
+
+    case IADD: binary(RegOpCode.IADD); break;
+    case ISUB: binary(RegOpCode.ISUB); break;
+    case IMUL: binary(RegOpCode.IMUL); break;
+    case IDIV: binary(RegOpCode.IDIV); break;
+    case INEG: unary(RegOpCode.INEG); break;
+    case DADD: binary(RegOpCode.DADD); break;
+    case DSUB: binary(RegOpCode.DSUB); break;
+    case DMUL: binary(RegOpCode.DMUL); break;
+    case DDIV: binary(RegOpCode.DDIV); break;
+    case DNEG: unary(RegOpCode.DNEG); break;
+    case SCONCAT: binary(RegOpCode.SCONCAT); break;
+    case ICMPLT: binary(RegOpCode.ICMPLT); break;
+    case ICMPLE: binary(RegOpCode.ICMPLE); break;
+    case ICMPGT: binary(RegOpCode.ICMPGT); break;
+    case ICMPGE: binary(RegOpCode.ICMPGE); break;
+    case ICMPEQ: binary(RegOpCode.ICMPEQ); break;
+    case ICMPNE: binary(RegOpCode.ICMPNE); break;
+    case DCMPLT: binary(RegOpCode.DCMPLT); break;
+    case DCMPLE: binary(RegOpCode.DCMPLE); break;
+    case DCMPGT: binary(RegOpCode.DCMPGT); break;
+    case DCMPGE: binary(RegOpCode.DCMPGE); break;
+    case DCMPEQ: binary(RegOpCode.DCMPEQ); break;
+    case DCMPNE: binary(RegOpCode.DCMPNE); break;
+    case SCMPLT: binary(RegOpCode.SCMPLT); break;
+    case SCMPLE: binary(RegOpCode.SCMPLE); break;
+    case SCMPGT: binary(RegOpCode.SCMPGT); break;
+    case SCMPGE: binary(RegOpCode.SCMPGE); break;
+    case SCMPEQ: binary(RegOpCode.SCMPEQ); break;
+    case SCMPNE: binary(RegOpCode.SCMPNE); break;
+
+    case JMP:
+      flush();
+      jump(emit(RegOpCode.JMP, -1, -1, -1), fun.args[pc], jumps);
+      return false;
+    case JMPF:
+      jumpIfFalse(fun.args[pc], jumps);
+      break;
+
+    case CALL: {
+      // the arguments are passed in their temporaries
+      VMFunction callee = (VMFunction)fun.constRefs[pc];
+      for (int d = sp - callee.argCount(); d < sp; ++d)
+        materialize(d);
+      sp -= callee.argCount();
+      RegInstr call = emit(RegOpCode.CALL, -1, temp(sp), -1);
+      call.operand = callee.functionName();
+      pushResult(call);
+      break;
+    }
+    case VRET:
+      emit(RegOpCode.RET, -1, pop(), -1);
+      return false;
+
+    case WRITE:
+      emit(RegOpCode.WRITE, -1, pop(), -1);
+      break;
+    case READ:
+      pushResult(emit(RegOpCode.READ, -1, -1, -1));
+      break;
+    case LEN: unary(RegOpCode.LEN); break;
+    case GETCHR: {
+      // pops the string x and the index y
+      int x = pop();
+      int y = pop();
+      pushResult(emit(RegOpCode.GETCHR, -1, y, x));
+      break;
+    }
+    case TOINT: unary(RegOpCode.TOINT); break;
+    case TODBL: unary(RegOpCode.TODBL); break;
+    case TOSTR: unary(RegOpCode.TOSTR); break;
+
+    case ALLOC: {
+      RegInstr alloc = emit(RegOpCode.ALLOC, -1, -1, -1);
+      alloc.operand = fun.constRefs[pc];
+      pushResult(alloc);
+      break;
+    }
+    case FREE:
+      emit(RegOpCode.FREE, -1, pop(), -1);
+      break;
+    case SETFLD: {
+      // pops the value x and the record y
+      int x = pop();
+      int y = pop();
+      RegInstr set = emit(RegOpCode.SETFLD, -1, y, x);
+      set.t = fun.args[pc];
+      if (set.t < 0)
+        set.operand = instr.operand();
+      break;
+    }
+    case GETFLD: {
+      RegInstr get = emit(RegOpCode.GETFLD, -1, pop(), -1);
+      get.t = fun.args[pc];
+      if (get.t < 0)
+        get.operand = instr.operand();
+      pushResult(get);
+      break;
+    }
+
+    case DUP: {
+      int x = stack[sp - 1];
+      // (a temporary only ever holds the value of its own slot)
+      if (x == temp(sp - 1))
+        pushResult(emit(RegOpCode.MOVE, -1, x, -1));
+      else
+        push(x);
+      break;
+    }
+    case SWAP: {
+      int x = pop();
+      int y = pop();
+      if (x == temp(sp + 1) && y == temp(sp)) {
+        emit(RegOpCode.MOVE, spare, y, -1);
+        emit(RegOpCode.MOVE, temp(sp), x, -1);
+        emit(RegOpCode.MOVE, temp(sp + 1), spare, -1);
+        push(temp(sp));
+        push(temp(sp));
+      }
+      else if (x == temp(sp + 1)) {
+        emit(RegOpCode.MOVE, temp(sp), x, -1);
+        push(temp(sp));
+        push(y);
+      }
+      else if (y == temp(sp)) {
+        emit(RegOpCode.MOVE, temp(sp + 1), y, -1);
+        push(x);
+        push(temp(sp));
+      }
+      else {
+        push(x);
+        push(y);
+      }
+      break;
+    }
+    case NOP:
+      break;
+
+    // superinstructions are lowered as the instructions they replace
+    case LOAD_LOAD:
+      push(fun.args[pc]);
+      push(fun.args2[pc]);
+      break;
+    case LOAD_PUSH:
+      push(fun.args[pc]);
+      push(constant(fun.constBits[pc], fun.constRefs[pc]));
+      break;
+    case LOAD_LOAD_IADD:
+      push(fun.args[pc]);
+      push(fun.args2[pc]);
+      binary(RegOpCode.IADD);
+      break;
+    case INC_JMP: case DEC_JMP:
+      release(fun.args[pc]);
+      emit(op == OpCode.INC_JMP ? RegOpCode.INC : RegOpCode.DEC, -1,
+           fun.args[pc], -1);
+      flush();
+      jump(emit(RegOpCode.JMP, -1, -1, -1), fun.args2[pc], jumps);
+      return false;
+    case ICMPLT_JMPF: case ICMPLE_JMPF: case ICMPGT_JMPF: case ICMPGE_JMPF:
+    case ICMPEQ_JMPF: case ICMPNE_JMPF:
+      binary(comparison(op));
+      jumpIfFalse(fun.args[pc], jumps);
+      break;
+
+    default:
+      throw MyPLException.VMError("unsupported instruction " + instr +
+                                  " (in " + fun.functionName() + " at " +
+                                  pc + ")");
+    }
+    return true;
+  }
+
+}
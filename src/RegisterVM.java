@@ -0,0 +1,704 @@
+/*
+ * File: RegisterVM.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: A register machine that runs the VM's programs from their
+ *       stack code lowered to register code.
+ */
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+
+/**
+ * Runs a program generated for the VM as register code. The frames
+ * added to the VM are loaded (and checked) as by the VM, and each
+ * function's stack code is then lowered to register code (see
+ * RegisterLowering), in which an instruction reads its operands from
+ * and writes its result to the call's registers directly, so most
+ * statements take one or two instructions instead of the three or
+ * more of the stack code. Values, records, and runtime errors are the
+ * same as in the VM, but the heap isn't garbage collected and nothing
+ * is compiled to JVM bytecode.
+ */
+public class RegisterVM {
+
+  // a call of a function: its registers (see VMValue), its program
+  // counter, and the register of its caller receiving its result
+  private static class Frame {
+    final RegisterFunction function;
+    final long[] prims;
+    final Object[] refs;
+    int pc = 0;
+    int result = -1;
+
+    Frame(RegisterFunction function) {
+      this.function = function;
+      int size = function.registerCount();
+      prims = new long[size];
+      refs = new Object[size];
+      function.initRegisters(prims, refs);
+    }
+  }
+
+  // the VM whose program is run
+  private VM vm;
+
+  // the lowered functions
+  private Map<String,RegisterFunction> functions = new HashMap<>();
+
+  // number of stack instructions lowered, and of register instructions
+  // they were lowered to
+  private int stackCount = 0;
+  private int registerCount = 0;
+
+  // the call stack
+  private Deque<Frame> frameStack = new ArrayDeque<>();
+
+  // the records allocated
+  private VMHeap heap = new VMHeap();
+
+  // next available object-id
+  private int objectId = 1111;
+
+  // number of instructions executed so far
+  private long instrCount = 0;
+
+  private static final String NIL_OBJ = VM.NIL_OBJ;
+
+
+  /**
+   * Creates a register machine for the program added to the given VM
+   * (e.g., by the CodeGenerator and optimizers).
+   * @param vm the VM holding the program's frames
+   */
+  public RegisterVM(VM vm) {
+    this.vm = vm;
+  }
+
+  /**
+   * Returns the number of instructions executed (e.g., for comparing
+   * with the VM's instruction count).
+   */
+  public long instructionCount() {
+    return instrCount;
+  }
+
+  /**
+   * Returns a summary of the lowering and of the instructions run.
+   */
+  public String stats() {
+    return "registers: lowered " + stackCount + " stack instruction(s) to " +
+      registerCount + ", executed " + instrCount;
+  }
+
+  /**
+   * Run the program.
+   */
+  public void run() throws MyPLException {
+    load();
+    if (!functions.containsKey("main"))
+      throw MyPLException.VMError("No 'main' function");
+    Frame frame = new Frame(functions.get("main"));
+    frameStack.push(frame);
+    execute(frame);
+  }
+
+  // the lowered code of each function (for debugging)
+  @Override
+  public String toString() {
+    String s = "";
+    for (RegisterFunction function : functions.values())
+      s += function;
+    return s;
+  }
+
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // load and lower the program's functions, and link their calls
+  private void load() throws MyPLException {
+    Map<String,VMFrame> frames = new HashMap<>();
+    for (VMFrame frame : vm.frames())
+      frames.put(frame.functionName(), frame);
+    Map<String,VMFunction> loaded = new HashMap<>();
+    for (VMFrame frame : frames.values())
+      loaded.put(frame.functionName(), new VMFunction(frame, frames));
+    for (VMFunction function : loaded.values())
+      function.link(loaded);
+    functions.clear();
+    stackCount = 0;
+    registerCount = 0;
+    for (VMFunction function : loaded.values()) {
+      RegisterFunction lowered = new RegisterLowering().lower(function);
+      functions.put(function.functionName(), lowered);
+      stackCount += function.code.length;
+      // (not counting the HALT ending the code)
+      registerCount += lowered.code.length - 1;
+    }
+    for (RegisterFunction function : functions.values())
+      for (RegInstr instr : function.code)
+        if (instr.opcode == RegOpCode.CALL)
+          instr.operand = functions.get(instr.operand);
+  }
+
+  // run the given call until it returns
+  private void execute(Frame frame) throws MyPLException {
+    RegisterFunction fun = frame.function;
+    RegInstr[] code = fun.code;
+    long[] p = frame.prims;
+    Object[] r = frame.refs;
+    int pc = 0;
+
+    while (true) {
+      RegInstr instr = code[pc];
+      ++pc;
+      ++instrCount;
+      int d = instr.d;
+      int a = instr.a;
+      int b = instr.b;
+
+      switch (instr.opcode) {
+
+      case MOVE:
+        p[d] = p[a];
+        r[d] = r[a];
+        break;
+
+      //------------------------------------------------------------
+      // Ops
+      //------------------------------------------------------------
+
+      case ADD:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        if (r[b] == VMValue.INT) {
+          p[d] = (int)p[a] + (int)p[b];
+          r[d] = VMValue.INT;
+        }
+        else if (r[b] == VMValue.DOUBLE) {
+          p[d] = VMValue.bits(VMValue.dbl(p[a]) + VMValue.dbl(p[b]));
+          r[d] = VMValue.DOUBLE;
+        }
+        else {
+          r[d] = VMValue.toString(r[a], p[a]) + VMValue.toString(r[b], p[b]);
+          p[d] = 0;
+        }
+        break;
+
+      case SUB: case MUL: case DIV: {
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        RegOpCode op = instr.opcode;
+        if (r[b] == VMValue.INT) {
+          int y = (int)p[a];
+          int x = (int)p[b];
+          p[d] = op == RegOpCode.SUB ? y - x : (op == RegOpCode.MUL ? y * x : y / x);
+          r[d] = VMValue.INT;
+        }
+        else {
+          double y = VMValue.dbl(p[a]);
+          double x = VMValue.dbl(p[b]);
+          p[d] = VMValue.bits(op == RegOpCode.SUB ? y - x :
+                              (op == RegOpCode.MUL ? y * x : y / x));
+          r[d] = VMValue.DOUBLE;
+        }
+        break;
+      }
+
+      case MOD:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = (int)p[a] % (int)p[b];
+        r[d] = VMValue.INT;
+        break;
+
+      case AND:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = p[a] & p[b];
+        r[d] = VMValue.BOOL;
+        break;
+
+      case OR:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = p[a] | p[b];
+        r[d] = VMValue.BOOL;
+        break;
+
+      case NOT:
+        ensureNotNil(frame, pc, r[a]);
+        p[d] = p[a] ^ 1;
+        r[d] = VMValue.BOOL;
+        break;
+
+      case CMPLT: case CMPLE: case CMPGT: case CMPGE: {
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        int c = VM.compare(r[a], p[a], r[b], p[b]);
+        RegOpCode op = instr.opcode;
+        boolean result = op == RegOpCode.CMPLT ? c < 0 :
+          (op == RegOpCode.CMPLE ? c <= 0 : (op == RegOpCode.CMPGT ? c > 0 : c >= 0));
+        p[d] = result ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+      }
+
+      case CMPEQ:
+        p[d] = VM.equal(r[a], p[a], r[b], p[b]) ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+
+      case CMPNE:
+        p[d] = VM.equal(r[a], p[a], r[b], p[b]) ? 0 : 1;
+        r[d] = VMValue.BOOL;
+        break;
+
+      case NEG:
+        ensureNotNil(frame, pc, r[a]);
+        if (r[a] == VMValue.INT)
+          p[d] = -(int)p[a];
+        else
+          p[d] = VMValue.bits(-VMValue.dbl(p[a]));
+        r[d] = r[a];
+        break;
+
+      //------------------------------------------------------------
+      // Typed operations
+      //------------------------------------------------------------
+
+      case IADD:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = (int)p[a] + (int)p[b];
+        r[d] = VMValue.INT;
+        break;
+
+      case ISUB:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = (int)p[a] - (int)p[b];
+        r[d] = VMValue.INT;
+        break;
+
+      case IMUL:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = (int)p[a] * (int)p[b];
+        r[d] = VMValue.INT;
+        break;
+
+      case IDIV:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = (int)p[a] / (int)p[b];
+        r[d] = VMValue.INT;
+        break;
+
+      case INEG:
+        ensureNotNil(frame, pc, r[a]);
+        p[d] = -(int)p[a];
+        r[d] = VMValue.INT;
+        break;
+
+      case DADD:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = VMValue.bits(VMValue.dbl(p[a]) + VMValue.dbl(p[b]));
+        r[d] = VMValue.DOUBLE;
+        break;
+
+      case DSUB:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = VMValue.bits(VMValue.dbl(p[a]) - VMValue.dbl(p[b]));
+        r[d] = VMValue.DOUBLE;
+        break;
+
+      case DMUL:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = VMValue.bits(VMValue.dbl(p[a]) * VMValue.dbl(p[b]));
+        r[d] = VMValue.DOUBLE;
+        break;
+
+      case DDIV:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = VMValue.bits(VMValue.dbl(p[a]) / VMValue.dbl(p[b]));
+        r[d] = VMValue.DOUBLE;
+        break;
+
+      case DNEG:
+        ensureNotNil(frame, pc, r[a]);
+        p[d] = VMValue.bits(-VMValue.dbl(p[a]));
+        r[d] = VMValue.DOUBLE;
+        break;
+
+      case SCONCAT:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        r[d] = (String)r[a] + (String)r[b];
+        p[d] = 0;
+        break;
+
+      case ICMPLT:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = (int)p[a] < (int)p[b] ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+
+      case ICMPLE:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = (int)p[a] <= (int)p[b] ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+
+      case ICMPGT:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = (int)p[a] > (int)p[b] ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+
+      case ICMPGE:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = (int)p[a] >= (int)p[b] ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+
+      case ICMPEQ:
+        p[d] = r[a] == r[b] && (r[b] == NIL_OBJ || p[a] == p[b]) ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+
+      case ICMPNE:
+        p[d] = !(r[a] == r[b] && (r[b] == NIL_OBJ || p[a] == p[b])) ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+
+      case DCMPLT:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = VMValue.dbl(p[a]) < VMValue.dbl(p[b]) ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+
+      case DCMPLE:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = VMValue.dbl(p[a]) <= VMValue.dbl(p[b]) ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+
+      case DCMPGT:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = VMValue.dbl(p[a]) > VMValue.dbl(p[b]) ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+
+      case DCMPGE:
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        p[d] = VMValue.dbl(p[a]) >= VMValue.dbl(p[b]) ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+
+      case DCMPEQ:
+        p[d] = r[a] == r[b] && (r[b] == NIL_OBJ ||
+                                VMValue.dbl(p[a]) == VMValue.dbl(p[b])) ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+
+      case DCMPNE:
+        p[d] = !(r[a] == r[b] && (r[b] == NIL_OBJ ||
+                                  VMValue.dbl(p[a]) == VMValue.dbl(p[b]))) ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+
+      case SCMPLT: case SCMPLE: case SCMPGT: case SCMPGE: {
+        ensureNotNil(frame, pc, r[a]);
+        ensureNotNil(frame, pc, r[b]);
+        int c = ((String)r[a]).compareTo((String)r[b]);
+        RegOpCode op = instr.opcode;
+        boolean result = op == RegOpCode.SCMPLT ? c < 0 :
+          (op == RegOpCode.SCMPLE ? c <= 0 : (op == RegOpCode.SCMPGT ? c > 0 : c >= 0));
+        p[d] = result ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+      }
+
+      case SCMPEQ:
+        p[d] = r[a].equals(r[b]) ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+
+      case SCMPNE:
+        p[d] = !r[a].equals(r[b]) ? 1 : 0;
+        r[d] = VMValue.BOOL;
+        break;
+
+      //------------------------------------------------------------
+      // Variables and jumps
+      //------------------------------------------------------------
+
+      case INC:
+        ensureNotNil(frame, pc, r[a]);
+        p[a] = (int)p[a] + 1;
+        break;
+
+      case DEC:
+        ensureNotNil(frame, pc, r[a]);
+        p[a] = (int)p[a] - 1;
+        break;
+
+      case JMP:
+        pc = instr.t;
+        break;
+
+      case JMPF:
+        if (p[a] == 0)
+          pc = instr.t;
+        break;
+
+      case ICMPLT_JMPF:
+        ensureNotNil(frame, pc, r[b]);
+        ensureNotNil(frame, pc, r[a]);
+        if (!((int)p[a] < (int)p[b]))
+          pc = instr.t;
+        break;
+
+      case ICMPLE_JMPF:
+        ensureNotNil(frame, pc, r[b]);
+        ensureNotNil(frame, pc, r[a]);
+        if (!((int)p[a] <= (int)p[b]))
+          pc = instr.t;
+        break;
+
+      case ICMPGT_JMPF:
+        ensureNotNil(frame, pc, r[b]);
+        ensureNotNil(frame, pc, r[a]);
+        if (!((int)p[a] > (int)p[b]))
+          pc = instr.t;
+        break;
+
+      case ICMPGE_JMPF:
+        ensureNotNil(frame, pc, r[b]);
+        ensureNotNil(frame, pc, r[a]);
+        if (!((int)p[a] >= (int)p[b]))
+          pc = instr.t;
+        break;
+
+      case ICMPEQ_JMPF:
+        if (!(r[a] == r[b] && (r[b] == NIL_OBJ || p[a] == p[b])))
+          pc = instr.t;
+        break;
+
+      case ICMPNE_JMPF:
+        if (r[a] == r[b] && (r[b] == NIL_OBJ || p[a] == p[b]))
+          pc = instr.t;
+        break;
+
+      //------------------------------------------------------------
+      // Functions
+      //------------------------------------------------------------
+
+      case CALL: {
+        // the arguments are passed in the callee's temporaries (the
+        // last argument first, as pushed by the VM)
+        RegisterFunction callee = (RegisterFunction)instr.operand;
+        Frame newFrame = new Frame(callee);
+        int n = callee.argCount();
+        int base = callee.tempBase();
+        for (int i = 0; i < n; ++i) {
+          newFrame.prims[base + i] = p[a + n - 1 - i];
+          newFrame.refs[base + i] = r[a + n - 1 - i];
+        }
+        frame.pc = pc;
+        frame.result = d;
+        frameStack.push(newFrame);
+        frame = newFrame;
+        fun = callee;
+        code = fun.code;
+        p = frame.prims;
+        r = frame.refs;
+        pc = 0;
+        break;
+      }
+
+      case RET: {
+        long bits = p[a];
+        Object ref = r[a];
+        frameStack.pop();
+        frame = frameStack.peek();
+        if (frame == null)
+          return;
+        fun = frame.function;
+        code = fun.code;
+        p = frame.prims;
+        r = frame.refs;
+        pc = frame.pc;
+        p[frame.result] = bits;
+        r[frame.result] = ref;
+        break;
+      }
+
+      //------------------------------------------------------------
+      // Built-ins
+      //------------------------------------------------------------
+
+      case WRITE:
+        System.out.print(VMValue.toString(r[a], p[a]));
+        break;
+
+      case READ: {
+        Scanner s = new Scanner(System.in);
+        p[d] = 0;
+        r[d] = s.nextLine();
+        break;
+      }
+
+      case LEN:
+        ensureNotNil(frame, pc, r[a]);
+        p[d] = r[a].toString().length();
+        r[d] = VMValue.INT;
+        break;
+
+      case GETCHR: {
+        ensureNotNil(frame, pc, r[b]);
+        ensureNotNil(frame, pc, r[a]);
+        String s = r[b].toString();
+        int i = (int)p[a];
+        if (i < 0 || i >= s.length())
+          error("invalid index " + i + " for string " + s, frame, pc);
+        p[d] = 0;
+        r[d] = s.substring(i, i + 1);
+        break;
+      }
+
+      case TOINT: {
+        ensureNotNil(frame, pc, r[a]);
+        long bits = p[a];
+        if (r[a] == VMValue.DOUBLE)
+          bits = (int)VMValue.dbl(p[a]);
+        else if (r[a] != VMValue.INT) {
+          try {
+            bits = (int)Double.parseDouble(r[a].toString());
+          } catch(NumberFormatException e) {
+            error("incompatible string " + r[a] + " to parse as int", frame, pc);
+          }
+        }
+        p[d] = bits;
+        r[d] = VMValue.INT;
+        break;
+      }
+
+      case TODBL: {
+        ensureNotNil(frame, pc, r[a]);
+        long bits = p[a];
+        if (r[a] == VMValue.INT)
+          bits = VMValue.bits((int)p[a]);
+        else if (r[a] != VMValue.DOUBLE) {
+          try {
+            bits = VMValue.bits(Double.parseDouble(r[a].toString()));
+          } catch(NumberFormatException e) {
+            error("incompatible string " + r[a] + " to parse as double", frame, pc);
+          }
+        }
+        p[d] = bits;
+        r[d] = VMValue.DOUBLE;
+        break;
+      }
+
+      case TOSTR:
+        ensureNotNil(frame, pc, r[a]);
+        r[d] = VMValue.toString(r[a], p[a]);
+        p[d] = 0;
+        break;
+
+      //------------------------------------------------------------
+      // Heap related
+      //------------------------------------------------------------
+
+      case ALLOC: {
+        VMRecord obj = new VMRecord((VMType)instr.operand, objectId);
+        objectId = objectId + 1;
+        heap.add(obj);
+        p[d] = 0;
+        r[d] = obj;
+        break;
+      }
+
+      case FREE:
+        ensureNotNil(frame, pc, r[a]);
+        if (r[a] instanceof VMRecord)
+          heap.free((VMRecord)r[a]);
+        break;
+
+      case SETFLD: {
+        VMRecord obj = deref(frame, pc, r[a]);
+        int field = instr.t >= 0 ? instr.t : fieldOffset(obj, instr, frame, pc);
+        obj.prims[field] = p[b];
+        obj.refs[field] = r[b];
+        break;
+      }
+
+      case GETFLD: {
+        VMRecord obj = deref(frame, pc, r[a]);
+        int field = instr.t >= 0 ? instr.t : fieldOffset(obj, instr, frame, pc);
+        p[d] = obj.prims[field];
+        r[d] = obj.refs[field];
+        break;
+      }
+
+      case HALT:
+        return;
+
+      }
+    }
+  }
+
+  // error at the instruction before pc
+  private void error(String m, Frame f, int pc) throws MyPLException {
+    RegisterFunction fun = f.function;
+    m += " (in " + fun.functionName() + " at " + (pc - 1) + ": " +
+      fun.format(fun.code[pc - 1]) + ")";
+    throw MyPLException.VMError(m);
+  }
+
+  // error if given value is nil
+  private void ensureNotNil(Frame f, int pc, Object v) throws MyPLException {
+    if (v == NIL_OBJ)
+      error("Nil reference", f, pc);
+  }
+
+  // get the (live) record referenced by a register
+  private VMRecord deref(Frame f, int pc, Object ref) throws MyPLException {
+    if (ref instanceof VMRecord && !((VMRecord)ref).isFreed())
+      return (VMRecord)ref;
+    ensureNotNil(f, pc, ref);
+    error("invalid heap access", f, pc);
+    return null;
+  }
+
+  // find the slot offset of a field given by name (in hand-built code)
+  private int fieldOffset(VMRecord obj, RegInstr instr, Frame f, int pc)
+    throws MyPLException
+  {
+    int offset = obj.type.offsetOf(instr.operand.toString());
+    if (offset < 0)
+      error("no field " + instr.operand, f, pc);
+    return offset;
+  }
+
+}
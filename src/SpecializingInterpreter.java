@@ -0,0 +1,1682 @@
+/*
+ * File: SpecializingInterpreter.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Runs a checked MyPL program as a tree of nodes that specialize
+ *       themselves to the values they see (an alternative to the code
+ *       generator and VM).
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.function.Supplier;
+
+
+/**
+ * Builds a tree of executable nodes from the checked program, one node
+ * per statement and expression, and runs the program by executing the
+ * tree. Unlike the closure engine, the tree isn't built from the
+ * checked types. Instead, operators, variable stores, field accesses,
+ * and calls start out uninitialized, and on their first execution
+ * rewrite themselves into a variant for the values they saw: e.g., an
+ * int add working on unboxed ints, a string concatenation, a field read
+ * cached for one record type, or a call bound to its function. A
+ * specialized node checks its assumption each time it runs, and if it
+ * fails (e.g., a nil shows up where an int was seen) the node
+ * deoptimizes: it finishes with the values it already has and rewrites
+ * itself into the generic variant, which works for any values. Generic
+ * nodes never specialize again, so the tree settles after a few
+ * executions. If a recursive call rewrites a node while an outer call
+ * is still running it, the outer call leaves the tree as the recursive
+ * call left it. Values and runtime errors are as in the closure engine
+ * (see ClosureEngine).
+ */
+public class SpecializingInterpreter
+  extends EngineRuntime<SpecializingInterpreter.StmtNode> implements Visitor
+{
+
+  //----------------------------------------------------------------------
+  // Nodes
+  //----------------------------------------------------------------------
+
+  // thrown by a typed execute method when the value isn't of the
+  // type, carrying the value (so it isn't computed again)
+  static final class UnexpectedType extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    final Object ref;
+    final long bits;
+
+    UnexpectedType(Object ref, long bits) {
+      // (no message or stack trace, since these are thrown on
+      // deoptimization)
+      super(null, null, false, false);
+      this.ref = ref;
+      this.bits = bits;
+    }
+  }
+
+  // a node of the tree, which can replace itself in its parent
+  abstract static class Node {
+    Node parent = null;
+
+    // make a node a child of this one
+    <T extends Node> T adopt(T child) {
+      if (child != null)
+        child.parent = this;
+      return child;
+    }
+
+    // true if this node is still in the tree (a node is detached once
+    // replaced, which a recursive call can do while an outer call is
+    // still running the node)
+    boolean isAttached() {
+      return parent != null;
+    }
+
+    // replace this node in its parent by the given node (which takes
+    // over this node's children), doing nothing if this node was
+    // already replaced
+    void replace(Node node) {
+      if (!isAttached())
+        return;
+      node.parent = parent;
+      parent.replaceChild(this, node);
+      parent = null;
+    }
+
+    // swap a child of this node for the node replacing it (the child
+    // must be one of this node's)
+    void replaceChild(Node child, Node node) {
+      throw new IllegalStateException("no child to replace");
+    }
+  }
+
+  // a statement, returning true if it returned from the function
+  abstract static class StmtNode extends Node {
+    abstract boolean execute(Frame f) throws MyPLException;
+  }
+
+  // an expression, returning the value's reference (or type tag) and
+  // leaving its primitive bits in f.bits (the typed versions return
+  // the value unboxed, or throw if it isn't of the type)
+  abstract static class ExprNode extends Node {
+    abstract Object execute(Frame f) throws MyPLException;
+
+    int executeInt(Frame f) throws MyPLException, UnexpectedType {
+      return expectInt(f, execute(f));
+    }
+
+    double executeDouble(Frame f) throws MyPLException, UnexpectedType {
+      return expectDouble(f, execute(f));
+    }
+
+    boolean executeBool(Frame f) throws MyPLException, UnexpectedType {
+      return expectBool(f, execute(f));
+    }
+
+    // the value as a jump condition (nil is false)
+    boolean executeCondition(Frame f) throws MyPLException {
+      execute(f);
+      return f.bits != 0;
+    }
+  }
+
+  // the binary operators
+  private static final int ADD = 0;
+  private static final int SUB = 1;
+  private static final int MUL = 2;
+  private static final int DIV = 3;
+  private static final int MOD = 4;
+  private static final int LT = 5;
+  private static final int LE = 6;
+  private static final int GT = 7;
+  private static final int GE = 8;
+  private static final int EQ = 9;
+  private static final int NE = 10;
+
+  // the built-in functions
+  private static final int PRINT = 0;
+  private static final int READ = 1;
+  private static final int LENGTH = 2;
+  private static final int GET = 3;
+  private static final int TO_INT = 4;
+  private static final int TO_DOUBLE = 5;
+  private static final int TO_STR = 6;
+
+  // the program's record types (one per type, so the records of a
+  // type share it)
+  private Map<String,TypeDecl> typeDecls = new HashMap<>();
+  private Map<String,VMType> types = new HashMap<>();
+
+  // the number of nodes rewritten from uninitialized, and from
+  // specialized to generic
+  private int specializations = 0;
+  private int deoptimizations = 0;
+
+  // the node built for the last statement or expression visited
+  private StmtNode currStmt = null;
+  private ExprNode currExpr = null;
+
+
+  // (the interpreter's function bodies are trees of nodes)
+  void call(StmtNode body, Frame f) throws MyPLException {
+    body.execute(f);
+  }
+
+  // the number of nodes that have specialized
+  public int specializations() {
+    return specializations;
+  }
+
+  // the number of specialized nodes that have deoptimized
+  public int deoptimizations() {
+    return deoptimizations;
+  }
+
+  // get the rewrite statistics as a (one line) string
+  public String stats() {
+    return "specialize: " + specializations + " node(s) specialized, " +
+      deoptimizations + " deoptimized";
+  }
+
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // rewrite an uninitialized node into the variant for what it saw
+  // (the variant is only created if the node is still in the tree,
+  // since creating it takes over the node's children)
+  private void specialize(Node node, Supplier<Node> variant) {
+    if (node.isAttached()) {
+      ++specializations;
+      node.replace(variant.get());
+    }
+  }
+
+  // rewrite a specialized node whose assumption failed into the
+  // generic variant
+  private void generalize(Node node, Supplier<Node> generic) {
+    if (node.isAttached()) {
+      ++deoptimizations;
+      node.replace(generic.get());
+    }
+  }
+
+  // the unboxed value of a result (see ExprNode)
+  private static int expectInt(Frame f, Object ref) throws UnexpectedType {
+    if (ref != VMValue.INT)
+      throw new UnexpectedType(ref, f.bits);
+    return (int)f.bits;
+  }
+
+  private static double expectDouble(Frame f, Object ref)
+    throws UnexpectedType
+  {
+    if (ref != VMValue.DOUBLE)
+      throw new UnexpectedType(ref, f.bits);
+    return VMValue.dbl(f.bits);
+  }
+
+  private static boolean expectBool(Frame f, Object ref)
+    throws UnexpectedType
+  {
+    if (ref != VMValue.BOOL)
+      throw new UnexpectedType(ref, f.bits);
+    return f.bits != 0;
+  }
+
+  // the node for an expression
+  private ExprNode build(ASTNode node) throws MyPLException {
+    node.accept(this);
+    return currExpr;
+  }
+
+  // the node running a list of statements
+  private Block block(List<Stmt> stmts) throws MyPLException {
+    StmtNode[] nodes = new StmtNode[stmts.size()];
+    for (int i = 0; i < nodes.length; ++i) {
+      Stmt s = stmts.get(i);
+      s.accept(this);
+      // (a call's return value is dropped)
+      nodes[i] = s instanceof CallExpr ? new ExprStmt(currExpr) : currStmt;
+    }
+    return new Block(nodes);
+  }
+
+  // the operator for a lexeme
+  private static int operator(String op) {
+    switch (op) {
+    case "+": return ADD;
+    case "-": return SUB;
+    case "*": return MUL;
+    case "/": return DIV;
+    case "%": return MOD;
+    case "<": return LT;
+    case "<=": return LE;
+    case ">": return GT;
+    case ">=": return GE;
+    case "==": return EQ;
+    default: return NE;
+    }
+  }
+
+  // true if the value is a (non-nil) string
+  private static boolean isString(Object ref) {
+    return ref instanceof String && ref != VM.NIL_OBJ;
+  }
+
+  // apply an operator to values y and x as the VM's untyped operators
+  // do (ADD, SUB, etc., and CMPEQ), returning the result's reference
+  // and leaving its bits in f.bits
+  private static Object apply(Frame f, int op, Object ry, long y,
+                              Object rx, long x)
+    throws MyPLException
+  {
+    if (op == EQ || op == NE) {
+      f.bits = VM.equal(ry, y, rx, x) == (op == EQ) ? 1 : 0;
+      return VMValue.BOOL;
+    }
+    checkNil(f, rx);
+    checkNil(f, ry);
+    if (op >= LT) {
+      f.bits = compared(op, VM.compare(ry, y, rx, x)) ? 1 : 0;
+      return VMValue.BOOL;
+    }
+    else if (rx == VMValue.INT || op == MOD)
+      f.bits = intOp(op, (int)y, (int)x);
+    else if (rx == VMValue.DOUBLE)
+      f.bits = VMValue.bits(doubleOp(op, VMValue.dbl(y), VMValue.dbl(x)));
+    else {
+      // (only + applies to strings)
+      f.bits = 0;
+      return VMValue.toString(ry, y) + VMValue.toString(rx, x);
+    }
+    return ry;
+  }
+
+  private static int intOp(int op, int y, int x) {
+    switch (op) {
+    case ADD: return y + x;
+    case SUB: return y - x;
+    case MUL: return y * x;
+    case DIV: return y / x;
+    default: return y % x;
+    }
+  }
+
+  private static double doubleOp(int op, double y, double x) {
+    switch (op) {
+    case ADD: return y + x;
+    case SUB: return y - x;
+    case MUL: return y * x;
+    default: return y / x;
+    }
+  }
+
+  // true if the result of a comparison (see VM.compare) satisfies the
+  // relational operator
+  private static boolean compared(int op, int c) {
+    switch (op) {
+    case LT: return c < 0;
+    case LE: return c <= 0;
+    case GT: return c > 0;
+    case GE: return c >= 0;
+    case EQ: return c == 0;
+    default: return c != 0;
+    }
+  }
+
+  // the slot offset of a record's field
+  private static int offsetOf(Frame f, VMRecord obj, String field)
+    throws MyPLException
+  {
+    int offset = obj.type.offsetOf(field);
+    if (offset < 0)
+      throw error(f, "no field " + field);
+    return offset;
+  }
+
+  //----------------------------------------------------------------------
+  // Statement nodes
+  //----------------------------------------------------------------------
+
+  static class Block extends StmtNode {
+    final StmtNode[] stmts;
+
+    Block(StmtNode[] stmts) {
+      this.stmts = stmts;
+      for (StmtNode s : stmts)
+        adopt(s);
+    }
+
+    boolean execute(Frame f) throws MyPLException {
+      for (StmtNode s : stmts)
+        if (s.execute(f))
+          return true;
+      return false;
+    }
+
+    void replaceChild(Node child, Node node) {
+      for (int i = 0; i < stmts.length; ++i) {
+        if (stmts[i] == child) {
+          stmts[i] = (StmtNode)node;
+          return;
+        }
+      }
+      super.replaceChild(child, node);
+    }
+  }
+
+  // an expression (call) run as a statement
+  static class ExprStmt extends StmtNode {
+    ExprNode expr;
+
+    ExprStmt(ExprNode expr) {
+      this.expr = adopt(expr);
+    }
+
+    boolean execute(Frame f) throws MyPLException {
+      expr.execute(f);
+      return false;
+    }
+
+    void replaceChild(Node child, Node node) {
+      if (child == expr)
+        expr = (ExprNode)node;
+      else
+        super.replaceChild(child, node);
+    }
+  }
+
+  // the if part and the elifs are tried in order
+  static class IfNode extends StmtNode {
+    final ExprNode[] conds;
+    final Block[] bodies;
+    final Block otherwise;
+
+    IfNode(ExprNode[] conds, Block[] bodies, Block otherwise) {
+      this.conds = conds;
+      this.bodies = bodies;
+      this.otherwise = adopt(otherwise);
+      for (int i = 0; i < conds.length; ++i) {
+        adopt(conds[i]);
+        adopt(bodies[i]);
+      }
+    }
+
+    boolean execute(Frame f) throws MyPLException {
+      for (int i = 0; i < conds.length; ++i)
+        if (conds[i].executeCondition(f))
+          return bodies[i].execute(f);
+      return otherwise != null && otherwise.execute(f);
+    }
+
+    void replaceChild(Node child, Node node) {
+      for (int i = 0; i < conds.length; ++i) {
+        if (conds[i] == child) {
+          conds[i] = (ExprNode)node;
+          return;
+        }
+      }
+      super.replaceChild(child, node);
+    }
+  }
+
+  static class WhileNode extends StmtNode {
+    ExprNode cond;
+    final Block body;
+
+    WhileNode(ExprNode cond, Block body) {
+      this.cond = adopt(cond);
+      this.body = adopt(body);
+    }
+
+    boolean execute(Frame f) throws MyPLException {
+      while (cond.executeCondition(f))
+        if (body.execute(f))
+          return true;
+      return false;
+    }
+
+    void replaceChild(Node child, Node node) {
+      if (child == cond)
+        cond = (ExprNode)node;
+      else
+        super.replaceChild(child, node);
+    }
+  }
+
+  static class ForNode extends StmtNode {
+    final int slot;
+    final int step;
+    StmtNode init;
+    ExprNode end;
+    final Block body;
+
+    ForNode(int slot, boolean upto, StmtNode init, ExprNode end, Block body) {
+      this.slot = slot;
+      this.step = upto ? 1 : -1;
+      this.init = adopt(init);
+      this.end = adopt(end);
+      this.body = adopt(body);
+    }
+
+    boolean execute(Frame f) throws MyPLException {
+      init.execute(f);
+      while (true) {
+        // the end is evaluated on each iteration
+        int last;
+        try {
+          last = end.executeInt(f);
+        } catch (UnexpectedType e) {
+          checkNil(f, e.ref);
+          last = (int)e.bits;
+        }
+        checkNil(f, f.refs[slot]);
+        int i = (int)f.prims[slot];
+        if (step > 0 ? i > last : i < last)
+          return false;
+        if (body.execute(f))
+          return true;
+        checkNil(f, f.refs[slot]);
+        f.prims[slot] = (int)f.prims[slot] + step;
+      }
+    }
+
+    void replaceChild(Node child, Node node) {
+      if (child == init)
+        init = (StmtNode)node;
+      else if (child == end)
+        end = (ExprNode)node;
+      else
+        super.replaceChild(child, node);
+    }
+  }
+
+  static class ReturnNode extends StmtNode {
+    ExprNode value;
+
+    ReturnNode(ExprNode value) {
+      this.value = adopt(value);
+    }
+
+    boolean execute(Frame f) throws MyPLException {
+      if (value != null) {
+        f.returnRef = value.execute(f);
+        f.returnBits = f.bits;
+      }
+      return true;
+    }
+
+    void replaceChild(Node child, Node node) {
+      if (child == value)
+        value = (ExprNode)node;
+      else
+        super.replaceChild(child, node);
+    }
+  }
+
+  class DeleteNode extends StmtNode {
+    final int slot;
+
+    DeleteNode(int slot) {
+      this.slot = slot;
+    }
+
+    boolean execute(Frame f) throws MyPLException {
+      Object ref = f.refs[slot];
+      checkNil(f, ref);
+      if (ref instanceof VMRecord)
+        heap.free((VMRecord)ref);
+      return false;
+    }
+  }
+
+
+  //----------------------------------------------------------------------
+  // Variable nodes
+  //----------------------------------------------------------------------
+
+  // reading a variable needs no specializing: the typed versions check
+  // the slot's tag, and a reader expecting another type deoptimizes
+  static class ReadLocal extends ExprNode {
+    final int slot;
+
+    ReadLocal(int slot) {
+      this.slot = slot;
+    }
+
+    Object execute(Frame f) {
+      f.bits = f.prims[slot];
+      return f.refs[slot];
+    }
+
+    int executeInt(Frame f) throws UnexpectedType {
+      if (f.refs[slot] != VMValue.INT)
+        throw new UnexpectedType(f.refs[slot], f.prims[slot]);
+      return (int)f.prims[slot];
+    }
+
+    double executeDouble(Frame f) throws UnexpectedType {
+      if (f.refs[slot] != VMValue.DOUBLE)
+        throw new UnexpectedType(f.refs[slot], f.prims[slot]);
+      return VMValue.dbl(f.prims[slot]);
+    }
+
+    boolean executeBool(Frame f) throws UnexpectedType {
+      if (f.refs[slot] != VMValue.BOOL)
+        throw new UnexpectedType(f.refs[slot], f.prims[slot]);
+      return f.prims[slot] != 0;
+    }
+
+    boolean executeCondition(Frame f) {
+      return f.prims[slot] != 0;
+    }
+  }
+
+  // storing a variable specializes to the type of the first value
+  // stored (so an int is stored without boxing it in f.bits)
+  abstract static class WriteLocal extends StmtNode {
+    final int slot;
+    ExprNode value;
+
+    WriteLocal(int slot, ExprNode value) {
+      this.slot = slot;
+      this.value = adopt(value);
+    }
+
+    void store(Frame f, Object ref, long bits) {
+      f.prims[slot] = bits;
+      f.refs[slot] = ref;
+    }
+
+    void replaceChild(Node child, Node node) {
+      if (child == value)
+        value = (ExprNode)node;
+      else
+        super.replaceChild(child, node);
+    }
+  }
+
+  class UninitializedWriteLocal extends WriteLocal {
+    UninitializedWriteLocal(int slot, ExprNode value) {
+      super(slot, value);
+    }
+
+    boolean execute(Frame f) throws MyPLException {
+      Object ref = value.execute(f);
+      store(f, ref, f.bits);
+      if (ref == VMValue.INT)
+        specialize(this, () -> new IntWriteLocal(slot, value));
+      else if (ref == VMValue.DOUBLE)
+        specialize(this, () -> new DoubleWriteLocal(slot, value));
+      else
+        specialize(this, () -> new GenericWriteLocal(slot, value));
+      return false;
+    }
+  }
+
+  class IntWriteLocal extends WriteLocal {
+    IntWriteLocal(int slot, ExprNode value) {
+      super(slot, value);
+    }
+
+    boolean execute(Frame f) throws MyPLException {
+      try {
+        f.prims[slot] = value.executeInt(f);
+        f.refs[slot] = VMValue.INT;
+      } catch (UnexpectedType e) {
+        store(f, e.ref, e.bits);
+        generalize(this, () -> new GenericWriteLocal(slot, value));
+      }
+      return false;
+    }
+  }
+
+  class DoubleWriteLocal extends WriteLocal {
+    DoubleWriteLocal(int slot, ExprNode value) {
+      super(slot, value);
+    }
+
+    boolean execute(Frame f) throws MyPLException {
+      try {
+        f.prims[slot] = VMValue.bits(value.executeDouble(f));
+        f.refs[slot] = VMValue.DOUBLE;
+      } catch (UnexpectedType e) {
+        store(f, e.ref, e.bits);
+        generalize(this, () -> new GenericWriteLocal(slot, value));
+      }
+      return false;
+    }
+  }
+
+  static class GenericWriteLocal extends WriteLocal {
+    GenericWriteLocal(int slot, ExprNode value) {
+      super(slot, value);
+    }
+
+    boolean execute(Frame f) throws MyPLException {
+      Object ref = value.execute(f);
+      store(f, ref, f.bits);
+      return false;
+    }
+  }
+
+
+  //----------------------------------------------------------------------
+  // Field nodes
+  //----------------------------------------------------------------------
+
+  // a field read caches the slot offset of the field in the type of
+  // the first record seen (types are shared by all records of a MyPL
+  // type, so a read sees one type unless the program frees records)
+  abstract static class ReadField extends ExprNode {
+    ExprNode record;
+    final String field;
+
+    ReadField(ExprNode record, String field) {
+      this.record = adopt(record);
+      this.field = field;
+    }
+
+    // read the field of a record with the field looked up by name
+    Object lookup(Frame f, VMRecord obj) throws MyPLException {
+      int offset = offsetOf(f, obj, field);
+      f.bits = obj.prims[offset];
+      return obj.refs[offset];
+    }
+
+    void replaceChild(Node child, Node node) {
+      if (child == record)
+        record = (ExprNode)node;
+      else
+        super.replaceChild(child, node);
+    }
+  }
+
+  class UninitializedReadField extends ReadField {
+    UninitializedReadField(ExprNode record, String field) {
+      super(record, field);
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      VMRecord obj = deref(f, record.execute(f));
+      int offset = offsetOf(f, obj, field);
+      specialize(this, () ->
+        new CachedReadField(record, field, obj.type, offset));
+      f.bits = obj.prims[offset];
+      return obj.refs[offset];
+    }
+  }
+
+  class CachedReadField extends ReadField {
+    final VMType type;
+    final int offset;
+
+    CachedReadField(ExprNode record, String field, VMType type, int offset) {
+      super(record, field);
+      this.type = type;
+      this.offset = offset;
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      Object ref = record.execute(f);
+      if (ref instanceof VMRecord) {
+        VMRecord obj = (VMRecord)ref;
+        if (obj.type == type && !obj.isFreed()) {
+          f.bits = obj.prims[offset];
+          return obj.refs[offset];
+        }
+      }
+      // (a nil or freed record is an error, but not a record of
+      // another type)
+      VMRecord obj = deref(f, ref);
+      generalize(this, () -> new GenericReadField(record, field));
+      return lookup(f, obj);
+    }
+  }
+
+  static class GenericReadField extends ReadField {
+    GenericReadField(ExprNode record, String field) {
+      super(record, field);
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      return lookup(f, deref(f, record.execute(f)));
+    }
+  }
+
+  // a field write caches its offset as a field read does (the value is
+  // computed before the record, as in the VM)
+  abstract static class WriteField extends StmtNode {
+    ExprNode record;
+    final String field;
+    ExprNode value;
+
+    WriteField(ExprNode record, String field, ExprNode value) {
+      this.record = adopt(record);
+      this.field = field;
+      this.value = adopt(value);
+    }
+
+    // write the field of a record with the field looked up by name
+    void lookup(Frame f, VMRecord obj, Object ref, long bits)
+      throws MyPLException
+    {
+      int offset = offsetOf(f, obj, field);
+      obj.prims[offset] = bits;
+      obj.refs[offset] = ref;
+    }
+
+    void replaceChild(Node child, Node node) {
+      if (child == record)
+        record = (ExprNode)node;
+      else if (child == value)
+        value = (ExprNode)node;
+      else
+        super.replaceChild(child, node);
+    }
+  }
+
+  class UninitializedWriteField extends WriteField {
+    UninitializedWriteField(ExprNode record, String field, ExprNode value) {
+      super(record, field, value);
+    }
+
+    boolean execute(Frame f) throws MyPLException {
+      Object ref = value.execute(f);
+      long bits = f.bits;
+      VMRecord obj = deref(f, record.execute(f));
+      int offset = offsetOf(f, obj, field);
+      specialize(this, () ->
+        new CachedWriteField(record, field, value, obj.type, offset));
+      obj.prims[offset] = bits;
+      obj.refs[offset] = ref;
+      return false;
+    }
+  }
+
+  class CachedWriteField extends WriteField {
+    final VMType type;
+    final int offset;
+
+    CachedWriteField(ExprNode record, String field, ExprNode value,
+                     VMType type, int offset)
+    {
+      super(record, field, value);
+      this.type = type;
+      this.offset = offset;
+    }
+
+    boolean execute(Frame f) throws MyPLException {
+      Object ref = value.execute(f);
+      long bits = f.bits;
+      Object rec = record.execute(f);
+      if (rec instanceof VMRecord) {
+        VMRecord obj = (VMRecord)rec;
+        if (obj.type == type && !obj.isFreed()) {
+          obj.prims[offset] = bits;
+          obj.refs[offset] = ref;
+          return false;
+        }
+      }
+      VMRecord obj = deref(f, rec);
+      generalize(this, () -> new GenericWriteField(record, field, value));
+      lookup(f, obj, ref, bits);
+      return false;
+    }
+  }
+
+  static class GenericWriteField extends WriteField {
+    GenericWriteField(ExprNode record, String field, ExprNode value) {
+      super(record, field, value);
+    }
+
+    boolean execute(Frame f) throws MyPLException {
+      Object ref = value.execute(f);
+      long bits = f.bits;
+      lookup(f, deref(f, record.execute(f)), ref, bits);
+      return false;
+    }
+  }
+
+
+  //----------------------------------------------------------------------
+  // Operator nodes
+  //----------------------------------------------------------------------
+
+  // a binary operator specializes to the types of its first operands:
+  // ints, doubles, or (non-nil) strings, with anything else generic
+  abstract class BinaryNode extends ExprNode {
+    final int op;
+    ExprNode left;
+    ExprNode right;
+
+    BinaryNode(int op, ExprNode left, ExprNode right) {
+      this.op = op;
+      this.left = adopt(left);
+      this.right = adopt(right);
+    }
+
+    // finish generically after the left operand's value broke this
+    // node's assumption (deoptimizing it)
+    Object fallBack(Frame f, Object ry, long y) throws MyPLException {
+      Object rx = right.execute(f);
+      return fallBack(f, ry, y, rx, f.bits);
+    }
+
+    // finish generically after either operand's value broke this
+    // node's assumption
+    Object fallBack(Frame f, Object ry, long y, Object rx, long x)
+      throws MyPLException
+    {
+      generalize(this, () -> new GenericBinary(op, left, right));
+      return apply(f, op, ry, y, rx, x);
+    }
+
+    void replaceChild(Node child, Node node) {
+      if (child == left)
+        left = (ExprNode)node;
+      else if (child == right)
+        right = (ExprNode)node;
+      else
+        super.replaceChild(child, node);
+    }
+  }
+
+  class UninitializedBinary extends BinaryNode {
+    UninitializedBinary(int op, ExprNode left, ExprNode right) {
+      super(op, left, right);
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      Object ry = left.execute(f);
+      long y = f.bits;
+      Object rx = right.execute(f);
+      long x = f.bits;
+      boolean compare = op >= LT;
+      if (ry == VMValue.INT && rx == VMValue.INT)
+        specialize(this, () -> compare ? new IntCompare(op, left, right)
+                                       : new IntArith(op, left, right));
+      else if (ry == VMValue.DOUBLE && rx == VMValue.DOUBLE && op != MOD)
+        specialize(this, () -> compare ? new DoubleCompare(op, left, right)
+                                       : new DoubleArith(op, left, right));
+      else if (isString(ry) && isString(rx) && (compare || op == ADD))
+        specialize(this, () -> new StringBinary(op, left, right));
+      else
+        specialize(this, () -> new GenericBinary(op, left, right));
+      return apply(f, op, ry, y, rx, x);
+    }
+  }
+
+  class IntArith extends BinaryNode {
+    IntArith(int op, ExprNode left, ExprNode right) {
+      super(op, left, right);
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      try {
+        f.bits = executeInt(f);
+        return VMValue.INT;
+      } catch (UnexpectedType e) {
+        f.bits = e.bits;
+        return e.ref;
+      }
+    }
+
+    int executeInt(Frame f) throws MyPLException, UnexpectedType {
+      int y;
+      int x;
+      try {
+        y = left.executeInt(f);
+      } catch (UnexpectedType e) {
+        return expectInt(f, fallBack(f, e.ref, e.bits));
+      }
+      try {
+        x = right.executeInt(f);
+      } catch (UnexpectedType e) {
+        return expectInt(f, fallBack(f, VMValue.INT, y, e.ref, e.bits));
+      }
+      switch (op) {
+      case ADD: return y + x;
+      case SUB: return y - x;
+      case MUL: return y * x;
+      case DIV: return y / x;
+      default: return y % x;
+      }
+    }
+  }
+
+  class IntCompare extends BinaryNode {
+    IntCompare(int op, ExprNode left, ExprNode right) {
+      super(op, left, right);
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      try {
+        f.bits = executeBool(f) ? 1 : 0;
+        return VMValue.BOOL;
+      } catch (UnexpectedType e) {
+        f.bits = e.bits;
+        return e.ref;
+      }
+    }
+
+    boolean executeCondition(Frame f) throws MyPLException {
+      try {
+        return executeBool(f);
+      } catch (UnexpectedType e) {
+        return e.bits != 0;
+      }
+    }
+
+    boolean executeBool(Frame f) throws MyPLException, UnexpectedType {
+      int y;
+      int x;
+      try {
+        y = left.executeInt(f);
+      } catch (UnexpectedType e) {
+        return expectBool(f, fallBack(f, e.ref, e.bits));
+      }
+      try {
+        x = right.executeInt(f);
+      } catch (UnexpectedType e) {
+        return expectBool(f, fallBack(f, VMValue.INT, y, e.ref, e.bits));
+      }
+      switch (op) {
+      case LT: return y < x;
+      case LE: return y <= x;
+      case GT: return y > x;
+      case GE: return y >= x;
+      case EQ: return y == x;
+      default: return y != x;
+      }
+    }
+  }
+
+  class DoubleArith extends BinaryNode {
+    DoubleArith(int op, ExprNode left, ExprNode right) {
+      super(op, left, right);
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      try {
+        f.bits = VMValue.bits(executeDouble(f));
+        return VMValue.DOUBLE;
+      } catch (UnexpectedType e) {
+        f.bits = e.bits;
+        return e.ref;
+      }
+    }
+
+    double executeDouble(Frame f) throws MyPLException, UnexpectedType {
+      double y;
+      double x;
+      try {
+        y = left.executeDouble(f);
+      } catch (UnexpectedType e) {
+        return expectDouble(f, fallBack(f, e.ref, e.bits));
+      }
+      try {
+        x = right.executeDouble(f);
+      } catch (UnexpectedType e) {
+        return expectDouble(f, fallBack(f, VMValue.DOUBLE, VMValue.bits(y),
+                                        e.ref, e.bits));
+      }
+      return doubleOp(op, y, x);
+    }
+  }
+
+  class DoubleCompare extends BinaryNode {
+    DoubleCompare(int op, ExprNode left, ExprNode right) {
+      super(op, left, right);
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      try {
+        f.bits = executeBool(f) ? 1 : 0;
+        return VMValue.BOOL;
+      } catch (UnexpectedType e) {
+        f.bits = e.bits;
+        return e.ref;
+      }
+    }
+
+    boolean executeCondition(Frame f) throws MyPLException {
+      try {
+        return executeBool(f);
+      } catch (UnexpectedType e) {
+        return e.bits != 0;
+      }
+    }
+
+    boolean executeBool(Frame f) throws MyPLException, UnexpectedType {
+      double y;
+      double x;
+      try {
+        y = left.executeDouble(f);
+      } catch (UnexpectedType e) {
+        return expectBool(f, fallBack(f, e.ref, e.bits));
+      }
+      try {
+        x = right.executeDouble(f);
+      } catch (UnexpectedType e) {
+        return expectBool(f, fallBack(f, VMValue.DOUBLE, VMValue.bits(y),
+                                      e.ref, e.bits));
+      }
+      switch (op) {
+      case LT: return y < x;
+      case LE: return y <= x;
+      case GT: return y > x;
+      case GE: return y >= x;
+      case EQ: return y == x;
+      default: return y != x;
+      }
+    }
+  }
+
+  // string concatenation and comparison
+  class StringBinary extends BinaryNode {
+    StringBinary(int op, ExprNode left, ExprNode right) {
+      super(op, left, right);
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      Object ry = left.execute(f);
+      long y = f.bits;
+      Object rx = right.execute(f);
+      if (!isString(ry) || !isString(rx))
+        return fallBack(f, ry, y, rx, f.bits);
+      String sy = (String)ry;
+      String sx = (String)rx;
+      if (op == ADD) {
+        f.bits = 0;
+        return sy + sx;
+      }
+      else if (op == EQ || op == NE)
+        f.bits = sy.equals(sx) == (op == EQ) ? 1 : 0;
+      else
+        f.bits = compared(op, sy.compareTo(sx)) ? 1 : 0;
+      return VMValue.BOOL;
+    }
+  }
+
+  class GenericBinary extends BinaryNode {
+    GenericBinary(int op, ExprNode left, ExprNode right) {
+      super(op, left, right);
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      Object ry = left.execute(f);
+      long y = f.bits;
+      Object rx = right.execute(f);
+      return apply(f, op, ry, y, rx, f.bits);
+    }
+  }
+
+  // short circuit: rest is only evaluated if first doesn't decide the
+  // result (a nil operand is an error)
+  static class LogicalNode extends ExprNode {
+    final boolean and;
+    ExprNode first;
+    ExprNode rest;
+
+    LogicalNode(boolean and, ExprNode first, ExprNode rest) {
+      this.and = and;
+      this.first = adopt(first);
+      this.rest = adopt(rest);
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      f.bits = executeBool(f) ? 1 : 0;
+      return VMValue.BOOL;
+    }
+
+    boolean executeBool(Frame f) throws MyPLException {
+      if (operand(f, first) != and)
+        return !and;
+      return operand(f, rest);
+    }
+
+    boolean executeCondition(Frame f) throws MyPLException {
+      return executeBool(f);
+    }
+
+    // the value of an operand
+    private static boolean operand(Frame f, ExprNode e)
+      throws MyPLException
+    {
+      try {
+        return e.executeBool(f);
+      } catch (UnexpectedType x) {
+        checkNil(f, x.ref);
+        return x.bits != 0;
+      }
+    }
+
+    void replaceChild(Node child, Node node) {
+      if (child == first)
+        first = (ExprNode)node;
+      else if (child == rest)
+        rest = (ExprNode)node;
+      else
+        super.replaceChild(child, node);
+    }
+  }
+
+  static class NotNode extends ExprNode {
+    ExprNode expr;
+
+    NotNode(ExprNode expr) {
+      this.expr = adopt(expr);
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      f.bits = executeBool(f) ? 1 : 0;
+      return VMValue.BOOL;
+    }
+
+    boolean executeBool(Frame f) throws MyPLException {
+      try {
+        return !expr.executeBool(f);
+      } catch (UnexpectedType e) {
+        checkNil(f, e.ref);
+        return e.bits == 0;
+      }
+    }
+
+    boolean executeCondition(Frame f) throws MyPLException {
+      return executeBool(f);
+    }
+
+    void replaceChild(Node child, Node node) {
+      if (child == expr)
+        expr = (ExprNode)node;
+      else
+        super.replaceChild(child, node);
+    }
+  }
+
+  static class NegNode extends ExprNode {
+    ExprNode expr;
+
+    NegNode(ExprNode expr) {
+      this.expr = adopt(expr);
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      return negate(f, expr.execute(f));
+    }
+
+    int executeInt(Frame f) throws MyPLException, UnexpectedType {
+      try {
+        return -expr.executeInt(f);
+      } catch (UnexpectedType e) {
+        f.bits = e.bits;
+        return expectInt(f, negate(f, e.ref));
+      }
+    }
+
+    double executeDouble(Frame f) throws MyPLException, UnexpectedType {
+      try {
+        return -expr.executeDouble(f);
+      } catch (UnexpectedType e) {
+        f.bits = e.bits;
+        return expectDouble(f, negate(f, e.ref));
+      }
+    }
+
+    // negate a value already computed (with its bits in f.bits)
+    private static Object negate(Frame f, Object ref) throws MyPLException {
+      checkNil(f, ref);
+      if (ref == VMValue.INT)
+        f.bits = -(int)f.bits;
+      else
+        f.bits = VMValue.bits(-VMValue.dbl(f.bits));
+      return ref;
+    }
+
+    void replaceChild(Node child, Node node) {
+      if (child == expr)
+        expr = (ExprNode)node;
+      else
+        super.replaceChild(child, node);
+    }
+  }
+
+
+  //----------------------------------------------------------------------
+  // Value nodes
+  //----------------------------------------------------------------------
+
+  static class IntConst extends ExprNode {
+    final int val;
+
+    IntConst(int val) {
+      this.val = val;
+    }
+
+    Object execute(Frame f) {
+      f.bits = val;
+      return VMValue.INT;
+    }
+
+    int executeInt(Frame f) {
+      return val;
+    }
+  }
+
+  static class DoubleConst extends ExprNode {
+    final double val;
+
+    DoubleConst(double val) {
+      this.val = val;
+    }
+
+    Object execute(Frame f) {
+      f.bits = VMValue.bits(val);
+      return VMValue.DOUBLE;
+    }
+
+    double executeDouble(Frame f) {
+      return val;
+    }
+  }
+
+  static class BoolConst extends ExprNode {
+    final boolean val;
+
+    BoolConst(boolean val) {
+      this.val = val;
+    }
+
+    Object execute(Frame f) {
+      f.bits = val ? 1 : 0;
+      return VMValue.BOOL;
+    }
+
+    boolean executeBool(Frame f) {
+      return val;
+    }
+
+    boolean executeCondition(Frame f) {
+      return val;
+    }
+  }
+
+  // a string, char, or nil
+  static class RefConst extends ExprNode {
+    final Object val;
+
+    RefConst(Object val) {
+      this.val = val;
+    }
+
+    Object execute(Frame f) {
+      f.bits = 0;
+      return val;
+    }
+  }
+
+  class NewNode extends ExprNode {
+    final VMType type;
+    final ExprNode[] inits;
+
+    NewNode(VMType type, ExprNode[] inits) {
+      this.type = type;
+      this.inits = inits;
+      for (ExprNode e : inits)
+        adopt(e);
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      VMRecord obj = allocate(type);
+      for (int i = 0; i < inits.length; ++i) {
+        Object ref = inits[i].execute(f);
+        obj.prims[i] = f.bits;
+        obj.refs[i] = ref;
+      }
+      f.bits = 0;
+      return obj;
+    }
+
+    void replaceChild(Node child, Node node) {
+      for (int i = 0; i < inits.length; ++i) {
+        if (inits[i] == child) {
+          inits[i] = (ExprNode)node;
+          return;
+        }
+      }
+      super.replaceChild(child, node);
+    }
+  }
+
+
+  //----------------------------------------------------------------------
+  // Call nodes
+  //----------------------------------------------------------------------
+
+  // a call binds to its function on its first execution (the arguments
+  // are evaluated in the caller and stored in the first slots of the
+  // callee)
+  abstract static class CallNode extends ExprNode {
+    final ExprNode[] args;
+
+    CallNode(ExprNode[] args) {
+      this.args = args;
+      for (ExprNode e : args)
+        adopt(e);
+    }
+
+    void replaceChild(Node child, Node node) {
+      for (int i = 0; i < args.length; ++i) {
+        if (args[i] == child) {
+          args[i] = (ExprNode)node;
+          return;
+        }
+      }
+      super.replaceChild(child, node);
+    }
+  }
+
+  class UninitializedCall extends CallNode {
+    final String name;
+
+    UninitializedCall(String name, ExprNode[] args) {
+      super(args);
+      this.name = name;
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      Function<StmtNode> callee = functions.get(name);
+      if (callee == null)
+        throw error(f, "no function " + name);
+      specialize(this, () -> new DirectCall(callee, args));
+      return DirectCall.call(f, callee, args);
+    }
+  }
+
+  static class DirectCall extends CallNode {
+    final Function<StmtNode> callee;
+
+    DirectCall(Function<StmtNode> callee, ExprNode[] args) {
+      super(args);
+      this.callee = callee;
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      return call(f, callee, args);
+    }
+
+    // call a function with the given arguments
+    static Object call(Frame f, Function<StmtNode> callee, ExprNode[] args)
+      throws MyPLException
+    {
+      Frame calleeFrame = new Frame(callee);
+      for (int i = 0; i < args.length; ++i) {
+        Object ref = args[i].execute(f);
+        calleeFrame.prims[i] = f.bits;
+        calleeFrame.refs[i] = ref;
+      }
+      callee.body.execute(calleeFrame);
+      f.bits = calleeFrame.returnBits;
+      return calleeFrame.returnRef;
+    }
+  }
+
+  static class BuiltInCall extends CallNode {
+    final int function;
+
+    BuiltInCall(int function, ExprNode[] args) {
+      super(args);
+      this.function = function;
+    }
+
+    Object execute(Frame f) throws MyPLException {
+      if (function == READ) {
+        Scanner s = new Scanner(System.in);
+        f.bits = 0;
+        return s.nextLine();
+      }
+      Object ref = args[0].execute(f);
+      if (function == PRINT) {
+        System.out.print(VMValue.toString(ref, f.bits));
+        f.bits = 0;
+        return VM.NIL_OBJ;
+      }
+      else if (function == GET) {
+        int i = (int)f.bits;
+        Object str = args[1].execute(f);
+        checkNil(f, str);
+        checkNil(f, ref);
+        String s = str.toString();
+        if (i < 0 || i >= s.length())
+          throw error(f, "invalid index " + i + " for string " + s);
+        f.bits = 0;
+        return s.substring(i, i + 1);
+      }
+      checkNil(f, ref);
+      if (function == LENGTH) {
+        f.bits = ref.toString().length();
+        return VMValue.INT;
+      }
+      else if (function == TO_INT) {
+        f.bits = toInt(f, ref);
+        return VMValue.INT;
+      }
+      else if (function == TO_DOUBLE) {
+        f.bits = VMValue.bits(toDouble(f, ref));
+        return VMValue.DOUBLE;
+      }
+      String s = VMValue.toString(ref, f.bits);
+      f.bits = 0;
+      return s;
+    }
+
+    private static int toInt(Frame f, Object ref) throws MyPLException {
+      if (ref == VMValue.DOUBLE)
+        return (int)VMValue.dbl(f.bits);
+      else if (ref == VMValue.INT)
+        return (int)f.bits;
+      try {
+        return (int)Double.parseDouble(ref.toString());
+      } catch(NumberFormatException e) {
+        throw error(f, "incompatible string " + ref + " to parse as int");
+      }
+    }
+
+    private static double toDouble(Frame f, Object ref) throws MyPLException {
+      if (ref == VMValue.INT)
+        return (int)f.bits;
+      else if (ref == VMValue.DOUBLE)
+        return VMValue.dbl(f.bits);
+      try {
+        return Double.parseDouble(ref.toString());
+      } catch(NumberFormatException e) {
+        throw error(f, "incompatible string " + ref + " to parse as double");
+      }
+    }
+  }
+
+
+  //----------------------------------------------------------------------
+  // VISITOR FUNCTIONS
+  //----------------------------------------------------------------------
+
+  public void visit(Program node) throws MyPLException {
+    for (TypeDecl tdecl : node.tdecls) {
+      // fields are stored in declaration order
+      List<String> names = new ArrayList<>();
+      for (VarDeclStmt v : tdecl.vdecls)
+        names.add(v.varName.lexeme());
+      typeDecls.put(tdecl.typeName.lexeme(), tdecl);
+      types.put(tdecl.typeName.lexeme(), new VMType(names));
+    }
+    for (FunDecl fdecl : node.fdecls) {
+      String name = fdecl.funName.lexeme();
+      functions.put(name, new Function<>(name));
+    }
+    for (FunDecl fdecl : node.fdecls)
+      fdecl.accept(this);
+  }
+
+  public void visit(TypeDecl node) throws MyPLException {
+    // nothing to do (the fields are initialized by each new)
+  }
+
+  public void visit(FunDecl node) throws MyPLException {
+    startFunction(node);
+    endFunction(block(node.stmts));
+  }
+
+  public void visit(VarDeclStmt node) throws MyPLException {
+    ExprNode e = build(node.expr);
+    int slot = newSlot();
+    varMap.put(node.varName.lexeme(), slot);
+    currStmt = new UninitializedWriteLocal(slot, e);
+  }
+
+  public void visit(AssignStmt node) throws MyPLException {
+    ExprNode e = build(node.expr);
+    List<Token> path = node.lvalue;
+    int slot = varMap.get(path.get(0).lexeme());
+    if (path.size() == 1) {
+      currStmt = new UninitializedWriteLocal(slot, e);
+      return;
+    }
+    ExprNode record = new ReadLocal(slot);
+    for (int i = 1; i < path.size() - 1; ++i)
+      record = new UninitializedReadField(record, path.get(i).lexeme());
+    String field = path.get(path.size() - 1).lexeme();
+    currStmt = new UninitializedWriteField(record, field, e);
+  }
+
+  public void visit(CondStmt node) throws MyPLException {
+    List<BasicIf> branches = new ArrayList<>();
+    branches.add(node.ifPart);
+    branches.addAll(node.elifs);
+    ExprNode[] conds = new ExprNode[branches.size()];
+    Block[] bodies = new Block[branches.size()];
+    for (int i = 0; i < conds.length; ++i) {
+      conds[i] = build(branches.get(i).cond);
+      bodies[i] = block(branches.get(i).stmts);
+    }
+    Block otherwise = node.elseStmts != null ? block(node.elseStmts) : null;
+    currStmt = new IfNode(conds, bodies, otherwise);
+  }
+
+  public void visit(WhileStmt node) throws MyPLException {
+    ExprNode cond = build(node.cond);
+    currStmt = new WhileNode(cond, block(node.stmts));
+  }
+
+  public void visit(ForStmt node) throws MyPLException {
+    int slot = newSlot();
+    StmtNode init = new UninitializedWriteLocal(slot, build(node.start));
+    varMap.put(node.varName.lexeme(), slot);
+    ExprNode end = build(node.end);
+    currStmt = new ForNode(slot, node.upto, init, end, block(node.stmts));
+  }
+
+  public void visit(ReturnStmt node) throws MyPLException {
+    ExprNode value = node.expr != null ? build(node.expr) : null;
+    currStmt = new ReturnNode(value);
+  }
+
+  public void visit(DeleteStmt node) throws MyPLException {
+    currStmt = new DeleteNode(varMap.get(node.varName.lexeme()));
+  }
+
+  public void visit(CallExpr node) throws MyPLException {
+    ExprNode[] args = new ExprNode[node.args.size()];
+    for (int i = 0; i < args.length; ++i)
+      args[i] = build(node.args.get(i));
+    String name = node.funName.lexeme();
+    // built-in functions
+    if (name.equals("print"))
+      currExpr = new BuiltInCall(PRINT, args);
+    else if (name.equals("read"))
+      currExpr = new BuiltInCall(READ, args);
+    else if (name.equals("length"))
+      currExpr = new BuiltInCall(LENGTH, args);
+    else if (name.equals("get"))
+      currExpr = new BuiltInCall(GET, args);
+    else if (name.equals("stoi") || name.equals("dtoi"))
+      currExpr = new BuiltInCall(TO_INT, args);
+    else if (name.equals("stod") || name.equals("itod"))
+      currExpr = new BuiltInCall(TO_DOUBLE, args);
+    else if (name.equals("itos") || name.equals("dtos"))
+      currExpr = new BuiltInCall(TO_STR, args);
+    else
+      currExpr = new UninitializedCall(name, args);
+  }
+
+  public void visit(SimpleRValue node) throws MyPLException {
+    TokenType type = node.value.type();
+    String lexeme = node.value.lexeme();
+    if (type == TokenType.INT_VAL)
+      currExpr = new IntConst(Integer.parseInt(lexeme));
+    else if (type == TokenType.DOUBLE_VAL)
+      currExpr = new DoubleConst(Double.parseDouble(lexeme));
+    else if (type == TokenType.BOOL_VAL)
+      currExpr = new BoolConst(lexeme.equals("true"));
+    else if (type == TokenType.CHAR_VAL || type == TokenType.STRING_VAL)
+      currExpr = new RefConst(unescape(lexeme));
+    else
+      currExpr = new RefConst(VM.NIL_OBJ);
+  }
+
+  public void visit(NewRValue node) throws MyPLException {
+    String name = node.typeName.lexeme();
+    TypeDecl t = typeDecls.get(name);
+    ExprNode[] inits = new ExprNode[t.vdecls.size()];
+    for (int i = 0; i < inits.length; ++i)
+      inits[i] = build(t.vdecls.get(i).expr);
+    currExpr = new NewNode(types.get(name), inits);
+  }
+
+  public void visit(IDRValue node) throws MyPLException {
+    ExprNode e = new ReadLocal(varMap.get(node.path.get(0).lexeme()));
+    for (int i = 1; i < node.path.size(); ++i)
+      e = new UninitializedReadField(e, node.path.get(i).lexeme());
+    currExpr = e;
+  }
+
+  public void visit(NegatedRValue node) throws MyPLException {
+    currExpr = new NegNode(build(node.expr));
+  }
+
+  public void visit(Expr node) throws MyPLException {
+    ExprNode e;
+    if (node.op == null)
+      e = build(node.first);
+    else {
+      String op = node.op.lexeme();
+      ExprNode first = build(node.first);
+      ExprNode rest = build(node.rest);
+      if (op.equals("and") || op.equals("or"))
+        e = new LogicalNode(op.equals("and"), first, rest);
+      else
+        e = new UninitializedBinary(operator(op), first, rest);
+    }
+    if (node.logicallyNegated)
+      e = new NotNode(e);
+    currExpr = e;
+  }
+
+  public void visit(SimpleTerm node) throws MyPLException {
+    // defer to contained rvalue
+    node.rvalue.accept(this);
+  }
+
+  public void visit(ComplexTerm node) throws MyPLException {
+    // defer to contained expression
+    node.expr.accept(this);
+  }
+
+}
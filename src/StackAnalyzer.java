@@ -0,0 +1,192 @@
+/*
+ * File: StackAnalyzer.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Load-time analysis of a function's instructions that computes
+ *       the maximum operand stack height of a call. The analysis
+ *       also rejects malformed code (stack underflow, jumps outside
+ *       the function, bad variable addresses, calls to unknown
+ *       functions, and paths that reach an instruction with
+ *       different stack heights) so the VM doesn't need to check for
+ *       these while running.
+ */
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+
+public class StackAnalyzer {
+
+  // the frames of the program (for looking up call argument counts)
+  private Map<String,VMFrame> frames;
+
+  // the function being analyzed
+  private String funName;
+  private VMInstr[] code;
+
+  // the stack height on entry to each instruction (-1 if not reached)
+  // of the last function analyzed
+  private int[] depth;
+
+  
+  /**
+   * Create an analyzer for functions of the given program.
+   * @param frames the program's frames by function name
+   */
+  public StackAnalyzer(Map<String,VMFrame> frames) {
+    this.frames = frames;
+  }
+
+  /**
+   * Returns the maximum operand stack height reached by a call of the
+   * given function. The function's arguments start out on its stack.
+   * @param funName the name of the function
+   * @param argCount the number of arguments passed to the function
+   * @param localCount the number of variable slots of the function
+   * @param code the function's instructions
+   * @throws MyPLException if the code is malformed
+   */
+  public int maxDepth(String funName, int argCount, int localCount,
+                      VMInstr[] code) throws MyPLException
+  {
+    this.funName = funName;
+    this.code = code;
+    depth = new int[code.length + 1];
+    Arrays.fill(depth, -1);
+    Deque<Integer> worklist = new ArrayDeque<>();
+    int max = argCount;
+    reach(depth, worklist, 0, argCount, -1);
+    while (!worklist.isEmpty()) {
+      int pc = worklist.pop();
+      if (pc == code.length)
+        continue;   // ran off the end of the function
+      VMInstr instr = code[pc];
+      int pops = pops(instr, pc);
+      int pushes = pushes(instr);
+      int d = depth[pc];
+      if (d < pops)
+        error("operand stack underflow", pc);
+      d = d - pops + pushes;
+      max = Math.max(max, d);
+      OpCode op = instr.opcode();
+      for (int address : addresses(instr))
+        if (address < 0 || address >= localCount)
+          error("invalid variable address", pc);
+      int target = jumpTarget(instr);
+      if (target != NO_TARGET) {
+        if (target < 0 || target > code.length)
+          error("invalid jump target", pc);
+        reach(depth, worklist, target, d, pc);
+      }
+      if (op != OpCode.JMP && op != OpCode.VRET && op != OpCode.INC_JMP &&
+          op != OpCode.DEC_JMP)
+        reach(depth, worklist, pc + 1, d, pc);
+    }
+    return max;
+  }
+
+  
+  /**
+   * Returns the operand stack height on entry to each instruction of
+   * the function last analyzed by maxDepth (-1 for an instruction that
+   * is never reached). The last entry is for running off the end of
+   * the function.
+   */
+  public int[] stackDepths() {
+    return depth;
+  }
+
+  
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // record the stack height on entry to pc (reached from instruction
+  // from), adding pc to the worklist the first time it is reached
+  private void reach(int[] depth, Deque<Integer> worklist, int pc, int d,
+                     int from) throws MyPLException
+  {
+    if (depth[pc] == -1) {
+      depth[pc] = d;
+      worklist.push(pc);
+    }
+    else if (depth[pc] != d)
+      error("inconsistent operand stack height at " + pc, from);
+  }
+
+  // jumpTarget() result for instructions that don't jump
+  static final int NO_TARGET = Integer.MIN_VALUE;
+
+  // the instruction the given instruction may jump to (or NO_TARGET)
+  static int jumpTarget(VMInstr instr) {
+    OpCode op = instr.opcode();
+    if (op == OpCode.JMP || op == OpCode.JMPF || VMFunction.isCompareJump(op))
+      return (int)instr.operand();
+    if (op == OpCode.INC_JMP || op == OpCode.DEC_JMP)
+      return (int)((List<?>)instr.operand()).get(1);
+    return NO_TARGET;
+  }
+
+  // the variable addresses used by the instruction
+  private static List<Integer> addresses(VMInstr instr) {
+    switch (instr.opcode()) {
+    case LOAD: case STORE: case INC: case DEC:
+      return List.of((int)instr.operand());
+    case LOAD_PUSH: case INC_JMP: case DEC_JMP:
+      return List.of((int)((List<?>)instr.operand()).get(0));
+    case LOAD_LOAD: case LOAD_LOAD_IADD:
+      List<?> operands = (List<?>)instr.operand();
+      return List.of((int)operands.get(0), (int)operands.get(1));
+    default:
+      return List.of();
+    }
+  }
+
+  // number of values the instruction pops off the operand stack
+  private int pops(VMInstr instr, int pc) throws MyPLException {
+    switch (instr.opcode()) {
+    case PUSH: case LOAD: case INC: case DEC: case JMP: case READ:
+    case ALLOC: case NOP: case LOAD_LOAD: case LOAD_PUSH: case LOAD_LOAD_IADD:
+    case INC_JMP: case DEC_JMP:
+      return 0;
+    case POP: case STORE: case NOT: case NEG: case INEG: case DNEG:
+    case JMPF: case VRET:
+    case WRITE: case LEN: case TOINT: case TODBL: case TOSTR: case FREE:
+    case GETFLD: case DUP:
+      return 1;
+    case CALL:
+      String name = instr.operand().toString();
+      if (!frames.containsKey(name))
+        error("No " + name + " function", pc);
+      return frames.get(name).argCount();
+    default:
+      // binary operators, fused compare jumps, GETCHR, SETFLD, and SWAP
+      return 2;
+    }
+  }
+
+  // number of values the instruction pushes onto the operand stack
+  private int pushes(VMInstr instr) {
+    switch (instr.opcode()) {
+    case POP: case STORE: case INC: case DEC: case JMP: case JMPF:
+    case VRET: case WRITE: case FREE: case SETFLD: case NOP:
+    case INC_JMP: case DEC_JMP: case ICMPLT_JMPF: case ICMPLE_JMPF:
+    case ICMPGT_JMPF: case ICMPGE_JMPF: case ICMPEQ_JMPF: case ICMPNE_JMPF:
+      return 0;
+    case DUP: case SWAP: case LOAD_LOAD: case LOAD_PUSH:
+      return 2;
+    default:
+      return 1;
+    }
+  }
+
+  // report malformed code at the given instruction
+  private void error(String m, int pc) throws MyPLException {
+    m += " (in " + funName + " at " + pc + ": " + code[pc] + ")";
+    throw MyPLException.VMError(m);
+  }
+  
+}
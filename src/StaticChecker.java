@@ -772,6 +772,8 @@ public class StaticChecker implements Visitor {
     if(node.logicallyNegated && !currType.equals("bool")){
       error("logical negation requires bool expression ", getFirstToken(node));
     }
+    // record the type for the code generator
+    typeInfo.setType(node, currType);
   }
 
 
@@ -781,11 +783,13 @@ public class StaticChecker implements Visitor {
   
   public void visit(SimpleTerm node) throws MyPLException {
     node.rvalue.accept(this);
+    typeInfo.setType(node, currType);
   }
   
 
   public void visit(ComplexTerm node) throws MyPLException {
     node.expr.accept(this);
+    typeInfo.setType(node, currType);
   }
 
 
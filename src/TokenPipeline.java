@@ -0,0 +1,204 @@
+/*
+ * File: TokenPipeline.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Runs the lexer on a thread of its own, handing its tokens to
+ *       the parser through a bounded ring buffer.
+ */
+
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A TokenPipeline lexes a source on a background thread while the
+ * parser (see ASTParser) takes the tokens on its own thread, so that
+ * lexing overlaps parsing. The tokens pass through a ring buffer with
+ * one writer (the lexer thread) and one reader (the parser). Each side
+ * only publishes its progress every BATCH tokens, and waits (parked)
+ * when the ring is full or empty, so the lexer never gets more than
+ * the ring's capacity ahead of the parser. A lexer error ends the
+ * stream of tokens, and is reported to the parser when it asks for the
+ * token the error took the place of, the same as when the parser pulls
+ * tokens from the lexer directly. The pipeline must be closed (which
+ * ASTParser does when it's done) so that a lexer thread waiting on a
+ * full ring can stop.
+ */
+public class TokenPipeline {
+
+  // the number of tokens each side handles between publishing its
+  // progress (a power of two)
+  private static final int BATCH = 256;
+
+  // default ring capacity (in tokens)
+  public static final int DEFAULT_CAPACITY = 16 * BATCH;
+
+  // the ring of tokens, and the mask giving a position's slot
+  private final Token[] ring;
+  private final int mask;
+
+  // the number of tokens the parser has taken, and the number the
+  // lexer has added (as published to the other side)
+  private volatile long head = 0;
+  private volatile long tail = 0;
+
+  // true once the lexer has added its last token (or failed), with
+  // the error that ended the stream (if any)
+  private volatile boolean finished = false;
+  private Throwable error = null;
+
+  // true once the pipeline is closed
+  private volatile boolean closed = false;
+
+  // the threads running each side, when waiting on the other
+  private volatile Thread waitingLexer = null;
+  private volatile Thread waitingParser = null;
+
+  // the parser's position, the tokens it knows are available, and the
+  // last token it was given (repeated once the tokens run out)
+  private long readPos = 0;
+  private long available = 0;
+  private Token last = null;
+
+  private final Thread lexerThread;
+
+
+  /**
+   * Starts lexing on a new thread, with a ring of the given capacity.
+   * @param lexer the lexer of the source
+   * @param capacity the most tokens lexed ahead of the parser (rounded
+   *                 up to a power of two of at least two batches)
+   */
+  public TokenPipeline(Lexer lexer, int capacity) {
+    int size = 2 * BATCH;
+    while (size < capacity)
+      size *= 2;
+    ring = new Token[size];
+    mask = size - 1;
+    lexerThread = new Thread(() -> produce(lexer), "mypl-lexer");
+    lexerThread.setDaemon(true);
+    lexerThread.start();
+  }
+
+  /**
+   * Starts lexing on a new thread, with a ring of the default capacity.
+   * @param lexer the lexer of the source
+   */
+  public TokenPipeline(Lexer lexer) {
+    this(lexer, DEFAULT_CAPACITY);
+  }
+
+
+  //--------------------------------------------------------------------
+  // The lexer's side
+  //--------------------------------------------------------------------
+
+  // lex the whole source into the ring
+  private void produce(Lexer lexer) {
+    long pos = 0;
+    try {
+      Token t;
+      do {
+        t = lexer.nextToken();
+        // wait for the parser to free a slot
+        if (pos - head >= ring.length) {
+          tail = pos;
+          wakeParser();
+          while (pos - head >= ring.length) {
+            if (closed)
+              return;
+            waitingLexer = Thread.currentThread();
+            if (pos - head >= ring.length && !closed)
+              LockSupport.park(this);
+            waitingLexer = null;
+          }
+        }
+        ring[(int)pos & mask] = t;
+        ++pos;
+        if ((pos & (BATCH - 1)) == 0) {
+          tail = pos;
+          wakeParser();
+        }
+      } while (t.type() != TokenType.EOS);
+    } catch(Throwable e) {
+      // (published by the write to finished below)
+      error = e;
+    }
+    tail = pos;
+    finished = true;
+    wakeParser();
+  }
+
+  // wake the parser if it's waiting for tokens
+  private void wakeParser() {
+    Thread parser = waitingParser;
+    if (parser != null)
+      LockSupport.unpark(parser);
+  }
+
+
+  //--------------------------------------------------------------------
+  // The parser's side
+  //--------------------------------------------------------------------
+
+  /**
+   * Returns the next token, waiting for the lexer if needed. Once the
+   * source is used up, the end-of-file token is returned again, or the
+   * error that ended the stream is thrown again.
+   */
+  public Token nextToken() throws MyPLException {
+    if (readPos == available && !awaitTokens())
+      return last;
+    int slot = (int)readPos & mask;
+    last = ring[slot];
+    ring[slot] = null;
+    ++readPos;
+    if ((readPos & (BATCH - 1)) == 0) {
+      head = readPos;
+      wakeLexer();
+    }
+    return last;
+  }
+
+  // wait for more tokens, returning false (or throwing the lexer's
+  // error) if there aren't any more
+  private boolean awaitTokens() throws MyPLException {
+    head = readPos;
+    wakeLexer();
+    while (true) {
+      boolean done = finished;
+      available = tail;
+      if (readPos < available)
+        return true;
+      if (done)
+        break;
+      waitingParser = Thread.currentThread();
+      if (tail == readPos && !finished)
+        LockSupport.park(this);
+      waitingParser = null;
+    }
+    if (error instanceof MyPLException)
+      throw (MyPLException)error;
+    else if (error instanceof RuntimeException)
+      throw (RuntimeException)error;
+    else if (error != null)
+      throw new IllegalStateException("lexer thread failed", error);
+    return false;
+  }
+
+  // wake the lexer if it's waiting for room in the ring
+  private void wakeLexer() {
+    Thread lexer = waitingLexer;
+    if (lexer != null)
+      LockSupport.unpark(lexer);
+  }
+
+  /**
+   * Stops the lexer (if it's still running), e.g., once the parser has
+   * failed.
+   */
+  public void close() {
+    closed = true;
+    wakeLexer();
+  }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * File: TokenStream.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: A compact, columnar sequence of tokens produced by the lexer
+ *       in bulk.
+ */
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * A TokenStream holds the tokens of a source (see Lexer.tokenize) in
+ * parallel arrays instead of as Token objects: each token's type (as
+ * its ordinal), line, column, and lexeme, where the lexeme is an index
+ * into the lexer's table of the distinct lexemes. Repeated
+ * identifiers, reserved words, and symbols are stored once, and a token
+ * only becomes a Token object if a reader asks for one (see ASTParser,
+ * which only does so for the tokens it keeps in the AST). The arrays
+ * are split into fixed-size blocks, so the stream grows without copying
+ * the tokens it already holds. If lexing failed, the stream holds the
+ * tokens before the error along with the error itself.
+ */
+public class TokenStream {
+
+  // the token types by ordinal
+  private static final TokenType[] TYPES = TokenType.values();
+
+  // the number of tokens per block (as a shift and mask)
+  private static final int BLOCK_BITS = 12;
+  private static final int BLOCK_MASK = (1 << BLOCK_BITS) - 1;
+
+  // the token columns, by block
+  private byte[][] types = new byte[16][];
+  private int[][] lines = new int[16][];
+  private int[][] columns = new int[16][];
+  private int[][] lexemes = new int[16][];
+  private int size = 0;
+
+  // the distinct lexemes, by index
+  private final List<String> strings;
+
+  // the error that ended lexing (or null)
+  private MyPLException error = null;
+
+
+  // create an empty stream whose lexeme indexes are into the given
+  // list of distinct lexemes (which the lexer adds to as it goes)
+  public TokenStream(List<String> strings) {
+    this.strings = strings;
+  }
+
+  // add a token to the end of the stream
+  public void add(TokenType type, int lexeme, int line, int column) {
+    int block = size >>> BLOCK_BITS;
+    int i = size & BLOCK_MASK;
+    if (i == 0) {
+      if (block == types.length) {
+        types = Arrays.copyOf(types, block * 2);
+        lines = Arrays.copyOf(lines, block * 2);
+        columns = Arrays.copyOf(columns, block * 2);
+        lexemes = Arrays.copyOf(lexemes, block * 2);
+      }
+      types[block] = new byte[BLOCK_MASK + 1];
+      lines[block] = new int[BLOCK_MASK + 1];
+      columns[block] = new int[BLOCK_MASK + 1];
+      lexemes[block] = new int[BLOCK_MASK + 1];
+    }
+    types[block][i] = (byte)type.ordinal();
+    lines[block][i] = line;
+    columns[block][i] = column;
+    lexemes[block][i] = lexeme;
+    ++size;
+  }
+
+  // the number of tokens in the stream
+  public int size() {
+    return size;
+  }
+
+  // the number of distinct lexemes (of the lexer)
+  public int lexemeCount() {
+    return strings.size();
+  }
+
+  // get the type of the token at index i
+  public TokenType type(int i) {
+    return TYPES[types[i >>> BLOCK_BITS][i & BLOCK_MASK]];
+  }
+
+  // get the lexeme of the token at index i
+  public String lexeme(int i) {
+    return strings.get(lexemeIndex(i));
+  }
+
+  // get the index of the lexeme of the token at index i (equal for
+  // tokens with equal lexemes)
+  public int lexemeIndex(int i) {
+    return lexemes[i >>> BLOCK_BITS][i & BLOCK_MASK];
+  }
+
+  // get the line of the token at index i
+  public int line(int i) {
+    return lines[i >>> BLOCK_BITS][i & BLOCK_MASK];
+  }
+
+  // get the column of the token at index i
+  public int column(int i) {
+    return columns[i >>> BLOCK_BITS][i & BLOCK_MASK];
+  }
+
+  // the token at index i as a Token object
+  public Token token(int i) {
+    return new Token(type(i), lexeme(i), line(i), column(i));
+  }
+
+  // set the error that ended lexing
+  public void setError(MyPLException error) {
+    this.error = error;
+  }
+
+  // get the error that ended lexing (null if the stream ends with the
+  // end-of-file token)
+  public MyPLException error() {
+    return error;
+  }
+
+}
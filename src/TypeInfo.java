@@ -9,6 +9,7 @@
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.Set;
 
@@ -17,6 +18,9 @@ public class TypeInfo {
   // a type has a name and a set of component name-type pairs
   private Map<String,Map<String,Tuple<String,Boolean>>> types = new HashMap<>();
 
+  // the inferred type of each checked expression (and expression term)
+  private Map<ASTNode,String> exprTypes = new IdentityHashMap<>();
+
   /**
    * Returns the current set of type names being stored.
    */
@@ -65,5 +69,40 @@ public class TypeInfo {
       return types.get(type).get(componentName);
     return null;
   }
+
+  /**
+   * Returns the position of a component in the order the type's
+   * components were added (the component's slot offset in a record).
+   * @param type the name of the type that contains the component
+   * @param componentName the name of the type component
+   * @return the component's offset, or -1 if there is no such component
+   */
+  public int offsetOf(String type, String componentName) {
+    int offset = 0;
+    for (String name : components(type)) {
+      if (name.equals(componentName))
+        return offset;
+      ++offset;
+    }
+    return -1;
+  }
+
+  /**
+   * Records the type inferred for an expression (or expression term).
+   * @param node the Expr, SimpleTerm, or ComplexTerm node
+   * @param type the node's type ("void" for nil)
+   */
+  public void setType(ASTNode node, String type) {
+    exprTypes.put(node, type);
+  }
+
+  /**
+   * Returns the type inferred for an expression (or expression term).
+   * @param node the Expr, SimpleTerm, or ComplexTerm node
+   * @return the node's type, or null if the node was not checked
+   */
+  public String typeOf(ASTNode node) {
+    return exprTypes.get(node);
+  }
       
 }
@@ -51,8 +51,8 @@ class VM {
   // set to true to print debugging information
   private boolean DEBUG = false;
   
-  // the VM's heap (free store) accessible via object-id
-  private Map<Integer,Map<String,Object>> heap = new HashMap<>();
+  // the VM's heap (free store); records are referenced directly
+  private VMHeap heap = new VMHeap();
   
   // next available object-id
   private int objectId = 1111;
@@ -60,8 +60,37 @@ class VM {
   // the frames for the program (one frame per function)
   private Map<String,VMFrame> frames = new HashMap<>();
 
+  // the loaded functions (shared by all calls of the function)
+  private Map<String,VMFunction> functions = new HashMap<>();
+
   // the VM call stack
-  private Deque<VMFrame> frameStack = new ArrayDeque<>();
+  private Deque<VMActivation> frameStack = new ArrayDeque<>();
+
+  // number of instructions executed so far
+  private long instrCount = 0;
+
+  // true if functions are compiled to JVM bytecode when loaded
+  private boolean jit = false;
+
+  // calls plus loop iterations of an interpreted function after
+  // which it is compiled (0 for no tiered execution)
+  private int tierThreshold = 0;
+
+  // number of functions compiled, and of hot loops whose (running)
+  // call continued in compiled code
+  private int compiledCount = 0;
+  private int loopEntries = 0;
+
+  // the compiler of the functions (null until needed)
+  private JitCompiler compiler = null;
+
+  // number of nested (Java) calls of compiled code and of the
+  // interpreter run by compiled code
+  private int nativeDepth = 0;
+
+  // limit on the nesting of Java calls, after which calls are run by
+  // the interpreter (whose calls don't use the Java stack)
+  private static final int MAX_NATIVE_DEPTH = 500;
 
   
   /**
@@ -78,6 +107,14 @@ class VM {
     frames.put(frame.functionName(), frame);
   }
 
+  /**
+   * Returns the VM's frames (e.g., for optimizing their code before
+   * the VM is run)
+   */
+  public Collection<VMFrame> frames() {
+    return frames.values();
+  }
+
   /**
    * Turn on/off debugging, which prints out the state of the VM prior
    * to each instruction. 
@@ -87,283 +124,618 @@ class VM {
     DEBUG = debug;
   }
 
+  /**
+   * Turn on garbage collection of the heap. Records that can no longer
+   * be reached are freed once the given number of records have been
+   * allocated since the last collection.
+   * @param threshold allocations between collections (0 for off)
+   */
+  public void setGCThreshold(int threshold) {
+    heap.setCollectionThreshold(threshold);
+  }
+
+  /**
+   * Returns a summary of the garbage collector's work (collections,
+   * objects reclaimed, and pause times).
+   */
+  public String gcStats() {
+    return heap.collectionStats();
+  }
+
+  /**
+   * Turn on/off compiling the program's functions to JVM bytecode
+   * when they are loaded (see JitCompiler). Functions that can't be
+   * compiled, and every function when debugging, are interpreted.
+   * @param jit set to true to compile functions (by default false)
+   */
+  public void setJit(boolean jit) {
+    this.jit = jit;
+  }
+
+  /**
+   * Turn on tiered execution: every function starts out interpreted,
+   * and the VM counts its calls and the backward jumps taken by its
+   * loops. Once the count reaches the threshold the function is
+   * compiled (see JitCompiler), so later calls run the compiled code,
+   * and a call stuck in a hot loop continues in the compiled code at
+   * the top of the loop.
+   * @param threshold calls plus loop iterations before a function is
+   *                  compiled (0 for off)
+   */
+  public void setTierThreshold(int threshold) {
+    tierThreshold = threshold;
+  }
+
+  /**
+   * Returns a summary of the functions compiled by the JIT.
+   */
+  public String jitStats() {
+    String s = "jit: compiled " + compiledCount + " function(s), interpreted " +
+      (functions.size() - compiledCount);
+    if (tierThreshold > 0)
+      s += ", entered " + loopEntries + " hot loop(s)";
+    return s;
+  }
+
+  /**
+   * Returns the number of instructions executed by the VM (e.g., for
+   * computing instruction throughput). Instructions run by compiled
+   * code aren't counted.
+   */
+  public long instructionCount() {
+    return instrCount;
+  }
+
   /**
    * Run the virtual machine
    */
   public void run() throws MyPLException {
 
+    // load the function code
+    load();
+
     // grab the main stack frame
-    if (!frames.containsKey("main"))
+    if (!functions.containsKey("main"))
       throw MyPLException.VMError("No 'main' function");
-    VMFrame frame = frames.get("main").instantiate();
+    VMActivation frame = new VMActivation(functions.get("main"));
     frameStack.push(frame);
+    invoke(frame);
+  }
+
+  // run the given activation (on top of the frame stack) until it
+  // returns, leaving its return value on top of its operand stack
+  private void invoke(VMActivation frame) throws MyPLException {
+    CompiledFunction compiled = frame.function.compiled;
+    if (compiled != null && nativeDepth < MAX_NATIVE_DEPTH) {
+      ++nativeDepth;
+      try {
+        compiled.run(this, frame);
+      } finally {
+        --nativeDepth;
+      }
+      frameStack.pop();
+    }
+    else
+      execute(frame);
+  }
+
+  // interpret the given activation (on top of the frame stack) until
+  // it returns
+  private void execute(VMActivation start) throws MyPLException {
+    VMActivation frame = start;
+
+    // the current frame's code and value slots (see VMValue) are kept
+    // in locals, and are saved and reloaded on calls and returns
+    VMFunction fun = frame.function;
+    VMInstr[] code = fun.code;
+    long[] p = frame.prims;
+    Object[] r = frame.refs;
+    int sp = frame.sp;
     
     // run loop (keep going until we run out of frames or
     // instructions) note that we assume each function returns a
     // value, and so the second check below should never occur (but is
     // useful for testing, etc).
-    while (frame != null && frame.pc < frame.instructions.size()) {
+    while (frame != null && frame.pc < code.length) {
       // get next instruction
-      VMInstr instr = frame.instructions.get(frame.pc);
+      int pc = frame.pc;
+      VMInstr instr = code[pc];
       // increment instruction pointer
-      ++frame.pc;
+      frame.pc = pc + 1;
+      ++instrCount;
 
       // For debugging: to turn on the following, call setDebug(true)
       // on the VM.
       if (DEBUG) {
+        frame.sp = sp;
         System.out.println();
         System.out.println("\t FRAME........: " + frame.functionName());
-        System.out.println("\t PC...........: " + (frame.pc - 1));
+        System.out.println("\t PC...........: " + pc);
         System.out.println("\t INSTRUCTION..: " + instr);
-        System.out.println("\t OPERAND STACK: " + frame.operandStack);
+        System.out.println("\t OPERAND STACK: " + frame.stackString());
         System.out.println("\t HEAP ........: " + heap);
       }
 
+      // dispatch on the opcode (compiled to a jump table, so every
+      // instruction costs the same regardless of its position in the
+      // OpCode enum)
+      switch (instr.opcode()) {
       
       //------------------------------------------------------------
       // Consts/Vars
       //------------------------------------------------------------
 
-      if (instr.opcode() == OpCode.PUSH) {
-        frame.operandStack.push(instr.operand());
+      case PUSH: {
+        p[sp] = fun.constBits[pc];
+        r[sp] = fun.constRefs[pc];
+        ++sp;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.POP) {
-        frame.operandStack.pop();
+      case POP: {
+        --sp;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.LOAD) {
-        frame.operandStack.push(frame.variables.get((int)instr.operand()));
+      case LOAD: {
+        int address = fun.args[pc];
+        p[sp] = p[address];
+        r[sp] = r[address];
+        ++sp;
+        break;
       }
         
-      else if (instr.opcode() == OpCode.STORE) {
-        if(frame.variables.size() <= (int)instr.operand()){
-          frame.variables.add(frame.operandStack.pop());
-        } else {
-          frame.variables.set((int)instr.operand(),frame.operandStack.pop());
-        }
+      case STORE: {
+        int address = fun.args[pc];
+        --sp;
+        p[address] = p[sp];
+        r[address] = r[sp];
+        break;
+      }
+
+      case INC: {
+        int address = fun.args[pc];
+        ensureNotNil(frame, r[address]);
+        p[address] = (int)p[address] + 1;
+        break;
+      }
+
+      case DEC: {
+        int address = fun.args[pc];
+        ensureNotNil(frame, r[address]);
+        p[address] = (int)p[address] - 1;
+        break;
       }
 
       
       //------------------------------------------------------------
       // Ops
       //------------------------------------------------------------
+
+      // Binary operators pop x (at sp) and y (at sp - 1) and leave the
+      // result in y's slot.
         
-      else if (instr.opcode() == OpCode.ADD) {
+      case ADD: {
         // pop x and y off stack, push (y + x) onto stack
-        Object x = frame.operandStack.pop();
-        Object y = frame.operandStack.pop();
-        ensureNotNil(frame, x);
-        ensureNotNil(frame, y);
-        if(x instanceof Integer){
-          frame.operandStack.push((int)y + (int)x);
-        } else if(x instanceof Double){
-          frame.operandStack.push((double)y + (double)x);
-        } else if(x instanceof String || y instanceof String){
-          frame.operandStack.push(y.toString() + x.toString());
-        }
-        
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        if (r[x] == VMValue.INT)
+          p[y] = (int)p[y] + (int)p[x];
+        else if (r[x] == VMValue.DOUBLE)
+          p[y] = VMValue.bits(VMValue.dbl(p[y]) + VMValue.dbl(p[x]));
+        else
+          r[y] = VMValue.toString(r[y], p[y]) + VMValue.toString(r[x], p[x]);
+        break;
       }
 
-      else if (instr.opcode() == OpCode.SUB) {
-        // 
-        Object x = frame.operandStack.pop();
-        Object y = frame.operandStack.pop();
-        ensureNotNil(frame, x);
-        ensureNotNil(frame, y);
-        if(x instanceof Integer){
-          frame.operandStack.push((int)y - (int)x);
-        } else if(x instanceof Double){
-          frame.operandStack.push((double)y - (double)x);
-        }
+      case SUB: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        if (r[x] == VMValue.INT)
+          p[y] = (int)p[y] - (int)p[x];
+        else
+          p[y] = VMValue.bits(VMValue.dbl(p[y]) - VMValue.dbl(p[x]));
+        break;
       }
 
-      else if (instr.opcode() == OpCode.MUL) {
-        // 
-        Object x = frame.operandStack.pop();
-        Object y = frame.operandStack.pop();
-        ensureNotNil(frame, x);
-        ensureNotNil(frame, y);
-        if(x instanceof Integer){
-          frame.operandStack.push((int)y * (int)x);
-        } else if(x instanceof Double){
-          frame.operandStack.push((double)y * (double)x);
-        }
+      case MUL: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        if (r[x] == VMValue.INT)
+          p[y] = (int)p[y] * (int)p[x];
+        else
+          p[y] = VMValue.bits(VMValue.dbl(p[y]) * VMValue.dbl(p[x]));
+        break;
       }
 
-      else if (instr.opcode() == OpCode.DIV) {
-        // 
-        Object x = frame.operandStack.pop();
-        Object y = frame.operandStack.pop();
-        ensureNotNil(frame, x);
-        ensureNotNil(frame, y);
-        if(x instanceof Integer){
-          frame.operandStack.push((int)y / (int)x);
-        } else if(x instanceof Double){
-          frame.operandStack.push((double)y / (double)x);
-        }
+      case DIV: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        if (r[x] == VMValue.INT)
+          p[y] = (int)p[y] / (int)p[x];
+        else
+          p[y] = VMValue.bits(VMValue.dbl(p[y]) / VMValue.dbl(p[x]));
+        break;
       }
 
-      else if (instr.opcode() == OpCode.MOD) {
-        // 
-        Object x = frame.operandStack.pop();
-        Object y = frame.operandStack.pop();
-        ensureNotNil(frame, x);
-        ensureNotNil(frame, y);
-        frame.operandStack.push((int)y % (int)x);
+      case MOD: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = (int)p[y] % (int)p[x];
+        break;
       }
 
-      else if (instr.opcode() == OpCode.AND) {
+      case AND: {
         // pop bools x and y, push (y and x)
-        Object x = frame.operandStack.pop();
-        Object y = frame.operandStack.pop();
-        ensureNotNil(frame, x);
-        ensureNotNil(frame, y);
-        frame.operandStack.push((boolean)y && (boolean)x);
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = p[y] & p[x];
+        break;
       }
 
-      else if (instr.opcode() == OpCode.OR) {
-        // 
-        Object x = frame.operandStack.pop();
-        Object y = frame.operandStack.pop();
-        ensureNotNil(frame, x);
-        ensureNotNil(frame, y);
-        frame.operandStack.push((boolean)y || (boolean)x);
+      case OR: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = p[y] | p[x];
+        break;
       }
 
-      else if (instr.opcode() == OpCode.NOT) {
-        Object operand = frame.operandStack.pop();
-        ensureNotNil(frame, operand);
-        frame.operandStack.push(!(boolean)operand);
+      case NOT: {
+        int x = sp - 1;
+        ensureNotNil(frame, r[x]);
+        p[x] = p[x] ^ 1;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.CMPLT) {
+      case CMPLT: {
         // pop x and y off stack, push (y < x)
-        Object x = frame.operandStack.pop();
-        Object y = frame.operandStack.pop();
-        ensureNotNil(frame, x);
-        ensureNotNil(frame, y);
-        if(x instanceof Integer){
-          frame.operandStack.push((int)y < (int)x);
-        } else if(x instanceof Double){
-          frame.operandStack.push((double)y < (double)x);
-        } else if(x instanceof String || y instanceof String){
-          int comp = y.toString().compareTo(x.toString());
-          boolean strComp = false;
-          if(comp < 0){
-            strComp = true;
-          }
-          frame.operandStack.push(strComp);
-        }
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = compare(r[y], p[y], r[x], p[x]) < 0 ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.CMPLE) {
+      case CMPLE: {
         // pop x and y off stack, push (y <= x)
-        Object x = frame.operandStack.pop();
-        Object y = frame.operandStack.pop();
-        ensureNotNil(frame, x);
-        ensureNotNil(frame, y);
-        if(x instanceof Integer){
-          frame.operandStack.push((int)y <= (int)x);
-        } else if(x instanceof Double){
-          frame.operandStack.push((double)y <= (double)x);
-        } else if(x instanceof String || y instanceof String){
-          int comp = y.toString().compareTo(x.toString());
-          boolean strComp = false;
-          if(comp <= 0){
-            strComp = true;
-          }
-          frame.operandStack.push(strComp);
-        }
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = compare(r[y], p[y], r[x], p[x]) <= 0 ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.CMPGT) {
-        // TODO
-        Object x = frame.operandStack.pop();
-        Object y = frame.operandStack.pop();
-        ensureNotNil(frame, x);
-        ensureNotNil(frame, y);
-        if(x instanceof Integer){
-          frame.operandStack.push((int)y > (int)x);
-        } else if(x instanceof Double){
-          frame.operandStack.push((double)y > (double)x);
-        } else if(x instanceof String || y instanceof String){
-          int comp = y.toString().compareTo(x.toString());
-          boolean strComp = false;
-          if(comp > 0){
-            strComp = true;
-          }
-          frame.operandStack.push(strComp);
-        }
+      case CMPGT: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = compare(r[y], p[y], r[x], p[x]) > 0 ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.CMPGE) {
-        // TODO
-        Object x = frame.operandStack.pop();
-        Object y = frame.operandStack.pop();
-        ensureNotNil(frame, x);
-        ensureNotNil(frame, y);
-        if(x instanceof Integer){
-          frame.operandStack.push((int)y >= (int)x);
-        } else if(x instanceof Double){
-          frame.operandStack.push((double)y >= (double)x);
-        } else if(x instanceof String || y instanceof String){
-          int comp = y.toString().compareTo(x.toString());
-          boolean strComp = false;
-          if(comp >= 0){
-            strComp = true;
-          }
-          frame.operandStack.push(strComp);
-        }
+      case CMPGE: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = compare(r[y], p[y], r[x], p[x]) >= 0 ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.CMPEQ) {
-        // TODO
-        Object x = frame.operandStack.pop();
-        Object y = frame.operandStack.pop();
-        if(x instanceof String || y instanceof String){
-          int comp = y.toString().compareTo(x.toString());
-          boolean strComp = false;
-          if(comp == 0){
-            strComp = true;
-          }
-          frame.operandStack.push(strComp);
-        }
-        else if(x instanceof Integer){
-          frame.operandStack.push((int)y == (int)x);
-        } else if(x instanceof Double){
-          frame.operandStack.push((double)y == (double)x);
-        }
+      case CMPEQ: {
+        int x = --sp;
+        int y = sp - 1;
+        p[y] = equal(r[y], p[y], r[x], p[x]) ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.CMPNE) {
-        // TODO
-        Object x = frame.operandStack.pop();
-        Object y = frame.operandStack.pop();
-        if(x instanceof String || y instanceof String){
-          int comp = y.toString().compareTo(x.toString());
-          boolean strComp = false;
-          if(comp != 0){
-            strComp = true;
-          }
-          frame.operandStack.push(strComp);
-        }
-        else if(x instanceof Integer){
-          frame.operandStack.push((int)y != (int)x);
-        } else if(x instanceof Double){
-          frame.operandStack.push((double)y != (double)x);
-        }
+      case CMPNE: {
+        int x = --sp;
+        int y = sp - 1;
+        p[y] = equal(r[y], p[y], r[x], p[x]) ? 0 : 1;
+        r[y] = VMValue.BOOL;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.NEG) {
-        // TODO
-        Object x = frame.operandStack.pop();
-        ensureNotNil(frame, x);
-        if(x instanceof Integer){
-          frame.operandStack.push(-(int)x);
-        } else if(x instanceof Double){
-          frame.operandStack.push(-(double)x);
-        }
+      case NEG: {
+        int x = sp - 1;
+        ensureNotNil(frame, r[x]);
+        if (r[x] == VMValue.INT)
+          p[x] = -(int)p[x];
+        else
+          p[x] = VMValue.bits(-VMValue.dbl(p[x]));
+        break;
+      }
+
+      
+      //------------------------------------------------------------
+      // Typed operations (operand types are known from the checker,
+      // so only nil needs to be checked for)
+      //------------------------------------------------------------
+
+      case IADD: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = (int)p[y] + (int)p[x];
+        break;
+      }
+
+      case ISUB: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = (int)p[y] - (int)p[x];
+        break;
+      }
+
+      case IMUL: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = (int)p[y] * (int)p[x];
+        break;
+      }
+
+      case IDIV: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = (int)p[y] / (int)p[x];
+        break;
+      }
+
+      case INEG: {
+        int x = sp - 1;
+        ensureNotNil(frame, r[x]);
+        p[x] = -(int)p[x];
+        break;
+      }
+
+      case DADD: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = VMValue.bits(VMValue.dbl(p[y]) + VMValue.dbl(p[x]));
+        break;
+      }
+
+      case DSUB: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = VMValue.bits(VMValue.dbl(p[y]) - VMValue.dbl(p[x]));
+        break;
+      }
+
+      case DMUL: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = VMValue.bits(VMValue.dbl(p[y]) * VMValue.dbl(p[x]));
+        break;
+      }
+
+      case DDIV: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = VMValue.bits(VMValue.dbl(p[y]) / VMValue.dbl(p[x]));
+        break;
+      }
+
+      case DNEG: {
+        int x = sp - 1;
+        ensureNotNil(frame, r[x]);
+        p[x] = VMValue.bits(-VMValue.dbl(p[x]));
+        break;
+      }
+
+      case SCONCAT: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        r[y] = (String)r[y] + (String)r[x];
+        break;
+      }
+
+      case ICMPLT: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = (int)p[y] < (int)p[x] ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case ICMPLE: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = (int)p[y] <= (int)p[x] ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case ICMPGT: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = (int)p[y] > (int)p[x] ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case ICMPGE: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = (int)p[y] >= (int)p[x] ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case ICMPEQ: {
+        int x = --sp;
+        int y = sp - 1;
+        p[y] = r[y] == r[x] && (r[x] == NIL_OBJ || p[y] == p[x]) ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case ICMPNE: {
+        int x = --sp;
+        int y = sp - 1;
+        p[y] = !(r[y] == r[x] && (r[x] == NIL_OBJ || p[y] == p[x])) ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case DCMPLT: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = VMValue.dbl(p[y]) < VMValue.dbl(p[x]) ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case DCMPLE: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = VMValue.dbl(p[y]) <= VMValue.dbl(p[x]) ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case DCMPGT: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = VMValue.dbl(p[y]) > VMValue.dbl(p[x]) ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case DCMPGE: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = VMValue.dbl(p[y]) >= VMValue.dbl(p[x]) ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case DCMPEQ: {
+        int x = --sp;
+        int y = sp - 1;
+        p[y] = r[y] == r[x] && (r[x] == NIL_OBJ || VMValue.dbl(p[y]) == VMValue.dbl(p[x])) ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case DCMPNE: {
+        int x = --sp;
+        int y = sp - 1;
+        p[y] = !(r[y] == r[x] && (r[x] == NIL_OBJ || VMValue.dbl(p[y]) == VMValue.dbl(p[x]))) ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case SCMPLT: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = ((String)r[y]).compareTo(((String)r[x])) < 0 ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case SCMPLE: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = ((String)r[y]).compareTo(((String)r[x])) <= 0 ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case SCMPGT: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = ((String)r[y]).compareTo(((String)r[x])) > 0 ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case SCMPGE: {
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        p[y] = ((String)r[y]).compareTo(((String)r[x])) >= 0 ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case SCMPEQ: {
+        int x = --sp;
+        int y = sp - 1;
+        p[y] = r[y].equals(r[x]) ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
+      }
+
+      case SCMPNE: {
+        int x = --sp;
+        int y = sp - 1;
+        p[y] = !r[y].equals(r[x]) ? 1 : 0;
+        r[y] = VMValue.BOOL;
+        break;
       }
 
       
@@ -371,198 +743,376 @@ class VM {
       // Jumps
       //------------------------------------------------------------
         
-      else if (instr.opcode() == OpCode.JMP) {
-        frame.pc = (int)instr.operand();
+      case JMP: {
+        int target = fun.args[pc];
+        frame.pc = target;
+        // a backward jump is a loop iteration: once the loop is hot,
+        // the rest of the call runs in compiled code
+        if (target <= pc && tierThreshold > 0 && hotLoop(fun)) {
+          frame.sp = sp;
+          frame = enterLoop(frame, start);
+          if (frame == null)
+            return;
+          fun = frame.function;
+          code = fun.code;
+          p = frame.prims;
+          r = frame.refs;
+          sp = frame.sp;
+        }
+        break;
       }
 
-      else if (instr.opcode() == OpCode.JMPF) {
-        // 
-        Object x = frame.operandStack.pop();
-        if(!(boolean)x){
-          frame.pc = (int)instr.operand();
-        }
+      case JMPF: {
+        --sp;
+        if (p[sp] == 0)
+          frame.pc = fun.args[pc];
+        break;
       }
         
       //------------------------------------------------------------
       // Functions
       //------------------------------------------------------------
 
-      else if (instr.opcode() == OpCode.CALL) {
-        // TODO: 
-        // (1) get frame and instantiate a new copy
-        Object name = instr.operand();
-        if (!frames.containsKey(name.toString()))
-          throw MyPLException.VMError("No " + name.toString() + " function");
-        VMFrame newFrame = frames.get(name.toString()).instantiate();
+      case CALL: {
+        // (1) get the function (resolved when the code was linked) and
+        // create a new activation of it
+        VMFunction callee = (VMFunction)fun.constRefs[pc];
+        VMActivation newFrame = new VMActivation(callee);
         // (2) Pop argument values off stack and push into the newFrame
-        for(int i=0; i < newFrame.argCount(); i++){
-          newFrame.operandStack.push(frame.operandStack.pop());
+        for (int i = 0; i < callee.argCount(); i++) {
+          --sp;
+          newFrame.push(p[sp], r[sp]);
         }
         // (3) Push the new frame onto frame stack
+        frame.sp = sp;
         frameStack.push(newFrame);
-        // (4) Set the new frame as the current frame
+        if (callee.compiled == null && tierThreshold > 0)
+          countCall(callee);
+        // (4) Run compiled code directly (pushing its return value),
+        // or else set the new frame as the current frame
+        if (callee.compiled != null && nativeDepth < MAX_NATIVE_DEPTH) {
+          invoke(newFrame);
+          p[sp] = newFrame.prims[newFrame.sp - 1];
+          r[sp] = newFrame.refs[newFrame.sp - 1];
+          ++sp;
+          break;
+        }
         frame = newFrame;
+        fun = callee;
+        code = fun.code;
+        p = frame.prims;
+        r = frame.refs;
+        sp = frame.sp;
+        break;
       }
         
-      else if (instr.opcode() == OpCode.VRET) {
-        // TODO:
+      case VRET: {
         // (1) pop return value off of stack
-        Object returnVal = frame.operandStack.pop();
+        --sp;
+        long bits = p[sp];
+        Object ref = r[sp];
         // (2) remove the frame from the current frameStack
         frameStack.pop();
-        // (3) set frame to the frame on the top of the stack
-        // frameStack.push(frame);
+        // (3) if this is the frame the interpreter was started for,
+        // leave the return value on its stack for the caller
+        if (frame == start) {
+          frame.sp = sp + 1;
+          return;
+        }
+        // (4) set frame to the frame on the top of the stack
         frame = frameStack.peek();
-        // (4) push the return value onto the operand stack of the frame
-        if(frame != null){
-          frame.operandStack.push(returnVal);
+        // (5) push the return value onto the operand stack of the frame
+        if (frame != null) {
+          fun = frame.function;
+          code = fun.code;
+          p = frame.prims;
+          r = frame.refs;
+          sp = frame.sp;
+          p[sp] = bits;
+          r[sp] = ref;
+          ++sp;
         }
-        
+        break;
       }
         
       //------------------------------------------------------------
       // Built-ins
       //------------------------------------------------------------
         
-      else if (instr.opcode() == OpCode.WRITE) {
+      case WRITE: {
         // pop x, write to stdout
-        Object operand = frame.operandStack.pop();
-        // ensureNotNil(frame, operand);
-        System.out.print(operand.toString());
+        --sp;
+        System.out.print(VMValue.toString(r[sp], p[sp]));
+        break;
       }
 
-      else if (instr.opcode() == OpCode.READ) {
+      case READ: {
         Scanner s = new Scanner(System.in);
-        frame.operandStack.push(s.nextLine());
+        p[sp] = 0;
+        r[sp] = s.nextLine();
+        ++sp;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.LEN) {
+      case LEN: {
         // pop (string) x, push x.length()
-        Object operand = frame.operandStack.pop();
-        ensureNotNil(frame, operand);
-        int len = operand.toString().length();
-        frame.operandStack.push(len);
+        int x = sp - 1;
+        ensureNotNil(frame, r[x]);
+        p[x] = r[x].toString().length();
+        r[x] = VMValue.INT;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.GETCHR) {
+      case GETCHR: {
         // pop (string) x, pop y, push x.substring(y, y+1)
-        Object x = frame.operandStack.pop();
-        ensureNotNil(frame,x);
-        int y = (int)frame.operandStack.pop();
-        ensureNotNil(frame,y);
-        if(y < 0 || y >= x.toString().length()){
-          error("invalid index "+ y + "for string "+ x.toString(),frame);
-        }
-        frame.operandStack.push(x.toString().substring(y, y + 1));
+        int x = --sp;
+        int y = sp - 1;
+        ensureNotNil(frame, r[x]);
+        ensureNotNil(frame, r[y]);
+        String s = r[x].toString();
+        int i = (int)p[y];
+        if (i < 0 || i >= s.length())
+          error("invalid index " + i + " for string " + s, frame);
+        p[y] = 0;
+        r[y] = s.substring(i, i + 1);
+        break;
       }
 
-      else if (instr.opcode() == OpCode.TOINT) {
+      case TOINT: {
         // pop x, push x as an integer
-        Object x = frame.operandStack.pop();
-        ensureNotNil(frame,x);
-        try {
-          double i = Double.parseDouble(x.toString());
-          frame.operandStack.push((int)i);
-        } catch(Exception e) {
-          error("incompatible string " + x.toString() + " to parse as int",frame);
+        int x = sp - 1;
+        ensureNotNil(frame, r[x]);
+        if (r[x] == VMValue.DOUBLE)
+          p[x] = (int)VMValue.dbl(p[x]);
+        else if (r[x] != VMValue.INT) {
+          try {
+            p[x] = (int)Double.parseDouble(r[x].toString());
+          } catch(NumberFormatException e) {
+            error("incompatible string " + r[x] + " to parse as int", frame);
+          }
         }
+        r[x] = VMValue.INT;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.TODBL) {
+      case TODBL: {
         // pop x, push x as a double
-        Object x = frame.operandStack.pop();
-        ensureNotNil(frame,x);
-        try {
-          frame.operandStack.push(Double.parseDouble(x.toString()));
-        } catch(Exception e) {
-          error("incompatible string " + x.toString() + " to parse as double",frame);
+        int x = sp - 1;
+        ensureNotNil(frame, r[x]);
+        if (r[x] == VMValue.INT)
+          p[x] = VMValue.bits((int)p[x]);
+        else if (r[x] != VMValue.DOUBLE) {
+          try {
+            p[x] = VMValue.bits(Double.parseDouble(r[x].toString()));
+          } catch(NumberFormatException e) {
+            error("incompatible string " + r[x] + " to parse as double", frame);
+          }
         }
-        
+        r[x] = VMValue.DOUBLE;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.TOSTR) {
+      case TOSTR: {
         // pop x, push x.toString()
-        Object x = frame.operandStack.pop();
-        ensureNotNil(frame,x);
-        frame.operandStack.push(x.toString());
+        int x = sp - 1;
+        ensureNotNil(frame, r[x]);
+        r[x] = VMValue.toString(r[x], p[x]);
+        p[x] = 0;
+        break;
       }
 
       //------------------------------------------------------------
       // Heap related
       //------------------------------------------------------------
 
-      else if (instr.opcode() == OpCode.ALLOC) {      
-        // allocate obj w/ atts-list, push y (oid)
-        List<String> f = (List<String>)instr.operand();
-        int oid = objectId;
-        objectId = objectId + 1;
-
-        //heap is Map<Integer,Map<String,Object>>
-        Map<String,Object> fields = new HashMap<>();
-        for(String s: f){
-          fields.put(s,null);
-        }
-
-        heap.put(oid,fields);
-        frame.operandStack.push(oid);
+      case ALLOC: {
+        // allocate obj w/ the record type's fields, push y (oid)
+        VMType type = (VMType)fun.constRefs[pc];
+        frame.sp = sp;
+        VMRecord obj = allocate(type);
+        p[sp] = 0;
+        r[sp] = obj;
+        ++sp;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.FREE) {
+      case FREE: {
         // pop the oid to 
-        Object oid = frame.operandStack.pop();
-        ensureNotNil(frame, oid);
-        // remove the object with oid from the heap
-        heap.remove((int)oid);
+        --sp;
+        ensureNotNil(frame, r[sp]);
+        // remove the object from the heap
+        free(r[sp]);
+        break;
       }
 
-      else if (instr.opcode() == OpCode.SETFLD) {
+      case SETFLD: {
         // set field f: pop x and y, set obj(y).f = x
-        Object f = instr.operand();
-        Object x = frame.operandStack.pop();
-        Object y = frame.operandStack.pop();
-        //ensureNotNil(frame,x);
-        ensureNotNil(frame,y);
-
-        Map<String,Object> obj = heap.get((int)y);
-        obj.put(f.toString(),x);
+        int x = --sp;
+        int y = --sp;
+        VMRecord obj = deref(frame, r[y]);
+        int field = fun.args[pc];
+        if (field < 0)
+          field = fieldOffset(obj, instr.operand(), frame);
+        obj.prims[field] = p[x];
+        obj.refs[field] = r[x];
+        break;
       }
 
-      else if (instr.opcode() == OpCode.GETFLD) {      
+      case GETFLD: {      
         // get field f: pop x, push obj(x).f value
-        Object x = frame.operandStack.pop();
-        ensureNotNil(frame,x);
-        Object f = instr.operand();
-
-        Map<String,Object> obj = heap.get((int)x);
-        if(obj == null){
-          error("invalid heap access",frame);
-        }
-        frame.operandStack.push(obj.get(f.toString()));
+        int x = sp - 1;
+        VMRecord obj = deref(frame, r[x]);
+        int field = fun.args[pc];
+        if (field < 0)
+          field = fieldOffset(obj, instr.operand(), frame);
+        p[x] = obj.prims[field];
+        r[x] = obj.refs[field];
+        break;
       }
 
       //------------------------------------------------------------
       // Special instructions
       //------------------------------------------------------------
         
-      else if (instr.opcode() == OpCode.DUP) {
+      case DUP: {
         // pop x, push x, push x
-        Object x = frame.operandStack.pop();
-        frame.operandStack.push(x);
-        frame.operandStack.push(x);
+        p[sp] = p[sp - 1];
+        r[sp] = r[sp - 1];
+        ++sp;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.SWAP) {
+      case SWAP: {
         // pop x, pop y, push x, push y
-        Object x = frame.operandStack.pop();
-        Object y = frame.operandStack.pop();
-        frame.operandStack.push(x);
-        frame.operandStack.push(y);
+        long bits = p[sp - 1];
+        Object ref = r[sp - 1];
+        p[sp - 1] = p[sp - 2];
+        r[sp - 1] = r[sp - 2];
+        p[sp - 2] = bits;
+        r[sp - 2] = ref;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.NOP) {
+      case NOP: {
         // do nothing
+        break;
+      }
+
+      //------------------------------------------------------------
+      // Superinstructions (see InstructionFuser)
+      //------------------------------------------------------------
+
+      case LOAD_LOAD: {
+        int a = fun.args[pc];
+        int b = fun.args2[pc];
+        p[sp] = p[a];
+        r[sp] = r[a];
+        p[sp + 1] = p[b];
+        r[sp + 1] = r[b];
+        sp += 2;
+        break;
       }
 
+      case LOAD_PUSH: {
+        int a = fun.args[pc];
+        p[sp] = p[a];
+        r[sp] = r[a];
+        p[sp + 1] = fun.constBits[pc];
+        r[sp + 1] = fun.constRefs[pc];
+        sp += 2;
+        break;
+      }
+
+      case LOAD_LOAD_IADD: {
+        int a = fun.args[pc];
+        int b = fun.args2[pc];
+        ensureNotNil(frame, r[b]);
+        ensureNotNil(frame, r[a]);
+        p[sp] = (int)p[a] + (int)p[b];
+        r[sp] = VMValue.INT;
+        ++sp;
+        break;
+      }
+
+      case INC_JMP: case DEC_JMP: {
+        int address = fun.args[pc];
+        ensureNotNil(frame, r[address]);
+        int step = instr.opcode() == OpCode.INC_JMP ? 1 : -1;
+        p[address] = (int)p[address] + step;
+        int target = fun.args2[pc];
+        frame.pc = target;
+        // (a loop iteration, see JMP)
+        if (target <= pc && tierThreshold > 0 && hotLoop(fun)) {
+          frame.sp = sp;
+          frame = enterLoop(frame, start);
+          if (frame == null)
+            return;
+          fun = frame.function;
+          code = fun.code;
+          p = frame.prims;
+          r = frame.refs;
+          sp = frame.sp;
+        }
+        break;
+      }
+
+      // the compare jumps pop x (at sp + 1) and y (at sp)
+
+      case ICMPLT_JMPF: {
+        sp -= 2;
+        ensureNotNil(frame, r[sp + 1]);
+        ensureNotNil(frame, r[sp]);
+        if (!((int)p[sp] < (int)p[sp + 1]))
+          frame.pc = fun.args[pc];
+        break;
+      }
+
+      case ICMPLE_JMPF: {
+        sp -= 2;
+        ensureNotNil(frame, r[sp + 1]);
+        ensureNotNil(frame, r[sp]);
+        if (!((int)p[sp] <= (int)p[sp + 1]))
+          frame.pc = fun.args[pc];
+        break;
+      }
+
+      case ICMPGT_JMPF: {
+        sp -= 2;
+        ensureNotNil(frame, r[sp + 1]);
+        ensureNotNil(frame, r[sp]);
+        if (!((int)p[sp] > (int)p[sp + 1]))
+          frame.pc = fun.args[pc];
+        break;
+      }
+
+      case ICMPGE_JMPF: {
+        sp -= 2;
+        ensureNotNil(frame, r[sp + 1]);
+        ensureNotNil(frame, r[sp]);
+        if (!((int)p[sp] >= (int)p[sp + 1]))
+          frame.pc = fun.args[pc];
+        break;
+      }
+
+      case ICMPEQ_JMPF: {
+        sp -= 2;
+        int x = sp + 1;
+        int y = sp;
+        if (!(r[y] == r[x] && (r[x] == NIL_OBJ || p[y] == p[x])))
+          frame.pc = fun.args[pc];
+        break;
+      }
+
+      case ICMPNE_JMPF: {
+        sp -= 2;
+        int x = sp + 1;
+        int y = sp;
+        if (r[y] == r[x] && (r[x] == NIL_OBJ || p[y] == p[x]))
+          frame.pc = fun.args[pc];
+        break;
+      }
+
+      }
     }
   }
 
@@ -589,20 +1139,202 @@ class VM {
   // HELPER FUNCTIONS
   //----------------------------------------------------------------------
 
+  // load each frame's code into a (shared) function, checking that
+  // the code is well formed, and then link the functions' calls
+  private void load() throws MyPLException {
+    functions.clear();
+    for (VMFrame frame : frames.values())
+      functions.put(frame.functionName(), new VMFunction(frame, frames));
+    // link calls directly to the called functions
+    for (VMFunction function : functions.values())
+      function.link(functions);
+    if (jit && !DEBUG)
+      for (VMFunction function : functions.values())
+        promote(function);
+  }
+
+  // compile a function (once), leaving it interpreted if it can't be
+  // compiled
+  private void promote(VMFunction function) {
+    if (function.promoted)
+      return;
+    function.promoted = true;
+    if (compiler == null)
+      compiler = new JitCompiler();
+    function.compiled = compiler.compile(function);
+    if (function.compiled != null)
+      ++compiledCount;
+  }
+
+  // count a call of an interpreted function, compiling it once it is
+  // hot (for tiered execution)
+  private void countCall(VMFunction function) {
+    if (++function.invocations + function.backEdges >= tierThreshold &&
+        !DEBUG)
+      promote(function);
+  }
+
+  // count a loop iteration (backward jump) of an interpreted call,
+  // returning true if the call can now continue in compiled code
+  private boolean hotLoop(VMFunction function) {
+    if (function.compiled == null &&
+        ++function.backEdges + function.invocations >= tierThreshold &&
+        !DEBUG)
+      promote(function);
+    return function.compiled != null && nativeDepth < MAX_NATIVE_DEPTH;
+  }
+
+  // continue an interpreted call (on top of the frame stack) in its
+  // compiled code, from the loop at frame.pc, until it returns: the
+  // return value is left on the frame's stack if it is the frame the
+  // interpreter was started for, and otherwise is pushed onto the
+  // caller's stack, returning the caller (or null)
+  private VMActivation enterLoop(VMActivation frame, VMActivation start)
+    throws MyPLException
+  {
+    ++loopEntries;
+    ++nativeDepth;
+    try {
+      frame.function.compiled.run(this, frame);
+    } finally {
+      --nativeDepth;
+    }
+    frameStack.pop();
+    if (frame == start)
+      return null;
+    VMActivation caller = frameStack.peek();
+    caller.push(frame.prims[frame.sp - 1], frame.refs[frame.sp - 1]);
+    return caller;
+  }
+
+  // allocate a record of the given type, first collecting garbage if
+  // it is time to (so the frames' stack pointers must be up to date)
+  VMRecord allocate(VMType type) {
+    if (heap.needsCollection())
+      heap.collect(frameStack);
+    VMRecord obj = new VMRecord(type, objectId);
+    objectId = objectId + 1;
+    heap.add(obj);
+    return obj;
+  }
+
+  // free the record referenced by a (non-nil) value
+  void free(Object ref) {
+    if (ref instanceof VMRecord)
+      heap.free((VMRecord)ref);
+  }
+
+  //----------------------------------------------------------------------
+  // Support for compiled code (see JitCompiler)
+  //----------------------------------------------------------------------
+
+  // call a function from compiled code: the arguments are the top
+  // values of the caller's operand stack (which ends at sp), and are
+  // replaced by the return value
+  void call(VMActivation caller, int sp, VMFunction callee)
+    throws MyPLException
+  {
+    VMActivation frame = new VMActivation(callee);
+    for (int i = 0; i < callee.argCount(); i++) {
+      --sp;
+      frame.push(caller.prims[sp], caller.refs[sp]);
+    }
+    caller.sp = sp;
+    frameStack.push(frame);
+    if (callee.compiled == null && tierThreshold > 0)
+      countCall(callee);
+    if (callee.compiled != null && nativeDepth < MAX_NATIVE_DEPTH)
+      invoke(frame);
+    else {
+      // the interpreter also uses the Java stack when run from
+      // compiled code
+      ++nativeDepth;
+      try {
+        execute(frame);
+      } finally {
+        --nativeDepth;
+      }
+    }
+    caller.prims[sp] = frame.prims[frame.sp - 1];
+    caller.refs[sp] = frame.refs[frame.sp - 1];
+  }
+
+  // report a runtime error in compiled code at the given instruction
+  void compiledError(String m, VMActivation f, int pc) throws MyPLException {
+    f.pc = pc + 1;
+    error(m, f);
+  }
+
+  // get the (live) record referenced by a value in compiled code
+  VMRecord compiledDeref(VMActivation f, int pc, Object ref)
+    throws MyPLException
+  {
+    if (ref instanceof VMRecord && !((VMRecord)ref).isFreed())
+      return (VMRecord)ref;
+    f.pc = pc + 1;
+    return deref(f, ref);
+  }
+
   // error
-  private void error(String m, VMFrame f) throws MyPLException {
+  private void error(String m, VMActivation f) throws MyPLException {
     int pc = f.pc - 1;
-    VMInstr i = f.instructions.get(pc);
+    VMInstr i = f.function.code[pc];
     String name = f.functionName();
     m += " (in " + name + " at " + pc + ": " + i + ")";
     throw MyPLException.VMError(m);
   }
 
   // error if given value is nil
-  private void ensureNotNil(VMFrame f, Object v) throws MyPLException {
+  private void ensureNotNil(VMActivation f, Object v) throws MyPLException {
     if (v == NIL_OBJ)
       error("Nil reference", f);
   }
+
+  // get the (live) record referenced by an operand
+  private VMRecord deref(VMActivation f, Object ref) throws MyPLException {
+    if (ref instanceof VMRecord && !((VMRecord)ref).isFreed())
+      return (VMRecord)ref;
+    ensureNotNil(f, ref);
+    error("invalid heap access", f);
+    return null;
+  }
+
+  // find the slot offset of a field given by name (in hand-built code)
+  private int fieldOffset(VMRecord obj, Object field, VMActivation f)
+    throws MyPLException
+  {
+    int offset = obj.type.offsetOf(field.toString());
+    if (offset < 0)
+      error("no field " + field, f);
+    return offset;
+  }
+
+  // compare two (non-nil) values y and x of the same type, returning
+  // a negative number, zero, or a positive number if y is less than,
+  // equal to, or greater than x
+  static int compare(Object ry, long y, Object rx, long x) {
+    if (rx == VMValue.INT)
+      return Integer.compare((int)y, (int)x);
+    else if (rx == VMValue.DOUBLE) {
+      double dy = VMValue.dbl(y);
+      double dx = VMValue.dbl(x);
+      return dy < dx ? -1 : (dy > dx ? 1 : 0);
+    }
+    return VMValue.toString(ry, y).compareTo(VMValue.toString(rx, x));
+  }
+
+  // true if values y and x are equal (records are compared by
+  // reference, while strings, and comparisons with nil, go by their
+  // string forms)
+  static boolean equal(Object ry, long y, Object rx, long x) {
+    if (rx instanceof VMRecord || ry instanceof VMRecord)
+      return rx == ry;
+    else if (!VMValue.isPrimitive(rx) || !VMValue.isPrimitive(ry))
+      return VMValue.toString(ry, y).equals(VMValue.toString(rx, x));
+    else if (rx == VMValue.DOUBLE)
+      return VMValue.dbl(y) == VMValue.dbl(x);
+    return y == x;
+  }
   
   
 }
@@ -0,0 +1,71 @@
+/*
+ * File: VMActivation.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Activation record for a single call of a MyPL function.
+ */
+
+
+/**
+ * Each VMActivation corresponds to one call of a VMFunction. It holds
+ * the per-call state (the program counter, the local variables, and
+ * the operand stack), while the code itself is shared with all other
+ * calls of the same function.
+ *
+ * The local variables and the operand stack share one array of value
+ * slots (see VMValue): the first localCount slots are the variables,
+ * and the operand stack grows up from there. The arrays are sized
+ * from the function's maximum stack height, so pushes never need to
+ * check for overflow.
+ */
+public class VMActivation {
+
+  // the function being executed
+  public final VMFunction function;
+
+  // primitive bits of each slot
+  public final long[] prims;
+
+  // reference (or primitive type tag) of each slot
+  public final Object[] refs;
+
+  // the operand stack pointer (index of the next free slot)
+  public int sp;
+
+  // the program counter (pc) for the call
+  public int pc = 0;
+
+
+  // create a new activation of the given function
+  public VMActivation(VMFunction function) {
+    this.function = function;
+    int size = function.localCount() + function.maxStack();
+    this.prims = new long[size];
+    this.refs = new Object[size];
+    this.sp = function.localCount();
+  }
+
+  // get the activation's function name
+  public String functionName() {
+    return function.functionName();
+  }
+
+  // push a value onto the operand stack
+  public void push(long bits, Object ref) {
+    prims[sp] = bits;
+    refs[sp] = ref;
+    ++sp;
+  }
+
+  // the operand stack contents (bottom first) for debugging
+  public String stackString() {
+    String s = "[";
+    for (int i = function.localCount(); i < sp; ++i) {
+      if (i > function.localCount())
+        s += ", ";
+      s += VMValue.toString(refs[i], prims[i]);
+    }
+    return s + "]";
+  }
+
+}
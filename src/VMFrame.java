@@ -7,17 +7,17 @@
 
 
 import java.util.ArrayList;
-import java.util.ArrayDeque;
-import java.util.Deque;
 import java.util.List;
 
 
 
 /**
  * Each VMFrame corresponds to an executable MyPL function. A frame
- *  consists of function name, an argument count, the frame's
- *  instructions, the frame's local variables, a stack (for operation
- *  operands), and a program counter.
+ * consists of function name, an argument count, and the frame's
+ * instructions. Frames are built up (e.g., by the code generator) and
+ * added to the VM, which loads each one into a VMFunction before
+ * running. The per-call state (local variables, operand stack, and
+ * program counter) is kept in a VMActivation.
  */ 
 public class VMFrame {
 
@@ -26,19 +26,14 @@ public class VMFrame {
   private String functionName; 
 
   private int argCount;
+
+  // number of local variable slots used by the function (-1 if not
+  // known, in which case the VM computes it when loading the frame)
+  private int localCount = -1;
   
   // the program instructions 
   public List<VMInstr> instructions = new ArrayList<>();
 
-  // @TODO Should this be a HashMap? 
-  public List<Object> variables = new ArrayList<>();
-
-  // the operand stack
-  public Deque<Object> operandStack = new ArrayDeque<>();
-
-  // the program counter (pc) for an active stack frame
-  public int pc = 0;
-
 
   // basic constructor
   public VMFrame(String functionName, int argCount) {
@@ -55,21 +50,15 @@ public class VMFrame {
   public int argCount() {
     return argCount;
   }
-  
-  /**
-   * Creates a new frame based on the current frame (for the purpose
-   * of adding a new function call to the frame stack). The new frame
-   * is created so that it has the same name, argument count, and
-   * instructions as the current frame. However, the new frame has an
-   * empty operand stack, and empty variable store, and the program
-   * counter set to the first instruction.
-   * @return a new version of the current frame to add to the frame stack
-   */
-  public VMFrame instantiate() {
-    VMFrame newFrame = new VMFrame(functionName, argCount);
-    for (VMInstr instr : instructions) 
-      newFrame.instructions.add(instr);
-    return newFrame;
+
+  // get the number of local variable slots (-1 if not known)
+  public int localCount() {
+    return localCount;
+  }
+
+  // set the number of local variable slots used by the function
+  public void setLocalCount(int localCount) {
+    this.localCount = localCount;
   }
   
 }
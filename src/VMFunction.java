@@ -0,0 +1,191 @@
+/*
+ * File: VMFunction.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: The loaded (executable) form of a MyPL function in the VM.
+ */
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A VMFunction holds the code of a function once it has been loaded
+ * into the VM. The code is stored in an array and never changes after
+ * loading, so one VMFunction is shared by every call (activation) of
+ * the function.
+ */
+public class VMFunction {
+
+  // name of the function
+  private final String functionName;
+
+  // number of arguments passed to the function
+  private final int argCount;
+
+  // number of local variable slots needed by a call of the function
+  private final int localCount;
+
+  // maximum operand stack height reached by a call of the function
+  private final int maxStack;
+
+  // operand stack height on entry to each instruction (see
+  // StackAnalyzer)
+  private final int[] stackDepths;
+
+  // the function's compiled code (null if it is interpreted)
+  CompiledFunction compiled = null;
+
+  // profile of the interpreted function for tiered execution: the
+  // number of calls and of backward (loop) jumps taken, and whether
+  // compiling it has been tried already
+  int invocations = 0;
+  int backEdges = 0;
+  boolean promoted = false;
+
+  // the function's instructions
+  public final VMInstr[] code;
+
+  // decoded instruction operands (indexed by pc): addresses of LOAD,
+  // STORE, INC, DEC, JMP, and JMPF, field offsets of GETFLD and SETFLD
+  // (-1 if the field is given by name), the (unboxed) values of PUSH, the
+  // record types of ALLOC, and (once linked) the functions called by
+  // CALL. For superinstructions, args holds the first operand and
+  // args2 the second (unless it is a PUSH value).
+  public final int[] args;
+  public final int[] args2;
+  public final long[] constBits;
+  public final Object[] constRefs;
+
+
+  /**
+   * Creates the executable form of the given frame's code.
+   * @param frame the frame (as built by the code generator) to load
+   * @param frames all frames of the program (for checking calls)
+   * @throws MyPLException if the frame's code is malformed
+   */
+  public VMFunction(VMFrame frame, Map<String,VMFrame> frames)
+    throws MyPLException
+  {
+    this.functionName = frame.functionName();
+    this.argCount = frame.argCount();
+    this.code = frame.instructions.toArray(new VMInstr[0]);
+    if (frame.localCount() >= 0)
+      this.localCount = frame.localCount();
+    else
+      this.localCount = countLocals(code);
+    StackAnalyzer analyzer = new StackAnalyzer(frames);
+    this.maxStack = analyzer.maxDepth(functionName, argCount, localCount, code);
+    this.stackDepths = analyzer.stackDepths();
+    // decode the operands once instead of on every execution
+    args = new int[code.length];
+    args2 = new int[code.length];
+    constBits = new long[code.length];
+    constRefs = new Object[code.length];
+    for (int i = 0; i < code.length; ++i) {
+      OpCode op = code[i].opcode();
+      Object operand = code[i].operand();
+      if (op == OpCode.LOAD || op == OpCode.STORE || op == OpCode.INC ||
+          op == OpCode.DEC || op == OpCode.JMP || op == OpCode.JMPF ||
+          isCompareJump(op))
+        args[i] = (int)operand;
+      else if (op == OpCode.PUSH) {
+        constBits[i] = VMValue.bitsOf(operand);
+        constRefs[i] = VMValue.tagOf(operand);
+      }
+      else if (op == OpCode.GETFLD || op == OpCode.SETFLD)
+        args[i] = operand instanceof Integer ? (int)operand : -1;
+      else if (op == OpCode.ALLOC)
+        constRefs[i] = new VMType((List<String>)operand);
+      else if (op == OpCode.LOAD_PUSH) {
+        List<?> operands = (List<?>)operand;
+        args[i] = (int)operands.get(0);
+        constBits[i] = VMValue.bitsOf(operands.get(1));
+        constRefs[i] = VMValue.tagOf(operands.get(1));
+      }
+      else if (op == OpCode.LOAD_LOAD || op == OpCode.LOAD_LOAD_IADD ||
+               op == OpCode.INC_JMP || op == OpCode.DEC_JMP) {
+        List<?> operands = (List<?>)operand;
+        args[i] = (int)operands.get(0);
+        args2[i] = (int)operands.get(1);
+      }
+    }
+  }
+
+  /**
+   * Resolves the target of each CALL instruction to its function, so
+   * that calls no longer need to look functions up by name. Done once
+   * every function of the program has been loaded.
+   * @param functions the program's functions by name
+   * @throws MyPLException if a called function doesn't exist
+   */
+  public void link(Map<String,VMFunction> functions) throws MyPLException {
+    for (int i = 0; i < code.length; ++i) {
+      if (code[i].opcode() != OpCode.CALL)
+        continue;
+      String name = code[i].operand().toString();
+      VMFunction callee = functions.get(name);
+      if (callee == null)
+        throw MyPLException.VMError("No " + name + " function (in " +
+                                    functionName + " at " + i + ")");
+      constRefs[i] = callee;
+    }
+  }
+
+  // find the number of local slots used by hand-built code (one more
+  // than the largest LOAD/STORE address)
+  private static int countLocals(VMInstr[] code) {
+    int count = 0;
+    for (VMInstr instr : code) {
+      OpCode op = instr.opcode();
+      if (op == OpCode.LOAD || op == OpCode.STORE || op == OpCode.INC ||
+          op == OpCode.DEC)
+        count = Math.max(count, (int)instr.operand() + 1);
+      else if (op == OpCode.LOAD_PUSH || op == OpCode.INC_JMP ||
+               op == OpCode.DEC_JMP)
+        count = Math.max(count, (int)((List<?>)instr.operand()).get(0) + 1);
+      else if (op == OpCode.LOAD_LOAD || op == OpCode.LOAD_LOAD_IADD)
+        for (Object address : (List<?>)instr.operand())
+          count = Math.max(count, (int)address + 1);
+    }
+    return count;
+  }
+
+  // true if the opcode is a fused int comparison and JMPF
+  static boolean isCompareJump(OpCode op) {
+    switch (op) {
+    case ICMPLT_JMPF: case ICMPLE_JMPF: case ICMPGT_JMPF: case ICMPGE_JMPF:
+    case ICMPEQ_JMPF: case ICMPNE_JMPF:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  // get the function's name
+  public String functionName() {
+    return functionName;
+  }
+
+  // get the function's argument count
+  public int argCount() {
+    return argCount;
+  }
+
+  // get the number of local variable slots
+  public int localCount() {
+    return localCount;
+  }
+
+  // get the maximum operand stack height
+  public int maxStack() {
+    return maxStack;
+  }
+
+  // get the operand stack height on entry to each instruction (-1 if
+  // the instruction can't be reached)
+  public int[] stackDepths() {
+    return stackDepths;
+  }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * File: VMHeap.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: The VM's heap (free store) of records.
+ */
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+
+/**
+ * The heap keeps every live record in a dense, growable array. Each
+ * record remembers its slot, so freeing a record is a constant time
+ * operation, and freed slots are reused (via a free list) by later
+ * allocations. Records themselves are referenced directly from the
+ * operand stack, locals, and other records.
+ *
+ * The heap can optionally be garbage collected: once a given number
+ * of records have been allocated since the last collection, the VM
+ * calls collect(), which marks every record reachable from the
+ * activations' locals and operand stacks and frees the rest.
+ */
+public class VMHeap {
+
+  // the live records (null entries are free slots)
+  private VMRecord[] records = new VMRecord[16];
+
+  // number of slots handed out so far
+  private int top = 0;
+
+  // the free slots (a stack of slot indexes)
+  private int[] freeSlots = new int[16];
+  private int freeCount = 0;
+
+  // allocations between collections (0 if the collector is off), and
+  // the number of allocations until the next collection
+  private int threshold = 0;
+  private int untilCollection = 0;
+
+  // collector statistics
+  private int collections = 0;
+  private long reclaimed = 0;
+  private long totalPause = 0;
+  private long maxPause = 0;
+
+
+  /**
+   * Adds a newly allocated record to the heap.
+   * @param obj the record to add
+   */
+  public void add(VMRecord obj) {
+    --untilCollection;
+    int slot;
+    if (freeCount > 0)
+      slot = freeSlots[--freeCount];
+    else {
+      if (top == records.length)
+        records = Arrays.copyOf(records, top * 2);
+      slot = top++;
+    }
+    records[slot] = obj;
+    obj.slot = slot;
+  }
+
+  /**
+   * Removes a record from the heap. The record is marked as freed so
+   * that later accesses can be reported (freeing a record twice does
+   * nothing).
+   * @param obj the record to remove
+   */
+  public void free(VMRecord obj) {
+    int slot = obj.slot;
+    if (slot < 0)
+      return;
+    records[slot] = null;
+    obj.slot = -1;
+    if (freeCount == freeSlots.length)
+      freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+    freeSlots[freeCount++] = slot;
+  }
+
+  // get the number of live records
+  public int size() {
+    return top - freeCount;
+  }
+
+  /**
+   * Turns on garbage collection.
+   * @param threshold the number of allocations between collections
+   *   (0 turns the collector off)
+   */
+  public void setCollectionThreshold(int threshold) {
+    this.threshold = threshold;
+    this.untilCollection = threshold;
+  }
+
+  // true if the collector is on and enough records have been
+  // allocated since the last collection
+  public boolean needsCollection() {
+    return threshold > 0 && untilCollection <= 0;
+  }
+
+  /**
+   * Frees every record not reachable from the given activations
+   * (mark-sweep). Only the locals and the operand stack below each
+   * activation's sp are roots, so the current activation's sp must
+   * be up to date.
+   * @param activations the activations on the call stack
+   * @return the number of records freed
+   */
+  public int collect(Iterable<VMActivation> activations) {
+    long start = System.nanoTime();
+    // mark (using an explicit stack so long lists can't overflow the
+    // Java call stack)
+    Deque<VMRecord> pending = new ArrayDeque<>();
+    for (VMActivation a : activations)
+      for (int i = 0; i < a.sp; ++i)
+        mark(a.refs[i], pending);
+    while (!pending.isEmpty()) {
+      VMRecord obj = pending.pop();
+      for (Object ref : obj.refs)
+        mark(ref, pending);
+    }
+    // sweep
+    int count = 0;
+    for (int i = 0; i < top; ++i) {
+      VMRecord obj = records[i];
+      if (obj == null)
+        continue;
+      if (obj.marked)
+        obj.marked = false;
+      else {
+        free(obj);
+        ++count;
+      }
+    }
+    // collect again after threshold more allocations, or once the
+    // heap has grown by its current live size (so a large live heap
+    // isn't re-traced over and over)
+    untilCollection = Math.max(threshold, size());
+    long pause = System.nanoTime() - start;
+    ++collections;
+    reclaimed += count;
+    totalPause += pause;
+    maxPause = Math.max(maxPause, pause);
+    return count;
+  }
+
+  // mark a record (if the reference is to an unmarked record)
+  private static void mark(Object ref, Deque<VMRecord> pending) {
+    if (ref instanceof VMRecord) {
+      VMRecord obj = (VMRecord)ref;
+      if (!obj.marked && !obj.isFreed()) {
+        obj.marked = true;
+        pending.push(obj);
+      }
+    }
+  }
+
+  /**
+   * Returns a summary of the collector's work (number of collections,
+   * records reclaimed, and pause times).
+   */
+  public String collectionStats() {
+    return String.format("GC: %d collections, %d objects reclaimed, " +
+                         "%d live, pause total %.3f ms, max %.3f ms",
+                         collections, reclaimed, size(),
+                         totalPause / 1e6, maxPause / 1e6);
+  }
+
+  @Override
+  public String toString() {
+    String s = "{";
+    boolean first = true;
+    for (int i = 0; i < top; ++i) {
+      if (records[i] == null)
+        continue;
+      if (!first)
+        s += ", ";
+      s += records[i] + "=" + records[i].fieldsString();
+      first = false;
+    }
+    return s + "}";
+  }
+
+}
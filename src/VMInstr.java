@@ -78,6 +78,14 @@ public class VMInstr {
     return new VMInstr(OpCode.LOAD, address);    
   }
 
+  public static VMInstr INC(int address) {
+    return new VMInstr(OpCode.INC, address);
+  }
+
+  public static VMInstr DEC(int address) {
+    return new VMInstr(OpCode.DEC, address);
+  }
+
   public static VMInstr STORE(int address) {
     return new VMInstr(OpCode.STORE, address);    
   }
@@ -141,6 +149,122 @@ public class VMInstr {
   public static VMInstr NEG() {
     return new VMInstr(OpCode.NEG);
   }
+
+  public static VMInstr IADD() {
+    return new VMInstr(OpCode.IADD);
+  }
+
+  public static VMInstr ISUB() {
+    return new VMInstr(OpCode.ISUB);
+  }
+
+  public static VMInstr IMUL() {
+    return new VMInstr(OpCode.IMUL);
+  }
+
+  public static VMInstr IDIV() {
+    return new VMInstr(OpCode.IDIV);
+  }
+
+  public static VMInstr INEG() {
+    return new VMInstr(OpCode.INEG);
+  }
+
+  public static VMInstr DADD() {
+    return new VMInstr(OpCode.DADD);
+  }
+
+  public static VMInstr DSUB() {
+    return new VMInstr(OpCode.DSUB);
+  }
+
+  public static VMInstr DMUL() {
+    return new VMInstr(OpCode.DMUL);
+  }
+
+  public static VMInstr DDIV() {
+    return new VMInstr(OpCode.DDIV);
+  }
+
+  public static VMInstr DNEG() {
+    return new VMInstr(OpCode.DNEG);
+  }
+
+  public static VMInstr SCONCAT() {
+    return new VMInstr(OpCode.SCONCAT);
+  }
+
+  public static VMInstr ICMPLT() {
+    return new VMInstr(OpCode.ICMPLT);
+  }
+
+  public static VMInstr ICMPLE() {
+    return new VMInstr(OpCode.ICMPLE);
+  }
+
+  public static VMInstr ICMPGT() {
+    return new VMInstr(OpCode.ICMPGT);
+  }
+
+  public static VMInstr ICMPGE() {
+    return new VMInstr(OpCode.ICMPGE);
+  }
+
+  public static VMInstr ICMPEQ() {
+    return new VMInstr(OpCode.ICMPEQ);
+  }
+
+  public static VMInstr ICMPNE() {
+    return new VMInstr(OpCode.ICMPNE);
+  }
+
+  public static VMInstr DCMPLT() {
+    return new VMInstr(OpCode.DCMPLT);
+  }
+
+  public static VMInstr DCMPLE() {
+    return new VMInstr(OpCode.DCMPLE);
+  }
+
+  public static VMInstr DCMPGT() {
+    return new VMInstr(OpCode.DCMPGT);
+  }
+
+  public static VMInstr DCMPGE() {
+    return new VMInstr(OpCode.DCMPGE);
+  }
+
+  public static VMInstr DCMPEQ() {
+    return new VMInstr(OpCode.DCMPEQ);
+  }
+
+  public static VMInstr DCMPNE() {
+    return new VMInstr(OpCode.DCMPNE);
+  }
+
+  public static VMInstr SCMPLT() {
+    return new VMInstr(OpCode.SCMPLT);
+  }
+
+  public static VMInstr SCMPLE() {
+    return new VMInstr(OpCode.SCMPLE);
+  }
+
+  public static VMInstr SCMPGT() {
+    return new VMInstr(OpCode.SCMPGT);
+  }
+
+  public static VMInstr SCMPGE() {
+    return new VMInstr(OpCode.SCMPGE);
+  }
+
+  public static VMInstr SCMPEQ() {
+    return new VMInstr(OpCode.SCMPEQ);
+  }
+
+  public static VMInstr SCMPNE() {
+    return new VMInstr(OpCode.SCMPNE);
+  }
   
   public static VMInstr JMP(int address) {
     return new VMInstr(OpCode.JMP, address);
@@ -202,6 +326,14 @@ public class VMInstr {
     return new VMInstr(OpCode.GETFLD, field);
   }
 
+  public static VMInstr SETFLD(int offset) {
+    return new VMInstr(OpCode.SETFLD, offset);
+  }
+
+  public static VMInstr GETFLD(int offset) {
+    return new VMInstr(OpCode.GETFLD, offset);
+  }
+
   public static VMInstr DUP() {
     return new VMInstr(OpCode.DUP);
   }
@@ -214,6 +346,50 @@ public class VMInstr {
     return new VMInstr(OpCode.NOP);
   }
 
+  public static VMInstr LOAD_LOAD(int a, int b) {
+    return new VMInstr(OpCode.LOAD_LOAD, List.of(a, b));
+  }
+
+  public static VMInstr LOAD_PUSH(int a, Object c) {
+    return new VMInstr(OpCode.LOAD_PUSH, List.of(a, c));
+  }
+
+  public static VMInstr LOAD_LOAD_IADD(int a, int b) {
+    return new VMInstr(OpCode.LOAD_LOAD_IADD, List.of(a, b));
+  }
+
+  public static VMInstr INC_JMP(int address, int target) {
+    return new VMInstr(OpCode.INC_JMP, List.of(address, target));
+  }
+
+  public static VMInstr DEC_JMP(int address, int target) {
+    return new VMInstr(OpCode.DEC_JMP, List.of(address, target));
+  }
+
+  public static VMInstr ICMPLT_JMPF(int address) {
+    return new VMInstr(OpCode.ICMPLT_JMPF, address);
+  }
+
+  public static VMInstr ICMPLE_JMPF(int address) {
+    return new VMInstr(OpCode.ICMPLE_JMPF, address);
+  }
+
+  public static VMInstr ICMPGT_JMPF(int address) {
+    return new VMInstr(OpCode.ICMPGT_JMPF, address);
+  }
+
+  public static VMInstr ICMPGE_JMPF(int address) {
+    return new VMInstr(OpCode.ICMPGE_JMPF, address);
+  }
+
+  public static VMInstr ICMPEQ_JMPF(int address) {
+    return new VMInstr(OpCode.ICMPEQ_JMPF, address);
+  }
+
+  public static VMInstr ICMPNE_JMPF(int address) {
+    return new VMInstr(OpCode.ICMPNE_JMPF, address);
+  }
+
 
   
 }
@@ -0,0 +1,70 @@
+/*
+ * File: VMRecord.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: A record (object) stored in the VM's heap.
+ */
+
+import java.util.Arrays;
+
+
+/**
+ * A VMRecord holds the field values of one heap object in fixed slots
+ * given by its type. Like the operand stack, each field is stored as a
+ * primitive bits slot plus a reference (or type tag) slot, so int,
+ * double, and bool fields are kept unboxed.
+ */
+public class VMRecord {
+
+  // the record's layout
+  public final VMType type;
+
+  // the field values, indexed by slot offset
+  public final long[] prims;
+  public final Object[] refs;
+
+  // the record's object id (what is printed for the record)
+  public final int id;
+
+  // the record's slot in the heap (-1 once the record is freed)
+  int slot = -1;
+
+  // set while the garbage collector is marking reachable records
+  boolean marked = false;
+
+
+  /**
+   * Creates a record of the given type with all fields set to nil.
+   * @param type the record's type
+   * @param id the record's object id
+   */
+  public VMRecord(VMType type, int id) {
+    this.type = type;
+    this.id = id;
+    prims = new long[type.fieldCount()];
+    refs = new Object[type.fieldCount()];
+    Arrays.fill(refs, VM.NIL_OBJ);
+  }
+
+  // true if the record has been removed from the heap
+  public boolean isFreed() {
+    return slot < 0;
+  }
+
+  @Override
+  public String toString() {
+    return Integer.toString(id);
+  }
+
+  // the record's field values (for debugging)
+  public String fieldsString() {
+    String s = "{";
+    for (int i = 0; i < refs.length; ++i) {
+      if (i > 0)
+        s += ", ";
+      s += type.fieldName(i) + "=" + VMValue.toString(refs[i], prims[i]);
+    }
+    return s + "}";
+  }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * File: VMType.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Record type descriptor used by the VM's heap objects.
+ */
+
+import java.util.List;
+
+
+/**
+ * A VMType describes the layout of a record: the name of the field
+ * stored at each slot. One VMType is created per ALLOC instruction
+ * when the code is loaded and is shared by every record it allocates.
+ */
+public class VMType {
+
+  // the field names, indexed by slot offset
+  private final String[] fieldNames;
+
+
+  /**
+   * Creates a record type with the given fields (in slot order).
+   * @param fields the names of the record's fields
+   */
+  public VMType(List<String> fields) {
+    fieldNames = fields.toArray(new String[0]);
+  }
+
+  // get the number of fields (slots) in a record of this type
+  public int fieldCount() {
+    return fieldNames.length;
+  }
+
+  // get the name of the field at the given offset
+  public String fieldName(int offset) {
+    return fieldNames[offset];
+  }
+
+  // get the slot offset of the given field, or -1 if there is no
+  // such field
+  public int offsetOf(String field) {
+    for (int i = 0; i < fieldNames.length; ++i)
+      if (fieldNames[i].equals(field))
+        return i;
+    return -1;
+  }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * File: VMValue.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Helpers for the VM's value representation. A VM value is
+ *       stored in two parallel slots: a long holding the bits of a
+ *       primitive value, and an Object holding either a reference
+ *       (string, nil, object) or, for primitives, a type tag. Int,
+ *       double, and bool values therefore never need to be boxed
+ *       while on the operand stack or in a local variable.
+ */
+
+
+public class VMValue {
+
+  // the type tags (stored in the reference slot of primitive values)
+  public static final Object INT = new Tag("int");
+  public static final Object DOUBLE = new Tag("double");
+  public static final Object BOOL = new Tag("bool");
+
+  // type tag class (only for readable debug output)
+  private static class Tag {
+    private String name;
+    Tag(String name) {
+      this.name = name;
+    }
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+
+  /**
+   * True if the given reference slot holds a primitive type tag.
+   */
+  public static boolean isPrimitive(Object ref) {
+    return ref == INT || ref == DOUBLE || ref == BOOL;
+  }
+
+  /**
+   * Returns the reference slot (type tag or reference) for a boxed
+   * value.
+   */
+  public static Object tagOf(Object value) {
+    if (value instanceof Integer)
+      return INT;
+    else if (value instanceof Double)
+      return DOUBLE;
+    else if (value instanceof Boolean)
+      return BOOL;
+    return value;
+  }
+
+  /**
+   * Returns the primitive bits of a boxed value (0 for references).
+   */
+  public static long bitsOf(Object value) {
+    if (value instanceof Integer)
+      return (Integer)value;
+    else if (value instanceof Double)
+      return Double.doubleToRawLongBits((Double)value);
+    else if (value instanceof Boolean)
+      return (Boolean)value ? 1 : 0;
+    return 0;
+  }
+
+  /**
+   * Returns the boxed form of a value (e.g., for storing in the heap).
+   */
+  public static Object box(Object ref, long bits) {
+    if (ref == INT)
+      return (int)bits;
+    else if (ref == DOUBLE)
+      return Double.longBitsToDouble(bits);
+    else if (ref == BOOL)
+      return bits != 0;
+    return ref;
+  }
+
+  /**
+   * Returns the string form of a value (as written by the VM).
+   */
+  public static String toString(Object ref, long bits) {
+    if (ref == INT)
+      return Integer.toString((int)bits);
+    else if (ref == DOUBLE)
+      return Double.toString(Double.longBitsToDouble(bits));
+    else if (ref == BOOL)
+      return Boolean.toString(bits != 0);
+    return String.valueOf(ref);
+  }
+
+  /**
+   * Returns the bits of the given double value.
+   */
+  public static long bits(double d) {
+    return Double.doubleToRawLongBits(d);
+  }
+
+  /**
+   * Returns the double value with the given bits.
+   */
+  public static double dbl(long bits) {
+    return Double.longBitsToDouble(bits);
+  }
+  
+}
@@ -0,0 +1,213 @@
+/*
+ * File: AotCompilerTest.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Unit tests for the ahead-of-time compiler. Programs are run
+ *       both on the VM and as compiled Java classes to check they
+ *       behave the same (see EngineTest for the shared tests), and the
+ *       generated code is checked.
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+
+
+public class AotCompilerTest extends EngineTest {
+
+  // true if programs are constant folded before they're compiled
+  private boolean fold = false;
+
+  // (with the program's constants folded first if fold is true)
+  private static AotCompiler buildCompiler(String s, boolean fold)
+    throws Exception
+  {
+    TypeInfo typeInfo = new TypeInfo();
+    Program program = check(s, typeInfo);
+    if (fold)
+      program.accept(new ConstantFolder(typeInfo));
+    AotCompiler compiler =
+      new AotCompiler(typeInfo, AotCompiler.DEFAULT_CLASS_NAME);
+    program.accept(compiler);
+    return compiler;
+  }
+
+  private static AotCompiler buildCompiler(String s) throws Exception {
+    return buildCompiler(s, false);
+  }
+
+  // loads compiled classes from memory
+  private static class ClassesLoader extends ClassLoader {
+    private Map<String,byte[]> classes;
+
+    ClassesLoader(Map<String,byte[]> classes) {
+      super(AotCompilerTest.class.getClassLoader());
+      this.classes = classes;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+      byte[] bytes = classes.get(name);
+      if (bytes == null)
+        throw new ClassNotFoundException(name);
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+  // compile the program (folded if fold is true) and run the generated
+  // class, throwing its runtime errors
+  protected void run(String s) throws Throwable {
+    Map<String,byte[]> classes = buildCompiler(s, fold).compile();
+    ClassLoader loader = new ClassesLoader(classes);
+    Class<?> c = loader.loadClass(AotCompiler.DEFAULT_CLASS_NAME);
+    try {
+      c.getMethod("run").invoke(null);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  // (compiled programs report errors as exceptions of their own)
+  protected String engineError(String s) throws Throwable {
+    try {
+      run(s);
+      fail("error not detected");
+    } catch(RuntimeException e) {
+      assertEquals("MyPLError", e.getClass().getSimpleName());
+      return e.getMessage();
+    }
+    return null;
+  }
+
+  protected String errorMessage(String error, String function) {
+    return error;
+  }
+
+
+  //------------------------------------------------------------
+  // Generated code
+  //------------------------------------------------------------
+
+  @Test
+  public void valuesNeverNilAreUnboxed() throws Throwable {
+    String s = buildString
+      ("fun int fib(int n) {",
+       "  if n < 2 {",
+       "    return n",
+       "  }",
+       "  return fib(n - 1) + fib(n - 2)",
+       "}",
+       "fun void main() {",
+       "  var int x = 1",
+       "  var int y = nil",
+       "  print(fib(x + 9))",
+       "  print(y)",
+       "}");
+    runBoth(s);
+    String src = buildCompiler(s).source();
+    assertTrue(src.contains("static int m_fib(int v_n)"));
+    assertTrue(src.contains("int v_x = 1;"));
+    assertTrue(src.contains("Integer v_y = null;"));
+  }
+
+  @Test
+  public void nilFlowsThroughCallsAndFields() throws Throwable {
+    String s = buildString
+      ("type T {",
+       "  var int x = 0",
+       "  var double d = 1.0",
+       "}",
+       "fun int f(int x) {",
+       "  return x",
+       "}",
+       "fun void main() {",
+       "  var t = new T",
+       "  t.x = f(nil)",
+       "  print(t.x)",
+       "  print(t.d)",
+       "  print(f(2))",
+       "}");
+    runBoth(s);
+    String src = buildCompiler(s).source();
+    assertTrue(src.contains("Integer f_x;"));
+    assertTrue(src.contains("double f_d;"));
+    assertTrue(src.contains("static Integer m_f(Integer v_x)"));
+  }
+
+  @Test
+  public void redeclaredVariablesAndEarlyReturns() throws Throwable {
+    // as in the VM, the x declared in the loop replaces the first one
+    // for the rest of the function
+    String s = buildString
+      ("fun int f(int n) {",
+       "  var x = 1",
+       "  for i from 1 upto n {",
+       "    var x = i * 2",
+       "    if x > 6 {",
+       "      return x",
+       "      print(\"unreachable\")",
+       "    }",
+       "  }",
+       "  while true {",
+       "    return x",
+       "  }",
+       "}",
+       "fun void main() {",
+       "  print(f(10))",
+       "  print(f(2))",
+       "}");
+    runBoth(s);
+    assertEquals("84", output.toString());
+  }
+
+  @Test
+  public void writesRunnableJar() throws Throwable {
+    String s = buildString
+      ("fun void main() {",
+       "  print(\"hello\")",
+       "}");
+    File jar = File.createTempFile("mypl", ".jar");
+    jar.deleteOnExit();
+    buildCompiler(s).writeJar(jar.getPath());
+    try (JarFile j = new JarFile(jar)) {
+      Attributes main = j.getManifest().getMainAttributes();
+      assertEquals(AotCompiler.DEFAULT_CLASS_NAME,
+                   main.get(Attributes.Name.MAIN_CLASS));
+    }
+    URL[] urls = {jar.toURI().toURL()};
+    try (URLClassLoader loader = new URLClassLoader(urls, null)) {
+      Class<?> c = loader.loadClass(AotCompiler.DEFAULT_CLASS_NAME);
+      c.getMethod("main", String[].class).invoke(null, (Object)new String[0]);
+    }
+    assertEquals("hello", output.toString());
+  }
+
+  @Test
+  public void foldedInfinityAndNaN() throws Throwable {
+    // (folded doubles that have no Java literal)
+    String s = buildString
+      ("fun void main() {",
+       "  var d = 1.0 / 0.0",
+       "  var n = neg d",
+       "  print(d)",
+       "  print(\" \")",
+       "  print(0.0 / 0.0)",
+       "  print(\" \")",
+       "  print(n)",
+       "}");
+    fold = true;
+    runBoth(s);
+    assertEquals("Infinity NaN -Infinity", output.toString());
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * File: ClosureEngineTest.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Unit tests for the closure engine. Programs are run both on
+ *       the VM and on the engine to check they behave the same (see
+ *       EngineTest for the shared tests).
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class ClosureEngineTest extends EngineTest {
+
+  private static ClosureEngine buildEngine(String s) throws Exception {
+    TypeInfo typeInfo = new TypeInfo();
+    Program program = check(s, typeInfo);
+    ClosureEngine engine = new ClosureEngine(typeInfo);
+    program.accept(engine);
+    return engine;
+  }
+
+  protected void run(String s) throws Throwable {
+    buildEngine(s).run();
+  }
+
+  protected String errorMessage(String error, String function) {
+    return "VM_ERROR: " + error + " (in " + function + ")";
+  }
+
+
+  //------------------------------------------------------------
+  // Stack size
+  //------------------------------------------------------------
+
+  @Test
+  public void recursionDepthDependsOnStackSize() throws Throwable {
+    String s = buildString
+      ("fun int sum(int n) {",
+       "  if n == 0 {",
+       "    return 0",
+       "  }",
+       "  return n + sum(n - 1)",
+       "}",
+       "fun void main() {",
+       "  print(sum(50000))",
+       "}");
+    ClosureEngine engine = buildEngine(s);
+    engine.setStackSize(1 << 20);
+    try {
+      engine.run();
+      fail("error not detected");
+    } catch(MyPLException e) {
+      assertEquals("VM_ERROR: Stack overflow", e.getMessage());
+    }
+    buildEngine(s).run();
+    assertEquals("1250025000", output.toString());
+  }
+
+}
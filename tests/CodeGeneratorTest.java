@@ -8,6 +8,7 @@
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.Test;
 import org.junit.Ignore;
@@ -191,6 +192,32 @@ public class CodeGeneratorTest {
     vm.run();
     assertEquals("-1 -12 -1.25", output.toString());
   } 
+
+  @Test
+  public void typedOperators() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var x = (3 + 4) * 2",
+       "  var y = 1.5 * 2.0",
+       "  var z = \"ab\" + 'c'",
+       "  print(x < 20)",
+       "  print(' ')",
+       "  print(y >= 3.0)",
+       "  print(' ')",
+       "  print(z == \"abc\")",
+       "}");
+    VM vm = buildVM(s);
+    String code = vm.toString();
+    assertTrue(code.contains("IADD"));
+    assertTrue(code.contains("IMUL"));
+    assertTrue(code.contains("DMUL"));
+    assertTrue(code.contains("SCONCAT"));
+    assertTrue(code.contains("ICMPLT"));
+    assertTrue(code.contains("DCMPGE"));
+    assertTrue(code.contains("SCMPEQ"));
+    vm.run();
+    assertEquals("true true true", output.toString());
+  } 
     
   //------------------------------------------------------------
   // Basic Function Calls
@@ -290,6 +317,18 @@ public class CodeGeneratorTest {
     assertEquals("a 8 3 2.5 4 1.25", output.toString());
   }
 
+  @Test
+  public void doubleToInt() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var x = dtoi(3.75)",
+       "  print(x + 1)",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("4", output.toString());
+  }
+
   //------------------------------------------------------------
   // Boolean Expressions
   //------------------------------------------------------------
@@ -912,6 +951,99 @@ public class CodeGeneratorTest {
       // to print message: stdout.println(e.toString());
     }
   }
+
+  @Test
+  public void shortCircuitAndOr() throws Exception {
+    String s = buildString
+      ("fun bool f(string s, bool b) {",
+       "  print(s)",
+       "  return b",
+       "}",
+       "fun void main() {",
+       "  var x = f(\"a\", false) and f(\"b\", true)",
+       "  var y = f(\"c\", true) or f(\"d\", true)",
+       "  var z = f(\"e\", false) or f(\"f\", true)",
+       "  var w = not f(\"g\", true) and f(\"h\", true)",
+       "  print(x)",
+       "  print(y)",
+       "  print(z)",
+       "  print(w)",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("acefghfalsetruetruefalse", output.toString());
+  }
+
+  @Test
+  public void shortCircuitConditions() throws Exception {
+    String s = buildString
+      ("fun bool f(string s, bool b) {",
+       "  print(s)",
+       "  return b",
+       "}",
+       "fun void main() {",
+       "  if f(\"a\", true) or f(\"b\", true) {",
+       "    print(\"1\")",
+       "  }",
+       "  if f(\"c\", false) and f(\"d\", true) {",
+       "    print(\"2\")",
+       "  }",
+       "  if (f(\"e\", false) or f(\"f\", true)) and f(\"g\", true) {",
+       "    print(\"3\")",
+       "  }",
+       "  var i = 0",
+       "  while (i < 2) and f(\"w\", true) {",
+       "    i = i + 1",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("a1cefg3ww", output.toString());
+  }
+
+  @Test
+  public void nilConditionOperand() throws Exception {
+    // (the jumps taken for and/or still report a nil operand)
+    String s = buildString
+      ("fun void main() {",
+       "  var bool b = nil",
+       "  if b or true {",
+       "    print(\"no\")",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    try {
+      vm.run();
+      fail("runtime error not detected");
+    } catch(MyPLException e) {
+      assertTrue(e.getMessage().startsWith("VM_ERROR: Nil reference"));
+    }
+  }
+
+  @Test
+  public void multipleElifs() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  for i from 1 upto 4 {",
+       "    if i == 1 {",
+       "      print(\"a\")",
+       "    }",
+       "    elif i == 2 {",
+       "      print(\"b\")",
+       "    }",
+       "    elif i == 3 {",
+       "      print(\"c\")",
+       "    }",
+       "    else {",
+       "      print(\"d\")",
+       "    }",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("abcd", output.toString());
+  }
+
   
   
 }
@@ -0,0 +1,300 @@
+/*
+ * File: ConstantFolderTest.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Unit tests for constant folding and propagation. The folded
+ *       programs are also run to check that they still behave the
+ *       same.
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+
+public class ConstantFolderTest {
+
+  private PrintStream stdout = System.out;
+  private ByteArrayOutputStream output = new ByteArrayOutputStream(); 
+
+  @Before
+  public void changeSystemOut() {
+    // redirect System.out to output
+    System.setOut(new PrintStream(output));
+  }
+
+  @After
+  public void restoreSystemOut() {
+    // reset System.out to standard out
+    System.setOut(stdout);
+  }
+
+  //------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //------------------------------------------------------------
+  
+  private static VM buildVM(String s) throws Exception {
+    InputStream in = new ByteArrayInputStream(s.getBytes("UTF-8"));
+    ASTParser parser = new ASTParser(new Lexer(in));
+    Program program = parser.parse();
+    TypeInfo  typeInfo = new TypeInfo();
+    program.accept(new StaticChecker(typeInfo));
+    program.accept(new ConstantFolder(typeInfo));
+    VM vm = new VM();
+    CodeGenerator genVisitor = new CodeGenerator(typeInfo, vm);
+    program.accept(genVisitor);
+    return vm;
+  }
+
+  private static String buildString(String... args) {
+    String str = "";
+    for (String s : args)
+      str += s + "\n";
+    return str;
+  }
+
+
+  //------------------------------------------------------------
+  // Folding expressions
+  //------------------------------------------------------------
+
+  @Test
+  public void foldArithmetic() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  print(3 * (4 + 2))",
+       "  print(' ')",
+       "  print(7.5 / 2.5)",
+       "  print(' ')",
+       "  print(neg (2 - 5))",
+       "  print(' ')",
+       "  print(17 % 5)",
+       "}");
+    VM vm = buildVM(s);
+    String code = vm.toString();
+    assertTrue(code.contains("PUSH 18"));
+    assertFalse(code.contains("MUL"));
+    assertFalse(code.contains("NEG"));
+    vm.run();
+    assertEquals("18 3.0 3 2", output.toString());
+  }
+
+  @Test
+  public void foldIntOverflow() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  print(2147483647 + 1)",
+       "}");
+    VM vm = buildVM(s);
+    assertFalse(vm.toString().contains("ADD"));
+    vm.run();
+    assertEquals("-2147483648", output.toString());
+  }
+
+  @Test
+  public void foldStringsAndComparisons() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  print(\"ab\" + ('c' + \"d\"))",
+       "  print(' ')",
+       "  print(\"abc\" < \"abd\")",
+       "  print(' ')",
+       "  print(not (2.5 >= 3.0))",
+       "  print(' ')",
+       "  print(true and (false or true))",
+       "}");
+    VM vm = buildVM(s);
+    String code = vm.toString();
+    assertFalse(code.contains("CONCAT"));
+    assertFalse(code.contains("CMP"));
+    assertFalse(code.contains("NOT"));
+    vm.run();
+    assertEquals("abcd true true true", output.toString());
+  }
+
+  @Test
+  public void divisionByZeroNotFolded() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  print(1 / 0)",
+       "}");
+    VM vm = buildVM(s);
+    assertTrue(vm.toString().contains("DIV"));
+  }
+
+  @Test
+  public void nilNotFolded() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var int x = nil",
+       "  print(3 + x)",
+       "}");
+    VM vm = buildVM(s);
+    try {
+      vm.run();
+      fail("runtime error not detected");
+    } catch(MyPLException e) {
+    }
+  }
+
+
+  //------------------------------------------------------------
+  // Propagating constants
+  //------------------------------------------------------------
+
+  @Test
+  public void propagateConstantVariables() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var n = 2 * 5",
+       "  var m = n + 1",
+       "  print(m * n)",
+       "}");
+    VM vm = buildVM(s);
+    assertTrue(vm.toString().contains("PUSH 110"));
+    vm.run();
+    assertEquals("110", output.toString());
+  }
+
+  @Test
+  public void assignedVariablesNotPropagated() throws Exception {
+    String s = buildString
+      ("fun int f(int p) {",
+       "  return p + 1",
+       "}",
+       "fun void main() {",
+       "  var x = 1",
+       "  var y = 2",
+       "  for i from 1 upto 3 {",
+       "    x = x + i",
+       "  }",
+       "  print(x + y)",
+       "  print(f(y))",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("93", output.toString());
+  }
+
+  @Test
+  public void redeclaredVariablesNotPropagated() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var i = 0",
+       "  while i < 2 {",
+       "    var x = 5",
+       "    print(x)",
+       "    i = i + 1",
+       "  }",
+       "  if i == 2 {",
+       "    var x = 6",
+       "    print(x)",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("556", output.toString());
+  }
+
+
+  //------------------------------------------------------------
+  // Simplifying conditions
+  //------------------------------------------------------------
+
+  @Test
+  public void constantIfBranches() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var debug = false",
+       "  var x = 3",
+       "  if debug {",
+       "    print(\"debug\")",
+       "  }",
+       "  elif x > 1 {",
+       "    print(\"big\")",
+       "  }",
+       "  else {",
+       "    print(\"small\")",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    String code = vm.toString();
+    assertFalse(code.contains("JMP"));
+    assertFalse(code.contains("debug"));
+    vm.run();
+    assertEquals("big", output.toString());
+  }
+
+  @Test
+  public void partlyConstantIfBranches() throws Exception {
+    String s = buildString
+      ("fun void f(int x) {",
+       "  if false {",
+       "    print(\"no\")",
+       "  }",
+       "  elif x > 1 {",
+       "    print(\"big\")",
+       "  }",
+       "  elif true {",
+       "    print(\"small\")",
+       "  }",
+       "  else {",
+       "    print(\"never\")",
+       "  }",
+       "}",
+       "fun void main() {",
+       "  f(2)",
+       "  f(1)",
+       "}");
+    VM vm = buildVM(s);
+    String code = vm.toString();
+    assertFalse(code.contains("no"));
+    assertFalse(code.contains("never"));
+    vm.run();
+    assertEquals("bigsmall", output.toString());
+  }
+
+  @Test
+  public void constantReturnBranch() throws Exception {
+    String s = buildString
+      ("fun int f() {",
+       "  if 1 < 2 {",
+       "    return 4",
+       "  }",
+       "  return 5",
+       "}",
+       "fun void main() {",
+       "  print(f())",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("4", output.toString());
+  }
+
+  @Test
+  public void falseWhileRemoved() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var done = true",
+       "  while not done {",
+       "    print(\"loop\")",
+       "  }",
+       "  print(\"done\")",
+       "}");
+    VM vm = buildVM(s);
+    assertFalse(vm.toString().contains("JMPF"));
+    vm.run();
+    assertEquals("done", output.toString());
+  }
+
+}
@@ -0,0 +1,386 @@
+/*
+ * File: EngineTest.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Unit tests shared by the engines that run checked programs
+ *       other than on the VM (the closure engine, the specializing
+ *       interpreter, the ahead-of-time compiler, and the register
+ *       machine). Each program is run on the VM and on the engine to
+ *       check they behave the same. Each engine's test class extends
+ *       this one, saying how to run a program on the engine and how
+ *       the engine reports runtime errors, and adds tests of its own.
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+
+public abstract class EngineTest {
+
+  private PrintStream stdout = System.out;
+  protected ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+  @Before
+  public void changeSystemOut() {
+    // redirect System.out to output
+    System.setOut(new PrintStream(output));
+  }
+
+  @After
+  public void restoreSystemOut() {
+    // reset System.out to standard out
+    System.setOut(stdout);
+  }
+
+  //------------------------------------------------------------
+  // ENGINE FUNCTIONS
+  //------------------------------------------------------------
+
+  // run the (unchecked) program on the engine, throwing its runtime
+  // errors
+  protected abstract void run(String s) throws Throwable;
+
+  // the start of the message the engine reports for the given runtime
+  // error in the given function
+  protected abstract String errorMessage(String error, String function);
+
+  //------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //------------------------------------------------------------
+
+  protected static Program check(String s, TypeInfo typeInfo)
+    throws Exception
+  {
+    InputStream in = new ByteArrayInputStream(s.getBytes("UTF-8"));
+    ASTParser parser = new ASTParser(new Lexer(in));
+    Program program = parser.parse();
+    program.accept(new StaticChecker(typeInfo));
+    return program;
+  }
+
+  protected static VM buildVM(String s) throws Exception {
+    TypeInfo typeInfo = new TypeInfo();
+    Program program = check(s, typeInfo);
+    VM vm = new VM();
+    program.accept(new CodeGenerator(typeInfo, vm));
+    return vm;
+  }
+
+  protected static String buildString(String... args) {
+    String str = "";
+    for (String s : args)
+      str += s + "\n";
+    return str;
+  }
+
+  // run the program on the VM and then on the engine, checking that
+  // the output is the same
+  protected void runBoth(String s) throws Throwable {
+    buildVM(s).run();
+    String expected = output.toString();
+    output.reset();
+    run(s);
+    assertEquals(expected, output.toString());
+  }
+
+  // run the program on the engine, returning its error message
+  protected String engineError(String s) throws Throwable {
+    try {
+      run(s);
+      fail("error not detected");
+    } catch(MyPLException e) {
+      return e.getMessage();
+    }
+    return null;
+  }
+
+  // check that running the program on the engine stops with the given
+  // runtime error in the given function
+  protected void assertError(String s, String error, String function)
+    throws Throwable
+  {
+    String message = engineError(s);
+    String expected = errorMessage(error, function);
+    assertTrue(message + " doesn't start with " + expected,
+               message.startsWith(expected));
+  }
+
+
+  //------------------------------------------------------------
+  // Basic values and operators
+  //------------------------------------------------------------
+
+  @Test
+  public void intArithmeticAndLoops() throws Throwable {
+    String s = buildString
+      ("fun void main() {",
+       "  var s = 0",
+       "  for i from 1 upto 100 {",
+       "    var j = i",
+       "    while j > 0 {",
+       "      s = s + ((i * j) % 7) - (j / 3)",
+       "      j = j - 1",
+       "    }",
+       "  }",
+       "  for k from 3 downto 1 {",
+       "    print(k)",
+       "  }",
+       "  print(\" \")",
+       "  print(s)",
+       "  print(\" \")",
+       "  print(neg s)",
+       "}");
+    runBoth(s);
+    assertTrue(output.toString().startsWith("321 "));
+  }
+
+  @Test
+  public void doublesBoolsAndStrings() throws Throwable {
+    String s = buildString
+      ("fun void main() {",
+       "  var x = 0.5",
+       "  var b = false",
+       "  var str = \"\"",
+       "  for i from 1 upto 5 {",
+       "    x = (x * 1.5) - (neg 0.25) / 2.0",
+       "    b = not b",
+       "    if b and (x >= 2.0) {",
+       "      str = str + itos(i)",
+       "    }",
+       "    elif (x == 1.0) or (str != \"\") {",
+       "      print(\"y\")",
+       "    }",
+       "    else {",
+       "      print(\"n\")",
+       "    }",
+       "  }",
+       "  var c = 'a'",
+       "  print(x)",
+       "  print(b)",
+       "  print(str + c)",
+       "  print(str < \"abc\")",
+       "  print(\"a\\tb\\n\")",
+       "}");
+    runBoth(s);
+  }
+
+  @Test
+  public void shortCircuitAndOr() throws Throwable {
+    String s = buildString
+      ("fun bool f(string s, bool b) {",
+       "  print(s)",
+       "  return b",
+       "}",
+       "fun void main() {",
+       "  var b = false",
+       "  print(f(\"a\", false) and f(\"b\", true))",
+       "  print(f(\"c\", true) or f(\"d\", true))",
+       "  print(not (f(\"e\", true) and f(\"f\", true)))",
+       "  if b or (f(\"g\", false) or f(\"h\", true)) {",
+       "    print(\"i\")",
+       "  }",
+       "  while b and f(\"j\", true) {",
+       "  }",
+       "  print(true and b)",
+       "}");
+    runBoth(s);
+  }
+
+  @Test
+  public void nilAndOrOperands() throws Throwable {
+    // (a nil operand of and/or is an error, not false)
+    String[] uses = {"if n or true {", "while true and n {",
+                     "print(false or n)", "print(n and false)"};
+    for (String use : uses) {
+      String s = buildString
+        ("fun void main() {",
+         "  var bool n = nil",
+         "  " + use,
+         use.endsWith("{") ? "  }" : "",
+         "}");
+      assertError(s, "Nil reference", "main");
+    }
+  }
+
+  @Test
+  public void builtIns() throws Throwable {
+    String s = buildString
+      ("fun void main() {",
+       "  var str = \"12.5\"",
+       "  print(length(str))",
+       "  print(get(1, str))",
+       "  print(stoi(\"42\") + 1)",
+       "  print(stod(str) * 2.0)",
+       "  print(itod(3) / 2.0)",
+       "  print(dtoi(3.9))",
+       "  print(dtos(1.5) + itos(2))",
+       "}");
+    runBoth(s);
+  }
+
+  @Test
+  public void nilValues() throws Throwable {
+    String s = buildString
+      ("type T {",
+       "  var int x = 0",
+       "}",
+       "fun int f() {",
+       "  return nil",
+       "}",
+       "fun void g() {",
+       "}",
+       "fun void main() {",
+       "  var int x = nil",
+       "  var T t = nil",
+       "  var string str = nil",
+       "  var bool b = nil",
+       "  print(x == nil)",
+       "  print(x != 1)",
+       "  print(t == nil)",
+       "  print(f())",
+       "  print(g())",
+       "  print(str)",
+       "  if b {",
+       "    print(\"no\")",
+       "  }",
+       "}");
+    runBoth(s);
+  }
+
+
+  //------------------------------------------------------------
+  // Functions and records
+  //------------------------------------------------------------
+
+  @Test
+  public void recursiveCalls() throws Throwable {
+    String s = buildString
+      ("fun int fib(int n) {",
+       "  if n < 2 {",
+       "    return n",
+       "  }",
+       "  return fib(n - 1) + fib(n - 2)",
+       "}",
+       "fun string join(string a, string b, int n) {",
+       "  if n == 0 {",
+       "    return a",
+       "  }",
+       "  return join(a + b, b, n - 1)",
+       "}",
+       "fun void main() {",
+       "  print(fib(20))",
+       "  print(join(\"x\", \"y\", 3))",
+       "}");
+    runBoth(s);
+  }
+
+  @Test
+  public void deepRecursion() throws Throwable {
+    String s = buildString
+      ("fun int sum(int n) {",
+       "  if n == 0 {",
+       "    return 0",
+       "  }",
+       "  return n + sum(n - 1)",
+       "}",
+       "fun void main() {",
+       "  print(sum(20000))",
+       "}");
+    runBoth(s);
+    assertEquals("200010000", output.toString());
+  }
+
+  @Test
+  public void records() throws Throwable {
+    String s = buildString
+      ("type Node {",
+       "  var int val = 0",
+       "  var Node next = nil",
+       "}",
+       "type List {",
+       "  var Node head = nil",
+       "  var size = 0",
+       "}",
+       "fun void main() {",
+       "  var l = new List",
+       "  for i from 1 upto 10 {",
+       "    var n = new Node",
+       "    n.val = i",
+       "    n.next = l.head",
+       "    l.head = n",
+       "    l.size = l.size + 1",
+       "  }",
+       "  l.head.next.val = 100",
+       "  var s = 0",
+       "  var Node curr = l.head",
+       "  while curr != nil {",
+       "    s = s + curr.val",
+       "    curr = curr.next",
+       "  }",
+       "  print(s)",
+       "  print(\" \")",
+       "  print(l.size)",
+       "  print(\" \")",
+       "  print(l)",
+       "  print(\" \")",
+       "  print(l.head)",
+       "}");
+    runBoth(s);
+  }
+
+
+  //------------------------------------------------------------
+  // Runtime errors
+  //------------------------------------------------------------
+
+  @Test
+  public void nilReference() throws Throwable {
+    String s = buildString
+      ("fun int f(int x) {",
+       "  return x + 1",
+       "}",
+       "fun void main() {",
+       "  print(f(nil))",
+       "}");
+    assertError(s, "Nil reference", "f");
+  }
+
+  @Test
+  public void deletedRecord() throws Throwable {
+    String s = buildString
+      ("type T {",
+       "  var int x = 0",
+       "}",
+       "fun void main() {",
+       "  var T t = new T",
+       "  delete t",
+       "  print(t.x)",
+       "}");
+    assertError(s, "invalid heap access", "main");
+  }
+
+  @Test
+  public void badConversionsAndIndexes() throws Throwable {
+    String s = buildString
+      ("fun void main() {",
+       "  print(stoi(\"abc\"))",
+       "}");
+    assertError(s, "incompatible string abc to parse as int", "main");
+    s = buildString
+      ("fun void main() {",
+       "  print(get(3, \"abc\"))",
+       "}");
+    assertError(s, "invalid index 3 for string abc", "main");
+  }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * File: InstructionFuserTest.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Unit tests for the superinstruction fuser. The fused code is
+ *       also run to check that it still behaves the same.
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+
+public class InstructionFuserTest {
+
+  private PrintStream stdout = System.out;
+  private ByteArrayOutputStream output = new ByteArrayOutputStream(); 
+
+  @Before
+  public void changeSystemOut() {
+    // redirect System.out to output
+    System.setOut(new PrintStream(output));
+  }
+
+  @After
+  public void restoreSystemOut() {
+    // reset System.out to standard out
+    System.setOut(stdout);
+  }
+
+  //------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //------------------------------------------------------------
+  
+  private static VM buildVM(String s) throws Exception {
+    InputStream in = new ByteArrayInputStream(s.getBytes("UTF-8"));
+    ASTParser parser = new ASTParser(new Lexer(in));
+    Program program = parser.parse();
+    TypeInfo  typeInfo = new TypeInfo();
+    program.accept(new StaticChecker(typeInfo));
+    VM vm = new VM();
+    CodeGenerator genVisitor = new CodeGenerator(typeInfo, vm);
+    program.accept(genVisitor);
+    return vm;
+  }
+
+  private static String buildString(String... args) {
+    String str = "";
+    for (String s : args)
+      str += s + "\n";
+    return str;
+  }
+
+  // the number of instructions with the given opcode
+  private static int count(VMFrame frame, OpCode op) {
+    int n = 0;
+    for (VMInstr instr : frame.instructions)
+      if (instr.opcode() == op)
+        ++n;
+    return n;
+  }
+
+
+  //------------------------------------------------------------
+  // Individual fusions
+  //------------------------------------------------------------
+
+  @Test
+  public void loopHeaderAndTailFused() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(1));       // 0
+    main.instructions.add(VMInstr.STORE(0));      // 1
+    main.instructions.add(VMInstr.LOAD(0));       // 2
+    main.instructions.add(VMInstr.PUSH(3));       // 3
+    main.instructions.add(VMInstr.ICMPLE());      // 4
+    main.instructions.add(VMInstr.JMPF(13));      // 5
+    main.instructions.add(VMInstr.LOAD(0));       // 6
+    main.instructions.add(VMInstr.WRITE());       // 7
+    main.instructions.add(VMInstr.LOAD(0));       // 8
+    main.instructions.add(VMInstr.PUSH(1));       // 9
+    main.instructions.add(VMInstr.IADD());        // 10
+    main.instructions.add(VMInstr.STORE(0));      // 11
+    main.instructions.add(VMInstr.JMP(2));        // 12
+    main.instructions.add(VMInstr.NOP());         // 13
+    InstructionFuser fuser = new InstructionFuser();
+    fuser.fuse(main);
+    List<VMInstr> code = main.instructions;
+    assertEquals(8, code.size());
+    assertEquals(OpCode.LOAD_PUSH, code.get(2).opcode());
+    assertEquals(OpCode.ICMPLE_JMPF, code.get(3).opcode());
+    assertEquals(7, code.get(3).operand());
+    assertEquals(OpCode.INC_JMP, code.get(6).opcode());
+    assertEquals(List.of(0, 2), code.get(6).operand());
+    assertEquals(1, fuser.fused(InstructionFuser.Fusion.INCREMENT));
+    assertEquals(1, fuser.fused(InstructionFuser.Fusion.INC_JMP));
+    assertEquals(1, fuser.fused(InstructionFuser.Fusion.COMPARE_JUMP));
+    vm.run();
+    assertEquals("123", output.toString());
+  }
+
+  @Test
+  public void loadLoadAdd() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(3));       // 0
+    main.instructions.add(VMInstr.STORE(0));      // 1
+    main.instructions.add(VMInstr.PUSH(4));       // 2
+    main.instructions.add(VMInstr.STORE(1));      // 3
+    main.instructions.add(VMInstr.LOAD(0));       // 4
+    main.instructions.add(VMInstr.LOAD(1));       // 5
+    main.instructions.add(VMInstr.IADD());        // 6
+    main.instructions.add(VMInstr.WRITE());       // 7
+    main.instructions.add(VMInstr.LOAD(0));       // 8
+    main.instructions.add(VMInstr.LOAD(1));       // 9
+    main.instructions.add(VMInstr.IMUL());        // 10
+    main.instructions.add(VMInstr.WRITE());       // 11
+    new InstructionFuser().fuse(main);
+    assertEquals(OpCode.LOAD_LOAD_IADD, main.instructions.get(4).opcode());
+    assertEquals(OpCode.LOAD_LOAD, main.instructions.get(6).opcode());
+    vm.run();
+    assertEquals("712", output.toString());
+  }
+
+  @Test
+  public void jumpTargetsNotFusedInto() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(1));       // 0
+    main.instructions.add(VMInstr.STORE(0));      // 1
+    main.instructions.add(VMInstr.LOAD(0));       // 2
+    main.instructions.add(VMInstr.PUSH(false));   // 3
+    main.instructions.add(VMInstr.JMPF(7));       // 4
+    main.instructions.add(VMInstr.POP());         // 5
+    main.instructions.add(VMInstr.LOAD(0));       // 6
+    main.instructions.add(VMInstr.LOAD(0));       // 7
+    main.instructions.add(VMInstr.WRITE());       // 8
+    main.instructions.add(VMInstr.WRITE());       // 9
+    new InstructionFuser().fuse(main);
+    assertEquals(0, count(main, OpCode.LOAD_LOAD));
+    vm.run();
+    assertEquals("11", output.toString());
+  }
+
+  @Test
+  public void fusedCompareNilCheck() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(VM.NIL_OBJ)); // 0
+    main.instructions.add(VMInstr.PUSH(1));          // 1
+    main.instructions.add(VMInstr.ICMPLT());         // 2
+    main.instructions.add(VMInstr.JMPF(4));          // 3
+    main.instructions.add(VMInstr.NOP());            // 4
+    new InstructionFuser().fuse(main);
+    assertEquals(OpCode.ICMPLT_JMPF, main.instructions.get(2).opcode());
+    try {
+      vm.run();
+      fail("error not detected");
+    } catch(MyPLException e) {
+      assertTrue(e.getMessage().contains("Nil reference"));
+    }
+  }
+
+  
+  //------------------------------------------------------------
+  // Generated code
+  //------------------------------------------------------------
+
+  @Test
+  public void fusedLoops() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var s = 0",
+       "  for i from 1 upto 5 {",
+       "    var j = 0",
+       "    while j < i {",
+       "      s = s + j",
+       "      j = j + 1",
+       "    }",
+       "  }",
+       "  for k from 3 downto 1 {",
+       "    print(k)",
+       "  }",
+       "  print(s)",
+       "}");
+    VM vm = buildVM(s);
+    new PeepholeOptimizer().optimize(vm);
+    VMFrame main = vm.frames().iterator().next();
+    int before = main.instructions.size();
+    InstructionFuser fuser = new InstructionFuser();
+    fuser.fuse(vm);
+    assertTrue(main.instructions.size() < before);
+    assertEquals(2, count(main, OpCode.ICMPLE_JMPF) +
+                 count(main, OpCode.ICMPGE_JMPF));
+    assertEquals(1, count(main, OpCode.DEC_JMP));
+    vm.run();
+    assertEquals("32120", output.toString());
+  }
+
+  @Test
+  public void fusedWithoutPeephole() throws Exception {
+    String s = buildString
+      ("fun int fib(int n) {",
+       "  if n < 2 {",
+       "    return n",
+       "  }",
+       "  return fib(n - 1) + fib(n - 2)",
+       "}",
+       "fun void main() {",
+       "  var x = 0",
+       "  for i from 1 upto 10 {",
+       "    x = x + fib(i)",
+       "    if x == 20 {",
+       "      print(\"twenty \")",
+       "    }",
+       "  }",
+       "  print(x)",
+       "}");
+    VM vm = buildVM(s);
+    InstructionFuser fuser = new InstructionFuser();
+    fuser.fuse(vm);
+    assertTrue(fuser.fused(InstructionFuser.Fusion.INCREMENT) > 0);
+    vm.run();
+    assertEquals("twenty 143", output.toString());
+  }
+
+}
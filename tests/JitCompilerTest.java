@@ -0,0 +1,448 @@
+/*
+ * File: JitCompilerTest.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Unit tests for the JIT compiler. Programs are run both
+ *       interpreted and compiled to check they behave the same.
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+
+public class JitCompilerTest {
+
+  private PrintStream stdout = System.out;
+  private ByteArrayOutputStream output = new ByteArrayOutputStream(); 
+
+  @Before
+  public void changeSystemOut() {
+    // redirect System.out to output
+    System.setOut(new PrintStream(output));
+  }
+
+  @After
+  public void restoreSystemOut() {
+    // reset System.out to standard out
+    System.setOut(stdout);
+  }
+
+  //------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //------------------------------------------------------------
+  
+  private static VM buildVM(String s) throws Exception {
+    InputStream in = new ByteArrayInputStream(s.getBytes("UTF-8"));
+    ASTParser parser = new ASTParser(new Lexer(in));
+    Program program = parser.parse();
+    TypeInfo  typeInfo = new TypeInfo();
+    program.accept(new StaticChecker(typeInfo));
+    VM vm = new VM();
+    CodeGenerator genVisitor = new CodeGenerator(typeInfo, vm);
+    program.accept(genVisitor);
+    return vm;
+  }
+
+  private static String buildString(String... args) {
+    String str = "";
+    for (String s : args)
+      str += s + "\n";
+    return str;
+  }
+
+  // run the program interpreted and then compiled, checking that the
+  // output is the same, and returning the compiled VM
+  private VM runBoth(String s) throws Exception {
+    buildVM(s).run();
+    String expected = output.toString();
+    output.reset();
+    VM vm = buildVM(s);
+    vm.setJit(true);
+    vm.run();
+    assertEquals(expected, output.toString());
+    return vm;
+  }
+
+  // run the program interpreted and then with tiered execution,
+  // checking that the output is the same, and returning the tiered VM
+  private VM runTiered(String s, int threshold) throws Exception {
+    buildVM(s).run();
+    String expected = output.toString();
+    output.reset();
+    VM vm = buildVM(s);
+    vm.setTierThreshold(threshold);
+    vm.run();
+    assertEquals(expected, output.toString());
+    return vm;
+  }
+
+  
+  //------------------------------------------------------------
+  // Compiled code
+  //------------------------------------------------------------
+
+  @Test
+  public void intLoops() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var s = 0",
+       "  for i from 1 upto 100 {",
+       "    var j = i",
+       "    while j > 0 {",
+       "      s = s + ((i * j) % 7) - (j / 3)",
+       "      j = j - 1",
+       "    }",
+       "  }",
+       "  for k from 3 downto 1 {",
+       "    print(k)",
+       "  }",
+       "  print(\" \")",
+       "  print(s)",
+       "}");
+    VM vm = runBoth(s);
+    assertEquals("jit: compiled 1 function(s), interpreted 0", vm.jitStats());
+  }
+
+  @Test
+  public void doublesBoolsAndStrings() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var x = 0.5",
+       "  var b = false",
+       "  var str = \"\"",
+       "  for i from 1 upto 5 {",
+       "    x = (x * 1.5) - (neg 0.25)",
+       "    b = not b",
+       "    if b and (x >= 2.0) {",
+       "      str = str + itos(i)",
+       "    }",
+       "    if (x == 1.0) or (str != \"\") {",
+       "      print(\"y\")",
+       "    }",
+       "  }",
+       "  print(x)",
+       "  print(b)",
+       "  print(str)",
+       "}");
+    runBoth(s);
+  }
+
+  @Test
+  public void recursiveCalls() throws Exception {
+    String s = buildString
+      ("fun int fib(int n) {",
+       "  if n < 2 {",
+       "    return n",
+       "  }",
+       "  return fib(n - 1) + fib(n - 2)",
+       "}",
+       "fun void main() {",
+       "  print(fib(15))",
+       "}");
+    VM vm = runBoth(s);
+    assertEquals("jit: compiled 2 function(s), interpreted 0", vm.jitStats());
+  }
+
+  @Test
+  public void records() throws Exception {
+    String s = buildString
+      ("type Node {",
+       "  var int val = 0",
+       "  var Node next = nil",
+       "}",
+       "fun void main() {",
+       "  var Node head = nil",
+       "  for i from 1 upto 10 {",
+       "    var n = new Node",
+       "    n.val = i",
+       "    n.next = head",
+       "    head = n",
+       "  }",
+       "  var s = 0",
+       "  var Node curr = head",
+       "  while curr != nil {",
+       "    s = s + curr.val",
+       "    curr = curr.next",
+       "  }",
+       "  delete head",
+       "  print(s)",
+       "}");
+    runBoth(s);
+  }
+
+  @Test
+  public void garbageCollectedFromCompiledCode() throws Exception {
+    String s = buildString
+      ("type Node {",
+       "  var int val = 0",
+       "  var Node next = nil",
+       "}",
+       "fun Node push(Node head, int val) {",
+       "  var n = new Node",
+       "  n.val = val",
+       "  n.next = head",
+       "  return n",
+       "}",
+       "fun void main() {",
+       "  var s = 0",
+       "  for k from 1 upto 20 {",
+       "    var Node head = nil",
+       "    for i from 1 upto 50 {",
+       "      head = push(head, i)",
+       "    }",
+       "    while head != nil {",
+       "      s = s + head.val",
+       "      head = head.next",
+       "    }",
+       "  }",
+       "  print(s)",
+       "}");
+    VM vm = buildVM(s);
+    vm.setJit(true);
+    vm.setGCThreshold(30);
+    vm.run();
+    assertEquals("25500", output.toString());
+    assertFalse(vm.gcStats().startsWith("GC: 0 collections"));
+  }
+
+  
+  //------------------------------------------------------------
+  // Falling back to the interpreter
+  //------------------------------------------------------------
+
+  @Test
+  public void unsupportedFunctionsInterpreted() throws Exception {
+    String s = buildString
+      ("fun int parse(string s) {",
+       "  return stoi(s) + length(s)",
+       "}",
+       "fun int twice(int x) {",
+       "  return x + x",
+       "}",
+       "fun void main() {",
+       "  var s = 0",
+       "  for i from 1 upto 3 {",
+       "    s = s + twice(parse(itos(i)))",
+       "  }",
+       "  print(s)",
+       "}");
+    VM vm = runBoth(s);
+    assertEquals("jit: compiled 2 function(s), interpreted 1", vm.jitStats());
+  }
+
+  @Test
+  public void deepRecursion() throws Exception {
+    String s = buildString
+      ("fun int sum(int n) {",
+       "  if n == 0 {",
+       "    return 0",
+       "  }",
+       "  return n + sum(n - 1)",
+       "}",
+       "fun void main() {",
+       "  print(sum(20000))",
+       "}");
+    runBoth(s);
+    assertTrue(output.toString().equals("200010000"));
+  }
+
+  @Test
+  public void runOffEndNotCompiled() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH("a"));
+    main.instructions.add(VMInstr.WRITE());
+    vm.setJit(true);
+    vm.run();
+    assertEquals("a", output.toString());
+    assertEquals("jit: compiled 0 function(s), interpreted 1", vm.jitStats());
+  }
+
+  @Test
+  public void runtimeErrorsMatchInterpreter() throws Exception {
+    String s = buildString
+      ("type T {",
+       "  var int x = 0",
+       "}",
+       "fun void main() {",
+       "  var T t = new T",
+       "  var int y = t.x",
+       "  delete t",
+       "  print(t.x + y)",
+       "}");
+    String expected = null;
+    try {
+      buildVM(s).run();
+      fail("error not detected");
+    } catch(MyPLException e) {
+      expected = e.getMessage();
+    }
+    VM vm = buildVM(s);
+    vm.setJit(true);
+    try {
+      vm.run();
+      fail("error not detected");
+    } catch(MyPLException e) {
+      assertEquals(expected, e.getMessage());
+    }
+    assertFalse(vm.jitStats().contains("compiled 0"));
+  }
+
+  
+  //------------------------------------------------------------
+  // Tiered execution
+  //------------------------------------------------------------
+
+  @Test
+  public void coldFunctionsStayInterpreted() throws Exception {
+    String s = buildString
+      ("fun int twice(int x) {",
+       "  return x + x",
+       "}",
+       "fun void main() {",
+       "  for i from 1 upto 3 {",
+       "    print(twice(i))",
+       "  }",
+       "}");
+    VM vm = runTiered(s, 100);
+    assertEquals("jit: compiled 0 function(s), interpreted 2, " +
+                 "entered 0 hot loop(s)", vm.jitStats());
+  }
+
+  @Test
+  public void hotFunctionsCompiled() throws Exception {
+    String s = buildString
+      ("fun int twice(int x) {",
+       "  return x + x",
+       "}",
+       "fun void main() {",
+       "  var s = 0",
+       "  s = s + twice(1) + twice(2) + twice(3) + twice(4) + twice(5)",
+       "  s = s + twice(6) + twice(7) + twice(8) + twice(9) + twice(10)",
+       "  print(s)",
+       "}");
+    VM vm = runTiered(s, 5);
+    assertEquals("jit: compiled 1 function(s), interpreted 1, " +
+                 "entered 0 hot loop(s)", vm.jitStats());
+    // the last calls ran compiled
+    VM interpreted = buildVM(s);
+    interpreted.run();
+    assertTrue(vm.instructionCount() < interpreted.instructionCount());
+  }
+
+  @Test
+  public void hotLoopContinuesCompiled() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var s = 0",
+       "  for i from 1 upto 100 {",
+       "    var j = i",
+       "    while j > 0 {",
+       "      s = s + (j % 3)",
+       "      j = j - 1",
+       "    }",
+       "  }",
+       "  print(s)",
+       "}");
+    VM vm = runTiered(s, 50);
+    assertEquals("jit: compiled 1 function(s), interpreted 0, " +
+                 "entered 1 hot loop(s)", vm.jitStats());
+    assertTrue(vm.instructionCount() < 1000);
+  }
+
+  @Test
+  public void hotLoopReturnsToInterpretedCaller() throws Exception {
+    String s = buildString
+      ("fun int sum(int n) {",
+       "  var s = 0",
+       "  var i = 0",
+       "  while i < n {",
+       "    i = i + 1",
+       "    s = s + i",
+       "  }",
+       "  return s",
+       "}",
+       "fun void main() {",
+       "  var x = sum(100)",
+       "  print(x + sum(3))",
+       "  print(\" \")",
+       "  print(sum(x))",
+       "}");
+    VM vm = runTiered(s, 20);
+    assertEquals("5056 12753775", output.toString());
+    assertEquals("jit: compiled 1 function(s), interpreted 1, " +
+                 "entered 1 hot loop(s)", vm.jitStats());
+  }
+
+  @Test
+  public void hotFusedLoopsContinueCompiled() throws Exception {
+    String s = buildString
+      ("fun int count(int n) {",
+       "  var c = 0",
+       "  for i from n downto 1 {",
+       "    for j from 1 upto i {",
+       "      c = c + 1",
+       "    }",
+       "  }",
+       "  return c",
+       "}",
+       "fun void main() {",
+       "  print(count(30) + count(40))",
+       "}");
+    buildVM(s).run();
+    String expected = output.toString();
+    output.reset();
+    VM vm = buildVM(s);
+    new PeepholeOptimizer().optimize(vm);
+    new InstructionFuser().fuse(vm);
+    vm.setTierThreshold(100);
+    vm.run();
+    assertEquals(expected, output.toString());
+    assertEquals("jit: compiled 1 function(s), interpreted 1, " +
+                 "entered 1 hot loop(s)", vm.jitStats());
+  }
+
+  @Test
+  public void hotUnsupportedFunctionsStayInterpreted() throws Exception {
+    String s = buildString
+      ("fun int parse(string s) {",
+       "  return stoi(s) + length(s)",
+       "}",
+       "fun void main() {",
+       "  var s = 0",
+       "  for i from 1 upto 30 {",
+       "    s = s + parse(itos(i))",
+       "  }",
+       "  print(s)",
+       "}");
+    VM vm = runTiered(s, 10);
+    assertEquals("jit: compiled 1 function(s), interpreted 1, " +
+                 "entered 1 hot loop(s)", vm.jitStats());
+  }
+
+  @Test
+  public void functionsTooLargeStayInterpreted() throws Exception {
+    // (main's code doesn't fit in a JVM method)
+    String[] lines = new String[4003];
+    lines[0] = "fun void main() {";
+    lines[1] = "  var s = 0";
+    for (int i = 2; i < lines.length - 1; ++i)
+      lines[i] = "  s = (s * 3) + " + i;
+    lines[lines.length - 1] = "}";
+    VM vm = runBoth(buildString(lines));
+    assertEquals("jit: compiled 0 function(s), interpreted 1", vm.jitStats());
+  }
+
+}
@@ -11,6 +11,8 @@ import org.junit.Ignore;
 import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 
 public class LexerTest {
@@ -223,6 +225,20 @@ public class LexerTest {
     t = lexer.nextToken();
     assertEquals(TokenType.EOS, t.type());
   }
+
+  @Test
+  public void checkIdentifiersCloseToReservedWords() throws Exception {
+    String s = "vars iff doubles fo nil_ elsf dwnto Int trues falsey " +
+      "retur nneg or1 anda";
+    InputStream in = new ByteArrayInputStream(s.getBytes("UTF-8"));
+    Lexer lexer = new Lexer(in);
+    for (String word : s.split(" ")) {
+      Token t = lexer.nextToken();
+      assertEquals(TokenType.ID, t.type());
+      assertEquals(word, t.lexeme());
+    }
+    assertEquals(TokenType.EOS, lexer.nextToken().type());
+  }
   
 
   //------------------------------------------------------------
@@ -445,4 +461,72 @@ public class LexerTest {
     assertEquals(1, t.column());
   }
 
+
+  /* Tests for the buffered lexer */
+
+  @Test
+  public void lexemesLongerThanTheInitialBuffer() throws Exception {
+    String id = "x".repeat(10000);
+    String str = "y".repeat(20000);
+    String s = "var " + id + " = \"" + str + "\"\n" + id;
+    InputStream in = new ByteArrayInputStream(s.getBytes("UTF-8"));
+    Lexer lexer = new Lexer(in);
+    assertEquals(TokenType.VAR, lexer.nextToken().type());
+    Token t = lexer.nextToken();
+    assertEquals(TokenType.ID, t.type());
+    assertEquals(id, t.lexeme());
+    assertEquals(5, t.column());
+    assertEquals(TokenType.ASSIGN, lexer.nextToken().type());
+    t = lexer.nextToken();
+    assertEquals(TokenType.STRING_VAL, t.type());
+    assertEquals(str, t.lexeme());
+    assertEquals(10008, t.column());
+    t = lexer.nextToken();
+    assertEquals(id, t.lexeme());
+    assertEquals(2, t.line());
+    assertEquals(1, t.column());
+    assertEquals(TokenType.EOS, lexer.nextToken().type());
+  }
+
+  @Test
+  public void mappedFilesGiveTheSameTokens() throws Exception {
+    String s = "fun int f(int x) {\n  # comment\n" +
+      "  return x * 2.5 + \"a b\"\n}\n\ttype_x != 0";
+    Path file = Files.createTempFile("lexer-test", ".mypl");
+    try {
+      Files.write(file, s.getBytes("UTF-8"));
+      Lexer mapped = new Lexer(file);
+      Lexer lexer = new Lexer(new ByteArrayInputStream(s.getBytes("UTF-8")));
+      Token t;
+      do {
+        t = lexer.nextToken();
+        assertEquals(t.toString(), mapped.nextToken().toString());
+      } while (t.type() != TokenType.EOS);
+    }
+    finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void mappedFilesAreDecodedAsUTF8() throws Exception {
+    String s = "\"h\u00e9llo\" # caf\u00e9\n  x";
+    Path file = Files.createTempFile("lexer-test", ".mypl");
+    try {
+      Files.write(file, s.getBytes("UTF-8"));
+      Lexer lexer = new Lexer(file);
+      Token t = lexer.nextToken();
+      assertEquals(TokenType.STRING_VAL, t.type());
+      assertEquals("h\u00e9llo", t.lexeme());
+      t = lexer.nextToken();
+      assertEquals("x", t.lexeme());
+      assertEquals(2, t.line());
+      assertEquals(3, t.column());
+      assertEquals(TokenType.EOS, lexer.nextToken().type());
+    }
+    finally {
+      Files.delete(file);
+    }
+  }
+
 }
@@ -0,0 +1,284 @@
+/*
+ * File: PeepholeOptimizerTest.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Unit tests for the peephole optimizer. The optimized code is
+ *       also run to check that it still behaves the same.
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.EnumSet;
+
+
+public class PeepholeOptimizerTest {
+
+  private PrintStream stdout = System.out;
+  private ByteArrayOutputStream output = new ByteArrayOutputStream(); 
+
+  @Before
+  public void changeSystemOut() {
+    // redirect System.out to output
+    System.setOut(new PrintStream(output));
+  }
+
+  @After
+  public void restoreSystemOut() {
+    // reset System.out to standard out
+    System.setOut(stdout);
+  }
+
+  //------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //------------------------------------------------------------
+  
+  private static VM buildVM(String s) throws Exception {
+    InputStream in = new ByteArrayInputStream(s.getBytes("UTF-8"));
+    ASTParser parser = new ASTParser(new Lexer(in));
+    Program program = parser.parse();
+    TypeInfo  typeInfo = new TypeInfo();
+    program.accept(new StaticChecker(typeInfo));
+    VM vm = new VM();
+    CodeGenerator genVisitor = new CodeGenerator(typeInfo, vm);
+    program.accept(genVisitor);
+    return vm;
+  }
+
+  private static String buildString(String... args) {
+    String str = "";
+    for (String s : args)
+      str += s + "\n";
+    return str;
+  }
+
+  // the number of instructions with the given opcode
+  private static int count(VMFrame frame, OpCode op) {
+    int n = 0;
+    for (VMInstr instr : frame.instructions)
+      if (instr.opcode() == op)
+        ++n;
+    return n;
+  }
+
+
+  //------------------------------------------------------------
+  // Individual rules
+  //------------------------------------------------------------
+
+  @Test
+  public void nopRemovalFixesJumps() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(false));   // 0
+    main.instructions.add(VMInstr.JMPF(4));       // 1
+    main.instructions.add(VMInstr.PUSH("a"));     // 2
+    main.instructions.add(VMInstr.WRITE());       // 3
+    main.instructions.add(VMInstr.NOP());         // 4
+    main.instructions.add(VMInstr.NOP());         // 5
+    main.instructions.add(VMInstr.PUSH("b"));     // 6
+    main.instructions.add(VMInstr.WRITE());       // 7
+    PeepholeOptimizer optimizer =
+      new PeepholeOptimizer(EnumSet.of(PeepholeOptimizer.Rule.NOP));
+    optimizer.optimize(main);
+    assertEquals(6, main.instructions.size());
+    assertEquals(4, main.instructions.get(1).operand());
+    assertEquals(2, optimizer.removed(PeepholeOptimizer.Rule.NOP));
+    vm.run();
+    assertEquals("b", output.toString());
+  }
+
+  @Test
+  public void nopAtEndOfCode() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(false));   // 0
+    main.instructions.add(VMInstr.JMPF(4));       // 1
+    main.instructions.add(VMInstr.PUSH("a"));     // 2
+    main.instructions.add(VMInstr.WRITE());       // 3
+    main.instructions.add(VMInstr.NOP());         // 4
+    new PeepholeOptimizer().optimize(main);
+    assertEquals(4, main.instructions.size());
+    assertEquals(4, main.instructions.get(1).operand());
+    vm.run();
+    assertEquals("", output.toString());
+  }
+
+  @Test
+  public void jumpChainsThreaded() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.JMP(2));        // 0
+    main.instructions.add(VMInstr.JMP(5));        // 1
+    main.instructions.add(VMInstr.JMP(1));        // 2
+    main.instructions.add(VMInstr.PUSH("a"));     // 3
+    main.instructions.add(VMInstr.WRITE());       // 4
+    main.instructions.add(VMInstr.PUSH("b"));     // 5
+    main.instructions.add(VMInstr.WRITE());       // 6
+    PeepholeOptimizer optimizer =
+      new PeepholeOptimizer(EnumSet.of(PeepholeOptimizer.Rule.JUMP));
+    optimizer.optimize(main);
+    assertEquals(OpCode.JMP, main.instructions.get(0).opcode());
+    assertEquals(5, main.instructions.get(0).operand());
+    assertTrue(optimizer.threaded() > 0);
+    vm.run();
+    assertEquals("b", output.toString());
+  }
+
+  @Test
+  public void jumpCycleLeftAlone() throws Exception {
+    VMFrame main = new VMFrame("main", 0);
+    main.instructions.add(VMInstr.JMP(2));        // 0
+    main.instructions.add(VMInstr.JMP(2));        // 1
+    main.instructions.add(VMInstr.JMP(1));        // 2
+    new PeepholeOptimizer().optimize(main);
+    // the (infinite) loop is kept
+    assertTrue(main.instructions.size() > 0);
+    for (VMInstr instr : main.instructions)
+      assertEquals(OpCode.JMP, instr.opcode());
+  }
+
+  @Test
+  public void pushPopRemoved() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(1));
+    main.instructions.add(VMInstr.PUSH(2));
+    main.instructions.add(VMInstr.POP());
+    main.instructions.add(VMInstr.WRITE());
+    PeepholeOptimizer optimizer = new PeepholeOptimizer();
+    optimizer.optimize(main);
+    assertEquals(2, main.instructions.size());
+    assertEquals(2, optimizer.removed(PeepholeOptimizer.Rule.PUSH_POP));
+    vm.run();
+    assertEquals("1", output.toString());
+  }
+
+  @Test
+  public void pushPopKeptWhenPopIsJumpTarget() throws Exception {
+    VMFrame main = new VMFrame("main", 0);
+    main.instructions.add(VMInstr.PUSH(1));       // 0
+    main.instructions.add(VMInstr.PUSH(true));    // 1
+    main.instructions.add(VMInstr.JMPF(4));       // 2
+    main.instructions.add(VMInstr.PUSH(2));       // 3
+    main.instructions.add(VMInstr.POP());         // 4
+    new PeepholeOptimizer().optimize(main);
+    assertEquals(5, main.instructions.size());
+  }
+
+  @Test
+  public void incrementsFused() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(5));
+    main.instructions.add(VMInstr.STORE(0));
+    main.instructions.add(VMInstr.LOAD(0));
+    main.instructions.add(VMInstr.PUSH(1));
+    main.instructions.add(VMInstr.ADD());
+    main.instructions.add(VMInstr.STORE(0));
+    main.instructions.add(VMInstr.LOAD(0));
+    main.instructions.add(VMInstr.WRITE());
+    main.instructions.add(VMInstr.LOAD(0));
+    main.instructions.add(VMInstr.PUSH(1));
+    main.instructions.add(VMInstr.SUB());
+    main.instructions.add(VMInstr.STORE(0));
+    main.instructions.add(VMInstr.LOAD(0));
+    main.instructions.add(VMInstr.PUSH(1));
+    main.instructions.add(VMInstr.SUB());
+    main.instructions.add(VMInstr.STORE(0));
+    main.instructions.add(VMInstr.LOAD(0));
+    main.instructions.add(VMInstr.WRITE());
+    PeepholeOptimizer optimizer = new PeepholeOptimizer();
+    optimizer.optimize(main);
+    assertEquals(1, count(main, OpCode.INC));
+    assertEquals(2, count(main, OpCode.DEC));
+    assertEquals(9, optimizer.removed(PeepholeOptimizer.Rule.INCREMENT));
+    vm.run();
+    assertEquals("64", output.toString());
+  }
+
+  @Test
+  public void disabledRulesNotApplied() throws Exception {
+    VMFrame main = new VMFrame("main", 0);
+    main.instructions.add(VMInstr.NOP());
+    main.instructions.add(VMInstr.PUSH(2));
+    main.instructions.add(VMInstr.POP());
+    PeepholeOptimizer optimizer =
+      new PeepholeOptimizer(EnumSet.noneOf(PeepholeOptimizer.Rule.class));
+    optimizer.optimize(main);
+    assertEquals(3, main.instructions.size());
+  }
+
+  
+  //------------------------------------------------------------
+  // Generated code
+  //------------------------------------------------------------
+
+  @Test
+  public void optimizedLoops() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var s = 0",
+       "  for i from 1 upto 5 {",
+       "    var j = 0",
+       "    while j < i {",
+       "      s = s + j",
+       "      j = j + 1",
+       "    }",
+       "  }",
+       "  for k from 3 downto 1 {",
+       "    print(k)",
+       "  }",
+       "  print(s)",
+       "}");
+    VM vm = buildVM(s);
+    PeepholeOptimizer optimizer = new PeepholeOptimizer();
+    optimizer.optimize(vm);
+    for (VMFrame frame : vm.frames())
+      assertEquals(0, count(frame, OpCode.NOP));
+    assertTrue(optimizer.removed(PeepholeOptimizer.Rule.INCREMENT) > 0);
+    assertTrue(optimizer.removed(PeepholeOptimizer.Rule.PUSH_POP) > 0);
+    vm.run();
+    assertEquals("32120", output.toString());
+  }
+
+  @Test
+  public void optimizedConditionals() throws Exception {
+    String s = buildString
+      ("fun int f(int x) {",
+       "  if x < 0 {",
+       "    return 0",
+       "  }",
+       "  elif x < 10 {",
+       "    print(\"small \")",
+       "  }",
+       "  else {",
+       "    print(\"big \")",
+       "  }",
+       "  return x",
+       "}",
+       "fun void main() {",
+       "  f(neg 1)",
+       "  f(5)",
+       "  print(f(20))",
+       "}");
+    VM vm = buildVM(s);
+    new PeepholeOptimizer().optimize(vm);
+    vm.run();
+    assertEquals("small big 20", output.toString());
+  }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * File: RegisterVMTest.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Unit tests for the register machine. Programs are run both on
+ *       the VM and on the register machine (from plain, optimized, and
+ *       fused stack code) to check they behave the same (see EngineTest
+ *       for the shared tests), and the lowered code is checked.
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+
+public class RegisterVMTest extends EngineTest {
+
+  protected void run(String s) throws Throwable {
+    new RegisterVM(buildVM(s)).run();
+  }
+
+  protected String errorMessage(String error, String function) {
+    return "VM_ERROR: " + error + " (in " + function + " at ";
+  }
+
+  // run the program on the VM and then on the register machine (from
+  // the generated code, the peephole optimized code, and the fused
+  // code), checking that the output is the same
+  protected void runBoth(String s) throws Throwable {
+    super.runBoth(s);
+    String expected = output.toString();
+    output.reset();
+    VM vm = buildVM(s);
+    new PeepholeOptimizer().optimize(vm);
+    new RegisterVM(vm).run();
+    assertEquals(expected, output.toString());
+    output.reset();
+    vm = buildVM(s);
+    new InstructionFuser().fuse(vm);
+    new RegisterVM(vm).run();
+    assertEquals(expected, output.toString());
+  }
+
+  // the register code of a hand-built function
+  private static String lower(VMFrame frame) throws Exception {
+    VMFunction fun = new VMFunction(frame, java.util.Map.of("f", frame));
+    return new RegisterLowering().lower(fun).toString();
+  }
+
+
+  //------------------------------------------------------------
+  // Lowering
+  //------------------------------------------------------------
+
+  @Test
+  public void operandsAreReadFromVariables() throws Throwable {
+    // x = y + 1
+    VMFrame f = new VMFrame("f", 0);
+    f.instructions.add(VMInstr.LOAD(1));
+    f.instructions.add(VMInstr.PUSH(1));
+    f.instructions.add(VMInstr.IADD());
+    f.instructions.add(VMInstr.STORE(0));
+    f.instructions.add(VMInstr.LOAD(0));
+    f.instructions.add(VMInstr.VRET());
+    assertEquals(buildString("Function 'f'",
+                             "  0: IADD r0, r1, 1",
+                             "  1: RET r0",
+                             "  2: HALT"),
+                 lower(f));
+  }
+
+  @Test
+  public void comparisonsFuseWithJumps() throws Throwable {
+    // while x < 10 { x = x + 1 }
+    VMFrame f = new VMFrame("f", 0);
+    f.instructions.add(VMInstr.PUSH(0));
+    f.instructions.add(VMInstr.STORE(0));
+    f.instructions.add(VMInstr.LOAD(0));
+    f.instructions.add(VMInstr.PUSH(10));
+    f.instructions.add(VMInstr.ICMPLT());
+    f.instructions.add(VMInstr.JMPF(11));
+    f.instructions.add(VMInstr.LOAD(0));
+    f.instructions.add(VMInstr.PUSH(1));
+    f.instructions.add(VMInstr.IADD());
+    f.instructions.add(VMInstr.STORE(0));
+    f.instructions.add(VMInstr.JMP(2));
+    f.instructions.add(VMInstr.LOAD(0));
+    f.instructions.add(VMInstr.VRET());
+    assertEquals(buildString("Function 'f'",
+                             "  0: MOVE r0, 0",
+                             "  1: ICMPLT_JMPF r0, 10, 4",
+                             "  2: IADD r0, r0, 1",
+                             "  3: JMP 1",
+                             "  4: RET r0",
+                             "  5: HALT"),
+                 lower(f));
+  }
+
+  @Test
+  public void variablesAreCopiedBeforeTheyChange() throws Throwable {
+    // push x, then x = x + 1, then return the pushed (old) x
+    VMFrame f = new VMFrame("f", 0);
+    f.instructions.add(VMInstr.LOAD(0));
+    f.instructions.add(VMInstr.LOAD(0));
+    f.instructions.add(VMInstr.PUSH(1));
+    f.instructions.add(VMInstr.IADD());
+    f.instructions.add(VMInstr.STORE(0));
+    f.instructions.add(VMInstr.VRET());
+    assertEquals(buildString("Function 'f'",
+                             "  0: IADD t1, r0, 1",
+                             "  1: MOVE t0, r0",
+                             "  2: MOVE r0, t1",
+                             "  3: RET t0",
+                             "  4: HALT"),
+                 lower(f));
+  }
+
+  @Test
+  public void fewerInstructionsThanTheVM() throws Throwable {
+    String s = buildString
+      ("fun int fib(int n) {",
+       "  if n < 2 {",
+       "    return n",
+       "  }",
+       "  return fib(n - 1) + fib(n - 2)",
+       "}",
+       "fun void main() {",
+       "  var s = 0",
+       "  for i from 1 upto 100 {",
+       "    s = s + (i % 7)",
+       "  }",
+       "  print(fib(15) + s)",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    RegisterVM registers = new RegisterVM(buildVM(s));
+    registers.run();
+    assertEquals("907907", output.toString());
+    assertTrue(2 * registers.instructionCount() < vm.instructionCount());
+  }
+
+
+  //------------------------------------------------------------
+  // Runtime errors
+  //------------------------------------------------------------
+
+  @Test
+  public void errorsShowTheRegisterInstruction() throws Throwable {
+    String s = buildString
+      ("fun int f(int x) {",
+       "  return x + 1",
+       "}",
+       "fun void main() {",
+       "  print(f(nil))",
+       "}");
+    assertEquals("VM_ERROR: Nil reference (in f at 1: IADD t0, r0, 1)",
+                 engineError(s));
+    s = buildString
+      ("fun void main() {",
+       "  print(get(3, \"abc\"))",
+       "}");
+    assertEquals("VM_ERROR: invalid index 3 for string abc " +
+                 "(in main at 0: GETCHR t0, 3, \"abc\")", engineError(s));
+  }
+
+}
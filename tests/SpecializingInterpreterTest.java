@@ -0,0 +1,208 @@
+/*
+ * File: SpecializingInterpreterTest.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Unit tests for the specializing interpreter. Programs are run
+ *       both on the VM and on the interpreter to check they behave the
+ *       same (see EngineTest for the shared tests), and the node
+ *       rewrites are checked.
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+
+public class SpecializingInterpreterTest extends EngineTest {
+
+  // the interpreter of the last program run
+  private SpecializingInterpreter interpreter = null;
+
+  protected void run(String s) throws Throwable {
+    Program program = check(s, new TypeInfo());
+    interpreter = new SpecializingInterpreter();
+    program.accept(interpreter);
+    interpreter.run();
+  }
+
+  protected String errorMessage(String error, String function) {
+    return "VM_ERROR: " + error + " (in " + function + ")";
+  }
+
+
+  //------------------------------------------------------------
+  // Shared tests with rewrite checks
+  //------------------------------------------------------------
+
+  @Test
+  public void intArithmeticAndLoops() throws Throwable {
+    super.intArithmeticAndLoops();
+    assertTrue(interpreter.specializations() > 0);
+    assertEquals(0, interpreter.deoptimizations());
+  }
+
+  @Test
+  public void records() throws Throwable {
+    super.records();
+    // (the field accesses stay cached)
+    assertEquals(0, interpreter.deoptimizations());
+  }
+
+
+  //------------------------------------------------------------
+  // Specializing and deoptimizing
+  //------------------------------------------------------------
+
+  @Test
+  public void recursionRewritesNodesStillRunning() throws Throwable {
+    // the recursive call specializes the outer adds (and the store)
+    // before the outer call gets to them, so the outer call mustn't
+    // rewrite them again
+    String s = buildString
+      ("fun int f(int n) {",
+       "  if n == 0 {",
+       "    return 0",
+       "  }",
+       "  return (f(n - 1) + 0) + 1",
+       "}",
+       "fun int g(int n) {",
+       "  if n == 0 {",
+       "    return 0",
+       "  }",
+       "  var x = (g(n - 1) * 1) + 1",
+       "  return x",
+       "}",
+       "fun void main() {",
+       "  print(f(3))",
+       "  print(\" \")",
+       "  print(f(4))",
+       "  print(\" \")",
+       "  print(g(N))",
+       "}");
+    runBoth(s.replace("N", "5"));
+    assertEquals("3 4 5", output.toString());
+    int shallow = interpreter.specializations();
+    output.reset();
+    runBoth(s.replace("N", "1000"));
+    assertEquals("3 4 1000", output.toString());
+    assertEquals(shallow, interpreter.specializations());
+  }
+
+  @Test
+  public void nodesSpecializeOnce() throws Throwable {
+    // the same nodes specialize however many times they run
+    String s = buildString
+      ("fun void main() {",
+       "  var s = 0",
+       "  var str = \"\"",
+       "  for i from 1 upto N {",
+       "    s = s + (i * 2)",
+       "    if (i % 2) == 0 {",
+       "      str = str + \"x\"",
+       "    }",
+       "  }",
+       "  print(s)",
+       "}");
+    runBoth(s.replace("N", "2"));
+    int once = interpreter.specializations();
+    assertTrue(once > 0);
+    output.reset();
+    runBoth(s.replace("N", "1000"));
+    assertEquals(once, interpreter.specializations());
+    assertEquals(0, interpreter.deoptimizations());
+  }
+
+  @Test
+  public void nilDeoptimizes() throws Throwable {
+    // z is first stored (and compared) as an int and then as nil
+    String s = buildString
+      ("fun bool same(int x, int y) {",
+       "  var z = x",
+       "  return z == y",
+       "}",
+       "fun void main() {",
+       "  print(same(1, 1))",
+       "  print(same(2, 3))",
+       "  print(same(nil, 1))",
+       "  print(same(nil, nil))",
+       "  print(same(4, 4))",
+       "}");
+    runBoth(s);
+    assertEquals("truefalsefalsetruetrue", output.toString());
+    assertEquals(2, interpreter.deoptimizations());
+  }
+
+  @Test
+  public void deoptimizedNodesKeepWorking() throws Throwable {
+    // r is stored as an int until the first nil (and then the store
+    // stays generic)
+    String s = buildString
+      ("fun int add(int x, int y) {",
+       "  if (x == nil) or (y == nil) {",
+       "    return nil",
+       "  }",
+       "  return x + y",
+       "}",
+       "fun int orZero(int x) {",
+       "  if x == nil {",
+       "    return 0",
+       "  }",
+       "  return x",
+       "}",
+       "fun void main() {",
+       "  var s = 0",
+       "  for i from 1 upto 10 {",
+       "    var int x = i",
+       "    if (i % 3) == 0 {",
+       "      x = nil",
+       "    }",
+       "    var r = add(x, i)",
+       "    s = s + orZero(r)",
+       "  }",
+       "  print(s)",
+       "}");
+    runBoth(s);
+    assertEquals("74", output.toString());
+    assertEquals(1, interpreter.deoptimizations());
+  }
+
+
+  //------------------------------------------------------------
+  // Runtime errors in specialized nodes
+  //------------------------------------------------------------
+
+  @Test
+  public void nilReferenceAfterSpecializing() throws Throwable {
+    // (the add is specialized to ints before the nil)
+    String s = buildString
+      ("fun int f(int x) {",
+       "  return x + 1",
+       "}",
+       "fun void main() {",
+       "  print(f(1))",
+       "  print(f(nil))",
+       "}");
+    assertError(s, "Nil reference", "f");
+  }
+
+  @Test
+  public void deletedRecordAfterCaching() throws Throwable {
+    // (the field read is cached before the record is deleted)
+    String s = buildString
+      ("type T {",
+       "  var int x = 0",
+       "}",
+       "fun int value(T t) {",
+       "  return t.x",
+       "}",
+       "fun void main() {",
+       "  var T t = new T",
+       "  print(value(t))",
+       "  delete t",
+       "  print(value(t))",
+       "}");
+    assertError(s, "invalid heap access", "value");
+  }
+
+}
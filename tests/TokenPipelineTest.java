@@ -0,0 +1,137 @@
+/*
+ * File: TokenPipelineTest.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Unit tests for lexing on another thread while parsing.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+
+public class TokenPipelineTest {
+
+  //------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //------------------------------------------------------------
+
+  private static Lexer buildLexer(String s) throws Exception {
+    InputStream in = new ByteArrayInputStream(s.getBytes("UTF-8"));
+    return new Lexer(in);
+  }
+
+  // the program parsed from the lexer or (if pipelined) through a
+  // pipeline with a small ring, pretty printed
+  private static String parse(String s, boolean pipelined)
+    throws Exception
+  {
+    Lexer lexer = buildLexer(s);
+    ASTParser parser = pipelined ? new ASTParser(new TokenPipeline(lexer, 8))
+                                 : new ASTParser(lexer);
+    Program program = parser.parse();
+    // (the print visitor writes to standard output)
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PrintStream stdout = System.out;
+    System.setOut(new PrintStream(out));
+    try {
+      program.accept(new PrintVisitor(System.out));
+    }
+    finally {
+      System.setOut(stdout);
+    }
+    return out.toString();
+  }
+
+  // the error message from parsing the lexer or the pipeline
+  private static String parseError(String s, boolean pipelined)
+    throws Exception
+  {
+    try {
+      parse(s, pipelined);
+      fail("no error reported");
+    }
+    catch(MyPLException e) {
+      return e.getMessage();
+    }
+    return null;
+  }
+
+  // a program of the given number of functions
+  private static String program(int functions) {
+    String s = "";
+    for (int i = 0; i < functions; ++i) {
+      s += "fun int f" + i + "(int x) {\n" +
+        "  var y = x * " + i + " + 2.5\n" +
+        "  while y > 0 { y = y - 1 }\n" +
+        "  return \"done\"\n" +
+        "}\n";
+    }
+    return s;
+  }
+
+  //------------------------------------------------------------
+  // TEST CASES
+  //------------------------------------------------------------
+
+  @Test(timeout = 10000)
+  public void sameTokensAsTheLexer() throws Exception {
+    // (many more tokens than the ring holds)
+    String s = program(200);
+    TokenPipeline pipeline = new TokenPipeline(buildLexer(s), 8);
+    Lexer lexer = buildLexer(s);
+    Token t;
+    do {
+      t = lexer.nextToken();
+      assertEquals(t.toString(), pipeline.nextToken().toString());
+    } while (t.type() != TokenType.EOS);
+    // the end-of-file token is repeated
+    assertEquals(TokenType.EOS, pipeline.nextToken().type());
+  }
+
+  @Test(timeout = 10000)
+  public void sameProgramAsTheLexer() throws Exception {
+    String s = program(200);
+    assertEquals(parse(s, false), parse(s, true));
+  }
+
+  @Test(timeout = 10000)
+  public void lexerErrorsAreReportedWhenReached() throws Exception {
+    String s = program(100) + "fun void main() {\n  var y = 01\n}\n";
+    String m = "LEXER_ERROR: leading zero in '01' at line 502, column 11";
+    assertEquals(m, parseError(s, false));
+    assertEquals(m, parseError(s, true));
+  }
+
+  @Test(timeout = 10000)
+  public void lexerErrorsAreRepeated() throws Exception {
+    TokenPipeline pipeline = new TokenPipeline(buildLexer("x y ?"), 8);
+    assertEquals("x", pipeline.nextToken().lexeme());
+    assertEquals("y", pipeline.nextToken().lexeme());
+    for (int i = 0; i < 2; ++i) {
+      try {
+        pipeline.nextToken();
+        fail("no error reported");
+      }
+      catch(MyPLException e) {
+        String m = "LEXER_ERROR: invalid symbol '?' at line 1, column 5";
+        assertEquals(m, e.getMessage());
+      }
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void earlierParseErrorsComeFirst() throws Exception {
+    // (the parse error comes long before the lexer error, so the lexer
+    // is left waiting on a full ring when the parser fails)
+    String s = "fun void main( {\n}\n" + program(100) + "var y = 01\n";
+    String m = parseError(s, false);
+    assertEquals(m, parseError(s, true));
+    assertEquals("PARSE_ERROR: ", m.substring(0, 13));
+  }
+
+}
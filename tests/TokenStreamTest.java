@@ -0,0 +1,151 @@
+/*
+ * File: TokenStreamTest.java
+ * Date: Spring 2022
+ * Auth: Sami Blevens
+ * Desc: Unit tests for lexing into a columnar token stream and parsing
+ *       from it.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+
+public class TokenStreamTest {
+
+  //------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //------------------------------------------------------------
+
+  private static Lexer buildLexer(String s) throws Exception {
+    InputStream in = new ByteArrayInputStream(s.getBytes("UTF-8"));
+    return new Lexer(in);
+  }
+
+  // the program parsed from the lexer or (if columnar) from its token
+  // stream, pretty printed
+  private static String parse(String s, boolean columnar) throws Exception {
+    Lexer lexer = buildLexer(s);
+    ASTParser parser = columnar ? new ASTParser(lexer.tokenize())
+                                : new ASTParser(lexer);
+    Program program = parser.parse();
+    // (the print visitor writes to standard output)
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PrintStream stdout = System.out;
+    System.setOut(new PrintStream(out));
+    try {
+      program.accept(new PrintVisitor(System.out));
+    }
+    finally {
+      System.setOut(stdout);
+    }
+    return out.toString();
+  }
+
+  // the error message from parsing the lexer or its token stream
+  private static String parseError(String s, boolean columnar)
+    throws Exception
+  {
+    try {
+      parse(s, columnar);
+      fail("no error reported");
+    }
+    catch(MyPLException e) {
+      return e.getMessage();
+    }
+    return null;
+  }
+
+  private static final String PROGRAM =
+    "type Node {\n" +
+    "  var int val = 0\n" +
+    "  var Node next = nil\n" +
+    "}\n" +
+    "# sum the list\n" +
+    "fun int sum(Node head) {\n" +
+    "  var total = 0\n" +
+    "  while head != nil {\n" +
+    "    total = total + head.val\n" +
+    "    head = head.next\n" +
+    "  }\n" +
+    "  return total\n" +
+    "}\n" +
+    "fun void main() {\n" +
+    "  var n = new Node\n" +
+    "  n.val = 42\n" +
+    "  for i from 1 upto 3 { print(itos(i) + \" \" + itos(sum(n))) }\n" +
+    "  if 2.5 > 1.0 and not false { print(\"x\\n\") } else { delete n }\n" +
+    "}\n";
+
+  //------------------------------------------------------------
+  // TEST CASES
+  //------------------------------------------------------------
+
+  @Test
+  public void sameTokensAsTheLexer() throws Exception {
+    TokenStream tokens = buildLexer(PROGRAM).tokenize();
+    Lexer lexer = buildLexer(PROGRAM);
+    for (int i = 0; i < tokens.size(); ++i) {
+      Token t = lexer.nextToken();
+      assertEquals(t.type(), tokens.type(i));
+      assertEquals(t.lexeme(), tokens.lexeme(i));
+      assertEquals(t.line(), tokens.line(i));
+      assertEquals(t.column(), tokens.column(i));
+      assertEquals(t.toString(), tokens.token(i).toString());
+    }
+    assertEquals(TokenType.EOS, tokens.type(tokens.size() - 1));
+    assertNull(tokens.error());
+  }
+
+  @Test
+  public void repeatedLexemesAreStoredOnce() throws Exception {
+    TokenStream tokens = buildLexer("x = y + x * y + 1 + 1").tokenize();
+    assertEquals(12, tokens.size());
+    // x, =, y, +, *, 1, and end-of-file
+    assertEquals(7, tokens.lexemeCount());
+    assertEquals(tokens.lexemeIndex(0), tokens.lexemeIndex(4));
+    assertEquals(tokens.lexemeIndex(2), tokens.lexemeIndex(6));
+    assertNotEquals(tokens.lexemeIndex(0), tokens.lexemeIndex(2));
+    assertSame(tokens.lexeme(0), tokens.lexeme(4));
+  }
+
+  @Test
+  public void repeatedIdentifiersShareOneString() throws Exception {
+    Lexer lexer = buildLexer("count count_2 count");
+    Token first = lexer.nextToken();
+    lexer.nextToken();
+    assertSame(first.lexeme(), lexer.nextToken().lexeme());
+  }
+
+  @Test
+  public void sameProgramAsTheLexer() throws Exception {
+    String program = parse(PROGRAM, false);
+    assertEquals("type Node {", program.substring(0, 11));
+    assertEquals(program, parse(PROGRAM, true));
+  }
+
+  @Test
+  public void lexerErrorsAreReportedWhenReached() throws Exception {
+    String s = "fun void main() {\n  var x = 1\n  var y = 01\n}\n";
+    String m = "LEXER_ERROR: leading zero in '01' at line 3, column 11";
+    assertEquals(m, parseError(s, false));
+    assertEquals(m, parseError(s, true));
+  }
+
+  @Test
+  public void earlierParseErrorsComeFirst() throws Exception {
+    // (the parse error comes before the lexer error)
+    String s = "fun void main( {\n  var x = 1\n  var y = 01\n}\n";
+    String m = parseError(s, false);
+    assertEquals(m, parseError(s, true));
+    assertEquals("PARSE_ERROR: ", m.substring(0, 13));
+  }
+
+}
@@ -613,6 +613,23 @@ public class VMTest {
     assertEquals("true", output.toString());
   }
 
+  @Test
+  public void cmpeqBoolTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(true));
+    main.instructions.add(VMInstr.PUSH(true));
+    main.instructions.add(VMInstr.CMPEQ());
+    main.instructions.add(VMInstr.WRITE());
+    main.instructions.add(VMInstr.PUSH(true));
+    main.instructions.add(VMInstr.PUSH(false));
+    main.instructions.add(VMInstr.CMPEQ());
+    main.instructions.add(VMInstr.WRITE());
+    vm.run();
+    assertEquals("truefalse", output.toString());
+  }
+
   // cmpne
   @Test
   public void cmpneIntTest() throws Exception {
@@ -720,6 +737,110 @@ public class VMTest {
   }
 
   
+  @Test
+  public void largeIntArithmeticTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(2147483647));
+    main.instructions.add(VMInstr.PUSH(1));
+    main.instructions.add(VMInstr.ADD());
+    main.instructions.add(VMInstr.WRITE());
+    main.instructions.add(VMInstr.PUSH(" "));
+    main.instructions.add(VMInstr.WRITE());
+    main.instructions.add(VMInstr.PUSH(100000));
+    main.instructions.add(VMInstr.PUSH(1000));
+    main.instructions.add(VMInstr.MUL());
+    main.instructions.add(VMInstr.WRITE());
+    vm.run();
+    assertEquals("-2147483648 100000000", output.toString());
+  }
+
+  @Test
+  public void typedIntOpsTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(7));
+    main.instructions.add(VMInstr.PUSH(3));
+    main.instructions.add(VMInstr.IADD());
+    main.instructions.add(VMInstr.PUSH(4));
+    main.instructions.add(VMInstr.IMUL());
+    main.instructions.add(VMInstr.PUSH(6));
+    main.instructions.add(VMInstr.ISUB());
+    main.instructions.add(VMInstr.PUSH(3));
+    main.instructions.add(VMInstr.IDIV());
+    main.instructions.add(VMInstr.INEG());
+    main.instructions.add(VMInstr.WRITE());
+    main.instructions.add(VMInstr.PUSH(2));
+    main.instructions.add(VMInstr.PUSH(3));
+    main.instructions.add(VMInstr.ICMPLT());
+    main.instructions.add(VMInstr.WRITE());
+    main.instructions.add(VMInstr.PUSH(true));
+    main.instructions.add(VMInstr.PUSH(false));
+    main.instructions.add(VMInstr.ICMPEQ());
+    main.instructions.add(VMInstr.WRITE());
+    vm.run();
+    assertEquals("-11truefalse", output.toString());
+  }
+
+  @Test
+  public void typedDoubleOpsTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(1.5));
+    main.instructions.add(VMInstr.PUSH(2.5));
+    main.instructions.add(VMInstr.DADD());
+    main.instructions.add(VMInstr.PUSH(2.0));
+    main.instructions.add(VMInstr.DDIV());
+    main.instructions.add(VMInstr.DNEG());
+    main.instructions.add(VMInstr.WRITE());
+    main.instructions.add(VMInstr.PUSH(2.5));
+    main.instructions.add(VMInstr.PUSH(2.5));
+    main.instructions.add(VMInstr.DCMPGE());
+    main.instructions.add(VMInstr.WRITE());
+    vm.run();
+    assertEquals("-2.0true", output.toString());
+  }
+
+  @Test
+  public void typedStringOpsTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH("ab"));
+    main.instructions.add(VMInstr.PUSH("c"));
+    main.instructions.add(VMInstr.SCONCAT());
+    main.instructions.add(VMInstr.DUP());
+    main.instructions.add(VMInstr.WRITE());
+    main.instructions.add(VMInstr.PUSH("abd"));
+    main.instructions.add(VMInstr.SCMPLT());
+    main.instructions.add(VMInstr.WRITE());
+    main.instructions.add(VMInstr.PUSH("x"));
+    main.instructions.add(VMInstr.PUSH("x"));
+    main.instructions.add(VMInstr.SCMPNE());
+    main.instructions.add(VMInstr.WRITE());
+    vm.run();
+    assertEquals("abctruefalse", output.toString());
+  }
+
+  @Test
+  public void typedOpNilOperandTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(3));
+    main.instructions.add(VMInstr.PUSH(VM.NIL_OBJ));
+    main.instructions.add(VMInstr.IADD());
+    try {
+      vm.run();
+      fail("no error reported");
+    } catch(MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("VM_ERROR: "));
+    }
+  }
+
   //------------------------------------------------------------
   // Jumps
   //------------------------------------------------------------
@@ -1152,5 +1273,204 @@ public class VMTest {
     }
   }
 
-  
+  @Test
+  public void setAndGetFieldOffsetsTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    List<String> fields = new ArrayList<>();
+    fields.add("x");
+    fields.add("y");    
+    main.instructions.add(VMInstr.ALLOC(fields));
+    main.instructions.add(VMInstr.DUP());
+    main.instructions.add(VMInstr.PUSH(4));
+    main.instructions.add(VMInstr.SETFLD(1));
+    main.instructions.add(VMInstr.DUP());
+    main.instructions.add(VMInstr.PUSH(2.5));    
+    main.instructions.add(VMInstr.SETFLD(0));
+    main.instructions.add(VMInstr.DUP());
+    main.instructions.add(VMInstr.GETFLD("y"));
+    main.instructions.add(VMInstr.WRITE());
+    main.instructions.add(VMInstr.GETFLD(0));
+    main.instructions.add(VMInstr.WRITE());
+    vm.run();
+    assertEquals("42.5", output.toString());
+  }
+
+  @Test
+  public void unknownFieldNameTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    List<String> fields = new ArrayList<>();
+    fields.add("x");
+    main.instructions.add(VMInstr.ALLOC(fields));
+    main.instructions.add(VMInstr.GETFLD("y"));
+    try {
+      vm.run();
+      fail("no error reported in GETFLD");
+    }
+    catch(MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("VM_ERROR:"));
+    }
+  }
+
+  @Test
+  public void recordEqualityTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    List<String> fields = new ArrayList<>();
+    fields.add("x");
+    main.instructions.add(VMInstr.ALLOC(fields));
+    main.instructions.add(VMInstr.DUP());
+    main.instructions.add(VMInstr.CMPEQ());
+    main.instructions.add(VMInstr.WRITE());
+    main.instructions.add(VMInstr.ALLOC(fields));
+    main.instructions.add(VMInstr.ALLOC(fields));
+    main.instructions.add(VMInstr.CMPEQ());
+    main.instructions.add(VMInstr.WRITE());
+    main.instructions.add(VMInstr.ALLOC(fields));
+    main.instructions.add(VMInstr.PUSH(VM.NIL_OBJ));
+    main.instructions.add(VMInstr.CMPNE());
+    main.instructions.add(VMInstr.WRITE());
+    vm.run();
+    assertEquals("truefalsetrue", output.toString());
+  }
+
+  @Test
+  public void setFieldAfterFreeTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    List<String> fields = new ArrayList<>();
+    fields.add("x");
+    main.instructions.add(VMInstr.ALLOC(fields));
+    main.instructions.add(VMInstr.DUP());
+    main.instructions.add(VMInstr.FREE());
+    main.instructions.add(VMInstr.PUSH(1));
+    main.instructions.add(VMInstr.SETFLD(0));
+    try {
+      vm.run();
+      fail("no error reported in SETFLD");
+    }
+    catch(MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("VM_ERROR:"));
+    }
+  }
+
+  @Test
+  public void garbageCollectionTest() throws Exception {
+    VM vm = new VM();
+    vm.setGCThreshold(10);
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    List<String> fields = new ArrayList<>();
+    fields.add("x");
+    main.instructions.add(VMInstr.ALLOC(fields));   // 0
+    main.instructions.add(VMInstr.DUP());           // 1
+    main.instructions.add(VMInstr.PUSH(42));        // 2
+    main.instructions.add(VMInstr.SETFLD(0));       // 3
+    main.instructions.add(VMInstr.STORE(0));        // 4
+    main.instructions.add(VMInstr.PUSH(0));         // 5
+    main.instructions.add(VMInstr.STORE(1));        // 6
+    main.instructions.add(VMInstr.LOAD(1));         // 7
+    main.instructions.add(VMInstr.PUSH(100));       // 8
+    main.instructions.add(VMInstr.CMPLT());         // 9
+    main.instructions.add(VMInstr.JMPF(19));        // 10
+    main.instructions.add(VMInstr.ALLOC(fields));   // 11
+    main.instructions.add(VMInstr.POP());           // 12
+    main.instructions.add(VMInstr.LOAD(1));         // 13
+    main.instructions.add(VMInstr.PUSH(1));         // 14
+    main.instructions.add(VMInstr.ADD());           // 15
+    main.instructions.add(VMInstr.STORE(1));        // 16
+    main.instructions.add(VMInstr.JMP(7));          // 17
+    main.instructions.add(VMInstr.NOP());           // 18
+    main.instructions.add(VMInstr.LOAD(0));         // 19
+    main.instructions.add(VMInstr.GETFLD(0));       // 20
+    main.instructions.add(VMInstr.WRITE());         // 21
+    vm.run();
+    assertEquals("42", output.toString());
+    // every 10th allocation in the loop collects the garbage since
+    // the previous collection
+    assertTrue(vm.gcStats().startsWith("GC: 10 collections, 99 objects reclaimed"));
+  }
+
+
+  //------------------------------------------------------------
+  // Load-time checks
+  //------------------------------------------------------------
+
+  @Test
+  public void stackUnderflowRejectedTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH("blue"));
+    main.instructions.add(VMInstr.WRITE());
+    main.instructions.add(VMInstr.POP());
+    try {
+      vm.run();
+      fail("no error reported for stack underflow");
+    }
+    catch(MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("VM_ERROR:"));
+    }
+    // rejected before running any instructions
+    assertEquals("", output.toString());
+  }
+
+  @Test
+  public void inconsistentLoopStackRejectedTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(true));    // 0
+    main.instructions.add(VMInstr.JMPF(4));       // 1
+    main.instructions.add(VMInstr.PUSH("blue"));  // 2 (never popped)
+    main.instructions.add(VMInstr.JMP(0));        // 3
+    main.instructions.add(VMInstr.NOP());         // 4
+    try {
+      vm.run();
+      fail("no error reported for inconsistent stack height");
+    }
+    catch(MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("VM_ERROR:"));
+    }
+  }
+
+  @Test
+  public void badJumpTargetRejectedTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.JMP(5));
+    main.instructions.add(VMInstr.NOP());
+    try {
+      vm.run();
+      fail("no error reported for jump out of function");
+    }
+    catch(MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("VM_ERROR:"));
+    }
+  }
+
+  @Test
+  public void unknownFunctionRejectedTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH("blue"));
+    main.instructions.add(VMInstr.WRITE());
+    main.instructions.add(VMInstr.CALL("f"));
+    try {
+      vm.run();
+      fail("no error reported for unknown function");
+    }
+    catch(MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("VM_ERROR:"));
+    }
+    assertEquals("", output.toString());
+  }
+
 }